@@ -0,0 +1,127 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import androidx.annotation.OptIn
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.util.UnstableApi
+import androidx.test.annotation.UiThreadTest
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures what the SDK's player listeners cost per callback, on the player's thread. Each
+ * benchmark calls the listeners that the SDK added to a [BenchmarkPlayer] the way ExoPlayer would
+ */
+@OptIn(UnstableApi::class)
+@RunWith(AndroidJUnit4::class)
+class AnalyticsListenerBenchmark {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private lateinit var player: BenchmarkPlayer
+  private lateinit var muxStats: MuxStatsSdkMedia3<*>
+
+  @Before
+  fun setUp() {
+    player = BenchmarkPlayer()
+    muxStats = monitor(InstrumentationRegistry.getInstrumentation().targetContext, player)
+  }
+
+  @After
+  fun tearDown() {
+    muxStats.release()
+  }
+
+  @Test
+  @UiThreadTest
+  fun playbackStateChanged() {
+    val eventTime = eventTimeOf(Timeline.EMPTY)
+    var ready = false
+    benchmarkRule.measureRepeated {
+      // Rebuffering and recovering, over and over
+      ready = !ready
+      val state = if (ready) Player.STATE_READY else Player.STATE_BUFFERING
+      player.playbackStateValue = state
+      player.dispatch { it.onPlaybackStateChanged(eventTime, state) }
+    }
+  }
+
+  @Test
+  @UiThreadTest
+  fun tracksChanged() {
+    val eventTime = eventTimeOf(Timeline.EMPTY)
+    // Two equal ladders, so every call has a new Tracks, as after a period transition
+    val tracks = arrayOf(tracksOf(renditionLadder(20)), tracksOf(renditionLadder(20)))
+    var i = 0
+    benchmarkRule.measureRepeated {
+      val next = tracks[i++ and 1]
+      player.dispatch { it.onTracksChanged(eventTime, next) }
+    }
+  }
+
+  @Test
+  @UiThreadTest
+  fun segmentLoadStartedAndCompleted() {
+    val ladder = renditionLadder(20)
+    val headers = responseHeaders(40)
+    val eventTime = eventTimeOf(Timeline.EMPTY)
+    player.dispatch { it.onTracksChanged(eventTime, tracksOf(ladder)) }
+
+    // Made ahead of time, so only the SDK's work is measured
+    val loads = Array(LOAD_COUNT) { i ->
+      SegmentLoad(i.toLong(), ladder[i % ladder.size], headers, i * SEGMENT_DURATION_MS)
+    }
+    var i = 0
+    benchmarkRule.measureRepeated {
+      val load = loads[i++ % LOAD_COUNT]
+      @Suppress("DEPRECATION") // The SDK implements the versions without a retry count
+      player.dispatch {
+        it.onLoadStarted(eventTime, load.started, load.mediaLoadData)
+        it.onLoadCompleted(eventTime, load.completed, load.mediaLoadData)
+      }
+    }
+  }
+
+  @Test
+  @UiThreadTest
+  fun liveTimelineChangedSamePlaylist() {
+    // 2 hours of DVR window. Refreshes that don't change the playlist should be cheap
+    val timeline = liveTimelineOf(liveMediaPlaylist(segments = 3_600, mediaSequence = 0))
+    val eventTime = eventTimeOf(timeline)
+    player.timeline = timeline
+    benchmarkRule.measureRepeated {
+      player.dispatch {
+        it.onTimelineChanged(eventTime, Player.TIMELINE_CHANGE_REASON_SOURCE_UPDATE)
+      }
+    }
+  }
+
+  @Test
+  @UiThreadTest
+  fun liveTimelineChangedNewPlaylist() {
+    // 2 hours of DVR window, where every refresh brings a new playlist, as in a real live stream
+    val eventTimes = Array(2) { i ->
+      eventTimeOf(liveTimelineOf(liveMediaPlaylist(segments = 3_600, mediaSequence = i.toLong())))
+    }
+    var i = 0
+    benchmarkRule.measureRepeated {
+      val eventTime = eventTimes[i++ and 1]
+      player.dispatch {
+        it.onTimelineChanged(eventTime, Player.TIMELINE_CHANGE_REASON_SOURCE_UPDATE)
+      }
+    }
+  }
+
+  companion object {
+    private const val LOAD_COUNT = 256
+  }
+}
@@ -0,0 +1,117 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import android.util.Log
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.mux.stats.sdk.muxstats.BeaconEncoderRunner
+import com.mux.stats.sdk.muxstats.BeaconEncoding
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures what each compressed beacon encoding costs per beacon batch, over the batches of a
+ * typical HLS view. The bytes on the wire for the whole view are logged, since the benchmark rule
+ * only reports time
+ */
+@RunWith(AndroidJUnit4::class)
+class BeaconEncoderBenchmark {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Test
+  fun gzipTypicalHlsView() {
+    encodeTypicalHlsView(BeaconEncoding.GZIP)
+  }
+
+  @Test
+  fun deflateTypicalHlsView() {
+    encodeTypicalHlsView(BeaconEncoding.DEFLATE)
+  }
+
+  @Test
+  fun deflateWithDictionaryTypicalHlsView() {
+    encodeTypicalHlsView(BeaconEncoding.DEFLATE_WITH_DICTIONARY)
+  }
+
+  private fun encodeTypicalHlsView(encoding: BeaconEncoding) {
+    val batches = typicalHlsView()
+    val encoder = BeaconEncoderRunner(encoding)
+
+    var plainBytes = 0L
+    var encodedBytes = 0L
+    batches.forEach {
+      plainBytes += it.toByteArray(Charsets.UTF_8).size
+      encodedBytes += encoder.encode(it)
+    }
+    Log.i(TAG, "Typical HLS view: $plainBytes bytes plain, $encodedBytes bytes as $encoding")
+
+    var i = 0
+    benchmarkRule.measureRepeated {
+      encoder.encode(batches[i++ % batches.size])
+    }
+    encoder.release()
+  }
+
+  /**
+   * Batches of beacons like those sent during a few minutes of HLS playback: one with view and
+   * player metadata, then batches of segment requests, heartbeats and rendition changes
+   */
+  private fun typicalHlsView(): List<String> {
+    val batches = ArrayList<String>()
+    batches += batch(
+      listOf(
+        event(
+          "viewstart", 0,
+          "\"mpn\":\"mux-media3\",\"mpv\":\"1.9.0\",\"pnm\":\"media3-generic\",\"pve\":\"1.8.0\"," +
+              "\"vsour\":\"https://stream.example.com/v/abc123/main.m3u8\"," +
+              "\"vsoty\":\"application/x-mpegURL\",\"vtt\":\"Big Buck Bunny\"," +
+              "\"uosfm\":\"android\",\"uosve\":\"14\",\"dmo\":\"Pixel 8\",\"dma\":\"Google\""
+        ),
+        event("play", 12),
+        event(
+          "requestcompleted", 40,
+          "\"qty\":\"manifest\",\"qhn\":\"stream.example.com\",\"qbyld\":\"1843\""
+        ),
+        event("playing", 510),
+      )
+    )
+    var timeMs = 1_000L
+    repeat(30) { batchIndex ->
+      val events = ArrayList<String>()
+      repeat(4) { segment ->
+        timeMs += 1_500
+        val segmentUrl = "https://cdn.example.com/v/abc123/720p_${batchIndex * 4 + segment}.ts"
+        events += event(
+          "requestcompleted", timeMs,
+          "\"qty\":\"media\",\"qhn\":\"cdn.example.com\"," +
+              "\"qbyld\":\"${700_000 + segment * 997}\",\"qrpst\":\"${timeMs - 300}\"," +
+              "\"qrpen\":\"$timeMs\",\"qmedu\":\"6000\",\"qurl\":\"$segmentUrl\""
+        )
+      }
+      events += event("hb", timeMs + 100)
+      if (batchIndex % 10 == 9) {
+        events += event("renditionchange", timeMs + 200, "\"vsowd\":\"1280\",\"vsoht\":\"720\"")
+      }
+      batches += batch(events)
+    }
+    batches += batch(listOf(event("pause", timeMs + 5_000), event("viewend", timeMs + 6_000)))
+    return batches
+  }
+
+  private fun event(name: String, viewerTimeMs: Long, extra: String = ""): String {
+    val base = "\"e\":\"$name\",\"uti\":${1_700_000_000_000 + viewerTimeMs}," +
+        "\"xid\":\"1f3e5a7c-9b2d-4e6f-8a1c-3b5d7f9e1a2c\",\"psqno\":$viewerTimeMs"
+    return if (extra.isEmpty()) "{$base}" else "{$base,$extra}"
+  }
+
+  private fun batch(events: List<String>): String =
+    "{\"metadata\":{\"mux_api_version\":\"2.1\",\"transmission_timestamp\":1700000000000}," +
+        "\"events\":[${events.joinToString(",")}]}"
+
+  companion object {
+    private const val TAG = "BeaconEncoderBenchmark"
+  }
+}
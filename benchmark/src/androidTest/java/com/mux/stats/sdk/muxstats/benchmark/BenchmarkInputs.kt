@@ -0,0 +1,250 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import android.content.Context
+import android.net.Uri
+import android.os.Handler
+import android.os.HandlerThread
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.Timeline
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.ByteArrayDataSource
+import androidx.media3.datasource.DataSource
+import androidx.media3.datasource.DataSpec
+import androidx.media3.exoplayer.ExoPlayer
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.analytics.PlayerId
+import androidx.media3.exoplayer.hls.HlsMediaSource
+import androidx.media3.exoplayer.source.LoadEventInfo
+import androidx.media3.exoplayer.source.MediaLoadData
+import androidx.media3.exoplayer.source.MediaSource
+import com.mux.stats.sdk.core.model.CustomerData
+import com.mux.stats.sdk.core.model.CustomerPlayerData
+import com.mux.stats.sdk.core.model.CustomerVideoData
+import com.mux.stats.sdk.core.model.CustomerViewData
+import com.mux.stats.sdk.muxstats.ExoPlayerBinding
+import com.mux.stats.sdk.muxstats.IDevice
+import com.mux.stats.sdk.muxstats.INetworkRequest
+import com.mux.stats.sdk.muxstats.MuxDataSdk
+import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import org.json.JSONObject
+import java.net.URL
+import java.text.SimpleDateFormat
+import java.util.Hashtable
+import java.util.Locale
+import java.util.TimeZone
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/*
+ * BenchmarkInputs.kt: Realistic inputs for the SDK's callbacks, created before measuring starts
+ */
+
+const val SEGMENT_HOST = "cdn.example.com"
+const val SEGMENT_DURATION_MS = 2_000L
+
+/**
+ * Monitors a [BenchmarkPlayer] with an SDK that doesn't send anything over the network
+ */
+fun monitor(
+  context: Context,
+  player: BenchmarkPlayer,
+  device: IDevice? = null,
+  logLevel: MuxDataSdk.LogcatLevel = MuxDataSdk.LogcatLevel.NONE,
+): MuxStatsSdkMedia3<ExoPlayer> {
+  return MuxStatsSdkMedia3(
+    context = context,
+    envKey = "benchmark",
+    customerData = CustomerData(
+      CustomerPlayerData(),
+      CustomerVideoData().apply { videoTitle = "Benchmark" },
+      CustomerViewData()
+    ),
+    player = player,
+    network = NoOpNetwork(),
+    device = device,
+    playerBinding = ExoPlayerBinding(),
+    logLevel = logLevel,
+  )
+}
+
+/**
+ * Response headers like a CDN sends with a segment: a few that the SDK tracks, and many it doesn't
+ */
+fun responseHeaders(count: Int = 40): Map<String, List<String>> {
+  val headers = LinkedHashMap<String, List<String>>()
+  headers["Content-Type"] = listOf("video/mp2t")
+  headers["X-CDN"] = listOf("fastly")
+  headers["X-Request-Id"] = listOf("5f0c7a52-1d6e-4c41-9a57-0b1b6f2e9d13")
+  headers["X-Litix-Shard"] = listOf("7")
+  var i = 0
+  while (headers.size < count) {
+    headers["X-Edge-Header-$i"] = listOf("value-$i-abcdefghijklmnopqrstuvwxyz")
+    i++
+  }
+  return headers
+}
+
+/**
+ * A ladder of video renditions, from 256x144 up
+ */
+fun renditionLadder(count: Int = 20): List<Format> {
+  return List(count) { i ->
+    val height = 144 + i * 54
+    Format.Builder()
+      .setId("video-$i")
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setContainerMimeType(MimeTypes.VIDEO_MP2T)
+      .setWidth(height * 16 / 9)
+      .setHeight(height)
+      .setFrameRate(30F)
+      .setPeakBitrate(200_000 + i * 400_000)
+      .setAverageBitrate(200_000 + i * 400_000)
+      .build()
+  }
+}
+
+/**
+ * The [Tracks] of an HLS stream with the given video renditions, one of which is selected
+ */
+@OptIn(UnstableApi::class)
+fun tracksOf(ladder: List<Format>): Tracks {
+  val group = TrackGroup("video", *ladder.toTypedArray())
+  val selected = BooleanArray(ladder.size).apply { this[ladder.size / 2] = true }
+  return Tracks(
+    listOf(
+      Tracks.Group(group, true, IntArray(ladder.size) { C.FORMAT_HANDLED }, selected)
+    )
+  )
+}
+
+/**
+ * A live HLS media playlist, like one refresh of a DVR stream: low-latency header tags, then
+ * [segments] segments, each with its own `EXT-X-PROGRAM-DATE-TIME`
+ *
+ * @return The text of the playlist
+ */
+fun liveMediaPlaylist(segments: Int, mediaSequence: Long): String {
+  val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).apply {
+    timeZone = TimeZone.getTimeZone("UTC")
+  }
+  val startMs = 1_767_225_600_000L + mediaSequence * SEGMENT_DURATION_MS
+  val text = StringBuilder()
+    .append("#EXTM3U\n")
+    .append("#EXT-X-VERSION:6\n")
+    .append("#EXT-X-TARGETDURATION:2\n")
+    .append("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,HOLD-BACK=6.0,PART-HOLD-BACK=1.5\n")
+    .append("#EXT-X-PART-INF:PART-TARGET=0.5\n")
+    .append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n')
+  for (i in 0 until segments) {
+    text.append("#EXT-X-PROGRAM-DATE-TIME:")
+      .append(dateFormat.format(startMs + i * SEGMENT_DURATION_MS)).append('\n')
+      .append("#EXTINF:2.000,\n")
+      .append("segment_").append(mediaSequence + i).append(".ts\n")
+  }
+  return text.toString()
+}
+
+/**
+ * The live timeline a player would have after loading the given media playlist. The playlist is
+ * loaded by an [HlsMediaSource] on a thread of its own, so the window's manifest is a real
+ * `HlsManifest`
+ *
+ * @param playlist The text of a live media playlist, eg from [liveMediaPlaylist]
+ */
+@OptIn(UnstableApi::class)
+fun liveTimelineOf(playlist: String): Timeline {
+  val playlistBytes = playlist.toByteArray()
+  // Every request gets the same playlist, including the reloads a live source makes
+  val dataSourceFactory = DataSource.Factory { ByteArrayDataSource(playlistBytes) }
+  val mediaSource = HlsMediaSource.Factory(dataSourceFactory)
+    .createMediaSource(MediaItem.fromUri("https://$SEGMENT_HOST/live/720p.m3u8"))
+
+  val loaded = CountDownLatch(1)
+  var timeline: Timeline? = null
+  val caller = MediaSource.MediaSourceCaller { _, refreshedTimeline ->
+    if (timeline == null) {
+      timeline = refreshedTimeline
+      loaded.countDown()
+    }
+  }
+
+  val sourceThread = HandlerThread("liveTimelineOf").apply { start() }
+  val sourceHandler = Handler(sourceThread.looper)
+  try {
+    sourceHandler.post { mediaSource.prepareSource(caller, null, PlayerId.UNSET) }
+    check(loaded.await(10, TimeUnit.SECONDS)) { "the live playlist wasn't loaded" }
+  } finally {
+    // Live sources keep reloading their playlist until they're released
+    sourceHandler.post { mediaSource.releaseSource(caller) }
+    sourceThread.quitSafely()
+  }
+  return timeline!!
+}
+
+@OptIn(UnstableApi::class)
+fun eventTimeOf(timeline: Timeline, realtimeMs: Long = 0): AnalyticsListener.EventTime {
+  return AnalyticsListener.EventTime(
+    realtimeMs,
+    timeline,
+    /* windowIndex = */ 0,
+    /* mediaPeriodId = */ null,
+    /* eventPlaybackPositionMs = */ 0,
+    timeline,
+    /* currentWindowIndex = */ 0,
+    /* currentMediaPeriodId = */ null,
+    /* currentPlaybackPositionMs = */ 0,
+    /* totalBufferedDurationMs = */ 0
+  )
+}
+
+/**
+ * The events the player sends for one video segment load
+ */
+@OptIn(UnstableApi::class)
+class SegmentLoad(
+  loadTaskId: Long,
+  format: Format,
+  headers: Map<String, List<String>>,
+  startMs: Long,
+) {
+  private val uri = Uri.parse("https://$SEGMENT_HOST/vod/${format.height}p/segment_$loadTaskId.ts")
+  private val dataSpec = DataSpec(uri)
+
+  val started = LoadEventInfo(loadTaskId, dataSpec, uri, emptyMap(), startMs, 0, 0)
+  val completed =
+    LoadEventInfo(loadTaskId, dataSpec, uri, headers, startMs + 300, 300, 1_500_000)
+  val mediaLoadData = MediaLoadData(
+    C.DATA_TYPE_MEDIA,
+    C.TRACK_TYPE_VIDEO,
+    format,
+    C.SELECTION_REASON_ADAPTIVE,
+    null,
+    loadTaskId * SEGMENT_DURATION_MS,
+    (loadTaskId + 1) * SEGMENT_DURATION_MS
+  )
+}
+
+/**
+ * Accepts every beacon without sending it
+ */
+class NoOpNetwork : INetworkRequest {
+  override fun get(url: URL?) {}
+
+  override fun post(url: URL?, json: JSONObject?, headers: Hashtable<String, String>?) {}
+
+  override fun postWithCompletion(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+  ) {
+    completion?.onComplete(true)
+  }
+}
@@ -0,0 +1,91 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import android.os.Looper
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.ExoPlaybackException
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.test.utils.StubExoPlayer
+
+/**
+ * An [androidx.media3.exoplayer.ExoPlayer] that doesn't play anything. It keeps the
+ * [AnalyticsListener]s the SDK adds, so benchmarks can call them directly with prepared inputs,
+ * and answers the SDK's questions about its state from plain fields, so the cost of the player
+ * itself doesn't show up in the results
+ */
+@OptIn(UnstableApi::class)
+class BenchmarkPlayer : StubExoPlayer() {
+
+  private val analyticsListeners = ArrayList<AnalyticsListener>()
+
+  var playWhenReadyValue: Boolean = true
+  var playbackStateValue: Int = Player.STATE_BUFFERING
+  var positionMs: Long = 0
+  var timeline: Timeline = Timeline.EMPTY
+
+  /**
+   * Calls [block] for every analytics listener, like the player would for one event
+   */
+  inline fun dispatch(block: (AnalyticsListener) -> Unit) {
+    for (i in 0 until analyticsListenerCount()) {
+      block(analyticsListener(i))
+    }
+  }
+
+  fun analyticsListenerCount(): Int = analyticsListeners.size
+
+  fun analyticsListener(index: Int): AnalyticsListener = analyticsListeners[index]
+
+  override fun addAnalyticsListener(listener: AnalyticsListener) {
+    analyticsListeners += listener
+  }
+
+  override fun removeAnalyticsListener(listener: AnalyticsListener) {
+    analyticsListeners -= listener
+  }
+
+  override fun addListener(listener: Player.Listener) {}
+
+  override fun removeListener(listener: Player.Listener) {}
+
+  override fun getApplicationLooper(): Looper = Looper.getMainLooper()
+
+  override fun getPlayWhenReady(): Boolean = playWhenReadyValue
+
+  override fun getPlaybackState(): Int = playbackStateValue
+
+  override fun getPlaybackSuppressionReason(): Int = Player.PLAYBACK_SUPPRESSION_REASON_NONE
+
+  override fun getPlayerError(): ExoPlaybackException? = null
+
+  override fun getCurrentTimeline(): Timeline = timeline
+
+  override fun getCurrentMediaItemIndex(): Int = 0
+
+  override fun getCurrentPeriodIndex(): Int = 0
+
+  override fun getCurrentPosition(): Long = positionMs
+
+  override fun getContentPosition(): Long = positionMs
+
+  override fun getBufferedPosition(): Long = positionMs
+
+  override fun getDuration(): Long = C.TIME_UNSET
+
+  override fun isPlayingAd(): Boolean = false
+
+  override fun getVideoSize(): VideoSize = VideoSize.UNKNOWN
+
+  override fun getCurrentTracks(): Tracks = Tracks.EMPTY
+
+  override fun getPlaybackParameters(): PlaybackParameters = PlaybackParameters.DEFAULT
+
+  override fun getMediaMetadata(): MediaMetadata = MediaMetadata.EMPTY
+}
@@ -0,0 +1,79 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.media3.common.Player
+import androidx.test.annotation.UiThreadTest
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.ads.interactivemedia.v3.api.Ad
+import com.google.ads.interactivemedia.v3.api.AdEvent
+import com.mux.stats.sdk.media3_ima.MuxImaAdsListener
+import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures what [MuxImaAdsListener.onAdEvent] costs per event, over and over through a pod of ads
+ */
+@RunWith(AndroidJUnit4::class)
+class ImaAdsListenerBenchmark {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private lateinit var player: BenchmarkPlayer
+  private lateinit var muxStats: MuxStatsSdkMedia3<*>
+
+  @Before
+  fun setUp() {
+    player = BenchmarkPlayer().apply { playbackStateValue = Player.STATE_READY }
+    muxStats = monitor(InstrumentationRegistry.getInstrumentation().targetContext, player)
+  }
+
+  @After
+  fun tearDown() {
+    muxStats.release()
+  }
+
+  @Test
+  @UiThreadTest
+  fun adPodEvents() {
+    val listener = MuxImaAdsListener.newListener(muxStats)
+    val events = AD_POD.map { BenchmarkAdEvent(it) }.toTypedArray()
+    var i = 0
+    benchmarkRule.measureRepeated {
+      listener.onAdEvent(events[i++ % events.size])
+    }
+  }
+
+  private class BenchmarkAdEvent(private val type: AdEvent.AdEventType) : AdEvent {
+    override fun getType(): AdEvent.AdEventType = type
+    override fun getAd(): Ad? = null
+    override fun getAdData(): Map<String, String> = emptyMap()
+  }
+
+  companion object {
+    /** What IMA sends for a break of two ads */
+    private val AD_POD = listOf(
+      AdEvent.AdEventType.LOADED,
+      AdEvent.AdEventType.CONTENT_PAUSE_REQUESTED,
+      AdEvent.AdEventType.STARTED,
+      AdEvent.AdEventType.FIRST_QUARTILE,
+      AdEvent.AdEventType.MIDPOINT,
+      AdEvent.AdEventType.THIRD_QUARTILE,
+      AdEvent.AdEventType.COMPLETED,
+      AdEvent.AdEventType.LOADED,
+      AdEvent.AdEventType.STARTED,
+      AdEvent.AdEventType.FIRST_QUARTILE,
+      AdEvent.AdEventType.MIDPOINT,
+      AdEvent.AdEventType.THIRD_QUARTILE,
+      AdEvent.AdEventType.COMPLETED,
+      AdEvent.AdEventType.ALL_ADS_COMPLETED,
+      AdEvent.AdEventType.CONTENT_RESUME_REQUESTED,
+    )
+  }
+}
@@ -0,0 +1,68 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.test.annotation.UiThreadTest
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.mux.stats.sdk.muxstats.MuxDataSdk
+import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures what the player state handlers cost with debug logging on and off, so the cost of
+ * building log messages shows up as the difference between the two
+ */
+@RunWith(AndroidJUnit4::class)
+class LogLevelBenchmark {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val player = BenchmarkPlayer()
+  private var muxStats: MuxStatsSdkMedia3<*>? = null
+
+  @After
+  fun tearDown() {
+    muxStats?.release()
+  }
+
+  @Test
+  @UiThreadTest
+  fun stateHandlersLoggingOff() {
+    measureStateHandlers(MuxDataSdk.LogcatLevel.NONE)
+  }
+
+  @Test
+  @UiThreadTest
+  fun stateHandlersLoggingDebug() {
+    measureStateHandlers(MuxDataSdk.LogcatLevel.DEBUG)
+  }
+
+  private fun measureStateHandlers(logLevel: MuxDataSdk.LogcatLevel) {
+    muxStats = monitor(
+      InstrumentationRegistry.getInstrumentation().targetContext,
+      player,
+      logLevel = logLevel
+    )
+    val eventTime = eventTimeOf(Timeline.EMPTY)
+    player.playWhenReadyValue = true
+    player.dispatch {
+      it.onPlayWhenReadyChanged(eventTime, true, Player.PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST)
+    }
+
+    var ready = false
+    benchmarkRule.measureRepeated {
+      // Rebuffering and recovering, over and over
+      ready = !ready
+      val state = if (ready) Player.STATE_READY else Player.STATE_BUFFERING
+      player.playbackStateValue = state
+      player.dispatch { it.onPlaybackStateChanged(eventTime, state) }
+    }
+  }
+}
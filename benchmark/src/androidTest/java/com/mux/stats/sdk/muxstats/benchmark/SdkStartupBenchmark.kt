@@ -0,0 +1,57 @@
+package com.mux.stats.sdk.muxstats.benchmark
+
+import android.content.Context
+import androidx.annotation.OptIn
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.media3.common.MediaLibraryInfo
+import androidx.media3.common.util.UnstableApi
+import androidx.test.annotation.UiThreadTest
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.mux.stats.sdk.muxstats.AndroidDevice
+import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Measures the main-thread time from creating a [MuxStatsSdkMedia3] to its first `viewstart`. The
+ * player is already set to play, so the SDK starts the view while it's being created
+ */
+@RunWith(AndroidJUnit4::class)
+class SdkStartupBenchmark {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val context: Context get() = InstrumentationRegistry.getInstrumentation().targetContext
+
+  @OptIn(UnstableApi::class) // MediaLibraryInfo
+  @Test
+  @UiThreadTest
+  fun createSdk() {
+    benchmarkRule.measureRepeated {
+      // What every instance does when the app doesn't call prewarm()
+      val device = AndroidDevice(
+        ctx = context,
+        playerVersion = MediaLibraryInfo.VERSION,
+        muxPluginName = "mux-media3",
+        muxPluginVersion = "benchmark",
+        playerSoftware = "media3-generic",
+      )
+      val muxStats = monitor(context, BenchmarkPlayer(), device)
+      runWithTimingDisabled { muxStats.release() }
+    }
+  }
+
+  @Test
+  @UiThreadTest
+  fun createSdkPrewarmed() {
+    MuxStatsSdkMedia3.prewarm(context)
+    benchmarkRule.measureRepeated {
+      val muxStats = monitor(context, BenchmarkPlayer())
+      runWithTimingDisabled { muxStats.release() }
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package com.mux.stats.sdk.muxstats.jmh
+
+import android.net.Uri
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.Player
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.DataSpec
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.source.LoadEventInfo
+import androidx.media3.exoplayer.source.MediaLoadData
+import com.mux.stats.media3.test.tools.testdoubles.FakeEventDispatcher
+import com.mux.stats.media3.test.tools.testdoubles.FakeMuxDevice
+import com.mux.stats.media3.test.tools.testdoubles.FakeNetwork
+import com.mux.stats.sdk.core.CustomOptions
+import com.mux.stats.sdk.core.model.CustomerData
+import com.mux.stats.sdk.core.model.CustomerPlayerData
+import com.mux.stats.sdk.core.model.CustomerVideoData
+import com.mux.stats.sdk.core.model.CustomerViewData
+import com.mux.stats.sdk.muxstats.BandwidthMetricsOptions
+import com.mux.stats.sdk.muxstats.ExoPlayerBinding
+import com.mux.stats.sdk.muxstats.IPlayerListener
+import com.mux.stats.sdk.muxstats.MuxStateCollector
+import com.mux.stats.sdk.muxstats.MuxStats
+import com.mux.stats.sdk.muxstats.PlayheadTrackingMode
+import com.mux.stats.sdk.muxstats.RequestBeaconBudget
+import io.mockk.every
+import io.mockk.mockk
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Replays a synthetic 2-hour live session through an [ExoPlayerBinding], calling its
+ * `AnalyticsListener`s the same way ExoPlayer would, on the JVM. Each operation is the whole
+ * session, so with `-prof gc` the results are the time and bytes allocated per 2 hours of playback.
+ *
+ * Every 2-second segment, the player refreshes the media playlist and loads a video segment, each
+ * with 40 response headers. Every minute, ABR switches rendition. Every 5 minutes the player
+ * rebuffers, every 30 minutes the viewer pauses, and every hour they seek.
+ *
+ * The collector belongs to a real [MuxStats], with a [FakeMuxDevice] and a [FakeNetwork]. Its
+ * events go to a [FakeEventDispatcher], which keeps them, so each session gets a new one and the
+ * results include keeping the session's 7,000-odd events.
+ *
+ * Off-device, android.jar can't make a `Uri` and its clocks always read 0. So the loads' `Uri`s
+ * are mocks, and the calls the SDK makes on them are part of the results. The beacon budgets are
+ * big enough for the whole session, since they can't refill, so every request gets a beacon as in
+ * a session that stays under its budgets. The playhead is tracked from events, since polling needs
+ * a `Looper`
+ *
+ * Run with `./gradlew :jmh:jmh`
+ */
+@OptIn(UnstableApi::class)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class LiveSessionReplayBenchmark {
+
+  // Held here, since the SDK only keeps weak references to these
+  private val player = ReplayPlayer()
+  private lateinit var events: FakeEventDispatcher
+  private lateinit var collector: MuxStateCollector
+  private lateinit var binding: ExoPlayerBinding
+
+  // Made ahead of time, since ExoPlayer makes these, not the SDK
+  private val ladder = List(RENDITION_COUNT) { i ->
+    val height = 144 + i * 54
+    Format.Builder()
+      .setId("video-$i")
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setContainerMimeType(MimeTypes.VIDEO_MP2T)
+      .setWidth(height * 16 / 9)
+      .setHeight(height)
+      .setFrameRate(30F)
+      .setPeakBitrate(200_000 + i * 400_000)
+      .setAverageBitrate(200_000 + i * 400_000)
+      .build()
+  }
+  private val tracks = Tracks(
+    listOf(
+      Tracks.Group(
+        TrackGroup("video", *ladder.toTypedArray()),
+        true,
+        IntArray(RENDITION_COUNT) { C.FORMAT_HANDLED },
+        BooleanArray(RENDITION_COUNT) { it == 0 }
+      )
+    )
+  )
+  private val responseHeaders = HashMap<String, List<String>>().apply {
+    put("Content-Type", listOf("video/mp2t"))
+    put("X-CDN", listOf("fastly"))
+    put("X-Request-Id", listOf("5f0c7a52-1d6e-4c41-9a57-0b1b6f2e9d13"))
+    put("X-Litix-Shard", listOf("7"))
+    for (i in size until HEADER_COUNT) {
+      put("X-Edge-Header-$i", listOf("value-$i-abcdefghijklmnopqrstuvwxyz"))
+    }
+  }
+  private val levels = IntArray(SEGMENTS_PER_SESSION)
+  private lateinit var eventTimes: Array<AnalyticsListener.EventTime>
+  private lateinit var manifestLoads: Array<Load>
+  private lateinit var segmentLoads: Array<Load>
+  private lateinit var seekPosition: Player.PositionInfo
+
+  @Setup(Level.Trial)
+  fun setUpTrial() {
+    MuxStats.setHostDevice(FakeMuxDevice())
+    MuxStats.setHostNetworkApi(FakeNetwork())
+
+    var level = 0
+    for (segment in levels.indices) {
+      if (segment % SEGMENTS_PER_ABR_SWITCH == 0) {
+        level = (level + 7) % RENDITION_COUNT
+      }
+      levels[segment] = level
+    }
+    eventTimes = Array(SEGMENTS_PER_SESSION) { segment ->
+      val positionMs = (segment + 1) * SEGMENT_DURATION_MS
+      AnalyticsListener.EventTime(
+        startRealtimeMs(segment),
+        player.timeline,
+        /* windowIndex = */ 0,
+        /* mediaPeriodId = */ null,
+        positionMs,
+        player.timeline,
+        /* currentWindowIndex = */ 0,
+        /* currentMediaPeriodId = */ null,
+        positionMs,
+        /* totalBufferedDurationMs = */ 10_000
+      )
+    }
+    val manifestUri = uri("/live/720p.m3u8")
+    manifestLoads = Array(SEGMENTS_PER_SESSION) { segment ->
+      Load(
+        uri = manifestUri,
+        loadTaskId = segment * 2L,
+        startMs = startRealtimeMs(segment),
+        mediaLoadData = MediaLoadData(C.DATA_TYPE_MANIFEST),
+        bytesLoaded = 2_000,
+      )
+    }
+    segmentLoads = Array(SEGMENTS_PER_SESSION) { segment ->
+      val positionMs = (segment + 1) * SEGMENT_DURATION_MS
+      val format = ladder[levels[segment]]
+      Load(
+        uri = uri("/live/segment_$segment.ts"),
+        loadTaskId = segment * 2L + 1,
+        startMs = startRealtimeMs(segment) + SEGMENT_DURATION_MS / 2,
+        mediaLoadData = MediaLoadData(
+          C.DATA_TYPE_MEDIA,
+          C.TRACK_TYPE_DEFAULT,
+          format,
+          C.SELECTION_REASON_ADAPTIVE,
+          /* trackSelectionData = */ null,
+          positionMs,
+          positionMs + SEGMENT_DURATION_MS
+        ),
+        bytesLoaded = 500_000L + levels[segment] * 100_000L,
+      )
+    }
+    seekPosition = Player.PositionInfo(
+      /* windowUid = */ null,
+      /* mediaItemIndex = */ 0,
+      /* mediaItem = */ null,
+      /* periodUid = */ null,
+      /* periodIndex = */ 0,
+      /* positionMs = */ 0,
+      /* contentPositionMs = */ 0,
+      /* adGroupIndex = */ C.INDEX_UNSET,
+      /* adIndexInAdGroup = */ C.INDEX_UNSET
+    )
+  }
+
+  @Setup(Level.Invocation)
+  fun setUpSession() {
+    // The collector sends events to the dispatcher given here, so MuxStats never needs to ask the
+    //  player listener about the player
+    val muxStats = MuxStats(
+      mockk<IPlayerListener>(relaxed = true),
+      "jmh",
+      CustomerData(CustomerPlayerData(), CustomerVideoData(), CustomerViewData()),
+      CustomOptions()
+    )
+    events = FakeEventDispatcher()
+    collector = MuxStateCollector(muxStats, events)
+    binding = ExoPlayerBinding(
+      bandwidthMetricsOptions = BandwidthMetricsOptions(
+        manifestBeaconBudget = RequestBeaconBudget(SEGMENTS_PER_SESSION, 0.0),
+        mediaBeaconBudget = RequestBeaconBudget(SEGMENTS_PER_SESSION, 0.0),
+      ),
+      playheadTrackingMode = PlayheadTrackingMode.EVENT_DRIVEN,
+    )
+    player.playWhenReadyValue = false
+    player.playbackStateValue = Player.STATE_IDLE
+    player.positionMs = 0
+    binding.bindPlayer(player, collector)
+
+    val eventTime = eventTimes[0]
+    dispatch { it.onTimelineChanged(eventTime, Player.TIMELINE_CHANGE_REASON_PLAYLIST_CHANGED) }
+    dispatch { it.onTracksChanged(eventTime, tracks) }
+    setPlayWhenReady(eventTime, true)
+    setPlaybackState(eventTime, Player.STATE_BUFFERING)
+    setPlaybackState(eventTime, Player.STATE_READY)
+  }
+
+  @TearDown(Level.Invocation)
+  fun tearDownSession() {
+    binding.unbindPlayer(player, collector)
+  }
+
+  @Benchmark
+  fun replayTwoHourLiveSession(blackhole: Blackhole) {
+    for (segment in 0 until SEGMENTS_PER_SESSION) {
+      val eventTime = eventTimes[segment]
+      player.positionMs = eventTime.currentPlaybackPositionMs
+
+      load(eventTime, manifestLoads[segment])
+      if (segment % SEGMENTS_PER_ABR_SWITCH == 0) {
+        val format = ladder[levels[segment]]
+        dispatch { it.onVideoInputFormatChanged(eventTime, format, null) }
+      }
+      load(eventTime, segmentLoads[segment])
+
+      if (segment % SEGMENTS_PER_REBUFFER == SEGMENTS_PER_REBUFFER - 1) {
+        setPlaybackState(eventTime, Player.STATE_BUFFERING)
+        setPlaybackState(eventTime, Player.STATE_READY)
+      }
+      if (segment % SEGMENTS_PER_PAUSE == SEGMENTS_PER_PAUSE - 1) {
+        setPlayWhenReady(eventTime, false)
+        setPlayWhenReady(eventTime, true)
+      }
+      if (segment % SEGMENTS_PER_SEEK == SEGMENTS_PER_SEEK - 1) {
+        dispatch {
+          it.onPositionDiscontinuity(
+            eventTime,
+            seekPosition,
+            seekPosition,
+            Player.DISCONTINUITY_REASON_SEEK
+          )
+        }
+        setPlaybackState(eventTime, Player.STATE_BUFFERING)
+        setPlaybackState(eventTime, Player.STATE_READY)
+      }
+    }
+    blackhole.consume(events.captureRecords.size)
+  }
+
+  private fun load(eventTime: AnalyticsListener.EventTime, load: Load) {
+    dispatch { it.onLoadStarted(eventTime, load.started, load.mediaLoadData) }
+    dispatch { it.onLoadCompleted(eventTime, load.completed, load.mediaLoadData) }
+  }
+
+  private fun setPlayWhenReady(eventTime: AnalyticsListener.EventTime, playWhenReady: Boolean) {
+    player.playWhenReadyValue = playWhenReady
+    dispatch {
+      it.onPlayWhenReadyChanged(
+        eventTime,
+        playWhenReady,
+        Player.PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST
+      )
+    }
+  }
+
+  private fun setPlaybackState(eventTime: AnalyticsListener.EventTime, state: Int) {
+    player.playbackStateValue = state
+    dispatch { it.onPlaybackStateChanged(eventTime, state) }
+  }
+
+  /**
+   * Calls each of the player's [AnalyticsListener]s, in the order they were added
+   */
+  private inline fun dispatch(call: (AnalyticsListener) -> Unit) {
+    val listeners = player.analyticsListeners
+    for (i in listeners.indices) {
+      call(listeners[i])
+    }
+  }
+
+  private fun uri(path: String): Uri = mockk {
+    every { this@mockk.path } returns path
+    every { host } returns HOST
+  }
+
+  private fun startRealtimeMs(segment: Int) = START_REALTIME_MS + segment * SEGMENT_DURATION_MS
+
+  /**
+   * What ExoPlayer reports for one load, which starts at [startMs] and succeeds
+   */
+  private inner class Load(
+    uri: Uri,
+    loadTaskId: Long,
+    startMs: Long,
+    val mediaLoadData: MediaLoadData,
+    bytesLoaded: Long,
+  ) {
+    private val durationMs = 40L + bytesLoaded / 10_000
+    val started = LoadEventInfo(loadTaskId, DataSpec(uri), uri, emptyMap(), startMs, 0, 0)
+    val completed = LoadEventInfo(
+      loadTaskId, DataSpec(uri), uri, responseHeaders, startMs + durationMs, durationMs, bytesLoaded
+    )
+  }
+
+  companion object {
+    private const val HOST = "cdn.example.com"
+    private const val RENDITION_COUNT = 20
+    private const val HEADER_COUNT = 40
+    private const val START_REALTIME_MS = 1_000_000L
+    private const val SEGMENT_DURATION_MS = 2_000L
+    private const val SEGMENTS_PER_SESSION = 2 * 60 * 60 * 1_000 / SEGMENT_DURATION_MS.toInt()
+    private const val SEGMENTS_PER_ABR_SWITCH = 30
+    private const val SEGMENTS_PER_REBUFFER = 150
+    private const val SEGMENTS_PER_PAUSE = 900
+    private const val SEGMENTS_PER_SEEK = 1_800
+  }
+}
@@ -0,0 +1,94 @@
+package com.mux.stats.sdk.muxstats.jmh
+
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.ExoPlaybackException
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.source.SinglePeriodTimeline
+import androidx.media3.test.utils.StubExoPlayer
+
+/**
+ * An [androidx.media3.exoplayer.ExoPlayer] that doesn't play anything. It's in the current window
+ * of a live stream, its state is whatever the benchmark sets, and it keeps the
+ * [AnalyticsListener]s the SDK adds so the benchmark can call them the way a player would
+ */
+@OptIn(UnstableApi::class)
+class ReplayPlayer : StubExoPlayer() {
+
+  /**
+   * The live stream's timeline, which is always the current one
+   */
+  val timeline: Timeline = SinglePeriodTimeline(
+    /* durationUs = */ C.TIME_UNSET,
+    /* isSeekable = */ true,
+    /* isDynamic = */ true,
+    /* useLiveConfiguration = */ true,
+    /* manifest = */ null,
+    MediaItem.Builder()
+      .setMediaId("live")
+      .setLiveConfiguration(MediaItem.LiveConfiguration.Builder().build())
+      .build()
+  )
+
+  /**
+   * The [AnalyticsListener]s the SDK has added
+   */
+  val analyticsListeners: List<AnalyticsListener> get() = listeners
+  private val listeners = ArrayList<AnalyticsListener>()
+
+  var playWhenReadyValue: Boolean = false
+  var playbackStateValue: Int = Player.STATE_IDLE
+  var positionMs: Long = 0
+
+  override fun addAnalyticsListener(listener: AnalyticsListener) {
+    listeners += listener
+  }
+
+  override fun removeAnalyticsListener(listener: AnalyticsListener) {
+    listeners -= listener
+  }
+
+  override fun addListener(listener: Player.Listener) {}
+
+  override fun removeListener(listener: Player.Listener) {}
+
+  override fun getPlayWhenReady(): Boolean = playWhenReadyValue
+
+  override fun getPlaybackState(): Int = playbackStateValue
+
+  override fun getPlaybackSuppressionReason(): Int = Player.PLAYBACK_SUPPRESSION_REASON_NONE
+
+  override fun getPlayerError(): ExoPlaybackException? = null
+
+  override fun getCurrentTimeline(): Timeline = timeline
+
+  override fun getCurrentMediaItemIndex(): Int = 0
+
+  override fun getCurrentPeriodIndex(): Int = 0
+
+  override fun getCurrentPosition(): Long = positionMs
+
+  override fun getContentPosition(): Long = positionMs
+
+  override fun getBufferedPosition(): Long = positionMs
+
+  override fun getDuration(): Long = C.TIME_UNSET
+
+  override fun isPlayingAd(): Boolean = false
+
+  override fun getVideoSize(): VideoSize = VideoSize.UNKNOWN
+
+  override fun getCurrentTracks(): Tracks = Tracks.EMPTY
+
+  override fun getPlaybackParameters(): PlaybackParameters = PlaybackParameters.DEFAULT
+
+  override fun getMediaMetadata(): MediaMetadata = MediaMetadata.EMPTY
+}
@@ -0,0 +1,65 @@
+package com.mux.stats.sdk.muxstats
+
+/**
+ * Options that control how request beacons (data about each segment, manifest, etc that the
+ * player loads) are collected and sent.
+ *
+ * The defaults are fine for most apps
+ *
+ * @param dispatchInBackground If true, request beacons are built on a background thread and handed
+ * to the SDK in batches, instead of on the player's thread as each load finishes. Has no effect if
+ * [aggregateRequests] is true
+ * @param backgroundFlushIntervalMs How often batches of request beacons are dispatched, if
+ * [dispatchInBackground] is true
+ * @param backgroundQueueSize How many finished loads can wait for the next batch, if
+ * [dispatchInBackground] is true. Loads that don't fit are handled on the player's thread instead
+ * @param manifestBeaconBudget How many request beacons can be sent for manifest loads
+ * @param mediaBeaconBudget How many request beacons can be sent for media segment loads, including
+ * loads whose type isn't known
+ * @param initBeaconBudget How many request beacons can be sent for init segment loads
+ * @param drmBeaconBudget How many request beacons can be sent for DRM/encryption key loads
+ * @param excessBeaconSampleRate Once a budget is used up, one in this many of the beacons over the
+ * budget is still sent, along with the number of beacons dropped before it
+ * @param throughputReportIntervalMs How often a summary of the measured throughput (its moving
+ * average and percentiles) is reported for the view
+ * @param aggregateRequests If true, no beacon is sent for each request. Instead, requests are
+ * summarized (counts, bytes, duration histograms, failures, and cancellations, by kind of request
+ * and host) and one summary is sent per [aggregationIntervalMs], when the view changes, and when
+ * the player is unbound. Good for long live sessions
+ * @param aggregationIntervalMs How often request summaries are sent, if [aggregateRequests] is true
+ */
+class BandwidthMetricsOptions @JvmOverloads constructor(
+  val dispatchInBackground: Boolean = false,
+  val backgroundFlushIntervalMs: Long = DEFAULT_BACKGROUND_FLUSH_INTERVAL_MS,
+  val backgroundQueueSize: Int = DEFAULT_BACKGROUND_QUEUE_SIZE,
+  val manifestBeaconBudget: RequestBeaconBudget = RequestBeaconBudget(burst = 10, refillPerSecond = 1.0),
+  val mediaBeaconBudget: RequestBeaconBudget = RequestBeaconBudget(burst = 30, refillPerSecond = 5.0),
+  val initBeaconBudget: RequestBeaconBudget = RequestBeaconBudget(burst = 10, refillPerSecond = 1.0),
+  val drmBeaconBudget: RequestBeaconBudget = RequestBeaconBudget(burst = 10, refillPerSecond = 1.0),
+  val excessBeaconSampleRate: Int = DEFAULT_EXCESS_BEACON_SAMPLE_RATE,
+  val throughputReportIntervalMs: Long = DEFAULT_THROUGHPUT_REPORT_INTERVAL_MS,
+  val aggregateRequests: Boolean = false,
+  val aggregationIntervalMs: Long = DEFAULT_AGGREGATION_INTERVAL_MS,
+) {
+  companion object {
+    const val DEFAULT_BACKGROUND_FLUSH_INTERVAL_MS = 1000L
+    const val DEFAULT_BACKGROUND_QUEUE_SIZE = 256
+    const val DEFAULT_EXCESS_BEACON_SAMPLE_RATE = 10
+    const val DEFAULT_THROUGHPUT_REPORT_INTERVAL_MS = 10_000L
+    const val DEFAULT_AGGREGATION_INTERVAL_MS = 60_000L
+  }
+}
+
+/**
+ * A token-bucket budget for request beacons. Up to [burst] beacons can be sent at once, and after
+ * that beacons are allowed at a steady [refillPerSecond]
+ */
+class RequestBeaconBudget(
+  val burst: Int,
+  val refillPerSecond: Double,
+) {
+  init {
+    require(burst > 0) { "burst must be positive" }
+    require(refillPerSecond >= 0) { "refillPerSecond must not be negative" }
+  }
+}
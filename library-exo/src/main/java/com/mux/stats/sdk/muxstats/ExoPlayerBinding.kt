@@ -5,6 +5,7 @@ import androidx.annotation.OptIn
 import androidx.media3.common.Format
 import androidx.media3.common.MediaItem
 import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
 import androidx.media3.common.Player
 import androidx.media3.common.Timeline
 import androidx.media3.common.Tracks
@@ -16,17 +17,15 @@ import androidx.media3.exoplayer.analytics.AnalyticsListener
 import androidx.media3.exoplayer.source.LoadEventInfo
 import androidx.media3.exoplayer.source.MediaLoadData
 import com.mux.android.util.weak
-import com.mux.stats.sdk.core.util.MuxLogger
 import com.mux.stats.sdk.muxstats.bandwidth.BandwidthMetricDispatcher
 import com.mux.stats.sdk.muxstats.bandwidth.TrackedHeader
 import com.mux.stats.sdk.muxstats.internal.createErrorDataBinding
 import com.mux.stats.sdk.muxstats.internal.createExoSessionDataBinding
 import com.mux.stats.sdk.muxstats.internal.dataTypeString
 import com.mux.stats.sdk.muxstats.internal.isInAdGroup
-import com.mux.stats.sdk.muxstats.internal.populateLiveStreamData
+import com.mux.stats.sdk.muxstats.internal.LiveStreamDataParser
 import com.mux.stats.sdk.muxstats.internal.trackTypeString
 import java.io.IOException
-import java.util.regex.Pattern
 
 /**
  * [MuxPlayerAdapter.PlayerBinding] implementation for `ExoPlayer`.
@@ -36,40 +35,57 @@ import java.util.regex.Pattern
  *
  * Kotlin callers shouldn't need to interact with this class. Just use [monitorWithMuxData] to
  * handle this automatically
+ *
+ * @param bandwidthMetricsOptions Options for how request beacons are collected and sent
+ * @param playheadTrackingMode How the player's playhead position is tracked
  */
-open class ExoPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlayer> {
+open class ExoPlayerBinding @JvmOverloads constructor(
+  private val bandwidthMetricsOptions: BandwidthMetricsOptions = BandwidthMetricsOptions(),
+  private val playheadTrackingMode: PlayheadTrackingMode = PlayheadTrackingMode.POLLING,
+) : MuxPlayerAdapter.PlayerBinding<ExoPlayer>, PlayheadTrackingBinding, ViewChangeBinding,
+  LoggingBinding {
 
   private val sessionDataBinding = createExoSessionDataBinding()
   private val errorBinding = createErrorDataBinding()
 
   private var listener: MuxAnalyticsListener? = null
 
+  override val playheadTracker: PlayheadTracker? get() = listener?.playheadTracker
+
+  override var logger: InstanceLogger = InstanceLogger.NONE
+
   override fun bindPlayer(player: ExoPlayer, collector: MuxStateCollector) {
-    catchUpPlayState(player, collector)
+    catchUpPlayState(player, collector, logger)
     catchUpStreamData(player, collector)
 
+    val playheadTracker = PlayheadTracker(player, collector, playheadTrackingMode)
     listener = MuxAnalyticsListener(
       player = player,
       collector = collector,
+      playheadTracker = playheadTracker,
       bandwidthMetrics = BandwidthMetricDispatcher(
         player = player,
         collector = collector,
-        trackedResponseHeaders = listOf(
-          TrackedHeader.ExactlyIgnoreCase("x-cdn"),
-          TrackedHeader.ExactlyIgnoreCase("content-type"),
-          TrackedHeader.ExactlyIgnoreCase("x-request-id"),
-          TrackedHeader.Matching(Pattern.compile("^x-litix-.*", Pattern.CASE_INSENSITIVE))
-        )
-      )
+        trackedResponseHeaders = TrackedHeader.DEFAULTS,
+        options = bandwidthMetricsOptions,
+        beforeDispatch = playheadTracker::onBeacon,
+        logger = logger,
+      ),
+      logger = logger,
     ).also { player.addAnalyticsListener(it) }
 
     // Also delegate to sub-bindings
+    sessionDataBinding.logger = logger
     errorBinding.bindPlayer(player, collector)
     sessionDataBinding.bindPlayer(player, collector)
   }
 
   override fun unbindPlayer(player: ExoPlayer, collector: MuxStateCollector) {
-    listener?.let { player.removeAnalyticsListener(it) }
+    listener?.let {
+      player.removeAnalyticsListener(it)
+      it.bandwidthMetrics.release()
+      it.playheadTracker.stop("player unbound")
+    }
     collector.playerWatcher?.stop("player unbound")
     listener = null
 
@@ -78,6 +94,11 @@ open class ExoPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlayer> {
     errorBinding.unbindPlayer(player, collector)
   }
 
+  override fun onViewChange() {
+    listener?.bandwidthMetrics?.onViewChange()
+    sessionDataBinding.onViewChange()
+  }
+
   companion object {
     @Suppress("unused")
     private const val TAG = "ExoPlayerBinding"
@@ -89,23 +110,34 @@ private class MuxAnalyticsListener(
   player: ExoPlayer,
   val bandwidthMetrics: BandwidthMetricDispatcher,
   val collector: MuxStateCollector,
+  val playheadTracker: PlayheadTracker,
+  private val logger: InstanceLogger,
 ) : AnalyticsListener {
 
   private val player by weak(player)
   private var lastVideoFormat: Format? = null
+  private val liveStreamDataParser = LiveStreamDataParser()
+
+  // Reused for every timeline change, which can happen every few seconds for live streams
+  private val timelineWindow = Timeline.Window()
+
+  // Works out everything we need from each new Tracks in one pass, reusing the last rendition list
+  private val trackAnalyzer = TrackAnalyzer()
 
   override fun onPlayWhenReadyChanged(
     eventTime: AnalyticsListener.EventTime,
     playWhenReady: Boolean,
     reason: Int
   ) {
-    player?.let { collector.handlePlayWhenReady(playWhenReady, it.playbackState) }
+    playheadTracker.sample()
+    player?.let { collector.handlePlayWhenReady(playWhenReady, it.playbackState, logger) }
   }
 
   override fun onPlaybackStateChanged(eventTime: AnalyticsListener.EventTime, state: Int) {
+    playheadTracker.sample()
     // query playWhenReady for consistency. The order of execution between this callback and
     //  onPlayWhenReadyChanged is not well-defined
-    player?.let { collector.handleExoPlaybackState(state, it.playWhenReady) }
+    player?.let { collector.handleExoPlaybackState(state, it.playWhenReady, logger) }
   }
 
   override fun onPositionDiscontinuity(
@@ -114,14 +146,27 @@ private class MuxAnalyticsListener(
     newPosition: Player.PositionInfo,
     reason: Int
   ) {
+    playheadTracker.sample()
     collector.handlePositionDiscontinuity(reason)
   }
 
+  override fun onIsPlayingChanged(eventTime: AnalyticsListener.EventTime, isPlaying: Boolean) {
+    playheadTracker.sample()
+  }
+
+  override fun onPlaybackParametersChanged(
+    eventTime: AnalyticsListener.EventTime,
+    playbackParameters: PlaybackParameters
+  ) {
+    playheadTracker.sample()
+  }
+
   override fun onTimelineChanged(eventTime: AnalyticsListener.EventTime, reason: Int) {
-    eventTime.timeline.takeIf { it.windowCount > 0 }?.let { tl ->
-      val window = Timeline.Window().apply { tl.getWindow(0, this) }
-      collector.sourceDurationMs = window.durationMs
-      collector.populateLiveStreamData(window)
+    val timeline = eventTime.timeline
+    if (timeline.windowCount > 0) {
+      timeline.getWindow(0, timelineWindow)
+      collector.sourceDurationMs = timelineWindow.durationMs
+      liveStreamDataParser.populateLiveStreamData(collector, timelineWindow)
     }
   }
 
@@ -146,10 +191,10 @@ private class MuxAnalyticsListener(
     format: Format,
     decoderReuseEvaluation: DecoderReuseEvaluation?
   ) {
-    MuxLogger.d(
-      TAG, "onVideoInputFormatChanged: new format: bitrate ${format.bitrate}" +
+    logger.d(TAG) {
+      "onVideoInputFormatChanged: new format: bitrate ${format.bitrate}" +
           " and frameRate ${format.frameRate} "
-    )
+    }
 
     // Situations like looping or ad breaks can result in this callback being called for the same
     //  format multiple times over the course of a View. These aren't really rendition changes, and
@@ -158,6 +203,7 @@ private class MuxAnalyticsListener(
       val cleanBitrate = format.bitrate.takeIf { it >= 0 } ?: 0
       val cleanFrameRate = format.frameRate.takeIf { it >= 0 } ?: 0F
 
+      playheadTracker.onBeacon()
       collector.renditionChange(
         advertisedBitrate = cleanBitrate,
         advertisedFrameRate = cleanFrameRate,
@@ -170,13 +216,14 @@ private class MuxAnalyticsListener(
   }
 
   override fun onTracksChanged(eventTime: AnalyticsListener.EventTime, tracks: Tracks) {
-    MuxLogger.d("ExoPlayerBinding", "onTracksChanged")
+    logger.d("ExoPlayerBinding") { "onTracksChanged" }
 
+    trackAnalyzer.analyze(tracks)
     player?.let {
-      collector.watchPlayerPos(it)
-      collector.mediaHasVideoTrack = tracks.hasAtLeastOneVideoTrack()
+      playheadTracker.start()
+      collector.mediaHasVideoTrack = trackAnalyzer.hasVideo
     }
-    bandwidthMetrics?.onTracksChanged(tracks)
+    bandwidthMetrics?.onTracksChanged(trackAnalyzer)
   }
 
   override fun onDownstreamFormatChanged(
@@ -210,7 +257,7 @@ private class MuxAnalyticsListener(
   ) {
     val relevant = eventTime.mediaPeriodId?.isInAdGroup() == false
     if (relevant) {
-      MuxLogger.d("ExoPlayerBinding", "sizeChanged: change was relevant, setting dimensions")
+      logger.d("ExoPlayerBinding") { "sizeChanged: change was relevant, setting dimensions" }
       collector.sourceWidth = videoSize.width
       collector.sourceHeight = videoSize.height
     }
@@ -226,7 +273,9 @@ private class MuxAnalyticsListener(
     bandwidthMetrics?.onLoadError(
       loadTaskId = loadEventInfo.loadTaskId,
       segmentUrl = loadEventInfo.uri.path,
-      e = error
+      e = error,
+      loadEndMs = loadEventInfo.elapsedRealtimeMs,
+      loadDurationMs = loadEventInfo.loadDurationMs,
     )
   }
 
@@ -238,7 +287,9 @@ private class MuxAnalyticsListener(
     bandwidthMetrics?.onLoadCanceled(
       loadTaskId = loadEventInfo.loadTaskId,
       segmentUrl = loadEventInfo.uri.path,
-      headers = loadEventInfo.responseHeaders
+      headers = loadEventInfo.responseHeaders,
+      loadEndMs = loadEventInfo.elapsedRealtimeMs,
+      loadDurationMs = loadEventInfo.loadDurationMs,
     )
   }
 
@@ -257,13 +308,15 @@ private class MuxAnalyticsListener(
       segmentHeight = format.height
     }
 
-    MuxLogger.d("ExoPlayerBinding", "onLoadStarted: For request: ${loadEventInfo.uri.path}:"
-        + "\nTrack type: ${trackTypeString( mediaLoadData.trackType)}"
-        + "\nData type: ${dataTypeString(mediaLoadData.dataType)}")
+    logger.d(TAG) {
+      "onLoadStarted: For request: ${loadEventInfo.uri.path}:" +
+          "\nTrack type: ${trackTypeString(mediaLoadData.trackType)}" +
+          "\nData type: ${dataTypeString(mediaLoadData.dataType)}"
+    }
 
     bandwidthMetrics?.onLoadStarted(
       loadTaskId = loadEventInfo.loadTaskId,
-      loadStartTimeMs = System.currentTimeMillis(),
+      loadStartTimeMs = loadEventInfo.elapsedRealtimeMs,
       mediaStartTimeMs = mediaLoadData.mediaStartTimeMs,
       mediaEndTimeMs = mediaLoadData.mediaEndTimeMs,
       segmentUrl = loadEventInfo.uri.path,
@@ -272,7 +325,8 @@ private class MuxAnalyticsListener(
       host = loadEventInfo.uri.host,
       segmentMimeType = segmentMimeType,
       segmentWidth = segmentWidth,
-      segmentHeight = segmentHeight
+      segmentHeight = segmentHeight,
+      dataSpec = loadEventInfo.dataSpec,
     )
   }
 
@@ -288,7 +342,9 @@ private class MuxAnalyticsListener(
         loadEventInfo.uri.path,
         loadEventInfo.bytesLoaded,
         mediaLoadData.trackFormat,
-        loadEventInfo.responseHeaders
+        loadEventInfo.responseHeaders,
+        loadEventInfo.elapsedRealtimeMs,
+        loadEventInfo.loadDurationMs,
       )
     }
   } // fun onLoadCompleted
@@ -307,6 +363,6 @@ private class MuxAnalyticsListener(
   }
 
   init {
-    MuxLogger.d(TAG, "Listening to ExoPlayer $player")
+    logger.d(TAG) { "Listening to ExoPlayer $player" }
   }
 }
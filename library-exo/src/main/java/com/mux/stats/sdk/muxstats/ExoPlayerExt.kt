@@ -15,6 +15,8 @@ import com.mux.stats.sdk.core.model.CustomerData
  * @param customerData data about you, your customer, and your video
  * @param playerView the View showing your video content
  * @param customOptions Options that affect the behavior of the SDK
+ * @param bandwidthMetricsOptions Options for how request beacons are collected and sent
+ * @param playheadTrackingMode How the player's playhead position is tracked
  */
 @Suppress("unused")
 fun ExoPlayer.monitorWithMuxData(
@@ -24,6 +26,8 @@ fun ExoPlayer.monitorWithMuxData(
   playerView: View? = null,
   customOptions: CustomOptions? = null,
   logLevel: MuxDataSdk.LogcatLevel = MuxDataSdk.LogcatLevel.NONE,
+  bandwidthMetricsOptions: BandwidthMetricsOptions = BandwidthMetricsOptions(),
+  playheadTrackingMode: PlayheadTrackingMode = PlayheadTrackingMode.POLLING,
 ): MuxStatsSdkMedia3<ExoPlayer> {
   return MuxStatsSdkMedia3(
     context = context,
@@ -33,6 +37,6 @@ fun ExoPlayer.monitorWithMuxData(
     playerView = playerView,
     customOptions = customOptions,
     logLevel = logLevel,
-    playerBinding = ExoPlayerBinding()
+    playerBinding = ExoPlayerBinding(bandwidthMetricsOptions, playheadTrackingMode)
   )
 }
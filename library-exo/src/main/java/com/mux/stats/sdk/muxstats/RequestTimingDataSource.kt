@@ -0,0 +1,100 @@
+package com.mux.stats.sdk.muxstats
+
+import android.net.Uri
+import android.os.SystemClock
+import androidx.annotation.OptIn
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.DataSource
+import androidx.media3.datasource.DataSpec
+import androidx.media3.datasource.TransferListener
+import com.mux.stats.sdk.muxstats.bandwidth.RequestTimingTable
+
+/**
+ * A [DataSource] that measures the network timing of each request made through it: how long the
+ * request took to open (DNS lookup, connecting, and waiting for the response to start) and how long
+ * the response body took to arrive. Request beacons for loads made through this data source report
+ * when the response actually started, instead of assuming it started when the load did.
+ *
+ * Wrap your app's data source factory with [RequestTimingDataSource.Factory], and pass that to your
+ * media source factory:
+ * ```
+ * val dataSourceFactory = RequestTimingDataSource.Factory(DefaultDataSource.Factory(context))
+ * val player = ExoPlayer.Builder(context)
+ *   .setMediaSourceFactory(DefaultMediaSourceFactory(dataSourceFactory))
+ *   .build()
+ * ```
+ *
+ * Data read through this source isn't copied or buffered. Only a few timestamps and a byte count
+ * are recorded around calls to [open], [read], and [close]
+ */
+@OptIn(UnstableApi::class) // DataSource and DataSpec
+class RequestTimingDataSource private constructor(
+  private val upstream: DataSource,
+  private val timings: RequestTimingTable,
+) : DataSource {
+
+  private var openedUri: Uri? = null
+  private var openedPosition: Long = 0
+  private var openStartNs: Long = 0
+  private var responseStartNs: Long = 0
+  private var bytesTransferred: Long = 0
+
+  override fun addTransferListener(transferListener: TransferListener) {
+    upstream.addTransferListener(transferListener)
+  }
+
+  override fun open(dataSpec: DataSpec): Long {
+    openedUri = dataSpec.uri
+    openedPosition = dataSpec.position
+    openStartNs = SystemClock.elapsedRealtimeNanos()
+    responseStartNs = 0
+    bytesTransferred = 0
+
+    val length = upstream.open(dataSpec)
+    responseStartNs = SystemClock.elapsedRealtimeNanos()
+    return length
+  }
+
+  override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+    val bytesRead = upstream.read(buffer, offset, length)
+    if (bytesRead > 0) {
+      bytesTransferred += bytesRead
+    }
+    return bytesRead
+  }
+
+  override fun getUri(): Uri? = upstream.uri
+
+  override fun getResponseHeaders(): Map<String, List<String>> = upstream.responseHeaders
+
+  override fun close() {
+    val transferEndNs = SystemClock.elapsedRealtimeNanos()
+    try {
+      upstream.close()
+    } finally {
+      val uri = openedUri
+      // If open() failed, there's no response to time
+      if (uri != null && responseStartNs != 0L) {
+        timings.publish(
+          uri = uri,
+          position = openedPosition,
+          openStartNs = openStartNs,
+          responseStartNs = responseStartNs,
+          transferEndNs = transferEndNs,
+          bytesTransferred = bytesTransferred,
+        )
+      }
+      openedUri = null
+      responseStartNs = 0
+    }
+  }
+
+  /**
+   * Creates [RequestTimingDataSource]s that wrap data sources from an [upstream] factory
+   */
+  class Factory(private val upstream: DataSource.Factory) : DataSource.Factory {
+    override fun createDataSource(): DataSource {
+      return RequestTimingDataSource(upstream.createDataSource(), RequestTimingTable.shared)
+    }
+  }
+}
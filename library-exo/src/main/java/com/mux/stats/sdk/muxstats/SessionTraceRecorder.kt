@@ -0,0 +1,349 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.annotation.OptIn
+import androidx.media3.common.Format
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MediaLibraryInfo
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.DecoderReuseEvaluation
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.source.LoadEventInfo
+import androidx.media3.exoplayer.source.MediaLoadData
+import com.mux.stats.sdk.muxstats.internal.PERIOD_AD
+import com.mux.stats.sdk.muxstats.internal.PERIOD_CONTENT
+import com.mux.stats.sdk.muxstats.internal.PERIOD_NONE
+import com.mux.stats.sdk.muxstats.internal.TAG_DOWNSTREAM_FORMAT
+import com.mux.stats.sdk.muxstats.internal.TAG_DROPPED_FRAMES
+import com.mux.stats.sdk.muxstats.internal.TAG_IS_PLAYING
+import com.mux.stats.sdk.muxstats.internal.TAG_LOAD_CANCELED
+import com.mux.stats.sdk.muxstats.internal.TAG_LOAD_COMPLETED
+import com.mux.stats.sdk.muxstats.internal.TAG_LOAD_ERROR
+import com.mux.stats.sdk.muxstats.internal.TAG_LOAD_STARTED
+import com.mux.stats.sdk.muxstats.internal.TAG_MEDIA_ITEM_TRANSITION
+import com.mux.stats.sdk.muxstats.internal.TAG_PLAYBACK_PARAMETERS
+import com.mux.stats.sdk.muxstats.internal.TAG_PLAYBACK_STATE
+import com.mux.stats.sdk.muxstats.internal.TAG_PLAY_WHEN_READY
+import com.mux.stats.sdk.muxstats.internal.TAG_POSITION_DISCONTINUITY
+import com.mux.stats.sdk.muxstats.internal.TAG_RENDERED_FIRST_FRAME
+import com.mux.stats.sdk.muxstats.internal.TAG_TIMELINE
+import com.mux.stats.sdk.muxstats.internal.TAG_TRACKS
+import com.mux.stats.sdk.muxstats.internal.TAG_VIDEO_INPUT_FORMAT
+import com.mux.stats.sdk.muxstats.internal.TAG_VIDEO_SIZE
+import com.mux.stats.sdk.muxstats.internal.TraceOutput
+import com.mux.stats.sdk.muxstats.internal.isInAdGroup
+import com.mux.stats.sdk.muxstats.internal.writeHeader
+import java.io.Closeable
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Records the player callbacks that the Mux SDK listens to into a compact binary trace, so a real
+ * session can be replayed later, at full speed and without a player, for debugging or to measure
+ * the SDK's performance. Add it to your player along with Mux Data, and [close] it when you're
+ * done:
+ * ```
+ * val recorder = SessionTraceRecorder(File(context.filesDir, "session.trace").outputStream())
+ * player.addAnalyticsListener(recorder)
+ * // ...
+ * player.removeAnalyticsListener(recorder)
+ * recorder.close()
+ * ```
+ *
+ * The trace keeps what the SDK uses from each callback: the timing and position of the event, the
+ * formats of the tracks, and the URL, response headers, and timing of each load. Things the SDK
+ * doesn't read, like the contents of manifests, aren't recorded. Response headers can contain
+ * identifying information, so treat traces like you would any other log from your app.
+ *
+ * Records are buffered in memory and written to [output] in large chunks on the player's thread.
+ * This is meant for development and for occasional recording, not for every session in production.
+ * If writing fails, the recorder stops recording and the player isn't affected
+ *
+ * @param output Where the trace is written. It's closed when the recorder is
+ */
+@OptIn(UnstableApi::class)
+class SessionTraceRecorder(output: OutputStream) : AnalyticsListener, Closeable {
+
+  private var out: TraceOutput? = TraceOutput(output)
+  private var lastRealtimeMs = 0L
+  private val timelineWindow = Timeline.Window()
+
+  init {
+    record { it.writeHeader(MediaLibraryInfo.VERSION) }
+  }
+
+  /**
+   * Writes the rest of the trace and closes the output. The recorder ignores callbacks after this
+   */
+  override fun close() {
+    val out = out ?: return
+    this.out = null
+    try {
+      out.close()
+    } catch (e: IOException) {
+      SdkLogger.exception(e, TAG) { "Couldn't finish writing session trace" }
+    }
+  }
+
+  override fun onPlayWhenReadyChanged(
+    eventTime: AnalyticsListener.EventTime,
+    playWhenReady: Boolean,
+    reason: Int
+  ) {
+    record(TAG_PLAY_WHEN_READY, eventTime) {
+      it.writeBoolean(playWhenReady)
+      it.writeVarInt(reason)
+    }
+  }
+
+  override fun onPlaybackStateChanged(eventTime: AnalyticsListener.EventTime, state: Int) {
+    record(TAG_PLAYBACK_STATE, eventTime) { it.writeVarInt(state) }
+  }
+
+  override fun onPositionDiscontinuity(
+    eventTime: AnalyticsListener.EventTime,
+    oldPosition: Player.PositionInfo,
+    newPosition: Player.PositionInfo,
+    reason: Int
+  ) {
+    record(TAG_POSITION_DISCONTINUITY, eventTime) {
+      it.writeVarInt(reason)
+      it.writeSignedVarLong(oldPosition.positionMs)
+      it.writeSignedVarLong(newPosition.positionMs)
+    }
+  }
+
+  override fun onIsPlayingChanged(eventTime: AnalyticsListener.EventTime, isPlaying: Boolean) {
+    record(TAG_IS_PLAYING, eventTime) { it.writeBoolean(isPlaying) }
+  }
+
+  override fun onPlaybackParametersChanged(
+    eventTime: AnalyticsListener.EventTime,
+    playbackParameters: PlaybackParameters
+  ) {
+    record(TAG_PLAYBACK_PARAMETERS, eventTime) {
+      it.writeFloat(playbackParameters.speed)
+      it.writeFloat(playbackParameters.pitch)
+    }
+  }
+
+  override fun onTimelineChanged(eventTime: AnalyticsListener.EventTime, reason: Int) {
+    record(TAG_TIMELINE, eventTime) {
+      it.writeVarInt(reason)
+      // The SDK only looks at the first window
+      val timeline = eventTime.timeline
+      val hasWindow = timeline.windowCount > 0
+      it.writeBoolean(hasWindow)
+      if (hasWindow) {
+        timeline.getWindow(0, timelineWindow)
+        it.writeSignedVarLong(timelineWindow.durationUs)
+        it.writeBoolean(timelineWindow.isSeekable)
+        it.writeBoolean(timelineWindow.isDynamic)
+        it.writeBoolean(timelineWindow.isLive())
+        writeMediaItem(it, timelineWindow.mediaItem)
+      }
+    }
+  }
+
+  override fun onMediaItemTransition(
+    eventTime: AnalyticsListener.EventTime,
+    mediaItem: MediaItem?,
+    reason: Int
+  ) {
+    record(TAG_MEDIA_ITEM_TRANSITION, eventTime) {
+      it.writeVarInt(reason)
+      it.writeBoolean(mediaItem != null)
+      mediaItem?.let { item -> writeMediaItem(it, item) }
+    }
+  }
+
+  override fun onVideoInputFormatChanged(
+    eventTime: AnalyticsListener.EventTime,
+    format: Format,
+    decoderReuseEvaluation: DecoderReuseEvaluation?
+  ) {
+    record(TAG_VIDEO_INPUT_FORMAT, eventTime) { it.writeFormat(format) }
+  }
+
+  override fun onTracksChanged(eventTime: AnalyticsListener.EventTime, tracks: Tracks) {
+    record(TAG_TRACKS, eventTime) {
+      val groups = tracks.groups
+      it.writeVarInt(groups.size)
+      for (group in groups) {
+        it.writeString(group.mediaTrackGroup.id)
+        it.writeBoolean(group.isAdaptiveSupported)
+        it.writeVarInt(group.length)
+        for (i in 0 until group.length) {
+          it.writeFormat(group.getTrackFormat(i))
+          it.writeVarInt(group.getTrackSupport(i))
+          it.writeBoolean(group.isTrackSelected(i))
+        }
+      }
+    }
+  }
+
+  override fun onDownstreamFormatChanged(
+    eventTime: AnalyticsListener.EventTime,
+    mediaLoadData: MediaLoadData
+  ) {
+    record(TAG_DOWNSTREAM_FORMAT, eventTime) { writeMediaLoadData(it, mediaLoadData) }
+  }
+
+  override fun onRenderedFirstFrame(
+    eventTime: AnalyticsListener.EventTime,
+    output: Any,
+    renderTimeMs: Long
+  ) {
+    record(TAG_RENDERED_FIRST_FRAME, eventTime) {
+      it.writeSignedVarLong(renderTimeMs - eventTime.realtimeMs)
+    }
+  }
+
+  override fun onDroppedVideoFrames(
+    eventTime: AnalyticsListener.EventTime,
+    droppedFrames: Int,
+    elapsedMs: Long
+  ) {
+    record(TAG_DROPPED_FRAMES, eventTime) {
+      it.writeVarInt(droppedFrames)
+      it.writeVarLong(elapsedMs)
+    }
+  }
+
+  override fun onVideoSizeChanged(eventTime: AnalyticsListener.EventTime, videoSize: VideoSize) {
+    record(TAG_VIDEO_SIZE, eventTime) {
+      it.writeVarInt(videoSize.width)
+      it.writeVarInt(videoSize.height)
+    }
+  }
+
+  override fun onLoadStarted(
+    eventTime: AnalyticsListener.EventTime,
+    loadEventInfo: LoadEventInfo,
+    mediaLoadData: MediaLoadData
+  ) {
+    recordLoad(TAG_LOAD_STARTED, eventTime, loadEventInfo, mediaLoadData)
+  }
+
+  override fun onLoadCompleted(
+    eventTime: AnalyticsListener.EventTime,
+    loadEventInfo: LoadEventInfo,
+    mediaLoadData: MediaLoadData
+  ) {
+    recordLoad(TAG_LOAD_COMPLETED, eventTime, loadEventInfo, mediaLoadData)
+  }
+
+  override fun onLoadCanceled(
+    eventTime: AnalyticsListener.EventTime,
+    loadEventInfo: LoadEventInfo,
+    mediaLoadData: MediaLoadData
+  ) {
+    recordLoad(TAG_LOAD_CANCELED, eventTime, loadEventInfo, mediaLoadData)
+  }
+
+  override fun onLoadError(
+    eventTime: AnalyticsListener.EventTime,
+    loadEventInfo: LoadEventInfo,
+    mediaLoadData: MediaLoadData,
+    error: IOException,
+    wasCanceled: Boolean
+  ) {
+    recordLoad(TAG_LOAD_ERROR, eventTime, loadEventInfo, mediaLoadData) {
+      it.writeString(error.javaClass.name)
+      it.writeString(error.message)
+      it.writeBoolean(wasCanceled)
+    }
+  }
+
+  private inline fun recordLoad(
+    tag: Int,
+    eventTime: AnalyticsListener.EventTime,
+    loadEventInfo: LoadEventInfo,
+    mediaLoadData: MediaLoadData,
+    crossinline extra: (TraceOutput) -> Unit = {},
+  ) {
+    record(tag, eventTime) {
+      it.writeVarLong(loadEventInfo.loadTaskId)
+      @Suppress("SENSELESS_COMPARISON") // Was null in some older versions of media3
+      it.writeString(if (loadEventInfo.uri != null) loadEventInfo.uri.toString() else null)
+      it.writeVarLong(loadEventInfo.dataSpec.position)
+      it.writeSignedVarLong(loadEventInfo.dataSpec.length)
+      it.writeHeaders(loadEventInfo.responseHeaders)
+      it.writeSignedVarLong(loadEventInfo.elapsedRealtimeMs - eventTime.realtimeMs)
+      it.writeVarLong(loadEventInfo.loadDurationMs)
+      it.writeVarLong(loadEventInfo.bytesLoaded)
+      writeMediaLoadData(it, mediaLoadData)
+      extra(it)
+    }
+  }
+
+  private fun writeMediaLoadData(out: TraceOutput, mediaLoadData: MediaLoadData) {
+    out.writeSignedVarInt(mediaLoadData.dataType)
+    out.writeSignedVarInt(mediaLoadData.trackType)
+    out.writeFormat(mediaLoadData.trackFormat)
+    out.writeSignedVarInt(mediaLoadData.trackSelectionReason)
+    out.writeSignedVarLong(mediaLoadData.mediaStartTimeMs)
+    out.writeSignedVarLong(mediaLoadData.mediaEndTimeMs)
+  }
+
+  private fun writeMediaItem(out: TraceOutput, mediaItem: MediaItem) {
+    out.writeString(mediaItem.mediaId)
+    out.writeString(mediaItem.localConfiguration?.uri?.toString())
+  }
+
+  private fun writeEventTime(out: TraceOutput, eventTime: AnalyticsListener.EventTime) {
+    out.writeSignedVarLong(eventTime.realtimeMs - lastRealtimeMs)
+    lastRealtimeMs = eventTime.realtimeMs
+
+    out.writeVarInt(eventTime.windowIndex)
+    val mediaPeriodId = eventTime.mediaPeriodId
+    when {
+      mediaPeriodId == null -> out.writeByte(PERIOD_NONE)
+      mediaPeriodId.isInAdGroup() -> {
+        out.writeByte(PERIOD_AD)
+        out.writeSignedVarInt(mediaPeriodId.adGroupIndex)
+        out.writeSignedVarInt(mediaPeriodId.adIndexInAdGroup)
+      }
+
+      else -> out.writeByte(PERIOD_CONTENT)
+    }
+    out.writeSignedVarLong(eventTime.eventPlaybackPositionMs)
+    out.writeSignedVarLong(eventTime.currentPlaybackPositionMs)
+    out.writeSignedVarLong(eventTime.totalBufferedDurationMs)
+  }
+
+  private inline fun record(
+    tag: Int,
+    eventTime: AnalyticsListener.EventTime,
+    crossinline block: (TraceOutput) -> Unit
+  ) {
+    record {
+      it.writeByte(tag)
+      writeEventTime(it, eventTime)
+      block(it)
+    }
+  }
+
+  private inline fun record(block: (TraceOutput) -> Unit) {
+    val out = out ?: return
+    try {
+      block(out)
+    } catch (e: IOException) {
+      SdkLogger.exception(e, TAG) { "Couldn't write session trace. Recording stopped" }
+      this.out = null
+      try {
+        out.close()
+      } catch (ignored: IOException) {
+        // Already reported
+      }
+    }
+  }
+
+  companion object {
+    private const val TAG = "SessionTraceRecorder"
+  }
+}
@@ -1,12 +1,13 @@
 package com.mux.stats.sdk.muxstats.bandwidth
 
+import android.os.Handler
 import androidx.annotation.OptIn
 import androidx.media3.common.C
 import androidx.media3.common.Format
 import androidx.media3.common.Timeline
-import androidx.media3.common.Tracks
 import androidx.media3.common.Tracks.Group
 import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.DataSpec
 import androidx.media3.datasource.HttpDataSource
 import androidx.media3.exoplayer.ExoPlayer
 import com.mux.android.util.weak
@@ -15,10 +16,12 @@ import com.mux.stats.sdk.core.events.playback.RequestCanceled
 import com.mux.stats.sdk.core.events.playback.RequestCompleted
 import com.mux.stats.sdk.core.events.playback.RequestFailed
 import com.mux.stats.sdk.core.model.BandwidthMetricData
-import com.mux.stats.sdk.core.model.BandwidthMetricData.Rendition
-import com.mux.stats.sdk.core.util.MuxLogger
+import com.mux.stats.sdk.core.model.ViewData
+import com.mux.stats.sdk.muxstats.BandwidthMetricsOptions
+import com.mux.stats.sdk.muxstats.InstanceLogger
 import com.mux.stats.sdk.muxstats.MuxStateCollector
-import com.mux.stats.sdk.muxstats.mapFormats
+import com.mux.stats.sdk.muxstats.SdkLogger
+import com.mux.stats.sdk.muxstats.TrackAnalyzer
 import java.io.IOException
 import java.util.*
 import java.util.regex.Pattern
@@ -30,34 +33,128 @@ import java.util.regex.Pattern
  */
 internal open class BandwidthMetrics(
   player: ExoPlayer,
-  private val collector: MuxStateCollector
+  private val collector: MuxStateCollector,
+  private val clock: RequestClock,
+  /** Throughput samples from completed loads. Only touched on the player's thread */
+  val throughput: ThroughputEstimator,
+  protected val logger: InstanceLogger = InstanceLogger.NONE,
 ) {
-  /** Available qualities. */
-  var availableTracks: List<Group>? = null
+  /** Available qualities, indexed for looking up the rendition of each completed load */
+  var renditionIndex: RenditionIndex = RenditionIndex.EMPTY
 
   private val player by weak(player)
 
   /**
-   * Each segment that started loading is stored here until the segment ceases loading.
-   * The segment url is the key value of the map.
+   * Each segment that started loading is tracked here until the segment ceases loading, keyed by
+   * the load task id. Records are recycled, and only become [BandwidthMetricData] at dispatch time
    */
-  private var loadedSegments = HashMap<Long, BandwidthMetricData>()
+  private val loadedSegments = InFlightRequestTable()
 
   private var currentTimelineWindow = Timeline.Window()
 
   /**
    * When the segment failed to load an error will be reported to the backend. This also
-   * removes the segment that failed to load from the {@link #loadedSegments} hash map.
+   * removes the segment that failed to load from the {@link #loadedSegments} table.
    *
    * @param loadTaskId, unique segment id.
    * @param e, error that occurred.
+   * @param loadEndMs, when the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   * @param loadDurationMs, how long ExoPlayer says the load took, or 0 if unknown
    * @return segment that failed to load.
    */
-  open fun onLoadError(loadTaskId: Long, e: IOException): BandwidthMetricData {
-    var segmentData: BandwidthMetricData? = loadedSegments[loadTaskId]
-    if (segmentData == null) {
-      segmentData = BandwidthMetricData()
+  fun onLoadError(
+    loadTaskId: Long,
+    e: IOException,
+    loadEndMs: Long,
+    loadDurationMs: Long
+  ): BandwidthMetricData {
+    return loadedSegments.remove(loadTaskId) {
+      finishLoad(it, loadEndMs, loadDurationMs)
+      failedLoadData(it, e, loadEndMs)
+    } ?: failedLoadData(null, e, loadEndMs)
+  }
+
+  /**
+   * If the segment is no longer needed this function will be triggered. This can happen if
+   * the player stopped the playback and wants to stop all network loading. In that case we will
+   * remove the appropriate segment from {@link #loadedSegments}.
+   *
+   * @param loadTaskId, unique id that represent the loaded segment.
+   * @param loadEndMs, when the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   * @param loadDurationMs, how long ExoPlayer says the load took, or 0 if unknown
+   * @return Canceled segment.
+   */
+  fun onLoadCanceled(loadTaskId: Long, loadEndMs: Long, loadDurationMs: Long): BandwidthMetricData {
+    return loadedSegments.remove(loadTaskId) {
+      finishLoad(it, loadEndMs, loadDurationMs)
+      canceledLoadData(it, loadEndMs)
+    } ?: canceledLoadData(null, loadEndMs)
+  }
+
+  /**
+   * Stops tracking the given load, copying what we knew about it into [into] so a beacon can be
+   * built from it later, possibly on another thread.
+   *
+   * @param loadEndMs when the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   * @param loadDurationMs how long ExoPlayer says the load took, or 0 if unknown
+   * @return true if the load was being tracked, false if not
+   */
+  fun takeLoad(
+    loadTaskId: Long,
+    into: LoadRecord,
+    loadEndMs: Long,
+    loadDurationMs: Long
+  ): Boolean {
+    return loadedSegments.remove(loadTaskId) {
+      into.copyFrom(it)
+      finishLoad(into, loadEndMs, loadDurationMs)
+      true
+    } ?: false
+  }
+
+  /**
+   * Fills in what we learn about a load when it ends: its real duration, and its network timing if
+   * the app uses a [com.mux.stats.sdk.muxstats.RequestTimingDataSource]
+   */
+  private fun finishLoad(record: LoadRecord, loadEndMs: Long, loadDurationMs: Long) {
+    record.applyLoadDuration(loadEndMs, loadDurationMs)
+    RequestTimingTable.shared.takeInto(record.dataSpecUri, record.dataSpecPosition, record)
+  }
+
+  /**
+   * Adds a throughput sample for a load that completed. Only media segments are sampled, since
+   * manifests, init segments, and keys are too small to say much about throughput. Call on the
+   * player's thread, after [finishLoad].
+   *
+   * If the app uses a [com.mux.stats.sdk.muxstats.RequestTimingDataSource], the sample is timed
+   * from the response's first byte. Otherwise, only the whole load's duration is known
+   */
+  fun sampleThroughput(record: LoadRecord, bytesLoaded: Long, loadEndMs: Long) {
+    when (record.requestType) {
+      "media", "video", "audio" -> {
+        val transferNs = if (record.hasNetworkTiming) {
+          record.transferEndNs - record.responseStartNs
+        } else {
+          (loadEndMs - record.requestStart) * 1_000_000
+        }
+        throughput.addSample(bytesLoaded, transferNs)
+      }
     }
+  }
+
+  /**
+   * Creates the data for a request that failed. This doesn't touch any mutable state, so it can be
+   * called from any thread
+   *
+   * @param record The record of the load, if it was tracked
+   * @param responseEndMs When the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   */
+  open fun failedLoadData(
+    record: LoadRecord?,
+    e: IOException,
+    responseEndMs: Long
+  ): BandwidthMetricData {
+    val segmentData = record?.toBandwidthMetricData(clock) ?: BandwidthMetricData()
     segmentData.requestError = e.toString()
     if (e is HttpDataSource.InvalidResponseCodeException) {
       segmentData.requestErrorCode = e.responseCode
@@ -66,25 +163,52 @@ internal open class BandwidthMetrics(
       segmentData.requestErrorCode = -1
       segmentData.requestErrorText = e.message
     }
-    segmentData.requestResponseEnd = System.currentTimeMillis()
+    segmentData.requestResponseEnd = clock.toWallClockMs(responseEndMs)
     return segmentData
   }
 
   /**
-   * If the segment is no longer needed this function will be triggered. This can happen if
-   * the player stopped the playback and wants to stop all network loading. In that case we will
-   * remove the appropriate segment from {@link #loadedSegments}.
+   * Creates the data for a request that was canceled. This doesn't touch any mutable state, so it
+   * can be called from any thread
    *
-   * @param loadTaskId, unique id that represent the loaded segment.
-   * @return Canceled segment.
+   * @param record The record of the load, if it was tracked
+   * @param responseEndMs When the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
    */
-  open fun onLoadCanceled(loadTaskId: Long): BandwidthMetricData {
-    var segmentData: BandwidthMetricData? = loadedSegments[loadTaskId]
-    if (segmentData == null) {
-      segmentData = BandwidthMetricData()
-    }
+  open fun canceledLoadData(record: LoadRecord?, responseEndMs: Long): BandwidthMetricData {
+    val segmentData = record?.toBandwidthMetricData(clock) ?: BandwidthMetricData()
     segmentData.requestCancel = "genericLoadCanceled"
-    segmentData.requestResponseEnd = System.currentTimeMillis()
+    segmentData.requestResponseEnd = clock.toWallClockMs(responseEndMs)
+    return segmentData
+  }
+
+  /**
+   * Creates the data for a request that completed. This doesn't touch any mutable state, so it can
+   * be called from any thread
+   *
+   * @param record The record of the load
+   * @param responseEndMs When the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   * @param renditionIndex The rendition index that was current when the load completed
+   */
+  @OptIn(UnstableApi::class) // Opting-in to the bitrate apis
+  open fun completedLoadData(
+    record: LoadRecord,
+    bytesLoaded: Long,
+    trackFormat: Format?,
+    responseEndMs: Long,
+    renditionIndex: RenditionIndex,
+  ): BandwidthMetricData {
+    val segmentData = record.toBandwidthMetricData(clock)
+    segmentData.requestBytesLoaded = bytesLoaded
+    segmentData.requestResponseEnd = clock.toWallClockMs(responseEndMs)
+    if (trackFormat != null) {
+      val level = renditionIndex.levelOf(trackFormat.width, trackFormat.height, trackFormat.bitrate)
+      if (level != RenditionIndex.NOT_FOUND) {
+        segmentData.requestCurrentLevel = level
+        logger.d("BandwidthMetrics") {
+          "onLoadCompleted: found rendition idx $level\nwith format $trackFormat"
+        }
+      }
+    }
     return segmentData
   }
 
@@ -92,8 +216,8 @@ internal open class BandwidthMetrics(
   open fun onLoad(
     loadTaskId: Long, loadStartTimeMs: Long, mediaStartTimeMs: Long, mediaEndTimeMs: Long,
     segmentUrl: String?, dataType: Int, trackType: Int, host: String?, segmentMimeType: String?,
-    segmentWidth: Int, segmentHeight: Int
-  ): BandwidthMetricData {
+    segmentWidth: Int, segmentHeight: Int, dataSpec: DataSpec?
+  ) {
     // Populate segment time details.
     synchronized(currentTimelineWindow) {
       player?.let { safePlayer ->
@@ -102,14 +226,13 @@ internal open class BandwidthMetrics(
             .getWindow(safePlayer.currentWindowIndex, currentTimelineWindow)
         } catch (e: Exception) {
           // Failed to obtain data, ignore, we will get it on next call
-          MuxLogger.exception(e, "BandwidthMetrics", "Failed to get current timeline")
+          SdkLogger.exception(e, "BandwidthMetrics") { "Failed to get current timeline" }
         }
       }
     }
-    val segmentData = BandwidthMetricData()
-    segmentData.requestStart = loadStartTimeMs
-    // todo - this isn't right but requestResponseStart seems to be needed by the core
-    segmentData.requestResponseStart = loadStartTimeMs
+    val segmentData = loadedSegments.start(loadTaskId, loadStartTimeMs)
+    segmentData.dataSpecUri = dataSpec?.uri
+    segmentData.dataSpecPosition = dataSpec?.position ?: 0
     segmentData.requestMediaStartTime = mediaStartTimeMs
     if (segmentWidth != 0 && segmentHeight != 0) {
       segmentData.requestVideoWidth = segmentWidth
@@ -126,21 +249,19 @@ internal open class BandwidthMetrics(
     }
 
     fillRequestType(segmentData, dataType, trackType, mediaEndTimeMs, mediaStartTimeMs)
-    MuxLogger.d("BandwidthMetrics", "onLoad: For request: ${segmentUrl}:"
-        + "\nRequest type: ${segmentData.requestType}"
-        + "\nMedia duration: ${segmentData.requestMediaDuration}")
+    logger.d("BandwidthMetrics") {
+      "onLoad: For request: ${segmentUrl}:" +
+          "\nRequest type: ${segmentData.requestType}" +
+          "\nMedia duration: ${segmentData.requestMediaDuration}"
+    }
 
-    // headers will be picked up when we get onLoadCompleted
-    segmentData.requestResponseHeaders = null
     segmentData.requestHostName = host
     segmentData.requestRenditionLists = collector.renditionList
-    loadedSegments[loadTaskId] = segmentData
-    return segmentData
   }
 
   @OptIn(UnstableApi::class)
   private fun fillRequestType(
-    segmentData: BandwidthMetricData,
+    segmentData: LoadRecord,
     dataType: Int,
     trackType: Int,
     mediaEndTimeMs: Long,
@@ -157,6 +278,7 @@ internal open class BandwidthMetrics(
       }
       C.DATA_TYPE_MEDIA -> {
         segmentData.requestMediaDuration = mediaEndTimeMs - mediaStartTimeMs
+        segmentData.hasMediaDuration = true
         when (trackType) {
           // cmaf or plain hls with a video track
           C.TRACK_TYPE_DEFAULT -> segmentData.requestType = "media"
@@ -176,6 +298,7 @@ internal open class BandwidthMetrics(
    * {@link #onLoadCompleted(Long, String, long, Format)} ,{@link #onLoadError(Long, IOException)}
    * or {@link #onLoadCanceled(Long)}  is called for this segment.
    *
+   * @param loadStartTimeMs, when the load started, in [RequestClock.elapsedRealtimeMs]'s timebase
    * @param mediaStartTimeMs, {@link ExoPlayer} reported segment playback start time, this refer
    *                                           to playback position of segment inside the media
    *                                           presentation (DASH or HLS stream).
@@ -186,14 +309,14 @@ internal open class BandwidthMetrics(
    *                    storage in {@link #loadedSegments} table.
    * @param dataType, type of the segment (manifest, media etc ...)
    * @param host, host associated with this segment.
-   * @return new segment.
+   * @param dataSpec, the spec the load was opened with, if known
    */
   open fun onLoadStarted(
     loadTaskId: Long, loadStartTimeMs: Long, mediaStartTimeMs: Long, mediaEndTimeMs: Long,
     segmentUrl: String?, dataType: Int, trackType: Int, host: String?, segmentMimeType: String?,
-    segmentWidth: Int, segmentHeight: Int
-  ) : BandwidthMetricData {
-    val loadData = onLoad(
+    segmentWidth: Int, segmentHeight: Int, dataSpec: DataSpec?
+  ) {
+    onLoad(
       loadTaskId = loadTaskId,
       loadStartTimeMs = loadStartTimeMs,
       mediaStartTimeMs = mediaStartTimeMs,
@@ -204,79 +327,41 @@ internal open class BandwidthMetrics(
       host = host,
       segmentMimeType = segmentMimeType,
       segmentWidth = segmentWidth,
-      segmentHeight = segmentHeight
+      segmentHeight = segmentHeight,
+      dataSpec = dataSpec,
     )
-    return loadData
-  }
-
-  /**
-   * Called when segment is loaded. This function will retrieve the statistics for this segment
-   * from {@link #loadedSegments} and fill out the remaining metrics.
-   *
-   * @param loadTaskId unique id representing the current segment.
-   * @param segmentUrl url related to the segment.
-   * @param bytesLoaded number of bytes needed to load the segment.
-   * @param trackFormat Media details related to the segment.
-   * @return loaded segment.
-   */
-  @OptIn(UnstableApi::class) // Opting-in to the bitrate apis
-  open fun onLoadCompleted(
-    loadTaskId: Long,
-    segmentUrl: String?,
-    bytesLoaded: Long,
-    trackFormat: Format?
-  ): BandwidthMetricData? {
-    val segmentData: BandwidthMetricData = loadedSegments[loadTaskId] ?: return null
-
-    segmentData.requestBytesLoaded = bytesLoaded
-    segmentData.requestResponseEnd = System.currentTimeMillis()
-    val availableVideoTrackGroups = availableTracks
-    if (trackFormat != null && availableVideoTrackGroups != null) {
-      availableVideoTrackGroups.onEach { group ->
-        for (trackGroupIndex in 0 until group.length) {
-          val currentFormat: Format = group.getTrackFormat(trackGroupIndex)
-          if (trackFormat.width == currentFormat.width
-            && trackFormat.height == currentFormat.height
-            && trackFormat.bitrate == currentFormat.bitrate
-          ) {
-            segmentData.requestCurrentLevel = trackGroupIndex
-            MuxLogger.d(
-              "BandwidthMetrics", "onLoadCompleted: found rendition idx $trackGroupIndex"
-                      + "\nwith format $currentFormat"
-            )
-          }
-        }
-      }
-    }
-    loadedSegments.remove(loadTaskId)
-    return segmentData
   }
 }
 
 internal class BandwidthMetricsHls(
   player: ExoPlayer,
-  collector: MuxStateCollector
-) : BandwidthMetrics(player, collector) {
+  collector: MuxStateCollector,
+  clock: RequestClock,
+  throughput: ThroughputEstimator,
+  logger: InstanceLogger = InstanceLogger.NONE,
+) : BandwidthMetrics(player, collector, clock, throughput, logger) {
 
-  override fun onLoadCanceled(loadTaskId: Long): BandwidthMetricData {
-    val loadData: BandwidthMetricData = super.onLoadCanceled(loadTaskId)
+  override fun canceledLoadData(record: LoadRecord?, responseEndMs: Long): BandwidthMetricData {
+    val loadData: BandwidthMetricData = super.canceledLoadData(record, responseEndMs)
     loadData.requestCancel = "FragLoadEmergencyAborted"
     return loadData
   }
 
   @OptIn(UnstableApi::class) // Opting-in to the bitrate APIs
-  override fun onLoadCompleted(
-    loadTaskId: Long, segmentUrl: String?, bytesLoaded: Long,
-    trackFormat: Format?
-  ): BandwidthMetricData? {
-    val loadData: BandwidthMetricData? =
-      super.onLoadCompleted(loadTaskId, segmentUrl, bytesLoaded, trackFormat)
-    if (trackFormat != null && loadData != null) {
+  override fun completedLoadData(
+    record: LoadRecord,
+    bytesLoaded: Long,
+    trackFormat: Format?,
+    responseEndMs: Long,
+    renditionIndex: RenditionIndex,
+  ): BandwidthMetricData {
+    val loadData: BandwidthMetricData =
+      super.completedLoadData(record, bytesLoaded, trackFormat, responseEndMs, renditionIndex)
+    if (trackFormat != null) {
       if (trackFormat.bitrate > 0) {
-        MuxLogger.d(
-          "BandwidthMetrics",
+        logger.d("BandwidthMetrics") {
           "onLoadCompleted: current track bitrate " + trackFormat.bitrate
-        )
+        }
         loadData.requestLabeledBitrate = trackFormat.bitrate
       }
     }
@@ -294,18 +379,69 @@ internal class BandwidthMetricsHls(
 internal class BandwidthMetricDispatcher(
   player: ExoPlayer,
   collector: MuxStateCollector,
-  private val trackedResponseHeaders: List<TrackedHeader> = listOf()
+  trackedResponseHeaders: List<TrackedHeader> = listOf(),
+  options: BandwidthMetricsOptions = BandwidthMetricsOptions(),
+  private val clock: RequestClock = SystemRequestClock(),
+  private val beforeDispatch: () -> Unit = {},
+  private val logger: InstanceLogger = InstanceLogger.NONE,
 ) {
   private val player: ExoPlayer? by weak(player)
   private val collector: MuxStateCollector? by weak(collector)
-  private val bandwidthMetricHls: BandwidthMetricsHls = BandwidthMetricsHls(player, collector)
+  private val bandwidthMetricHls: BandwidthMetricsHls = BandwidthMetricsHls(
+    player,
+    collector,
+    clock,
+    ThroughputEstimator(reportIntervalMs = options.throughputReportIntervalMs),
+    logger,
+  )
+  private val responseHeaderFilter = ResponseHeaderFilter(trackedResponseHeaders)
+  // Aggregated requests don't get beacons of their own, so there's nothing to move off the
+  //  player's thread
+  private val pipeline: RequestBeaconPipeline? =
+    if (options.dispatchInBackground && !options.aggregateRequests) {
+      RequestBeaconPipeline(
+        bandwidthMetrics = bandwidthMetricHls,
+        trackedResponseHeaders = trackedResponseHeaders,
+        playerLooper = player.applicationLooper,
+        flushIntervalMs = options.backgroundFlushIntervalMs,
+        queueSize = options.backgroundQueueSize,
+        // The pipeline only takes beacons the rate limiter already let through
+        dispatchBatch = { batch -> batch.forEach { send(it.bandwidthMetricData, it, 0) } }
+      )
+    } else {
+      null
+    }
   private var debugModeOn: Boolean = false
-  private var requestSegmentDuration: Long = 1000
-  private var lastRequestSentAt: Long = -1
-  private var maxNumberOfEventsPerSegmentDuration: Int = 10
-  private var numberOfRequestCompletedBeaconsSentPerSegment: Int = 0
-  private var numberOfRequestCancelBeaconsSentPerSegment: Int = 0
-  private var numberOfRequestFailedBeaconsSentPerSegment: Int = 0
+  private var renditionIndex: RenditionIndex = RenditionIndex.EMPTY
+  private val renditionLadderTracker = RenditionLadderTracker()
+  private val rateLimiter = RequestBeaconRateLimiter(
+    manifestBudget = options.manifestBeaconBudget,
+    mediaBudget = options.mediaBeaconBudget,
+    initBudget = options.initBeaconBudget,
+    drmBudget = options.drmBeaconBudget,
+    excessSampleRate = options.excessBeaconSampleRate,
+  )
+  private val aggregator: RequestAggregator? =
+    if (options.aggregateRequests) RequestAggregator() else null
+  private val aggregationIntervalMs = options.aggregationIntervalMs
+  private var aggregationStartMs: Long = clock.elapsedRealtimeMs()
+  private var released = false
+
+  // Sends the aggregate on a fixed cadence, even if no requests finish to trigger it
+  private val aggregationHandler: Handler? = aggregator?.let { Handler(player.applicationLooper) }
+  private val flushAggregateTask = Runnable {
+    if (!released && aggregator != null) {
+      flushAggregate(aggregator, clock.elapsedRealtimeMs())
+      scheduleAggregateFlush()
+    }
+  }
+
+  init {
+    scheduleAggregateFlush()
+  }
+
+  /** Holds each finished load while it's handled on the player's thread */
+  private val completedRecord = LoadRecord()
 
   private fun currentBandwidthMetric(): BandwidthMetricsHls {
     // in the future if bandwidth metrics for dash required a different logic we will implement
@@ -314,20 +450,67 @@ internal class BandwidthMetricDispatcher(
   }
 
   @Suppress("UNUSED_PARAMETER")
-  fun onLoadError(loadTaskId: Long, segmentUrl: String?, e: IOException) {
+  fun onLoadError(
+    loadTaskId: Long, segmentUrl: String?, e: IOException, loadEndMs: Long, loadDurationMs: Long
+  ) {
     if (player == null || collector == null) {
       return
     }
-    val loadData: BandwidthMetricData = currentBandwidthMetric().onLoadError(loadTaskId, e)
+    if (pipeline != null) {
+      val metrics = currentBandwidthMetric()
+      val record = completedRecord
+      try {
+        val hasRecord = metrics.takeLoad(loadTaskId, record, loadEndMs, loadDurationMs)
+        // Checked before a slot is claimed, so dropped beacons never take up the queue
+        val droppedCount = tryAdmit(record.requestType)
+        if (droppedCount < 0) {
+          return
+        }
+        val taken = record.takeIf { hasRecord }
+        if (!pipeline.offerFailed(taken, e, loadEndMs, droppedCount)) {
+          send(metrics.failedLoadData(taken, e, loadEndMs), RequestFailed(null), droppedCount)
+        }
+      } finally {
+        record.reset()
+      }
+      return
+    }
+    val loadData: BandwidthMetricData =
+      currentBandwidthMetric().onLoadError(loadTaskId, e, loadEndMs, loadDurationMs)
     dispatch(data = loadData, event = RequestFailed(null))
   }
 
   @Suppress("UNUSED_PARAMETER")
-  fun onLoadCanceled(loadTaskId: Long, segmentUrl: String?, headers: Map<String, List<String>>) {
+  fun onLoadCanceled(
+    loadTaskId: Long, segmentUrl: String?, headers: Map<String, List<String>>, loadEndMs: Long,
+    loadDurationMs: Long
+  ) {
     if (player == null || collector == null) {
       return
     }
-    val loadData: BandwidthMetricData = currentBandwidthMetric().onLoadCanceled(loadTaskId)
+    if (pipeline != null) {
+      val metrics = currentBandwidthMetric()
+      val record = completedRecord
+      try {
+        val hasRecord = metrics.takeLoad(loadTaskId, record, loadEndMs, loadDurationMs)
+        // Checked before a slot is claimed, so dropped beacons never take up the queue
+        val droppedCount = tryAdmit(record.requestType)
+        if (droppedCount < 0) {
+          return
+        }
+        val taken = record.takeIf { hasRecord }
+        if (!pipeline.offerCanceled(taken, headers, loadEndMs, droppedCount)) {
+          val loadData = metrics.canceledLoadData(taken, loadEndMs)
+          parseHeaders(loadData, headers)
+          send(loadData, RequestCanceled(null), droppedCount)
+        }
+      } finally {
+        record.reset()
+      }
+      return
+    }
+    val loadData: BandwidthMetricData =
+      currentBandwidthMetric().onLoadCanceled(loadTaskId, loadEndMs, loadDurationMs)
     parseHeaders(loadData, headers)
     dispatch(loadData, RequestCanceled(null))
   }
@@ -335,11 +518,13 @@ internal class BandwidthMetricDispatcher(
   fun onLoadStarted(
     loadTaskId: Long, loadStartTimeMs: Long, mediaStartTimeMs: Long, mediaEndTimeMs: Long, segmentUrl: String?,
     dataType: Int, trackType: Int, host: String?, segmentMimeType: String?,
-    segmentWidth: Int, segmentHeight: Int
+    segmentWidth: Int, segmentHeight: Int, dataSpec: DataSpec?
   ) {
     if (player == null || collector == null) {
       return
     }
+    // Checked here, since no beacon is being built on this thread
+    clock.reanchorIfDrifted()
     currentBandwidthMetric().onLoadStarted(
       loadTaskId,
       loadStartTimeMs,
@@ -351,23 +536,69 @@ internal class BandwidthMetricDispatcher(
       host,
       segmentMimeType,
       segmentWidth,
-      segmentHeight
+      segmentHeight,
+      dataSpec
     )
   }
 
+  @Suppress("UNUSED_PARAMETER")
   fun onLoadCompleted(
     loadTaskId: Long, segmentUrl: String?, bytesLoaded: Long, trackFormat: Format?,
-    responseHeaders: Map<String, List<String>>
+    responseHeaders: Map<String, List<String>>, loadEndMs: Long, loadDurationMs: Long
   ) {
     if (player == null || collector == null) {
       return
     }
-    val loadData: BandwidthMetricData? = currentBandwidthMetric().onLoadCompleted(
-      loadTaskId, segmentUrl, bytesLoaded, trackFormat
-    )
-    if (loadData != null) {
+    val metrics = currentBandwidthMetric()
+    val record = completedRecord
+    if (!metrics.takeLoad(loadTaskId, record, loadEndMs, loadDurationMs)) {
+      return
+    }
+    try {
+      metrics.sampleThroughput(record, bytesLoaded, loadEndMs)
+      // Most loads of a long session are aggregated or rate-limited, so only build a beacon for
+      //  the ones that will be sent
+      if (aggregator != null) {
+        aggregator.addCompleted(
+          record.requestType,
+          record.requestHostName,
+          bytesLoaded,
+          loadEndMs - record.requestStart
+        )
+        maybeFlushAggregate(aggregator)
+        return
+      }
+      val droppedCount = tryAdmit(record.requestType)
+      if (droppedCount < 0) {
+        return
+      }
+      if (pipeline?.offerCompleted(
+          record, bytesLoaded, trackFormat, metrics.renditionIndex, responseHeaders, loadEndMs,
+          droppedCount
+        ) == true
+      ) {
+        return
+      }
+      val loadData = metrics.completedLoadData(
+        record, bytesLoaded, trackFormat, loadEndMs, metrics.renditionIndex
+      )
       parseHeaders(loadData, responseHeaders)
-      dispatch(loadData, RequestCompleted(null))
+      send(loadData, RequestCompleted(null), droppedCount)
+    } finally {
+      record.reset()
+    }
+  }
+
+  /**
+   * Call when the player is being unbound. Request beacons that are still queued are dispatched
+   * shortly after, on the player's thread
+   */
+  fun release() {
+    released = true
+    aggregationHandler?.removeCallbacks(flushAggregateTask)
+    pipeline?.release()
+    if (aggregator != null) {
+      flushAggregate(aggregator, clock.elapsedRealtimeMs())
     }
   }
 
@@ -375,7 +606,7 @@ internal class BandwidthMetricDispatcher(
     loadData: BandwidthMetricData,
     responseHeaders: Map<String, List<String>>
   ) {
-    val headers: Hashtable<String, String>? = parseHeaders(responseHeaders)
+    val headers: Hashtable<String, String>? = responseHeaderFilter.filter(responseHeaders)
     if (headers != null) {
       loadData.requestId = headers["x-request-id"]
       loadData.requestResponseHeaders = headers
@@ -383,38 +614,61 @@ internal class BandwidthMetricDispatcher(
   }
 
   /**
-   * Call when the player's track list changes, so we can report rendition lists on request events
+   * Call when a new view is about to start, while the old view can still take events. The old
+   * view's aggregated requests are sent and a new interval starts. The next request beacon carries
+   * the whole rendition ladder again, since the view it belongs to hasn't seen it. The rate limits
+   * start over with full budgets, the throughput estimate starts over, and the wall clock is read
+   * again for the new view's request times
    */
-  @OptIn(UnstableApi::class) // Opting-in to the Bitrate APIs
-  fun onTracksChanged(tracks: Tracks) {
-    MuxLogger.d("BandwidthMetrics", "onTracksChanged: Got ${tracks.groups.size} tracks")
-    currentBandwidthMetric().availableTracks =
-      tracks.groups.filter { it.type == C.TRACK_TYPE_VIDEO }
+  fun onViewChange() {
+    if (aggregator != null && !released) {
+      flushAggregate(aggregator, clock.elapsedRealtimeMs())
+      scheduleAggregateFlush()
+    }
+    rateLimiter.reset()
+    renditionLadderTracker.reset()
+    currentBandwidthMetric().throughput.reset()
+    clock.reanchor()
+  }
+
+  /**
+   * Call when the player's track list changes, so we can report rendition lists on request events.
+   * The rendition index is only rebuilt if the analyzer found that the video ladder changed
+   */
+  fun onTracksChanged(trackAnalyzer: TrackAnalyzer) {
+    logger.d("BandwidthMetrics") {
+      "onTracksChanged: Got ${trackAnalyzer.videoGroups.size} video groups"
+    }
+    if (trackAnalyzer.renditionsChanged) {
+      renditionIndex = createRenditionIndex(trackAnalyzer.videoGroups)
+    }
+    currentBandwidthMetric().renditionIndex = renditionIndex
     if (player == null || collector == null) {
       return
     }
-    val renditions = tracks.groups.filter { it.type == C.TRACK_TYPE_VIDEO }
-      .flatMap {
-        it.mapFormats { trackFormat ->
-          Rendition().apply {
-            bitrate = trackFormat.bitrate.toLong()
-            width = trackFormat.width
-            height = trackFormat.height
-            codec = trackFormat.codecs
-            fps = trackFormat.frameRate
-            name = trackFormat.width.toString() + "_" +
-                    trackFormat.height + "_" +
-                    trackFormat.bitrate + "_" + trackFormat.codecs + "_" +
-                    trackFormat.frameRate
-          }
-        }
-      }
-    collector?.renditionList = renditions
-    MuxLogger.d(
-      "BandwidthMetrics",
+    collector?.renditionList = trackAnalyzer.renditionList
+    logger.d("BandwidthMetrics") {
       "onTracksChanged: ended function with renditions: " +
-              collector?.renditionList?.map { it.debugString() }
-    )
+          collector?.renditionList?.map { it.debugString() }
+    }
+  }
+
+  @OptIn(UnstableApi::class) // Opting-in to the Bitrate APIs
+  private fun createRenditionIndex(videoGroups: List<Group>): RenditionIndex {
+    var renditionCount = 0
+    for (i in videoGroups.indices) {
+      renditionCount += videoGroups[i].length
+    }
+    val index = RenditionIndex(renditionCount)
+    // Later renditions win, same as when each load searched through the whole ladder
+    for (i in videoGroups.indices) {
+      val group = videoGroups[i]
+      for (trackGroupIndex in 0 until group.length) {
+        val format = group.getTrackFormat(trackGroupIndex)
+        index.put(format.width, format.height, format.bitrate, trackGroupIndex)
+      }
+    }
+    return index
   }
 
   private fun BandwidthMetricData.Rendition.debugString(): String {
@@ -422,129 +676,154 @@ internal class BandwidthMetricDispatcher(
   }
 
   private fun dispatch(data: BandwidthMetricData, event: PlaybackEvent) {
-    if (shouldDispatchEvent(data, event)) {
-      event.bandwidthMetricData = data
-      collector?.dispatcher?.dispatch(event)
+    if (aggregator != null) {
+      aggregate(aggregator, data, event)
+      return
+    }
+    val droppedCount = tryAdmit(data.requestType)
+    if (droppedCount >= 0) {
+      send(data, event, droppedCount)
     }
   }
 
-  private fun parseHeaders(responseHeaders: Map<String, List<String>>): Hashtable<String, String>? {
-    if (responseHeaders.isEmpty()) {
-      return null
+  /**
+   * Sends a request beacon the rate limiter let through
+   *
+   * @param droppedCount How many beacons of the same kind were dropped before this one
+   */
+  private fun send(data: BandwidthMetricData, event: PlaybackEvent, droppedCount: Long) {
+    if (droppedCount > 0) {
+      // Lets the backend re-weight this beacon to account for the ones we didn't send
+      data.put(DROPPED_BEACON_COUNT_KEY, droppedCount.toString())
     }
+    renditionLadderTracker.attachTo(data)
+    attachThroughputSummary(event)
+    event.bandwidthMetricData = data
+    beforeDispatch()
+    collector?.dispatcher?.dispatch(event)
+  }
 
-    val headers: Hashtable<String, String> = Hashtable<String, String>()
-    for (headerName in responseHeaders.keys) {
-      var headerTracked = false
-      synchronized(this) {
-        for (trackedHeader in trackedResponseHeaders) {
-          if (trackedHeader.matches(headerName)) {
-            headerTracked = true
-          }
-        }
-      }
-      if (!headerTracked) {
-        // Pass this header, we do not need it
-        continue
-      }
+  /**
+   * Adds the throughput summary to [event] as view data, if one is due, so it's reported for the
+   * view instead of for the request the event is about
+   */
+  private fun attachThroughputSummary(event: PlaybackEvent) {
+    val throughput = currentBandwidthMetric().throughput
+    val nowMs = clock.elapsedRealtimeMs()
+    if (throughput.isSummaryDue(nowMs)) {
+      val viewData = event.viewData ?: ViewData()
+      throughput.maybeAttachSummary(viewData, nowMs)
+      event.viewData = viewData
+    }
+  }
 
-      val headerValues: List<String> = responseHeaders[headerName]!!
-      if (headerValues.isEmpty()) {
-        headers[headerName] = ""
-      } else if (headerValues.size == 1) {
-        headers[headerName] = headerValues[0]
-      } else if (headerValues.size > 1) {
-        // In the case that there is more than one header, we squash
-        // it down to a single comma-separated value per RFC 2616
-        // https://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2
-        var headerValue: String = headerValues[0]
-        for (i in 1 until headerValues.size) {
-          headerValue = headerValue + ", " + headerValues[i]
-        }
-        headers[headerName] = headerValue
-      }
+  /**
+   * Folds a request into the current interval instead of sending it, and sends the interval's
+   * summary if it's over
+   */
+  private fun aggregate(
+    aggregator: RequestAggregator,
+    data: BandwidthMetricData,
+    event: PlaybackEvent
+  ) {
+    when (event) {
+      is RequestCompleted -> aggregator.addCompleted(data)
+      is RequestFailed -> aggregator.addFailed(data)
+      is RequestCanceled -> aggregator.addCanceled(data)
     }
-    return headers
+    maybeFlushAggregate(aggregator)
+  }
+
+  /**
+   * Requests that finish after [release] are summarized right away, since the interval's timer is
+   * stopped. Otherwise the timer sends the summary
+   */
+  private fun maybeFlushAggregate(aggregator: RequestAggregator) {
+    if (released) {
+      flushAggregate(aggregator, clock.elapsedRealtimeMs())
+    }
+  }
+
+  /**
+   * Starts timing a new aggregation interval, replacing any flush that was scheduled
+   */
+  private fun scheduleAggregateFlush() {
+    val handler = aggregationHandler ?: return
+    handler.removeCallbacks(flushAggregateTask)
+    handler.postDelayed(flushAggregateTask, aggregationIntervalMs)
+  }
+
+  /**
+   * Sends a summary of the current interval, if it had any requests, as a [RequestSummaryEvent]
+   * whose start and end are the interval's, then starts a new interval
+   */
+  private fun flushAggregate(aggregator: RequestAggregator, nowMs: Long) {
+    val requestCount = aggregator.pendingCount
+    val aggregate = aggregator.flush()
+    if (aggregate != null) {
+      val summary = BandwidthMetricData()
+      summary.put(RequestAggregator.AGGREGATE_KEY, aggregate)
+      summary.put(RequestAggregator.AGGREGATE_COUNT_KEY, requestCount.toString())
+      summary.requestStart = clock.toWallClockMs(aggregationStartMs)
+      summary.requestResponseEnd = clock.toWallClockMs(nowMs)
+      val event = RequestSummaryEvent()
+      attachThroughputSummary(event)
+      event.bandwidthMetricData = summary
+      beforeDispatch()
+      collector?.dispatcher?.dispatch(event)
+    }
+    aggregationStartMs = nowMs
   }
 
   /**
    * Make sure we do not overflow backend with Request events in case we have a broken live stream
    * and player keeps loading manifest or some other short segment not really needed for playback.
+   * This is checked before a beacon is built, so dropped requests cost nothing.
    *
-   * @param data, all statistics collected for this segment.
-   * @param event, event to be dispatched.
-   * @return true if number of request completed events do not exceed two request per media
-   * segment duration.
+   * @param requestType The type of the request, as in `BandwidthMetricData.requestType`
+   * @return -1 if the beacon should be dropped. Otherwise, the number of beacons of the same kind
+   * that were dropped before this one
    */
-  private fun shouldDispatchEvent(data: BandwidthMetricData, event: PlaybackEvent): Boolean {
-    requestSegmentDuration =
-      if (data.requestMediaDuration == null || data.requestMediaDuration < 1000) {
-        1000
-      } else {
-        data.requestMediaDuration
-      }
-    val timeDiff: Long = System.currentTimeMillis() - lastRequestSentAt
-    if (timeDiff > requestSegmentDuration) {
-      // Reset all stats
-      lastRequestSentAt = System.currentTimeMillis()
-      numberOfRequestCompletedBeaconsSentPerSegment = 0
-      numberOfRequestCancelBeaconsSentPerSegment = 0
-      numberOfRequestFailedBeaconsSentPerSegment = 0
-    }
-    if (event is RequestCompleted) {
-      numberOfRequestCompletedBeaconsSentPerSegment++
-    }
-    if (event is RequestCanceled) {
-      numberOfRequestCancelBeaconsSentPerSegment++
-    }
-    if (event is RequestFailed) {
-      numberOfRequestFailedBeaconsSentPerSegment++
-    }
-    if (numberOfRequestCompletedBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration
-      || numberOfRequestCancelBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration
-      || numberOfRequestFailedBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration
-    ) {
+  private fun tryAdmit(requestType: String?): Long {
+    if (!rateLimiter.tryAcquire(requestType, clock.elapsedRealtimeMs())) {
       if (debugModeOn) {
-        MuxLogger.d(
-          "BandwidthMetrics", "Dropping event: " + event.type
-                  + "\nnumberOfRequestCompletedBeaconsSentPerSegment: "
-                  + numberOfRequestCompletedBeaconsSentPerSegment
-                  + "\nnumberOfRequestCancelBeaconsSentPerSegment: "
-                  + numberOfRequestCancelBeaconsSentPerSegment
-                  + "\nnumberOfRequestFailedBeaconsSentPerSegment: "
-                  + numberOfRequestFailedBeaconsSentPerSegment
-                  + "\ntimeDiff: " + timeDiff
-        )
+        logger.d("BandwidthMetrics") { "Dropping request beacon for $requestType" }
+      }
+      return -1
+    }
+
+    val droppedCount = rateLimiter.takeDroppedCount(requestType)
+    if (droppedCount > 0 && debugModeOn) {
+      logger.d("BandwidthMetrics") {
+        "Sending request beacon for $requestType after dropping $droppedCount"
       }
-      return false
-    }
-    if (debugModeOn) {
-      MuxLogger.d(
-        "BandwidthMetrics", "All good: " + event.type
-                + "\nnumberOfRequestCompletedBeaconsSentPerSegment: "
-                + numberOfRequestCompletedBeaconsSentPerSegment
-                + "\nnumberOfRequestCancelBeaconsSentPerSegment: "
-                + numberOfRequestCancelBeaconsSentPerSegment
-                + "\nnumberOfRequestFailedBeaconsSentPerSegment: "
-                + numberOfRequestFailedBeaconsSentPerSegment
-                + "\ntimeDiff: " + timeDiff
-      )
     }
-    return true
-  } // fun shouldDispatchEvent
+    return droppedCount
+  } // fun tryAdmit
+
+  companion object {
+    /** Key for the number of request beacons of the same kind dropped before a beacon */
+    internal const val DROPPED_BEACON_COUNT_KEY = "qrdrpcn"
+  }
 } // class BandwidthMetricDispatcher
 
 internal sealed class TrackedHeader {
 
   abstract fun matches(headerName: String?): Boolean
 
-  class ExactlyIgnoreCase(private val name: String) : TrackedHeader() {
+  class ExactlyIgnoreCase(val name: String) : TrackedHeader() {
     override fun matches(headerName: String?): Boolean {
       return headerName.contentEquals(name, true)
     }
   }
 
-  class Matching(private val pattern: Pattern) : TrackedHeader() {
+  class PrefixIgnoreCase(val prefix: String) : TrackedHeader() {
+    override fun matches(headerName: String?): Boolean {
+      return headerName?.startsWith(prefix, true) ?: false
+    }
+  }
+
+  class Matching(val pattern: Pattern) : TrackedHeader() {
     override fun matches(headerName: String?): Boolean {
       return if (headerName != null) {
         val matcher = pattern.matcher(headerName)
@@ -554,4 +833,16 @@ internal sealed class TrackedHeader {
       }
     }
   }
+
+  companion object {
+    /**
+     * The response headers that player bindings track by default
+     */
+    val DEFAULTS: List<TrackedHeader> = listOf(
+      ExactlyIgnoreCase("x-cdn"),
+      ExactlyIgnoreCase("content-type"),
+      ExactlyIgnoreCase("x-request-id"),
+      PrefixIgnoreCase("x-litix-"),
+    )
+  }
 }
@@ -0,0 +1,361 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import android.net.Uri
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.core.model.BandwidthMetricData.Rendition
+
+/**
+ * Facts about a single in-flight load, captured when ExoPlayer reports that a load started.
+ * Instances are owned by an [InFlightRequestTable] and recycled once the load ends, so nothing here
+ * should be held onto after [InFlightRequestTable.remove] returns it to the pool.
+ *
+ * A [BandwidthMetricData] is only created from a record at dispatch time, see [toBandwidthMetricData]
+ */
+internal class LoadRecord {
+  var loadTaskId: Long = 0
+  /** When the load started, in [RequestClock.elapsedRealtimeMs]'s timebase */
+  var requestStart: Long = 0
+  var requestMediaStartTime: Long = 0
+  var requestMediaDuration: Long = 0
+  var hasMediaDuration: Boolean = false
+  var requestVideoWidth: Int = 0
+  var requestVideoHeight: Int = 0
+  var requestUrl: String? = null
+  var requestHostName: String? = null
+  var requestType: String? = null
+  var requestRenditionLists: List<Rendition>? = null
+
+  /** The `DataSpec` the load was opened with. Used to find its [RequestTimingTable] entry */
+  var dataSpecUri: Uri? = null
+  var dataSpecPosition: Long = 0
+
+  /** True if a [com.mux.stats.sdk.muxstats.RequestTimingDataSource] measured this load */
+  var hasNetworkTiming: Boolean = false
+  /** The network timing of this load, in `SystemClock.elapsedRealtimeNanos()` */
+  var openStartNs: Long = 0
+  var responseStartNs: Long = 0
+  var transferEndNs: Long = 0
+  var bytesTransferred: Long = 0
+
+  fun reset() {
+    loadTaskId = 0
+    requestStart = 0
+    requestMediaStartTime = 0
+    requestMediaDuration = 0
+    hasMediaDuration = false
+    requestVideoWidth = 0
+    requestVideoHeight = 0
+    requestUrl = null
+    requestHostName = null
+    requestType = null
+    requestRenditionLists = null
+    dataSpecUri = null
+    dataSpecPosition = 0
+    hasNetworkTiming = false
+    openStartNs = 0
+    responseStartNs = 0
+    transferEndNs = 0
+    bytesTransferred = 0
+  }
+
+  fun copyFrom(other: LoadRecord) {
+    loadTaskId = other.loadTaskId
+    requestStart = other.requestStart
+    requestMediaStartTime = other.requestMediaStartTime
+    requestMediaDuration = other.requestMediaDuration
+    hasMediaDuration = other.hasMediaDuration
+    requestVideoWidth = other.requestVideoWidth
+    requestVideoHeight = other.requestVideoHeight
+    requestUrl = other.requestUrl
+    requestHostName = other.requestHostName
+    requestType = other.requestType
+    requestRenditionLists = other.requestRenditionLists
+    dataSpecUri = other.dataSpecUri
+    dataSpecPosition = other.dataSpecPosition
+    hasNetworkTiming = other.hasNetworkTiming
+    openStartNs = other.openStartNs
+    responseStartNs = other.responseStartNs
+    transferEndNs = other.transferEndNs
+    bytesTransferred = other.bytesTransferred
+  }
+
+  /**
+   * Corrects [requestStart] using the duration ExoPlayer measured for the load, if it has one. The
+   * load's start callback can be delivered a little after the load actually started
+   *
+   * @param loadEndMs when the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase
+   */
+  fun applyLoadDuration(loadEndMs: Long, loadDurationMs: Long) {
+    if (loadDurationMs > 0 && loadEndMs >= loadDurationMs) {
+      requestStart = loadEndMs - loadDurationMs
+    }
+  }
+
+  fun toBandwidthMetricData(clock: RequestClock): BandwidthMetricData {
+    val data = BandwidthMetricData()
+    val requestStartWallClockMs = clock.toWallClockMs(requestStart)
+    data.requestStart = requestStartWallClockMs
+    if (hasNetworkTiming) {
+      data.requestResponseStart = clock.toWallClockMs(responseStartNs / NANOS_PER_MS)
+      data.put(OPEN_DURATION_KEY, formatMs(responseStartNs - openStartNs))
+      data.put(TRANSFER_DURATION_KEY, formatMs(transferEndNs - responseStartNs))
+    } else {
+      // Without a RequestTimingDataSource we don't know when the response started, but the core
+      // needs requestResponseStart
+      data.requestResponseStart = requestStartWallClockMs
+    }
+    data.requestMediaStartTime = requestMediaStartTime
+    if (hasMediaDuration) {
+      data.requestMediaDuration = requestMediaDuration
+    }
+    data.requestVideoWidth = requestVideoWidth
+    data.requestVideoHeight = requestVideoHeight
+    data.requestUrl = requestUrl
+    data.requestType = requestType
+    // headers will be picked up when we get onLoadCompleted
+    data.requestResponseHeaders = null
+    data.requestHostName = requestHostName
+    data.requestRenditionLists = requestRenditionLists
+    return data
+  }
+
+  companion object {
+    /**
+     * Key for how long opening the request took (DNS, connecting, and waiting for the response to
+     * start), in milliseconds
+     */
+    const val OPEN_DURATION_KEY = "qropndu"
+
+    /** Key for how long the response body took to arrive, in milliseconds */
+    const val TRANSFER_DURATION_KEY = "qrtrndu"
+
+    private const val NANOS_PER_MS = 1_000_000L
+
+    /** Formats a duration as milliseconds, keeping microseconds */
+    private fun formatMs(durationNs: Long): String {
+      return ((durationNs.coerceAtLeast(0) / 1_000) / 1_000.0).toString()
+    }
+  }
+}
+
+/**
+ * Bounded table of in-flight loads, keyed by ExoPlayer's `loadTaskId`.
+ *
+ * Keys are stored as primitive longs in an open-addressing (linear probing) table, and the values
+ * are [LoadRecord]s taken from a fixed-size pool, so starting and ending a load doesn't allocate.
+ * If the table is full when a new load starts, entries older than [staleAfterMs] are evicted first,
+ * and then the oldest remaining entry. This keeps the table from growing without bound if the
+ * player never reports the end of a load.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class InFlightRequestTable(
+  private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+  private val staleAfterMs: Long = DEFAULT_STALE_AFTER_MS,
+) {
+
+  private val capacity: Int = tableCapacityFor(maxEntries)
+  private val mask: Int = capacity - 1
+  private val keys = LongArray(capacity)
+  private val values = arrayOfNulls<LoadRecord>(capacity)
+
+  private val pool = arrayOfNulls<LoadRecord>(maxEntries)
+  private var pooledCount = 0
+
+  /** The number of loads currently being tracked */
+  var size: Int = 0
+    private set
+
+  /** The number of loads evicted because the table was full since this table was created */
+  var evictedCount: Long = 0
+    private set
+
+  init {
+    require(maxEntries > 0) { "maxEntries must be positive" }
+    for (i in 0 until maxEntries) {
+      pool[i] = LoadRecord()
+    }
+    pooledCount = maxEntries
+  }
+
+  /**
+   * Starts tracking a load, returning a clean [LoadRecord] for the caller to fill in. If a load with
+   * the same id is already tracked, its record is reset and reused
+   *
+   * @param nowMs the current time, in the same timebase as [LoadRecord.requestStart]
+   */
+  fun start(loadTaskId: Long, nowMs: Long): LoadRecord {
+    val existingSlot = slotOf(loadTaskId)
+    if (existingSlot >= 0) {
+      val record = values[existingSlot]!!
+      record.reset()
+      record.loadTaskId = loadTaskId
+      record.requestStart = nowMs
+      return record
+    }
+
+    if (size >= maxEntries) {
+      evict(nowMs)
+    }
+
+    val record = pool[--pooledCount]!!
+    pool[pooledCount] = null
+    record.loadTaskId = loadTaskId
+    record.requestStart = nowMs
+
+    var slot = indexFor(loadTaskId)
+    while (values[slot] != null) {
+      slot = (slot + 1) and mask
+    }
+    keys[slot] = loadTaskId
+    values[slot] = record
+    size++
+    return record
+  }
+
+  /**
+   * Returns the record for the given load, or null if it isn't being tracked. The record stays in
+   * the table
+   */
+  operator fun get(loadTaskId: Long): LoadRecord? {
+    val slot = slotOf(loadTaskId)
+    return if (slot >= 0) values[slot] else null
+  }
+
+  /**
+   * Stops tracking the given load. If it was tracked, [block] is called with its record before the
+   * record is returned to the pool, and its result is returned. Otherwise, returns null
+   */
+  inline fun <R> remove(loadTaskId: Long, block: (LoadRecord) -> R): R? {
+    val record = detach(loadTaskId) ?: return null
+    try {
+      return block(record)
+    } finally {
+      recycle(record)
+    }
+  }
+
+  /**
+   * Stops tracking all loads
+   */
+  fun clear() {
+    for (slot in 0 until capacity) {
+      values[slot]?.let { recycle(it) }
+      values[slot] = null
+      keys[slot] = 0
+    }
+    size = 0
+  }
+
+  fun detach(loadTaskId: Long): LoadRecord? {
+    val slot = slotOf(loadTaskId)
+    if (slot < 0) {
+      return null
+    }
+    val record = values[slot]
+    deleteSlot(slot)
+    return record
+  }
+
+  fun recycle(record: LoadRecord) {
+    record.reset()
+    pool[pooledCount++] = record
+  }
+
+  private fun evict(nowMs: Long) {
+    // First pass: drop anything that looks abandoned
+    var slot = 0
+    while (slot < capacity) {
+      val record = values[slot]
+      if (record != null && nowMs - record.requestStart > staleAfterMs) {
+        deleteSlot(slot)
+        recycle(record)
+        evictedCount++
+        // deleteSlot() may shift a later entry into this slot, so check it again
+      } else {
+        slot++
+      }
+    }
+
+    if (size < maxEntries) {
+      return
+    }
+
+    // Nothing was stale, so make room by dropping the oldest load
+    var oldestSlot = -1
+    for (i in 0 until capacity) {
+      val record = values[i] ?: continue
+      if (oldestSlot < 0 || record.requestStart < values[oldestSlot]!!.requestStart) {
+        oldestSlot = i
+      }
+    }
+    if (oldestSlot >= 0) {
+      val oldest = values[oldestSlot]!!
+      deleteSlot(oldestSlot)
+      recycle(oldest)
+      evictedCount++
+    }
+  }
+
+  private fun slotOf(loadTaskId: Long): Int {
+    var slot = indexFor(loadTaskId)
+    while (true) {
+      values[slot] ?: return -1
+      if (keys[slot] == loadTaskId) {
+        return slot
+      }
+      slot = (slot + 1) and mask
+    }
+  }
+
+  /**
+   * Removes the entry at the given slot, shifting later entries of the same probe sequence back so
+   * lookups don't need tombstones
+   */
+  private fun deleteSlot(slot: Int) {
+    var hole = slot
+    var next = (hole + 1) and mask
+    while (true) {
+      val record = values[next] ?: break
+      val home = indexFor(keys[next])
+      // Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+      val homeIsBetween = if (hole <= next) {
+        home in (hole + 1)..next
+      } else {
+        home > hole || home <= next
+      }
+      if (!homeIsBetween) {
+        keys[hole] = keys[next]
+        values[hole] = record
+        hole = next
+      }
+      next = (next + 1) and mask
+    }
+    keys[hole] = 0
+    values[hole] = null
+    size--
+  }
+
+  private fun indexFor(key: Long): Int {
+    // murmur3's 64-bit finalizer, load task ids are sequential so they need some mixing
+    var h = key
+    h = h xor (h ushr 33)
+    h *= -0xae502812aa7333L
+    h = h xor (h ushr 33)
+    return h.toInt() and mask
+  }
+
+  companion object {
+    const val DEFAULT_MAX_ENTRIES = 128
+    const val DEFAULT_STALE_AFTER_MS = 2 * 60 * 1000L
+
+    private fun tableCapacityFor(maxEntries: Int): Int {
+      // Keep the load factor at or below 0.5
+      var capacity = 4
+      while (capacity < maxEntries * 2) {
+        capacity = capacity shl 1
+      }
+      return capacity
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+/**
+ * Maps a rendition's (width, height, bitrate) to its index within its track group, so the
+ * rendition of a completed load can be found without walking the whole ladder.
+ *
+ * Build one of these whenever the player's tracks change, then use [levelOf] for each completed
+ * load. If more than one rendition has the same (width, height, bitrate), the last one [put] wins.
+ */
+internal class RenditionIndex(expectedSize: Int) {
+
+  private val capacity: Int = tableCapacityFor(expectedSize)
+  private val mask: Int = capacity - 1
+  private val keys = LongArray(capacity)
+  private val levels = IntArray(capacity)
+  private val occupied = BooleanArray(capacity)
+
+  /** The number of distinct renditions in this index */
+  var size: Int = 0
+    private set
+
+  /**
+   * Adds a rendition to the index, replacing any rendition with the same dimensions and bitrate.
+   * This index doesn't grow, so don't add more than the `expectedSize` it was created with.
+   */
+  fun put(width: Int, height: Int, bitrate: Int, level: Int) {
+    val key = keyOf(width, height, bitrate)
+    var slot = indexFor(key)
+    while (occupied[slot] && keys[slot] != key) {
+      slot = (slot + 1) and mask
+    }
+    if (!occupied[slot]) {
+      check(size < capacity - 1) { "RenditionIndex is full" }
+      occupied[slot] = true
+      keys[slot] = key
+      size++
+    }
+    levels[slot] = level
+  }
+
+  /**
+   * Returns the index in its track group of the rendition with the given dimensions and bitrate,
+   * or [NOT_FOUND] if there's no such rendition
+   */
+  fun levelOf(width: Int, height: Int, bitrate: Int): Int {
+    val key = keyOf(width, height, bitrate)
+    var slot = indexFor(key)
+    while (occupied[slot]) {
+      if (keys[slot] == key) {
+        return levels[slot]
+      }
+      slot = (slot + 1) and mask
+    }
+    return NOT_FOUND
+  }
+
+  private fun indexFor(key: Long): Int {
+    var h = key
+    h = h xor (h ushr 33)
+    h *= -0xae502812aa7333L
+    h = h xor (h ushr 33)
+    return h.toInt() and mask
+  }
+
+  companion object {
+    const val NOT_FOUND = -1
+
+    /** An index with nothing in it */
+    val EMPTY = RenditionIndex(0)
+
+    /**
+     * Packs the lookup fields into one key. Widths and heights fit in 16 bits (unset values of -1
+     * become 0xFFFF, which is fine since they only need to compare equal to each other)
+     */
+    private fun keyOf(width: Int, height: Int, bitrate: Int): Long {
+      return ((width.toLong() and 0xFFFF) shl 48) or
+          ((height.toLong() and 0xFFFF) shl 32) or
+          (bitrate.toLong() and 0xFFFFFFFFL)
+    }
+
+    private fun tableCapacityFor(expectedSize: Int): Int {
+      var capacity = 4
+      while (capacity < expectedSize * 2) {
+        capacity = capacity shl 1
+      }
+      return capacity
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.core.model.BandwidthMetricData.Rendition
+
+/**
+ * Keeps request beacons from carrying the whole rendition ladder every time.
+ *
+ * Each ladder gets an id: a fingerprint of its renditions' (bitrate, width, height, codec, fps),
+ * sorted so the order of the tracks doesn't matter. Every request beacon carries the id of its
+ * ladder, but only the first beacon sent after the ladder changes carries the ladder itself.
+ *
+ * The player's rendition list is reused while the ladder is unchanged (see
+ * [com.mux.stats.sdk.muxstats.TrackAnalyzer]), so the fingerprint is cached by identity and only
+ * computed again when a new list shows up.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class RenditionLadderTracker {
+
+  private var lastList: List<Rendition>? = null
+  private var lastListId: String? = null
+  private var sentLadderId: String? = null
+
+  /**
+   * Sets the ladder id on a beacon that's about to be sent, and removes the ladder itself if an
+   * earlier beacon already carried it. Only call this for beacons that will actually be sent
+   */
+  fun attachTo(data: BandwidthMetricData) {
+    val renditions = data.requestRenditionLists ?: return
+    val ladderId = ladderIdOf(renditions)
+    data.put(RENDITION_LADDER_ID_KEY, ladderId)
+    if (!shouldSendLadder(ladderId)) {
+      data.requestRenditionLists = null
+    }
+  }
+
+  /**
+   * Makes the next beacon carry its whole ladder again, eg because the next beacons belong to a new
+   * view
+   */
+  fun reset() {
+    sentLadderId = null
+  }
+
+  /**
+   * Returns true if a beacon for a ladder with the given id should carry the ladder itself. Once
+   * this returns true for an id, it returns false for that id until the ladder changes or [reset]
+   */
+  fun shouldSendLadder(ladderId: String): Boolean {
+    if (ladderId == sentLadderId) {
+      return false
+    }
+    sentLadderId = ladderId
+    return true
+  }
+
+  /**
+   * Returns the id for the given ladder, computing it only if this isn't the same list as last time
+   */
+  fun ladderIdOf(renditions: List<Rendition>): String {
+    val cachedId = lastListId
+    if (renditions === lastList && cachedId != null) {
+      return cachedId
+    }
+    val ladderId = fingerprint(renditions)
+    lastList = renditions
+    lastListId = ladderId
+    return ladderId
+  }
+
+  companion object {
+    /** Key for the id of a request beacon's rendition ladder */
+    const val RENDITION_LADDER_ID_KEY = "qrrnlid"
+
+    private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+    private const val FNV_PRIME = 0x100000001b3L
+
+    private val renditionOrder: Comparator<Rendition> = compareBy<Rendition>(
+      { it.bitrate },
+      { it.width },
+      { it.height },
+      { it.codec },
+      { it.fps },
+    )
+
+    /**
+     * A 64-bit FNV-1a hash of the ladder's sorted renditions, in hex
+     */
+    @JvmSynthetic
+    internal fun fingerprint(renditions: List<Rendition>): String {
+      var hash = FNV_OFFSET_BASIS
+      fun mix(value: Long) {
+        var remaining = value
+        for (i in 0 until 8) {
+          hash = (hash xor (remaining and 0xff)) * FNV_PRIME
+          remaining = remaining ushr 8
+        }
+      }
+
+      for (rendition in renditions.sortedWith(renditionOrder)) {
+        mix(rendition.bitrate ?: -1L)
+        mix((rendition.width ?: -1).toLong())
+        mix((rendition.height ?: -1).toLong())
+        mix((rendition.codec?.hashCode() ?: 0).toLong())
+        mix((rendition.fps?.toRawBits() ?: 0).toLong())
+      }
+      mix(renditions.size.toLong())
+      return java.lang.Long.toHexString(hash)
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+
+/**
+ * Folds finished requests into per-interval histograms, so a long session can send one summary
+ * every so often instead of a beacon for each request.
+ *
+ * Requests are grouped by kind (manifest, media, init, DRM) and by host. Each group counts its
+ * requests, bytes, failures by error code, and cancellations, and has a histogram of request
+ * durations. Durations go into log-2 buckets (bucket `i` holds durations of less than `2^i` ms), so
+ * the histogram's size doesn't depend on the range of durations seen.
+ *
+ * Memory is fixed when this object is created and doesn't grow with the session. Up to [maxHosts]
+ * hosts are tracked by name per interval, and requests to any other host go into a shared "other"
+ * group. Up to [maxErrorCodes] distinct error codes are counted per group, and any others are
+ * counted together.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class RequestAggregator(
+  private val maxHosts: Int = DEFAULT_MAX_HOSTS,
+  private val maxErrorCodes: Int = DEFAULT_MAX_ERROR_CODES,
+) {
+
+  private val hosts = arrayOfNulls<String>(maxHosts)
+  private var hostCount = 0
+
+  // One group per (kind, host), where host `maxHosts` is "other"
+  private val groupCount = KIND_COUNT * (maxHosts + 1)
+  private val requests = LongArray(groupCount)
+  private val bytes = LongArray(groupCount)
+  private val failures = LongArray(groupCount)
+  private val cancellations = LongArray(groupCount)
+  private val durationBuckets = LongArray(groupCount * DURATION_BUCKETS)
+  private val errorCodes = IntArray(groupCount * (maxErrorCodes + 1))
+  private val errorCodeCounts = LongArray(groupCount * (maxErrorCodes + 1))
+  private val errorCodesUsed = IntArray(groupCount)
+
+  /** How many requests were added since the last [flush] */
+  var pendingCount: Long = 0
+    private set
+
+  init {
+    require(maxHosts > 0) { "maxHosts must be positive" }
+    require(maxErrorCodes > 0) { "maxErrorCodes must be positive" }
+  }
+
+  /**
+   * Adds a request that completed
+   */
+  fun addCompleted(data: BandwidthMetricData) {
+    val group = groupOf(data)
+    bytes[group] += data.requestBytesLoaded ?: 0
+    add(group, data)
+  }
+
+  /**
+   * Adds a request that completed, from the facts about it instead of its beacon data, so nothing
+   * has to be built for it
+   *
+   * @param durationMs How long the request took, or a negative number if that isn't known
+   */
+  fun addCompleted(requestType: String?, hostName: String?, bytesLoaded: Long, durationMs: Long) {
+    val group = groupOf(requestType, hostName)
+    bytes[group] += bytesLoaded
+    add(group, durationMs)
+  }
+
+  /**
+   * Adds a request that failed
+   */
+  fun addFailed(data: BandwidthMetricData) {
+    val group = groupOf(data)
+    failures[group]++
+    countErrorCode(group, data.requestErrorCode ?: -1)
+    add(group, data)
+  }
+
+  /**
+   * Adds a request that was canceled
+   */
+  fun addCanceled(data: BandwidthMetricData) {
+    val group = groupOf(data)
+    cancellations[group]++
+    add(group, data)
+  }
+
+  /**
+   * Returns a summary of everything added since the last flush and starts a new interval. Returns
+   * null if nothing was added.
+   *
+   * The summary has one entry per group that saw requests, separated by `;`. Each entry is
+   * `kind,host,requests,bytes,failures,cancellations,durations,errors`, where `durations` is
+   * `bucket:count` pairs separated by spaces, and `errors` is `code:count` pairs separated by
+   * spaces, with code `*` for codes that didn't fit
+   */
+  fun flush(): String? {
+    if (pendingCount == 0L) {
+      return null
+    }
+
+    val summary = StringBuilder()
+    for (group in 0 until groupCount) {
+      if (requests[group] == 0L) {
+        continue
+      }
+      if (summary.isNotEmpty()) {
+        summary.append(';')
+      }
+      val hostIndex = group % (maxHosts + 1)
+      summary.append(KIND_NAMES[group / (maxHosts + 1)]).append(',')
+        .append(if (hostIndex < maxHosts) hosts[hostIndex] else OTHER_HOST).append(',')
+        .append(requests[group]).append(',')
+        .append(bytes[group]).append(',')
+        .append(failures[group]).append(',')
+        .append(cancellations[group]).append(',')
+
+      var first = true
+      for (bucket in 0 until DURATION_BUCKETS) {
+        val count = durationBuckets[group * DURATION_BUCKETS + bucket]
+        if (count > 0) {
+          if (!first) summary.append(' ')
+          summary.append(bucket).append(':').append(count)
+          first = false
+        }
+      }
+      summary.append(',')
+
+      first = true
+      val codesBase = group * (maxErrorCodes + 1)
+      for (i in 0..maxErrorCodes) {
+        val count = errorCodeCounts[codesBase + i]
+        if (count > 0) {
+          if (!first) summary.append(' ')
+          if (i < maxErrorCodes) summary.append(errorCodes[codesBase + i]) else summary.append('*')
+          summary.append(':').append(count)
+          first = false
+        }
+      }
+    }
+    clear()
+    return summary.toString()
+  }
+
+  private fun add(group: Int, data: BandwidthMetricData) {
+    val start = data.requestStart
+    val end = data.requestResponseEnd
+    add(group, if (start != null && end != null) (end - start).coerceAtLeast(0) else -1)
+  }
+
+  private fun add(group: Int, durationMs: Long) {
+    requests[group]++
+    pendingCount++
+    if (durationMs >= 0) {
+      durationBuckets[group * DURATION_BUCKETS + durationBucketOf(durationMs)]++
+    }
+  }
+
+  private fun countErrorCode(group: Int, code: Int) {
+    val base = group * (maxErrorCodes + 1)
+    val used = errorCodesUsed[group]
+    for (i in 0 until used) {
+      if (errorCodes[base + i] == code) {
+        errorCodeCounts[base + i]++
+        return
+      }
+    }
+    if (used < maxErrorCodes) {
+      errorCodes[base + used] = code
+      errorCodeCounts[base + used] = 1
+      errorCodesUsed[group] = used + 1
+    } else {
+      errorCodeCounts[base + maxErrorCodes]++
+    }
+  }
+
+  private fun groupOf(data: BandwidthMetricData): Int {
+    return groupOf(data.requestType, data.requestHostName)
+  }
+
+  private fun groupOf(requestType: String?, hostName: String?): Int {
+    return kindOf(requestType) * (maxHosts + 1) + hostIndexOf(hostName)
+  }
+
+  private fun hostIndexOf(host: String?): Int {
+    if (host == null) {
+      return maxHosts
+    }
+    for (i in 0 until hostCount) {
+      if (hosts[i] == host) {
+        return i
+      }
+    }
+    if (hostCount < maxHosts) {
+      hosts[hostCount] = host
+      return hostCount++
+    }
+    return maxHosts
+  }
+
+  private fun clear() {
+    hosts.fill(null)
+    hostCount = 0
+    requests.fill(0)
+    bytes.fill(0)
+    failures.fill(0)
+    cancellations.fill(0)
+    durationBuckets.fill(0)
+    errorCodeCounts.fill(0)
+    errorCodesUsed.fill(0)
+    pendingCount = 0
+  }
+
+  companion object {
+    /** Key for the summary of the requests in an interval. See [flush] for its format */
+    const val AGGREGATE_KEY = "qragg"
+
+    /** Key for how many requests the summary covers */
+    const val AGGREGATE_COUNT_KEY = "qraggcn"
+
+    const val DEFAULT_MAX_HOSTS = 8
+    const val DEFAULT_MAX_ERROR_CODES = 4
+
+    /** Bucket `i` holds durations under `2^i` ms, and the last one everything longer */
+    const val DURATION_BUCKETS = 20
+
+    private const val OTHER_HOST = "*"
+
+    private const val KIND_COUNT = 4
+    private val KIND_NAMES = arrayOf("manifest", "media", "init", "drm")
+
+    private fun kindOf(requestType: String?): Int {
+      return when (requestType) {
+        "manifest" -> 0
+        "video_init", "audio_init" -> 2
+        "encryption" -> 3
+        // media, audio, video, subtitle, and anything we couldn't categorize
+        else -> 1
+      }
+    }
+
+    @JvmSynthetic
+    internal fun durationBucketOf(durationMs: Long): Int {
+      if (durationMs <= 0) {
+        return 0
+      }
+      // The number of bits needed for the duration, so that durationMs < 2^bucket
+      val bucket = 64 - java.lang.Long.numberOfLeadingZeros(durationMs)
+      return bucket.coerceAtMost(DURATION_BUCKETS - 1)
+    }
+  }
+}
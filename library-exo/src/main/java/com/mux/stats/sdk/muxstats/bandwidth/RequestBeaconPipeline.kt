@@ -0,0 +1,329 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import android.os.Handler
+import android.os.Looper
+import androidx.media3.common.Format
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+import com.mux.stats.sdk.core.events.playback.RequestCanceled
+import com.mux.stats.sdk.core.events.playback.RequestCompleted
+import com.mux.stats.sdk.core.events.playback.RequestFailed
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.SdkLogger
+import java.io.IOException
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Moves the work of building request beacons off of the player's thread.
+ *
+ * When a load ends and its beacon has been let through the rate limiter, the player's thread only
+ * copies what we know about the load into a pre-allocated ring buffer slot. Every
+ * [flushIntervalMs], a background thread builds the [PlaybackEvent]s for everything in the buffer,
+ * filters their response headers, and then hands the whole batch back to the player's thread in one
+ * message, where [dispatchBatch] is called. Handing the batch back keeps the core's event bus on
+ * one thread, like it is when this pipeline is off. Every pipeline in the process shares the same
+ * background thread.
+ *
+ * When the pipeline is released, whatever is left is handed to the background thread, which builds
+ * it and posts one last batch back to the player's thread. The releasing thread never waits.
+ *
+ * There is one producer (the player's thread) and one consumer (the background thread). If the
+ * buffer fills up, the `offer` functions return false and the caller should handle the load
+ * synchronously.
+ */
+internal class RequestBeaconPipeline(
+  private val bandwidthMetrics: BandwidthMetrics,
+  trackedResponseHeaders: List<TrackedHeader>,
+  playerLooper: Looper,
+  private val flushIntervalMs: Long,
+  queueSize: Int,
+  private val dispatchBatch: (List<PlaybackEvent>) -> Unit,
+) {
+
+  private val slots = Array(queueSize) { Slot() }
+  private val playerHandler = Handler(playerLooper)
+
+  // Only touched by the background thread. The player thread has its own filter
+  private val responseHeaderFilter = ResponseHeaderFilter(trackedResponseHeaders)
+
+  // head is only written by the consumer, tail only by the producer
+  @Volatile
+  private var head: Long = 0
+
+  @Volatile
+  private var tail: Long = 0
+
+  @Volatile
+  private var released = false
+
+  // Batches built by the background thread, waiting for the player's thread to dispatch them
+  private val builtBatches = ConcurrentLinkedQueue<List<PlaybackEvent>>()
+  private val dispatchBuiltBatches = Runnable {
+    if (!released) {
+      dispatchBuilt()
+    }
+  }
+  private val dispatchLastBatches = Runnable { dispatchBuilt() }
+
+  private val flushTask: ScheduledFuture<*>
+
+  init {
+    require(queueSize > 0) { "queueSize must be positive" }
+    flushTask = worker.scheduleWithFixedDelay(
+      { flushInBackground() },
+      flushIntervalMs,
+      flushIntervalMs,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  /**
+   * Captures a completed load whose beacon will be sent. Call from the player's thread
+   *
+   * @param record What we knew about the load. It's copied, so the caller can reuse it
+   * @param droppedCount How many beacons of the same kind the rate limiter dropped before this one
+   * @return true if the load was queued, false if the queue was full
+   */
+  fun offerCompleted(
+    record: LoadRecord,
+    bytesLoaded: Long,
+    trackFormat: Format?,
+    renditionIndex: RenditionIndex,
+    responseHeaders: Map<String, List<String>>,
+    loadEndMs: Long,
+    droppedCount: Long,
+  ): Boolean {
+    val slot = claimSlot() ?: return false
+    slot.record.copyFrom(record)
+    slot.hasRecord = true
+    slot.kind = KIND_COMPLETED
+    slot.bytesLoaded = bytesLoaded
+    slot.trackFormat = trackFormat
+    slot.renditionIndex = renditionIndex
+    slot.responseHeaders = responseHeaders
+    slot.responseEndMs = loadEndMs
+    slot.droppedCount = droppedCount
+    publish()
+    return true
+  }
+
+  /**
+   * Captures a canceled load whose beacon will be sent. Call from the player's thread
+   *
+   * @param record What we knew about the load, or null if we didn't see it start. It's copied
+   * @param droppedCount How many beacons of the same kind the rate limiter dropped before this one
+   * @return true if the load was queued, false if the queue was full
+   */
+  fun offerCanceled(
+    record: LoadRecord?,
+    responseHeaders: Map<String, List<String>>,
+    loadEndMs: Long,
+    droppedCount: Long,
+  ): Boolean {
+    val slot = claimSlot() ?: return false
+    slot.kind = KIND_CANCELED
+    slot.hasRecord = record != null
+    record?.let { slot.record.copyFrom(it) }
+    slot.responseHeaders = responseHeaders
+    slot.responseEndMs = loadEndMs
+    slot.droppedCount = droppedCount
+    publish()
+    return true
+  }
+
+  /**
+   * Captures a failed load whose beacon will be sent. Call from the player's thread
+   *
+   * @param record What we knew about the load, or null if we didn't see it start. It's copied
+   * @param droppedCount How many beacons of the same kind the rate limiter dropped before this one
+   * @return true if the load was queued, false if the queue was full
+   */
+  fun offerFailed(
+    record: LoadRecord?,
+    error: IOException,
+    loadEndMs: Long,
+    droppedCount: Long,
+  ): Boolean {
+    val slot = claimSlot() ?: return false
+    slot.kind = KIND_FAILED
+    slot.hasRecord = record != null
+    record?.let { slot.record.copyFrom(it) }
+    slot.error = error
+    slot.responseEndMs = loadEndMs
+    slot.droppedCount = droppedCount
+    publish()
+    return true
+  }
+
+  /**
+   * Stops the scheduled flushes and hands whatever is still queued to the background thread, which
+   * builds it and posts it to the player's thread as one last batch. Call from the player's thread.
+   * This doesn't wait for the background thread, and loads offered after this are refused
+   */
+  fun release() {
+    released = true
+    flushTask.cancel(false)
+    playerHandler.removeCallbacks(dispatchBuiltBatches)
+    // The background thread runs one task at a time, so this runs after any flush in progress and
+    //  is the last thing to consume from the buffer
+    worker.execute {
+      build()?.let { builtBatches += it }
+      if (builtBatches.isNotEmpty()) {
+        playerHandler.post(dispatchLastBatches)
+      }
+    }
+  }
+
+  private fun claimSlot(): Slot? {
+    if (released || tail - head >= slots.size) {
+      return null
+    }
+    return slots[(tail % slots.size).toInt()]
+  }
+
+  private fun publish() {
+    tail++
+  }
+
+  private fun flushInBackground() {
+    val batch = build() ?: return
+    builtBatches += batch
+    // If we were released in the meantime, the last batch picks this one up
+    if (!released) {
+      playerHandler.post(dispatchBuiltBatches)
+    }
+  }
+
+  private fun dispatchBuilt() {
+    while (true) {
+      val batch = builtBatches.poll() ?: return
+      dispatchBatch(batch)
+    }
+  }
+
+  /**
+   * Builds the events for everything in the buffer. Only call from the consumer's thread
+   *
+   * @return the events, or null if there weren't any
+   */
+  private fun build(): List<PlaybackEvent>? {
+    try {
+      val end = tail
+      var next = head
+      if (next == end) {
+        return null
+      }
+
+      val batch = ArrayList<PlaybackEvent>((end - next).toInt())
+      while (next < end) {
+        val slot = slots[(next % slots.size).toInt()]
+        buildEvent(slot)?.let { batch += it }
+        slot.clear()
+        next++
+        head = next
+      }
+      return batch.takeIf { it.isNotEmpty() }
+    } catch (e: Exception) {
+      // Don't let a bad beacon kill the scheduled flushes
+      SdkLogger.exception(e, "RequestBeaconPipeline") { "Failed to flush request beacons" }
+      return null
+    }
+  }
+
+  private fun buildEvent(slot: Slot): PlaybackEvent? {
+    return when (slot.kind) {
+      KIND_COMPLETED -> RequestCompleted(null).apply {
+        bandwidthMetricData = bandwidthMetrics.completedLoadData(
+          record = slot.record,
+          bytesLoaded = slot.bytesLoaded,
+          trackFormat = slot.trackFormat,
+          responseEndMs = slot.responseEndMs,
+          renditionIndex = slot.renditionIndex,
+        ).also { data -> slot.responseHeaders?.let { data.applyHeaders(it) } }
+      }
+
+      KIND_CANCELED -> RequestCanceled(null).apply {
+        bandwidthMetricData = bandwidthMetrics.canceledLoadData(
+          record = slot.record.takeIf { slot.hasRecord },
+          responseEndMs = slot.responseEndMs,
+        ).also { data -> slot.responseHeaders?.let { data.applyHeaders(it) } }
+      }
+
+      KIND_FAILED -> RequestFailed(null).apply {
+        bandwidthMetricData = bandwidthMetrics.failedLoadData(
+          record = slot.record.takeIf { slot.hasRecord },
+          e = slot.error!!,
+          responseEndMs = slot.responseEndMs,
+        )
+      }
+
+      else -> null
+    }?.also { event ->
+      if (slot.droppedCount > 0) {
+        // Lets the backend re-weight this beacon to account for the ones we didn't send
+        event.bandwidthMetricData.put(
+          BandwidthMetricDispatcher.DROPPED_BEACON_COUNT_KEY,
+          slot.droppedCount.toString()
+        )
+      }
+    }
+  }
+
+  private fun BandwidthMetricData.applyHeaders(
+    responseHeaders: Map<String, List<String>>
+  ) {
+    responseHeaderFilter.filter(responseHeaders)?.let { headers ->
+      requestId = headers["x-request-id"]
+      requestResponseHeaders = headers
+    }
+  }
+
+  /**
+   * The raw facts about one finished load. Reused for the life of the pipeline
+   */
+  private class Slot {
+    val record = LoadRecord()
+    var hasRecord = false
+    var kind = KIND_NONE
+    var bytesLoaded: Long = 0
+    var trackFormat: Format? = null
+    var renditionIndex: RenditionIndex = RenditionIndex.EMPTY
+    var responseHeaders: Map<String, List<String>>? = null
+    var error: IOException? = null
+    /** When the load ended, in [RequestClock.elapsedRealtimeMs]'s timebase */
+    var responseEndMs: Long = 0
+    var droppedCount: Long = 0
+
+    fun clear() {
+      record.reset()
+      hasRecord = false
+      kind = KIND_NONE
+      bytesLoaded = 0
+      trackFormat = null
+      renditionIndex = RenditionIndex.EMPTY
+      responseHeaders = null
+      error = null
+      responseEndMs = 0
+      droppedCount = 0
+    }
+  }
+
+  companion object {
+    private const val KIND_NONE = 0
+    private const val KIND_COMPLETED = 1
+    private const val KIND_CANCELED = 2
+    private const val KIND_FAILED = 3
+
+    // Shared by every pipeline, so the SDK never has more than one request beacon thread
+    private val worker: ScheduledThreadPoolExecutor by lazy {
+      ScheduledThreadPoolExecutor(1) { runnable ->
+        Thread(runnable, "mux-request-beacons").apply { isDaemon = true }
+      }.apply {
+        // Released pipelines' flushes shouldn't sit in the queue until they would have run
+        removeOnCancelPolicy = true
+      }
+    }
+  }
+}
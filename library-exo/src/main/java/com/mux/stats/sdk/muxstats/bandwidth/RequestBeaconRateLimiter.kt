@@ -0,0 +1,131 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.muxstats.RequestBeaconBudget
+
+/**
+ * Limits how many request beacons we send, so a misbehaving stream (for example, a broken live
+ * stream re-fetching its manifest several times per second) can't flood the backend.
+ *
+ * Each kind of request (manifest, media, init, DRM) has its own token bucket, so a flood of one
+ * kind doesn't use up the budget for the others. Once a bucket is empty, one in every
+ * `excessSampleRate` beacons over the budget is still let through. The number of beacons dropped
+ * before each admitted beacon is available from [takeDroppedCount], so the backend can re-weight
+ * the beacons that were sent.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class RequestBeaconRateLimiter(
+  manifestBudget: RequestBeaconBudget,
+  mediaBudget: RequestBeaconBudget,
+  initBudget: RequestBeaconBudget,
+  drmBudget: RequestBeaconBudget,
+  private val excessSampleRate: Int,
+) {
+
+  private val buckets = arrayOf(
+    Bucket(manifestBudget),
+    Bucket(mediaBudget),
+    Bucket(initBudget),
+    Bucket(drmBudget),
+  )
+
+  init {
+    require(excessSampleRate > 0) { "excessSampleRate must be positive" }
+  }
+
+  /**
+   * Returns true if a beacon for a request of the given type should be sent now. If this returns
+   * true, call [takeDroppedCount] to find out how many beacons of the same kind were dropped before
+   * this one
+   *
+   * @param requestType The request type, as in `BandwidthMetricData.requestType`
+   * @param nowMs The current time, from a monotonic clock
+   */
+  fun tryAcquire(requestType: String?, nowMs: Long): Boolean {
+    val bucket = buckets[bucketIndexOf(requestType)]
+    bucket.refill(nowMs)
+    if (bucket.tokens >= 1.0) {
+      bucket.tokens -= 1.0
+      return true
+    }
+
+    // Over budget. Sample instead of dropping everything, so the backend still sees some of it
+    bucket.excessCount++
+    if (bucket.excessCount % excessSampleRate == 0L) {
+      return true
+    }
+    bucket.droppedCount++
+    return false
+  }
+
+  /**
+   * Returns the number of beacons dropped for requests of the same kind as the given type since the
+   * last time this was called for that kind, and resets that count
+   */
+  fun takeDroppedCount(requestType: String?): Long {
+    val bucket = buckets[bucketIndexOf(requestType)]
+    val dropped = bucket.droppedCount
+    bucket.droppedCount = 0
+    return dropped
+  }
+
+  /**
+   * Fills every bucket and forgets the beacons that were dropped, for a new view. Each view gets
+   * its own budget, and drop counts are never carried into a view that didn't drop them
+   */
+  fun reset() {
+    for (bucket in buckets) {
+      bucket.reset()
+    }
+  }
+
+  private class Bucket(budget: RequestBeaconBudget) {
+    private val burst = budget.burst.toDouble()
+    private val refillPerMs = budget.refillPerSecond / 1000.0
+    private var lastRefillMs = Long.MIN_VALUE
+
+    var tokens: Double = burst
+    var excessCount: Long = 0
+    var droppedCount: Long = 0
+
+    fun refill(nowMs: Long) {
+      if (lastRefillMs == Long.MIN_VALUE) {
+        lastRefillMs = nowMs
+        return
+      }
+      val elapsedMs = nowMs - lastRefillMs
+      if (elapsedMs > 0) {
+        tokens = (tokens + elapsedMs * refillPerMs).coerceAtMost(burst)
+        lastRefillMs = nowMs
+      }
+      if (tokens >= 1.0) {
+        // Back under budget, so start sampling from scratch next time we go over
+        excessCount = 0
+      }
+    }
+
+    fun reset() {
+      tokens = burst
+      excessCount = 0
+      droppedCount = 0
+      lastRefillMs = Long.MIN_VALUE
+    }
+  }
+
+  companion object {
+    private const val MANIFEST = 0
+    private const val MEDIA = 1
+    private const val INIT = 2
+    private const val DRM = 3
+
+    private fun bucketIndexOf(requestType: String?): Int {
+      return when (requestType) {
+        "manifest" -> MANIFEST
+        "video_init", "audio_init" -> INIT
+        "encryption" -> DRM
+        // media, audio, video, subtitle, and anything we couldn't categorize
+        else -> MEDIA
+      }
+    }
+  }
+}
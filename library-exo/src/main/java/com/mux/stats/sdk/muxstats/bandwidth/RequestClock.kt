@@ -0,0 +1,94 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import android.os.SystemClock
+import kotlin.math.abs
+
+/**
+ * Where the bandwidth metrics get their times from.
+ *
+ * Request timing is recorded in a monotonic timebase (milliseconds since boot, the same timebase
+ * as ExoPlayer's `LoadEventInfo.elapsedRealtimeMs`), so durations can't be thrown off by the wall
+ * clock being adjusted during a load. Times are only converted to wall-clock time when a beacon is
+ * built, using [toWallClockMs].
+ */
+internal interface RequestClock {
+
+  /**
+   * The current monotonic time, in milliseconds since boot
+   */
+  fun elapsedRealtimeMs(): Long
+
+  /**
+   * Converts a time from [elapsedRealtimeMs]'s timebase to milliseconds since the epoch
+   */
+  fun toWallClockMs(elapsedRealtimeMs: Long): Long
+
+  /**
+   * Reads the wall clock again for later conversions. Call when a new view starts
+   */
+  fun reanchor() {}
+
+  /**
+   * Reads the wall clock again if it moved away from the monotonic clock (eg, an NTP update or the
+   * user changing the time) since it was last read. Call before building beacons, not partway
+   * through building one, so the times within a beacon stay consistent
+   *
+   * @return true if the clock was re-anchored
+   */
+  fun reanchorIfDrifted(): Boolean = false
+}
+
+/**
+ * A [RequestClock] backed by [SystemClock]. The wall-clock time is read when this object is created
+ * and every conversion is relative to it. This way, request times within a view stay consistent
+ * with each other even if the wall clock jumps during the view.
+ *
+ * The wall clock is read again on [reanchor], and on [reanchorIfDrifted] once it has moved more
+ * than [maxDriftMs] away from where the monotonic clock says it should be, so a long session
+ * doesn't keep reporting times from a wall clock that was wrong when it started
+ */
+internal class SystemRequestClock(
+  private val maxDriftMs: Long = DEFAULT_MAX_DRIFT_MS,
+  private val elapsedRealtimeNanos: () -> Long = { SystemClock.elapsedRealtimeNanos() },
+  private val wallClockMs: () -> Long = { System.currentTimeMillis() },
+) : RequestClock {
+
+  // Both halves of the anchor change together, and conversions can happen off the player's thread
+  @Volatile
+  private var anchor: Anchor = newAnchor()
+
+  override fun elapsedRealtimeMs(): Long = elapsedRealtimeNanos() / NANOS_PER_MS
+
+  override fun toWallClockMs(elapsedRealtimeMs: Long): Long {
+    val anchor = anchor
+    // Round the anchor's offset once, instead of losing the sub-ms part of each time separately
+    val offsetNanos = elapsedRealtimeMs * NANOS_PER_MS - anchor.elapsedNanos
+    return anchor.wallClockMs + Math.round(offsetNanos / NANOS_PER_MS.toDouble())
+  }
+
+  override fun reanchor() {
+    anchor = newAnchor()
+  }
+
+  override fun reanchorIfDrifted(): Boolean {
+    val anchor = anchor
+    val expectedWallClockMs =
+      anchor.wallClockMs + (elapsedRealtimeNanos() - anchor.elapsedNanos) / NANOS_PER_MS
+    if (abs(wallClockMs() - expectedWallClockMs) <= maxDriftMs) {
+      return false
+    }
+    reanchor()
+    return true
+  }
+
+  private fun newAnchor() = Anchor(elapsedRealtimeNanos(), wallClockMs())
+
+  private class Anchor(val elapsedNanos: Long, val wallClockMs: Long)
+
+  companion object {
+    /** How far the wall clock can drift before the clock is re-anchored */
+    const val DEFAULT_MAX_DRIFT_MS = 1_000L
+
+    private const val NANOS_PER_MS = 1_000_000L
+  }
+}
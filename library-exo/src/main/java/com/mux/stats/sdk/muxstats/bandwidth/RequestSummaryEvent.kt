@@ -0,0 +1,19 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+
+/**
+ * Carries a summary of the requests of one aggregation interval, made by [RequestAggregator]. It's
+ * its own kind of event so the summary isn't mistaken for a request. The summary and the number of
+ * requests it covers are in its `bandwidthMetricData`, under [RequestAggregator.AGGREGATE_KEY] and
+ * [RequestAggregator.AGGREGATE_COUNT_KEY], and the interval's start and end are its
+ * `requestStart` and `requestResponseEnd`
+ */
+internal class RequestSummaryEvent : PlaybackEvent(null) {
+
+  override fun getType(): String = TYPE
+
+  companion object {
+    const val TYPE = "requestsummary"
+  }
+}
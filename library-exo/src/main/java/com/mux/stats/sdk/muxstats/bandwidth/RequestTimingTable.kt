@@ -0,0 +1,99 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+/**
+ * Holds the network timing of recently-finished loads, as measured by
+ * [com.mux.stats.sdk.muxstats.RequestTimingDataSource], until the bandwidth metrics pick it up.
+ *
+ * Loads are identified by the `Uri` and position of the `DataSpec` they were opened with, which is
+ * also what ExoPlayer reports in `LoadEventInfo.dataSpec`. Keys are only compared with `equals()`.
+ *
+ * Timings are kept in a fixed-size ring of primitive arrays, so publishing and taking a timing
+ * doesn't allocate. If nothing takes a timing before [capacity] newer ones are published, it's
+ * overwritten. Data sources publish from the loader threads and the bandwidth metrics take timings
+ * on the player's thread, so access is synchronized.
+ */
+internal class RequestTimingTable(private val capacity: Int = DEFAULT_CAPACITY) {
+
+  private val uris = arrayOfNulls<Any>(capacity)
+  private val positions = LongArray(capacity)
+  private val openStartNs = LongArray(capacity)
+  private val responseStartNs = LongArray(capacity)
+  private val transferEndNs = LongArray(capacity)
+  private val bytesTransferred = LongArray(capacity)
+  private var next = 0
+
+  // Lets players skip the lock if the app never installed a RequestTimingDataSource
+  @Volatile
+  private var everPublished = false
+
+  init {
+    require(capacity > 0) { "capacity must be positive" }
+  }
+
+  /**
+   * Records the timing of a load that just closed. Times are `SystemClock.elapsedRealtimeNanos()`
+   *
+   * @param openStartNs when the data source was asked to open the load
+   * @param responseStartNs when the data source finished opening, ie, the response had started
+   * @param transferEndNs when the data source was closed
+   */
+  fun publish(
+    uri: Any,
+    position: Long,
+    openStartNs: Long,
+    responseStartNs: Long,
+    transferEndNs: Long,
+    bytesTransferred: Long,
+  ) {
+    synchronized(this) {
+      val slot = next
+      uris[slot] = uri
+      positions[slot] = position
+      this.openStartNs[slot] = openStartNs
+      this.responseStartNs[slot] = responseStartNs
+      this.transferEndNs[slot] = transferEndNs
+      this.bytesTransferred[slot] = bytesTransferred
+      next = (slot + 1) % capacity
+    }
+    everPublished = true
+  }
+
+  /**
+   * Finds the newest timing published for the given load and copies it into [record]. The timing
+   * is removed from this table, so it's only used once
+   *
+   * @return true if there was a timing for the load
+   */
+  fun takeInto(uri: Any?, position: Long, record: LoadRecord): Boolean {
+    if (uri == null || !everPublished) {
+      return false
+    }
+    synchronized(this) {
+      // Newest first, in case the same range was loaded more than once recently
+      var slot = next
+      for (i in 0 until capacity) {
+        slot = if (slot == 0) capacity - 1 else slot - 1
+        if (positions[slot] == position && uri == uris[slot]) {
+          record.hasNetworkTiming = true
+          record.openStartNs = openStartNs[slot]
+          record.responseStartNs = responseStartNs[slot]
+          record.transferEndNs = transferEndNs[slot]
+          record.bytesTransferred = bytesTransferred[slot]
+          uris[slot] = null
+          return true
+        }
+      }
+    }
+    return false
+  }
+
+  companion object {
+    private const val DEFAULT_CAPACITY = 64
+
+    /**
+     * The table shared by every [com.mux.stats.sdk.muxstats.RequestTimingDataSource] and player
+     */
+    @JvmSynthetic
+    internal val shared = RequestTimingTable()
+  }
+}
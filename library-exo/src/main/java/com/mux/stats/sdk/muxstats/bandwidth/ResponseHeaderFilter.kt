@@ -0,0 +1,154 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import java.util.Hashtable
+import java.util.Locale
+import java.util.regex.Pattern
+
+/**
+ * Selects the response headers we report, compiled once from a list of [TrackedHeader]s.
+ *
+ * [TrackedHeader.ExactlyIgnoreCase] names go into a hash set, [TrackedHeader.PrefixIgnoreCase]
+ * prefixes go into a trie, and [TrackedHeader.Matching] patterns are only tried if neither of those
+ * matched. The decision for each header name is cached, since CDNs send the same headers for every
+ * segment.
+ *
+ * This class is not thread-safe. Use it from one thread at a time
+ */
+internal class ResponseHeaderFilter(trackedHeaders: List<TrackedHeader>) {
+
+  private val exactNames = HashSet<String>()
+  private val prefixes = PrefixTrie()
+  private val patterns = ArrayList<Pattern>()
+
+  private val decisions = HashMap<String, Boolean>()
+  private val joinBuilder = StringBuilder()
+
+  init {
+    for (trackedHeader in trackedHeaders) {
+      when (trackedHeader) {
+        is TrackedHeader.ExactlyIgnoreCase -> exactNames += trackedHeader.name.lowercase(Locale.ROOT)
+        is TrackedHeader.PrefixIgnoreCase -> prefixes.add(trackedHeader.prefix)
+        is TrackedHeader.Matching -> patterns += trackedHeader.pattern
+      }
+    }
+  }
+
+  /**
+   * Returns true if we should report the header with the given name
+   */
+  fun isTracked(headerName: String): Boolean {
+    val cached = decisions[headerName]
+    if (cached != null) {
+      return cached
+    }
+
+    val tracked = exactNames.contains(headerName.lowercase(Locale.ROOT))
+        || prefixes.matchesPrefixOf(headerName)
+        || patterns.any { it.matcher(headerName).find() }
+    if (decisions.size >= MAX_CACHED_DECISIONS) {
+      // Something is generating unique header names. Start over rather than grow forever
+      decisions.clear()
+    }
+    decisions[headerName] = tracked
+    return tracked
+  }
+
+  /**
+   * Returns the tracked headers from the given response headers, with multiple values squashed
+   * into one. Returns null if there were no response headers, and an empty table if there were
+   * some but none of them were tracked
+   */
+  fun filter(responseHeaders: Map<String, List<String>>): Hashtable<String, String>? {
+    if (responseHeaders.isEmpty()) {
+      return null
+    }
+
+    var headers: Hashtable<String, String>? = null
+    for (entry in responseHeaders.entries) {
+      val headerName = entry.key
+      // HttpURLConnection reports the status line as a header with a null name
+      @Suppress("SENSELESS_COMPARISON")
+      if (headerName == null || !isTracked(headerName)) {
+        // Pass this header, we do not need it
+        continue
+      }
+      if (headers == null) {
+        headers = Hashtable()
+      }
+      headers[headerName] = joinValues(entry.value)
+    }
+    return headers ?: Hashtable()
+  }
+
+  private fun joinValues(headerValues: List<String>): String {
+    return when (headerValues.size) {
+      0 -> ""
+      1 -> headerValues[0]
+      else -> {
+        // In the case that there is more than one header, we squash
+        // it down to a single comma-separated value per RFC 2616
+        // https://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2
+        joinBuilder.setLength(0)
+        joinBuilder.append(headerValues[0])
+        for (i in 1 until headerValues.size) {
+          joinBuilder.append(", ").append(headerValues[i])
+        }
+        joinBuilder.toString()
+      }
+    }
+  }
+
+  /**
+   * Case-insensitive trie of ASCII header-name prefixes. Header names are ASCII per RFC 7230, so
+   * anything else simply doesn't match
+   */
+  private class PrefixTrie {
+    private val root = Node()
+
+    fun add(prefix: String) {
+      var node = root
+      for (char in prefix) {
+        val c = asciiLowercase(char)
+        require(c < ASCII_SIZE) { "Header prefixes must be ASCII: $prefix" }
+        node = node.children[c] ?: Node().also { node.children[c] = it }
+      }
+      node.terminal = true
+    }
+
+    fun matchesPrefixOf(headerName: String): Boolean {
+      var node = root
+      if (node.terminal) {
+        return true
+      }
+      for (char in headerName) {
+        val c = asciiLowercase(char)
+        if (c >= ASCII_SIZE) {
+          return false
+        }
+        node = node.children[c] ?: return false
+        if (node.terminal) {
+          return true
+        }
+      }
+      return false
+    }
+
+    private fun asciiLowercase(char: Char): Int {
+      val c = char.code
+      return if (c in 'A'.code..'Z'.code) c + ('a'.code - 'A'.code) else c
+    }
+
+    private class Node {
+      val children = arrayOfNulls<Node>(ASCII_SIZE)
+      var terminal = false
+    }
+
+    companion object {
+      private const val ASCII_SIZE = 128
+    }
+  }
+
+  companion object {
+    private const val MAX_CACHED_DECISIONS = 256
+  }
+}
@@ -0,0 +1,177 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.ViewData
+import com.mux.stats.sdk.muxstats.BandwidthMetricsOptions
+import java.util.Arrays
+
+/**
+ * Estimates the player's network throughput from the segments it finishes loading, so the view can
+ * report a throughput summary directly, even when most request beacons are dropped or sampled.
+ *
+ * Each sample is the bytes of one load divided by the time they took to arrive, from the first byte
+ * of the response to the last, so connection setup and server think time don't count against the
+ * network. Samples are kept in a fixed-size ring of primitives: adding one is O(1) and never
+ * allocates. The estimator keeps an exponentially-weighted moving average (EWMA) of every sample,
+ * plus percentiles of the last [windowSize] samples, which are computed only when a summary is
+ * about to be sent. The summary is view data, and at most one is sent per [reportIntervalMs].
+ *
+ * Samples belong to a view, so call [reset] when a new view starts.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class ThroughputEstimator(
+  private val windowSize: Int = DEFAULT_WINDOW_SIZE,
+  private val ewmaWeight: Double = DEFAULT_EWMA_WEIGHT,
+  private val reportIntervalMs: Long =
+    BandwidthMetricsOptions.DEFAULT_THROUGHPUT_REPORT_INTERVAL_MS,
+) {
+
+  private val window = LongArray(windowSize)
+  private val sortedWindow = LongArray(windowSize)
+  private var next = 0
+  private var lastReportMs: Long = 0
+  private var hasReported = false
+  private var samplesSinceReport = 0
+
+  /** The number of samples in the window */
+  var windowCount: Int = 0
+    private set
+
+  /** The EWMA of every sample so far, in bits per second. 0 before the first sample */
+  var ewmaBitsPerSecond: Double = 0.0
+    private set
+
+  /** The percentiles of the window, in bits per second, as of the last [updatePercentiles] */
+  var p10BitsPerSecond: Long = 0
+    private set
+  var p50BitsPerSecond: Long = 0
+    private set
+  var p90BitsPerSecond: Long = 0
+    private set
+
+  init {
+    require(windowSize > 0) { "windowSize must be positive" }
+    require(ewmaWeight > 0 && ewmaWeight <= 1) { "ewmaWeight must be in (0, 1]" }
+  }
+
+  /**
+   * Adds a sample for a finished load. Loads that are too small or too fast to measure are ignored
+   *
+   * @param bytes how many bytes were loaded
+   * @param transferNs how long the response took to arrive, in nanoseconds
+   * @return true if the sample was used
+   */
+  fun addSample(bytes: Long, transferNs: Long): Boolean {
+    if (bytes < MIN_SAMPLE_BYTES || transferNs < MIN_SAMPLE_NS) {
+      return false
+    }
+    val bitsPerSecond = (bytes * BITS_PER_BYTE * NANOS_PER_SECOND / transferNs).toLong()
+
+    window[next] = bitsPerSecond
+    next = (next + 1) % windowSize
+    if (windowCount < windowSize) {
+      windowCount++
+    }
+    ewmaBitsPerSecond = if (ewmaBitsPerSecond == 0.0) {
+      bitsPerSecond.toDouble()
+    } else {
+      ewmaWeight * bitsPerSecond + (1 - ewmaWeight) * ewmaBitsPerSecond
+    }
+    samplesSinceReport++
+    return true
+  }
+
+  /**
+   * Recomputes [p10BitsPerSecond], [p50BitsPerSecond], and [p90BitsPerSecond] from the window. This
+   * sorts a copy of the window, so it's O(window size * log(window size)), but doesn't allocate
+   */
+  fun updatePercentiles() {
+    if (windowCount == 0) {
+      p10BitsPerSecond = 0
+      p50BitsPerSecond = 0
+      p90BitsPerSecond = 0
+      return
+    }
+    System.arraycopy(window, 0, sortedWindow, 0, windowCount)
+    Arrays.sort(sortedWindow, 0, windowCount)
+    p10BitsPerSecond = percentileOfSorted(10)
+    p50BitsPerSecond = percentileOfSorted(50)
+    p90BitsPerSecond = percentileOfSorted(90)
+  }
+
+  /**
+   * Returns true if there are new samples and the last summary was sent at least
+   * [reportIntervalMs] ago
+   *
+   * @param nowMs the current time, from a monotonic clock
+   */
+  fun isSummaryDue(nowMs: Long): Boolean {
+    return samplesSinceReport > 0 && (!hasReported || nowMs - lastReportMs >= reportIntervalMs)
+  }
+
+  /**
+   * Adds a throughput summary to the view data [data] if [isSummaryDue]. Only call this for data
+   * that will actually be sent
+   *
+   * @param nowMs the current time, from a monotonic clock
+   * @return true if a summary was attached
+   */
+  fun maybeAttachSummary(data: ViewData, nowMs: Long): Boolean {
+    if (!isSummaryDue(nowMs)) {
+      return false
+    }
+    updatePercentiles()
+    data.put(THROUGHPUT_EWMA_KEY, ewmaBitsPerSecond.toLong().toString())
+    data.put(THROUGHPUT_P10_KEY, p10BitsPerSecond.toString())
+    data.put(THROUGHPUT_P50_KEY, p50BitsPerSecond.toString())
+    data.put(THROUGHPUT_P90_KEY, p90BitsPerSecond.toString())
+    data.put(THROUGHPUT_SAMPLE_COUNT_KEY, windowCount.toString())
+
+    hasReported = true
+    lastReportMs = nowMs
+    samplesSinceReport = 0
+    return true
+  }
+
+  /**
+   * Forgets every sample, and when the last summary was sent. Call when a new view starts
+   */
+  fun reset() {
+    next = 0
+    windowCount = 0
+    ewmaBitsPerSecond = 0.0
+    p10BitsPerSecond = 0
+    p50BitsPerSecond = 0
+    p90BitsPerSecond = 0
+    hasReported = false
+    lastReportMs = 0
+    samplesSinceReport = 0
+  }
+
+  // nearest-rank percentile
+  private fun percentileOfSorted(percent: Int): Long {
+    val rank = (percent * windowCount + 99) / 100
+    return sortedWindow[(rank - 1).coerceIn(0, windowCount - 1)]
+  }
+
+  companion object {
+    /** Keys for the throughput summary, in bits per second */
+    const val THROUGHPUT_EWMA_KEY = "qrtpewma"
+    const val THROUGHPUT_P10_KEY = "qrtpp10"
+    const val THROUGHPUT_P50_KEY = "qrtpp50"
+    const val THROUGHPUT_P90_KEY = "qrtpp90"
+
+    /** Key for how many samples the throughput percentiles were computed from */
+    const val THROUGHPUT_SAMPLE_COUNT_KEY = "qrtpcn"
+
+    const val DEFAULT_WINDOW_SIZE = 64
+    const val DEFAULT_EWMA_WEIGHT = 0.2
+
+    // Tiny loads are mostly latency, not throughput
+    private const val MIN_SAMPLE_BYTES = 16 * 1024L
+    private const val MIN_SAMPLE_NS = 1_000_000L
+
+    private const val BITS_PER_BYTE = 8.0
+    private const val NANOS_PER_SECOND = 1_000_000_000.0
+  }
+}
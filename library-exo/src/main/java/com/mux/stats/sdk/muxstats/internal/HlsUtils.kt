@@ -1,18 +1,20 @@
 package com.mux.stats.sdk.muxstats.internal
 
 import androidx.annotation.OptIn
-import androidx.media3.common.Timeline
 import androidx.media3.common.Timeline.Window
 import androidx.media3.common.util.UnstableApi
 import androidx.media3.common.util.Util
 import androidx.media3.exoplayer.hls.HlsManifest
-import com.mux.stats.sdk.core.util.MuxLogger
+import androidx.media3.exoplayer.hls.playlist.HlsMediaPlaylist
 import com.mux.stats.sdk.muxstats.MuxStateCollector
+import com.mux.stats.sdk.muxstats.SdkLogger
 
 /*
  * HlsUtils.kt: Utility functions for working with HLS playlists in exoplayer
  */
 
+private const val PDT_TAG_PREFIX = "#EXT-X-PROGRAM-DATE-TIME:"
+private const val SEGMENT_TAG_PREFIX = "#EXTINF"
 private val RX_PDT_TAG = """^#EXT-X-PROGRAM-DATE-TIME:(.*)$""".toRegex()
 
 // lazily-cached check for the HLS extension, which may not be available at runtime
@@ -22,13 +24,13 @@ private val hlsExtensionAvailable: Boolean by lazy {
     Class.forName(HlsManifest::class.java.canonicalName!!)
     true
   } catch (e: ClassNotFoundException) {
-    MuxLogger.w("isHlsExtensionAvailable", "HLS extension not found. Some features may not work")
+    SdkLogger.w("isHlsExtensionAvailable") { "HLS extension not found. Some features may not work" }
     false
   } catch (e: LinkageError) {
-    MuxLogger.w("isHlsExtensionAvailable", "HLS extension not found. Some features may not work")
+    SdkLogger.w("isHlsExtensionAvailable") { "HLS extension not found. Some features may not work" }
     false
   } catch (e: ExceptionInInitializerError) {
-    MuxLogger.w("isHlsExtensionAvailable", "HLS extension not found. Some features may not work")
+    SdkLogger.w("isHlsExtensionAvailable") { "HLS extension not found. Some features may not work" }
     false
   }
 }
@@ -40,26 +42,144 @@ private val hlsExtensionAvailable: Boolean by lazy {
 internal fun isHlsExtensionAvailable() = hlsExtensionAvailable
 
 /**
- * Add livestream data to a [MuxStateCollector] if the given [Window] represents a live stream
+ * Adds livestream data to a [MuxStateCollector] when the player's timeline changes.
+ *
+ * Live playlists are refreshed every few seconds, and a long DVR window can have thousands of
+ * tags. So we remember what we parsed from the last playlist and skip it if the same playlist comes
+ * back. For a new playlist we only read the header tags, and the tags of the segments that are new
+ * since the last playlist, to find the newest `EXT-X-PROGRAM-DATE-TIME` (see
+ * [ProgramDateTimeTracker]).
+ *
+ * Not thread-safe. Use one of these per player, on the player's thread
  */
-@JvmSynthetic
 @OptIn(UnstableApi::class)
-internal fun MuxStateCollector.populateLiveStreamData(window: Window) {
-  @Suppress("UsePropertyAccessSyntax") // isLive is also a field in some media3 versions
-  if (isHlsExtensionAvailable() && window.isLive()) {
-    val hlsManifest = window.manifest as? HlsManifest
-    val mediaPlaylist = hlsManifest?.mediaPlaylist
-
-    if (mediaPlaylist != null) {
-      hlsManifestNewestTime = mediaPlaylist.tags.lastOrNull { it.matches(RX_PDT_TAG) }
-        ?.let { parseProgramDateTime(it) }
-
-      hlsHoldBack = parseManifestTagL(window, "HOLD-BACK")
-      hlsPartHoldBack = parseManifestTagL(window, "PART-HOLD-BACK")
-      hlsPartTargetDuration = parseManifestTagL(window, "PART-TARGET")
-      hlsTargetDuration = parseManifestTagL(window, "EXT-X-TARGETDURATION")
+internal class LiveStreamDataParser {
+
+  private var lastPlaylist: HlsMediaPlaylist? = null
+  private val pdtTracker = ProgramDateTimeTracker()
+  private var lastPdtTag: String? = null
+  private var newestTime: Long? = null
+  private var holdBack: Long = -1L
+  private var partHoldBack: Long = -1L
+  private var partTargetDuration: Long = -1L
+  private var targetDuration: Long = -1L
+
+  /**
+   * Add livestream data to a [MuxStateCollector] if the given [Window] represents a live stream
+   */
+  fun populateLiveStreamData(collector: MuxStateCollector, window: Window) {
+    @Suppress("UsePropertyAccessSyntax") // isLive is also a field in some media3 versions
+    if (isHlsExtensionAvailable() && window.isLive()) {
+      val hlsManifest = window.manifest as? HlsManifest
+      val mediaPlaylist = hlsManifest?.mediaPlaylist
+
+      if (mediaPlaylist != null) {
+        if (mediaPlaylist !== lastPlaylist) {
+          parse(mediaPlaylist)
+        }
+        collector.hlsManifestNewestTime = newestTime
+        collector.hlsHoldBack = holdBack
+        collector.hlsPartHoldBack = partHoldBack
+        collector.hlsPartTargetDuration = partTargetDuration
+        collector.hlsTargetDuration = targetDuration
+      }
     }
   }
+
+  private fun parse(mediaPlaylist: HlsMediaPlaylist) {
+    val tags = mediaPlaylist.tags
+    lastPlaylist = mediaPlaylist
+
+    val pdtTag = pdtTracker.update(tags, mediaPlaylist.mediaSequence, mediaPlaylist.segments.size)
+    if (pdtTag != lastPdtTag) {
+      // Only re-parse the date if it changed. Often it doesn't between refreshes
+      lastPdtTag = pdtTag
+      newestTime = pdtTag?.let { parseProgramDateTime(it) }
+    }
+
+    val headerTags = headerTagsOf(tags)
+    holdBack = parseManifestTagL(headerTags, "HOLD-BACK")
+    partHoldBack = parseManifestTagL(headerTags, "PART-HOLD-BACK")
+    partTargetDuration = parseManifestTagL(headerTags, "PART-TARGET")
+    targetDuration = parseManifestTagL(headerTags, "EXT-X-TARGETDURATION")
+  }
+}
+
+/**
+ * Keeps track of the newest `EXT-X-PROGRAM-DATE-TIME` tag of a live playlist, across its refreshes.
+ *
+ * Each refresh of a live playlist mostly repeats the last one: segments fall off the start and new
+ * ones are added at the end. From the playlist's media sequence number and how many segments we saw
+ * last time, we know how many segments are new, and only their tags (and the tags of any partial
+ * segment after them) are searched, from the end. The whole playlist is only searched if it doesn't
+ * continue the last one, or if the segment that had the newest tag has left the window.
+ *
+ * Not thread-safe
+ */
+internal class ProgramDateTimeTracker {
+
+  private var lastTag: String? = null
+
+  // The media sequence number of the segment that lastTag belongs to
+  private var lastTagSequence: Long = -1
+
+  // The media sequence number of the first segment we haven't seen yet, or -1 before any playlist
+  private var nextSequence: Long = -1
+
+  /**
+   * Finds the newest `EXT-X-PROGRAM-DATE-TIME` tag, given a new refresh of the playlist
+   *
+   * @param tags The playlist's tags
+   * @param mediaSequence The media sequence number of the playlist's first segment
+   * @param segmentCount How many (complete) segments the playlist has
+   * @return the newest `EXT-X-PROGRAM-DATE-TIME` tag, or null if there isn't one
+   */
+  fun update(tags: List<String>, mediaSequence: Long, segmentCount: Int): String? {
+    val endSequence = mediaSequence + segmentCount
+    val continuesLast = nextSequence >= 0
+        && mediaSequence <= nextSequence
+        && endSequence >= nextSequence
+        && (lastTag == null || lastTagSequence >= mediaSequence)
+    val segmentsToSearch = if (continuesLast) endSequence - nextSequence else Long.MAX_VALUE
+    nextSequence = endSequence
+
+    // Tags after the last #EXTINF belong to the partial segment that comes next
+    var segmentsFromEnd = 0L
+    for (i in tags.indices.reversed()) {
+      val tag = tags[i]
+      if (tag.startsWith(SEGMENT_TAG_PREFIX)) {
+        if (++segmentsFromEnd > segmentsToSearch) {
+          // Every segment from here back was searched last time
+          break
+        }
+      } else if (tag.startsWith(PDT_TAG_PREFIX)) {
+        lastTag = tag
+        lastTagSequence = endSequence - segmentsFromEnd
+        return tag
+      }
+    }
+
+    if (!continuesLast) {
+      lastTag = null
+      lastTagSequence = -1
+    }
+    return lastTag
+  }
+}
+
+/**
+ * Returns the tags that come before the first media segment of a playlist. Tags like
+ * `EXT-X-TARGETDURATION` or `EXT-X-SERVER-CONTROL` can only appear here
+ */
+@JvmSynthetic
+internal fun headerTagsOf(tags: List<String>): List<String> {
+  for (i in tags.indices) {
+    val tag = tags[i]
+    if (tag.startsWith("#EXTINF") || tag.startsWith("#EXT-X-PART:")) {
+      return tags.subList(0, i)
+    }
+  }
+  return tags
 }
 
 @JvmSynthetic
@@ -70,7 +190,7 @@ internal fun parseProgramDateTime(pdtTag: String): Long {
     runCatching {
       Util.parseXsDateTime(matchResult.groupValues[1])
     }.getOrElse { exception ->
-      MuxLogger.exception(exception, "HlsUtlis", "Failed to parse PROGRAM-DATE-TIME $pdtTag")
+      SdkLogger.exception(exception, "HlsUtlis") { "Failed to parse PROGRAM-DATE-TIME $pdtTag" }
       -1L
     }
   } else {
@@ -82,13 +202,13 @@ internal fun parseProgramDateTime(pdtTag: String): Long {
  * Parses manifest tags representing a named numerical value, returning the value as a Long
  */
 @JvmSynthetic
-internal fun parseManifestTagL(currentWindow: Window, tagName: String): Long {
-  var value: String = parseManifestTag(currentWindow, tagName)
+internal fun parseManifestTagL(tags: List<String>, tagName: String): Long {
+  var value: String = parseManifestTag(tags, tagName)
   value = value.replace(".", "")
   try {
     return value.toLong()
   } catch (e: NumberFormatException) {
-    MuxLogger.exception(e, "Manifest Parsing", "Bad number format for value: $value")
+    SdkLogger.exception(e, "Manifest Parsing") { "Bad number format for value: $value" }
   }
   return -1L
 }
@@ -96,25 +216,71 @@ internal fun parseManifestTagL(currentWindow: Window, tagName: String): Long {
 /**
  * Parses manifest tags representing a named numerical value, returning the value as a string
  */
-@OptIn(UnstableApi::class)
 @JvmSynthetic
-internal fun parseManifestTag(currentWindow: Timeline.Window, tagName: String): String {
-  if (currentWindow.manifest != null && tagName.isNotEmpty()) {
-    if (currentWindow.manifest is HlsManifest) {
-      val manifest = currentWindow.manifest as HlsManifest
-      for (tag in manifest.mediaPlaylist.tags) {
-        if (tag.contains(tagName)) {
-          var value = tag.split(tagName).toTypedArray()[1]
-          if (value.contains(",")) {
-            value = value.split(",").toTypedArray()[0]
-          }
-          if (value.startsWith("=") || value.startsWith(":")) {
-            value = value.substring(1, value.length)
-          }
-          return value
+internal fun parseManifestTag(tags: List<String>, tagName: String): String {
+  if (tagName.isNotEmpty()) {
+    for (tag in tags) {
+      if (tag.contains(tagName)) {
+        var value = tag.split(tagName).toTypedArray()[1]
+        if (value.contains(",")) {
+          value = value.split(",").toTypedArray()[0]
         }
+        if (value.startsWith("=") || value.startsWith(":")) {
+          value = value.substring(1, value.length)
+        }
+        return value
       }
     }
   }
   return "-1"
 }
+
+/**
+ * Parses the attribute list of an HLS tag (everything after the tag's `:`) into a map of attribute
+ * names to values, in one pass. Quoted values have their quotes removed, and may contain commas.
+ * Attributes that can't be parsed are skipped
+ */
+@JvmSynthetic
+internal fun parseHlsAttributeList(tag: String): Map<String, String> {
+  val attributes = LinkedHashMap<String, String>()
+  var pos = tag.indexOf(':') + 1
+  if (pos <= 0) {
+    return attributes
+  }
+
+  val end = tag.length
+  while (pos < end) {
+    val nameEnd = tag.indexOf('=', pos)
+    if (nameEnd < 0) {
+      break
+    }
+    val name = tag.substring(pos, nameEnd).trim()
+    pos = nameEnd + 1
+
+    val value: String
+    if (pos < end && tag[pos] == '"') {
+      val closingQuote = tag.indexOf('"', pos + 1)
+      if (closingQuote < 0) {
+        // Unterminated quoted-string. Take the rest of the tag rather than nothing
+        value = tag.substring(pos + 1)
+        pos = end
+      } else {
+        value = tag.substring(pos + 1, closingQuote)
+        pos = closingQuote + 1
+      }
+      // Skip anything between the closing quote and the next attribute
+      val comma = tag.indexOf(',', pos)
+      pos = if (comma < 0) end else comma + 1
+    } else {
+      val comma = tag.indexOf(',', pos)
+      val valueEnd = if (comma < 0) end else comma
+      value = tag.substring(pos, valueEnd).trim()
+      pos = valueEnd + 1
+    }
+
+    if (name.isNotEmpty()) {
+      attributes[name] = value
+    }
+  }
+  return attributes
+}
@@ -1,5 +1,6 @@
 package com.mux.stats.sdk.muxstats.internal
 
+import android.os.Handler
 import androidx.annotation.OptIn
 import androidx.media3.common.util.UnstableApi
 import androidx.media3.exoplayer.ExoPlayer
@@ -7,19 +8,23 @@ import androidx.media3.exoplayer.analytics.AnalyticsListener
 import androidx.media3.exoplayer.hls.HlsManifest
 import com.mux.android.util.weak
 import com.mux.stats.sdk.core.model.SessionTag
-import com.mux.stats.sdk.core.util.MuxLogger
+import com.mux.stats.sdk.muxstats.InstanceLogger
+import com.mux.stats.sdk.muxstats.LoggingBinding
 import com.mux.stats.sdk.muxstats.MuxPlayerAdapter
 import com.mux.stats.sdk.muxstats.MuxStateCollector
-import java.util.regex.Matcher
-import java.util.regex.Pattern
+import com.mux.stats.sdk.muxstats.ViewChangeBinding
 
-private class SessionDataPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlayer> {
+internal class SessionDataPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlayer>,
+  ViewChangeBinding, LoggingBinding {
 
-  private var listener: AnalyticsListener? by weak(null)
+  private var listener: SessionDataListener? by weak(null)
+
+  override var logger: InstanceLogger = InstanceLogger.NONE
 
   override fun bindPlayer(player: ExoPlayer, collector: MuxStateCollector) {
     if (isHlsExtensionAvailable()) {
-      listener = SessionDataListener(player, collector).also { player.addAnalyticsListener(it) }
+      listener = SessionDataListener(player, collector, logger)
+        .also { player.addAnalyticsListener(it) }
     }
   }
 
@@ -27,64 +32,128 @@ private class SessionDataPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlaye
     listener?.let { player.removeAnalyticsListener(it) }
   }
 
+  override fun onViewChange() {
+    listener?.onViewChange()
+  }
+
   /**
    * Listens for timeline changes and updates HLS session data if we're on an HLS stream.
    * This class should only be instantiated if ExoPlayer's HLS extension is available at runtime
    * @see [.isHlsExtensionAvailable]
    */
   @OptIn(UnstableApi::class)
-  private class SessionDataListener(player: ExoPlayer, val collector: MuxStateCollector) :
-    AnalyticsListener {
+  private class SessionDataListener(
+    player: ExoPlayer,
+    val collector: MuxStateCollector,
+    private val logger: InstanceLogger,
+  ) : AnalyticsListener {
 
     private val player by weak(player)
+    private val sessionData = SessionDataMemo()
+    private val handler = Handler(player.applicationLooper)
+    private val reportAfterViewChange = Runnable { reportSessionData() }
 
     companion object {
-      val RX_SESSION_TAG_DATA_ID: Pattern by lazy { Pattern.compile("DATA-ID=\"(.*)\",") }
-      val RX_SESSION_TAG_VALUES: Pattern by lazy { Pattern.compile("VALUE=\"(.*)\"") }
-
       /** HLS session data tags with this Data ID will be sent to Mux Data  */
       const val HLS_SESSION_LITIX_PREFIX = "io.litix.data."
       const val LOG_TAG = "SessionDataListener"
     }
 
     override fun onTimelineChanged(eventTime: AnalyticsListener.EventTime, reason: Int) {
+      reportSessionData()
+    }
+
+    fun onViewChange() {
+      // The new view needs the session data even if it's the same. The timeline may have been
+      //  loaded already, so there might not be another timeline change. Report it once the new
+      //  view has started
+      sessionData.reset()
+      handler.removeCallbacks(reportAfterViewChange)
+      handler.post(reportAfterViewChange)
+    }
+
+    private fun reportSessionData() {
       player?.let { safePlayer ->
         val manifest = safePlayer.currentManifest
         if (manifest is HlsManifest) {
-          collector.onMainPlaylistTags(parseHlsSessionData(manifest.multivariantPlaylist.tags))
+          val multivariantPlaylist = manifest.multivariantPlaylist
+          sessionData.tagsToReport(multivariantPlaylist, multivariantPlaylist.tags)?.let {
+            collector.onMainPlaylistTags(parseHlsSessionData(it))
+          }
         }
       }
     }
 
-    private fun parseHlsSessionData(hlsTags: List<String>): List<SessionTag> {
-      return filterHlsSessionTags(hlsTags)
+    private fun parseHlsSessionData(sessionDataTags: List<String>): List<SessionTag> {
+      return sessionDataTags
         .map { parseHlsSessionTag(it) }
         .filter { it.key != null && it.key.contains(HLS_SESSION_LITIX_PREFIX) }
     }
 
-    private fun filterHlsSessionTags(rawTags: List<String>) =
-      rawTags.filter { it.substring(1).startsWith("EXT-X-SESSION-DATA") }
-
     private fun parseHlsSessionTag(line: String): SessionTag {
-      val dataId: Matcher = RX_SESSION_TAG_DATA_ID.matcher(line)
-      val value: Matcher = RX_SESSION_TAG_VALUES.matcher(line)
+      val attributes = parseHlsAttributeList(line)
       var parsedDataId: String? = ""
       var parsedValue: String? = ""
-      if (dataId.find()) {
-        parsedDataId = dataId.group(1)?.replace(HLS_SESSION_LITIX_PREFIX, "")
+      val dataId = attributes["DATA-ID"]
+      if (dataId != null) {
+        parsedDataId = dataId.replace(HLS_SESSION_LITIX_PREFIX, "")
       } else {
-        MuxLogger.d(LOG_TAG, "Data-ID not found in session data: $line")
+        logger.d(LOG_TAG) { "Data-ID not found in session data: $line" }
       }
-      if (value.find()) {
-        parsedValue = value.group(1)
+      val value = attributes["VALUE"]
+      if (value != null) {
+        parsedValue = value
       } else {
-        MuxLogger.d(LOG_TAG, "Value not found in session data: $line")
+        logger.d(LOG_TAG) { "Value not found in session data: $line" }
       }
       return SessionTag(parsedDataId, parsedValue)
     }
   }
 }
 
+/**
+ * Remembers the session data that was last reported, so it isn't parsed and reported again every
+ * time the timeline changes. Live streams refresh their timeline often, but not their multivariant
+ * playlist, and when the playlist does change, its session data usually doesn't.
+ *
+ * Call [reset] when a new view might start, so the new view gets the session data too
+ */
+internal class SessionDataMemo {
+
+  // The last playlist we looked at, and the session data tags we reported from it
+  private var lastPlaylist: Any? = null
+  private var lastSessionDataTags: List<String>? = null
+
+  /**
+   * Returns the `EXT-X-SESSION-DATA` tags of a multivariant playlist, if they should be reported
+   *
+   * @param playlist The multivariant playlist. Only its identity is used
+   * @param tags The playlist's tags
+   * @return The session data tags, or null if they were already reported
+   */
+  fun tagsToReport(playlist: Any, tags: List<String>): List<String>? {
+    if (playlist === lastPlaylist) {
+      return null
+    }
+    lastPlaylist = playlist
+
+    val sessionDataTags = tags.filter { it.startsWith("EXT-X-SESSION-DATA", startIndex = 1) }
+    if (sessionDataTags == lastSessionDataTags) {
+      return null
+    }
+    lastSessionDataTags = sessionDataTags
+    return sessionDataTags
+  }
+
+  /**
+   * Forgets what was reported, so the next session data is reported even if it hasn't changed
+   */
+  fun reset() {
+    lastPlaylist = null
+    lastSessionDataTags = null
+  }
+}
+
 /**
  * Creates a listener that listens for timeline changes and updates HLS session data if we're on an
  * HLS stream.
@@ -92,5 +161,4 @@ private class SessionDataPlayerBinding : MuxPlayerAdapter.PlayerBinding<ExoPlaye
  * @see [.isHlsExtensionAvailable]
  */
 @JvmSynthetic
-internal fun createExoSessionDataBinding(): MuxPlayerAdapter.PlayerBinding<ExoPlayer> =
-  SessionDataPlayerBinding()
+internal fun createExoSessionDataBinding(): SessionDataPlayerBinding = SessionDataPlayerBinding()
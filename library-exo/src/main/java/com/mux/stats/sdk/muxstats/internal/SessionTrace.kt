@@ -0,0 +1,306 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import androidx.annotation.OptIn
+import androidx.media3.common.Format
+import androidx.media3.common.util.UnstableApi
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/*
+ * SessionTrace.kt: The binary format of session traces, written by SessionTraceRecorder and read
+ *  by SessionTraceReader.
+ *
+ * A trace starts with TRACE_MAGIC, TRACE_VERSION, and the media3 version it was recorded with.
+ *  Then there's one record per player callback: a tag byte, the record's EventTime, and the
+ *  callback's arguments. Numbers are LEB128 varints (zigzag for signed values), and timestamps are
+ *  deltas from the last record. Strings and Formats are written out once and referred to by index
+ *  after that, up to a fixed number of each, so playlist URLs, header names, and the rendition
+ *  ladder cost a byte or two
+ */
+
+internal const val TRACE_MAGIC = 0x4d555854 // "MUXT"
+internal const val TRACE_VERSION = 1
+
+internal const val TAG_PLAY_WHEN_READY = 1
+internal const val TAG_PLAYBACK_STATE = 2
+internal const val TAG_POSITION_DISCONTINUITY = 3
+internal const val TAG_IS_PLAYING = 4
+internal const val TAG_PLAYBACK_PARAMETERS = 5
+internal const val TAG_TIMELINE = 6
+internal const val TAG_MEDIA_ITEM_TRANSITION = 7
+internal const val TAG_VIDEO_INPUT_FORMAT = 8
+internal const val TAG_TRACKS = 9
+internal const val TAG_DOWNSTREAM_FORMAT = 10
+internal const val TAG_RENDERED_FIRST_FRAME = 11
+internal const val TAG_DROPPED_FRAMES = 12
+internal const val TAG_VIDEO_SIZE = 13
+internal const val TAG_LOAD_STARTED = 14
+internal const val TAG_LOAD_COMPLETED = 15
+internal const val TAG_LOAD_CANCELED = 16
+internal const val TAG_LOAD_ERROR = 17
+
+// MediaPeriodId kinds in an EventTime
+internal const val PERIOD_NONE = 0
+internal const val PERIOD_CONTENT = 1
+internal const val PERIOD_AD = 2
+
+// Values are unique per request (like request IDs), so only the first few thousand are kept
+private const val MAX_TABLE_SIZE = 4_096
+private const val BUFFER_SIZE = 64 * 1024
+
+// References to tables are written as 0 for null, 1 for a new value, or index + 2
+private const val REF_NULL = 0
+private const val REF_NEW = 1
+private const val REF_FIRST_INDEX = 2
+
+/**
+ * Writes the primitives of a session trace to a stream, buffering them in memory
+ */
+@OptIn(UnstableApi::class)
+internal class TraceOutput(out: OutputStream) : Closeable {
+
+  private val data = DataOutputStream(BufferedOutputStream(out, BUFFER_SIZE))
+  private val strings = HashMap<String, Int>()
+  private val formats = HashMap<Format, Int>()
+
+  fun writeByte(value: Int) = data.writeByte(value)
+
+  fun writeBoolean(value: Boolean) = data.writeBoolean(value)
+
+  fun writeInt(value: Int) = data.writeInt(value)
+
+  fun writeFloat(value: Float) = data.writeFloat(value)
+
+  fun writeVarLong(value: Long) {
+    var remaining = value
+    while (remaining and 0x7fL.inv() != 0L) {
+      data.writeByte(((remaining and 0x7f) or 0x80).toInt())
+      remaining = remaining ushr 7
+    }
+    data.writeByte(remaining.toInt())
+  }
+
+  fun writeVarInt(value: Int) = writeVarLong(value.toLong() and 0xffffffffL)
+
+  fun writeSignedVarLong(value: Long) = writeVarLong((value shl 1) xor (value shr 63))
+
+  fun writeSignedVarInt(value: Int) = writeSignedVarLong(value.toLong())
+
+  fun writeString(value: String?) {
+    if (value == null) {
+      writeVarInt(REF_NULL)
+      return
+    }
+    val index = strings[value]
+    if (index != null) {
+      writeVarInt(index + REF_FIRST_INDEX)
+    } else {
+      writeVarInt(REF_NEW)
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      writeVarInt(bytes.size)
+      data.write(bytes)
+      if (strings.size < MAX_TABLE_SIZE) {
+        strings[value] = strings.size
+      }
+    }
+  }
+
+  fun writeFormat(format: Format?) {
+    if (format == null) {
+      writeVarInt(REF_NULL)
+      return
+    }
+    val index = formats[format]
+    if (index != null) {
+      writeVarInt(index + REF_FIRST_INDEX)
+    } else {
+      writeVarInt(REF_NEW)
+      writeString(format.id)
+      writeString(format.label)
+      writeString(format.language)
+      writeString(format.containerMimeType)
+      writeString(format.sampleMimeType)
+      writeString(format.codecs)
+      writeSignedVarInt(format.averageBitrate)
+      writeSignedVarInt(format.peakBitrate)
+      writeSignedVarInt(format.width)
+      writeSignedVarInt(format.height)
+      writeFloat(format.frameRate)
+      writeSignedVarInt(format.channelCount)
+      writeSignedVarInt(format.sampleRate)
+      writeVarInt(format.selectionFlags)
+      writeVarInt(format.roleFlags)
+      if (formats.size < MAX_TABLE_SIZE) {
+        formats[format] = formats.size
+      }
+    }
+  }
+
+  fun writeHeaders(headers: Map<out String?, List<String>>) {
+    writeVarInt(headers.size)
+    for ((name, values) in headers) {
+      writeString(name)
+      writeVarInt(values.size)
+      for (value in values) {
+        writeString(value)
+      }
+    }
+  }
+
+  fun flush() = data.flush()
+
+  override fun close() = data.close()
+}
+
+/**
+ * Reads the primitives written by a [TraceOutput]
+ */
+@OptIn(UnstableApi::class)
+internal class TraceInput(input: InputStream) : Closeable {
+
+  private val data = DataInputStream(BufferedInputStream(input, BUFFER_SIZE))
+  private val strings = ArrayList<String>()
+  private val formats = ArrayList<Format>()
+
+  /**
+   * Reads the next record's tag, or returns -1 if the trace has ended
+   */
+  fun readTag(): Int = data.read()
+
+  fun readByte(): Int = data.readUnsignedByte()
+
+  fun readBoolean(): Boolean = data.readBoolean()
+
+  fun readInt(): Int = data.readInt()
+
+  fun readFloat(): Float = data.readFloat()
+
+  fun readVarLong(): Long {
+    var value = 0L
+    var shift = 0
+    while (shift < 64) {
+      val b = data.readUnsignedByte()
+      value = value or ((b and 0x7f).toLong() shl shift)
+      if (b and 0x80 == 0) {
+        return value
+      }
+      shift += 7
+    }
+    throw IOException("Malformed varint in session trace")
+  }
+
+  fun readVarInt(): Int = readVarLong().toInt()
+
+  fun readSignedVarLong(): Long {
+    val raw = readVarLong()
+    return (raw ushr 1) xor -(raw and 1)
+  }
+
+  fun readSignedVarInt(): Int = readSignedVarLong().toInt()
+
+  fun readString(): String? {
+    return when (val ref = readVarInt()) {
+      REF_NULL -> null
+      REF_NEW -> {
+        val bytes = ByteArray(readVarInt())
+        data.readFully(bytes)
+        String(bytes, Charsets.UTF_8).also {
+          if (strings.size < MAX_TABLE_SIZE) {
+            strings += it
+          }
+        }
+      }
+
+      else -> strings.getOrNull(ref - REF_FIRST_INDEX)
+        ?: throw IOException("Unknown string $ref in session trace")
+    }
+  }
+
+  fun readFormat(): Format? {
+    return when (val ref = readVarInt()) {
+      REF_NULL -> null
+      REF_NEW -> {
+        Format.Builder()
+          .setId(readString())
+          .setLabel(readString())
+          .setLanguage(readString())
+          .setContainerMimeType(readString())
+          .setSampleMimeType(readString())
+          .setCodecs(readString())
+          .setAverageBitrate(readSignedVarInt())
+          .setPeakBitrate(readSignedVarInt())
+          .setWidth(readSignedVarInt())
+          .setHeight(readSignedVarInt())
+          .setFrameRate(readFloat())
+          .setChannelCount(readSignedVarInt())
+          .setSampleRate(readSignedVarInt())
+          .setSelectionFlags(readVarInt())
+          .setRoleFlags(readVarInt())
+          .build()
+          .also {
+            if (formats.size < MAX_TABLE_SIZE) {
+              formats += it
+            }
+          }
+      }
+
+      else -> formats.getOrNull(ref - REF_FIRST_INDEX)
+        ?: throw IOException("Unknown format $ref in session trace")
+    }
+  }
+
+  fun readHeaders(): Map<String?, List<String>> {
+    val count = readVarInt()
+    if (count == 0) {
+      return emptyMap()
+    }
+    val headers = HashMap<String?, List<String>>(count * 2)
+    repeat(count) {
+      val name = readString()
+      headers[name] = List(readVarInt()) { readString() ?: "" }
+    }
+    return headers
+  }
+
+  override fun close() = data.close()
+}
+
+/**
+ * Thrown when a stream doesn't start like a session trace that this version of the SDK can read
+ */
+internal class UnreadableTraceException(message: String) : IOException(message)
+
+/**
+ * Reads the trace's header, returning the media3 version that recorded it
+ */
+internal fun TraceInput.readHeader(): String {
+  val magic = try {
+    readInt()
+  } catch (e: EOFException) {
+    throw UnreadableTraceException("Session trace is empty")
+  }
+  if (magic != TRACE_MAGIC) {
+    throw UnreadableTraceException("Not a session trace")
+  }
+  val version = readByte()
+  if (version != TRACE_VERSION) {
+    throw UnreadableTraceException("Unsupported session trace version $version")
+  }
+  return readString() ?: ""
+}
+
+/**
+ * Writes the trace's header
+ */
+internal fun TraceOutput.writeHeader(media3Version: String) {
+  writeInt(TRACE_MAGIC)
+  writeByte(TRACE_VERSION)
+  writeString(media3Version)
+}
@@ -0,0 +1,363 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import android.net.Uri
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MediaItem
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.DataSpec
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.source.LoadEventInfo
+import androidx.media3.exoplayer.source.MediaLoadData
+import androidx.media3.exoplayer.source.MediaSource
+import androidx.media3.exoplayer.source.SinglePeriodTimeline
+import java.io.Closeable
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * One recorded player callback, ready to be replayed
+ */
+@OptIn(UnstableApi::class)
+internal class TraceEvent(
+  val eventTime: AnalyticsListener.EventTime,
+  private val callback: AnalyticsListener.(AnalyticsListener.EventTime) -> Unit,
+) {
+  /**
+   * Calls the recorded callback on [listener], with the recorded arguments
+   */
+  fun dispatchTo(listener: AnalyticsListener) = listener.callback(eventTime)
+}
+
+/**
+ * Reads a trace written by [com.mux.stats.sdk.muxstats.SessionTraceRecorder] back into player
+ * callbacks. All the objects for each callback are created when it's read, so they can be replayed
+ * later without measuring the cost of reading the trace.
+ *
+ * Timelines are rebuilt with the recorded duration and liveness of their first window, but without
+ * a manifest, since the recorder doesn't keep them
+ *
+ * @param startRealtimeMs If not negative, all the times in the trace are moved so the first event
+ * happens at this `elapsedRealtime`, like it was recorded just now
+ */
+@OptIn(UnstableApi::class)
+internal class SessionTraceReader(
+  input: InputStream,
+  private val startRealtimeMs: Long = -1,
+) : Closeable {
+
+  private val trace = TraceInput(input)
+
+  /**
+   * The version of media3 that recorded the trace
+   */
+  val media3Version: String = trace.readHeader()
+
+  /**
+   * The `realtimeMs` of the first and last events read so far, or -1 if none have been read yet
+   */
+  var firstRealtimeMs = -1L
+    private set
+  var lastRealtimeMs = -1L
+    private set
+
+  private var recordedRealtimeMs = 0L
+  private var realtimeOffsetMs = 0L
+  private var timeline: Timeline = Timeline.EMPTY
+  private val periodUid = Any()
+  private val renderOutput = Any()
+
+  /**
+   * Reads the next event from the trace, or returns null if there are no more
+   */
+  fun read(): TraceEvent? {
+    val tag = trace.readTag()
+    if (tag < 0) {
+      return null
+    }
+    val eventTime = readEventTime()
+    return when (tag) {
+      TAG_PLAY_WHEN_READY -> {
+        val playWhenReady = trace.readBoolean()
+        val reason = trace.readVarInt()
+        TraceEvent(eventTime) { onPlayWhenReadyChanged(it, playWhenReady, reason) }
+      }
+
+      TAG_PLAYBACK_STATE -> {
+        val state = trace.readVarInt()
+        TraceEvent(eventTime) { onPlaybackStateChanged(it, state) }
+      }
+
+      TAG_POSITION_DISCONTINUITY -> {
+        val reason = trace.readVarInt()
+        val oldPosition = positionInfo(trace.readSignedVarLong())
+        val newPosition = positionInfo(trace.readSignedVarLong())
+        TraceEvent(eventTime) { onPositionDiscontinuity(it, oldPosition, newPosition, reason) }
+      }
+
+      TAG_IS_PLAYING -> {
+        val isPlaying = trace.readBoolean()
+        TraceEvent(eventTime) { onIsPlayingChanged(it, isPlaying) }
+      }
+
+      TAG_PLAYBACK_PARAMETERS -> {
+        val playbackParameters = PlaybackParameters(trace.readFloat(), trace.readFloat())
+        TraceEvent(eventTime) { onPlaybackParametersChanged(it, playbackParameters) }
+      }
+
+      TAG_TIMELINE -> {
+        val reason = trace.readVarInt()
+        timeline = readTimeline()
+        // The event's time was read before its new timeline was
+        val newEventTime = withTimeline(eventTime, timeline)
+        TraceEvent(newEventTime) { onTimelineChanged(it, reason) }
+      }
+
+      TAG_MEDIA_ITEM_TRANSITION -> {
+        val reason = trace.readVarInt()
+        val mediaItem = if (trace.readBoolean()) readMediaItem(isLive = false) else null
+        TraceEvent(eventTime) { onMediaItemTransition(it, mediaItem, reason) }
+      }
+
+      TAG_VIDEO_INPUT_FORMAT -> {
+        val format = trace.readFormat() ?: throw IOException("Video input format was null")
+        TraceEvent(eventTime) { onVideoInputFormatChanged(it, format, null) }
+      }
+
+      TAG_TRACKS -> {
+        val tracks = readTracks()
+        TraceEvent(eventTime) { onTracksChanged(it, tracks) }
+      }
+
+      TAG_DOWNSTREAM_FORMAT -> {
+        val mediaLoadData = readMediaLoadData()
+        TraceEvent(eventTime) { onDownstreamFormatChanged(it, mediaLoadData) }
+      }
+
+      TAG_RENDERED_FIRST_FRAME -> {
+        val renderTimeMs = eventTime.realtimeMs + trace.readSignedVarLong()
+        TraceEvent(eventTime) { onRenderedFirstFrame(it, renderOutput, renderTimeMs) }
+      }
+
+      TAG_DROPPED_FRAMES -> {
+        val droppedFrames = trace.readVarInt()
+        val elapsedMs = trace.readVarLong()
+        TraceEvent(eventTime) { onDroppedVideoFrames(it, droppedFrames, elapsedMs) }
+      }
+
+      TAG_VIDEO_SIZE -> {
+        val videoSize = VideoSize(trace.readVarInt(), trace.readVarInt())
+        TraceEvent(eventTime) { onVideoSizeChanged(it, videoSize) }
+      }
+
+      TAG_LOAD_STARTED -> {
+        val loadEventInfo = readLoadEventInfo(eventTime)
+        val mediaLoadData = readMediaLoadData()
+        @Suppress("DEPRECATION") // The SDK implements the versions without a retry count
+        TraceEvent(eventTime) { onLoadStarted(it, loadEventInfo, mediaLoadData) }
+      }
+
+      TAG_LOAD_COMPLETED -> {
+        val loadEventInfo = readLoadEventInfo(eventTime)
+        val mediaLoadData = readMediaLoadData()
+        TraceEvent(eventTime) { onLoadCompleted(it, loadEventInfo, mediaLoadData) }
+      }
+
+      TAG_LOAD_CANCELED -> {
+        val loadEventInfo = readLoadEventInfo(eventTime)
+        val mediaLoadData = readMediaLoadData()
+        TraceEvent(eventTime) { onLoadCanceled(it, loadEventInfo, mediaLoadData) }
+      }
+
+      TAG_LOAD_ERROR -> {
+        val loadEventInfo = readLoadEventInfo(eventTime)
+        val mediaLoadData = readMediaLoadData()
+        val errorClass = trace.readString()
+        val error = IOException("$errorClass: ${trace.readString()}")
+        val wasCanceled = trace.readBoolean()
+        TraceEvent(eventTime) {
+          onLoadError(it, loadEventInfo, mediaLoadData, error, wasCanceled)
+        }
+      }
+
+      else -> throw IOException("Unknown record $tag in session trace")
+    }
+  }
+
+  /**
+   * Reads every remaining event in the trace. If the trace ends partway through an event, like one
+   * from an app that was killed while recording, it's read up to the last whole event
+   */
+  fun readAll(): List<TraceEvent> {
+    val events = ArrayList<TraceEvent>()
+    try {
+      while (true) {
+        events += read() ?: return events
+      }
+    } catch (e: EOFException) {
+      return events
+    }
+  }
+
+  override fun close() = trace.close()
+
+  private fun readEventTime(): AnalyticsListener.EventTime {
+    recordedRealtimeMs += trace.readSignedVarLong()
+    if (firstRealtimeMs < 0) {
+      realtimeOffsetMs = if (startRealtimeMs >= 0) startRealtimeMs - recordedRealtimeMs else 0
+      firstRealtimeMs = recordedRealtimeMs + realtimeOffsetMs
+    }
+    val realtimeMs = recordedRealtimeMs + realtimeOffsetMs
+    lastRealtimeMs = realtimeMs
+
+    val windowIndex = trace.readVarInt()
+    val mediaPeriodId = when (trace.readByte()) {
+      PERIOD_CONTENT -> MediaSource.MediaPeriodId(periodUid, /* windowSequenceNumber = */ 0)
+      PERIOD_AD -> MediaSource.MediaPeriodId(
+        periodUid,
+        /* adGroupIndex = */ trace.readSignedVarInt(),
+        /* adIndexInAdGroup = */ trace.readSignedVarInt(),
+        /* windowSequenceNumber = */ 0
+      )
+
+      else -> null
+    }
+    val eventPlaybackPositionMs = trace.readSignedVarLong()
+    val currentPlaybackPositionMs = trace.readSignedVarLong()
+    val totalBufferedDurationMs = trace.readSignedVarLong()
+    return AnalyticsListener.EventTime(
+      realtimeMs,
+      timeline,
+      windowIndex,
+      mediaPeriodId,
+      eventPlaybackPositionMs,
+      timeline,
+      windowIndex,
+      mediaPeriodId,
+      currentPlaybackPositionMs,
+      totalBufferedDurationMs
+    )
+  }
+
+  private fun withTimeline(
+    eventTime: AnalyticsListener.EventTime,
+    timeline: Timeline
+  ): AnalyticsListener.EventTime {
+    return AnalyticsListener.EventTime(
+      eventTime.realtimeMs,
+      timeline,
+      eventTime.windowIndex,
+      eventTime.mediaPeriodId,
+      eventTime.eventPlaybackPositionMs,
+      timeline,
+      eventTime.currentWindowIndex,
+      eventTime.currentMediaPeriodId,
+      eventTime.currentPlaybackPositionMs,
+      eventTime.totalBufferedDurationMs
+    )
+  }
+
+  private fun readTimeline(): Timeline {
+    if (!trace.readBoolean()) {
+      return Timeline.EMPTY
+    }
+    val durationUs = trace.readSignedVarLong()
+    val isSeekable = trace.readBoolean()
+    val isDynamic = trace.readBoolean()
+    val isLive = trace.readBoolean()
+    return SinglePeriodTimeline(
+      durationUs,
+      isSeekable,
+      isDynamic,
+      /* useLiveConfiguration = */ isLive,
+      /* manifest = */ null,
+      readMediaItem(isLive)
+    )
+  }
+
+  private fun readMediaItem(isLive: Boolean): MediaItem {
+    val builder = MediaItem.Builder().setMediaId(trace.readString() ?: MediaItem.DEFAULT_MEDIA_ID)
+    trace.readString()?.let { builder.setUri(it) }
+    if (isLive) {
+      builder.setLiveConfiguration(MediaItem.LiveConfiguration.Builder().build())
+    }
+    return builder.build()
+  }
+
+  private fun readTracks(): Tracks {
+    val groups = List(trace.readVarInt()) {
+      val id = trace.readString() ?: ""
+      val adaptiveSupported = trace.readBoolean()
+      val length = trace.readVarInt()
+      val formats = ArrayList<Format>(length)
+      val support = IntArray(length)
+      val selected = BooleanArray(length)
+      for (i in 0 until length) {
+        formats += trace.readFormat() ?: throw IOException("Track format was null")
+        support[i] = trace.readVarInt()
+        selected[i] = trace.readBoolean()
+      }
+      Tracks.Group(TrackGroup(id, *formats.toTypedArray()), adaptiveSupported, support, selected)
+    }
+    return Tracks(groups)
+  }
+
+  private fun readLoadEventInfo(eventTime: AnalyticsListener.EventTime): LoadEventInfo {
+    val loadTaskId = trace.readVarLong()
+    val uri = trace.readString()?.let { Uri.parse(it) } ?: Uri.EMPTY
+    val dataSpec = DataSpec.Builder()
+      .setUri(uri)
+      .setPosition(trace.readVarLong())
+      .setLength(trace.readSignedVarLong())
+      .build()
+    // Names can be null, like the status line's from HttpURLConnection
+    @Suppress("UNCHECKED_CAST")
+    val responseHeaders = trace.readHeaders() as Map<String, List<String>>
+    val elapsedRealtimeMs = eventTime.realtimeMs + trace.readSignedVarLong()
+    val loadDurationMs = trace.readVarLong()
+    val bytesLoaded = trace.readVarLong()
+    return LoadEventInfo(
+      loadTaskId,
+      dataSpec,
+      uri,
+      responseHeaders,
+      elapsedRealtimeMs,
+      loadDurationMs,
+      bytesLoaded
+    )
+  }
+
+  private fun readMediaLoadData(): MediaLoadData {
+    return MediaLoadData(
+      /* dataType = */ trace.readSignedVarInt(),
+      /* trackType = */ trace.readSignedVarInt(),
+      /* trackFormat = */ trace.readFormat(),
+      /* trackSelectionReason = */ trace.readSignedVarInt(),
+      /* trackSelectionData = */ null,
+      /* mediaStartTimeMs = */ trace.readSignedVarLong(),
+      /* mediaEndTimeMs = */ trace.readSignedVarLong()
+    )
+  }
+
+  private fun positionInfo(positionMs: Long): Player.PositionInfo {
+    return Player.PositionInfo(
+      /* windowUid = */ null,
+      /* mediaItemIndex = */ 0,
+      /* mediaItem = */ null,
+      /* periodUid = */ null,
+      /* periodIndex = */ 0,
+      positionMs,
+      /* contentPositionMs = */ positionMs,
+      /* adGroupIndex = */ C.INDEX_UNSET,
+      /* adIndexInAdGroup = */ C.INDEX_UNSET
+    )
+  }
+}
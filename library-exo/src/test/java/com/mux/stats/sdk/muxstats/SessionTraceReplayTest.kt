@@ -0,0 +1,284 @@
+package com.mux.stats.sdk.muxstats
+
+import android.net.Uri
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MediaItem
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.datasource.DataSpec
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.exoplayer.source.LoadEventInfo
+import androidx.media3.exoplayer.source.MediaLoadData
+import androidx.media3.exoplayer.source.MediaSource
+import androidx.media3.exoplayer.source.SinglePeriodTimeline
+import com.mux.stats.sdk.core.events.playback.RequestCompleted
+import com.mux.stats.sdk.muxstats.internal.SessionTraceReader
+import com.mux.stats.sdk.muxstats.internal.isInAdGroup
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner::class)
+class SessionTraceReplayTest {
+
+  private val ladder = List(3) { i ->
+    val height = 360 * (i + 1)
+    Format.Builder()
+      .setId("video-$i")
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setContainerMimeType(MimeTypes.VIDEO_MP2T)
+      .setWidth(height * 16 / 9)
+      .setHeight(height)
+      .setFrameRate(30F)
+      .setAverageBitrate(1_000_000 * (i + 1))
+      .setPeakBitrate(1_000_000 * (i + 1))
+      .build()
+  }
+  private val tracks = Tracks(
+    listOf(
+      Tracks.Group(
+        TrackGroup("video", *ladder.toTypedArray()),
+        true,
+        IntArray(ladder.size) { C.FORMAT_HANDLED },
+        BooleanArray(ladder.size) { it == 0 }
+      )
+    )
+  )
+  private val headers = mapOf(
+    "Content-Type" to listOf("video/mp2t"),
+    "X-CDN" to listOf("fastly"),
+  )
+  private val timeline = SinglePeriodTimeline(
+    /* durationUs = */ SEGMENT_COUNT * SEGMENT_DURATION_MS * 1_000,
+    /* isSeekable = */ true,
+    /* isDynamic = */ false,
+    /* useLiveConfiguration = */ false,
+    /* manifest = */ null,
+    MediaItem.Builder().setMediaId("vod").setUri("https://cdn.example.com/vod.m3u8").build()
+  )
+
+  private val contentPeriod = MediaSource.MediaPeriodId(Any())
+  private val adPeriod = MediaSource.MediaPeriodId(Any(), 0, 0, 0)
+
+  @Before
+  fun setUp() {
+    MuxStats.setHostDevice(mockk(relaxed = true))
+  }
+
+  @Test
+  fun testRecordedCallbacksAreReadBack() {
+    val listener = mockk<AnalyticsListener>(relaxed = true)
+    val reader = SessionTraceReader(ByteArrayInputStream(recordSession()))
+    reader.use { it.readAll() }.forEach { it.dispatchTo(listener) }
+
+    val eventTimes = mutableListOf<AnalyticsListener.EventTime>()
+    val loads = mutableListOf<LoadEventInfo>()
+    val loadData = mutableListOf<MediaLoadData>()
+    verify(exactly = SEGMENT_COUNT) {
+      listener.onLoadCompleted(capture(eventTimes), capture(loads), capture(loadData))
+    }
+    val load = loads[1]
+    Assert.assertEquals(1L, load.loadTaskId)
+    Assert.assertEquals(Uri.parse(segmentUrl(1, ladder[1])), load.uri)
+    Assert.assertEquals(headers, load.responseHeaders)
+    Assert.assertEquals(300L, load.loadDurationMs)
+    Assert.assertEquals(1_500_000L, load.bytesLoaded)
+    Assert.assertEquals(START_REALTIME_MS + SEGMENT_DURATION_MS + 300, load.elapsedRealtimeMs)
+    Assert.assertEquals(load.elapsedRealtimeMs, eventTimes[1].realtimeMs)
+    Assert.assertEquals(ladder[1], loadData[1].trackFormat)
+    Assert.assertEquals(SEGMENT_DURATION_MS, loadData[1].mediaStartTimeMs)
+    Assert.assertEquals(START_REALTIME_MS, reader.firstRealtimeMs)
+
+    val readTracks = mutableListOf<Tracks>()
+    verify { listener.onTracksChanged(any(), capture(readTracks)) }
+    Assert.assertEquals(tracks, readTracks.single())
+
+    val timelineEvents = mutableListOf<AnalyticsListener.EventTime>()
+    verify { listener.onTimelineChanged(capture(timelineEvents), any()) }
+    val window = timelineEvents.single().timeline.getWindow(0, Timeline.Window())
+    Assert.assertEquals(SEGMENT_COUNT * SEGMENT_DURATION_MS, window.durationMs)
+    Assert.assertEquals(
+      "https://cdn.example.com/vod.m3u8",
+      window.mediaItem.localConfiguration?.uri.toString()
+    )
+
+    val sizeEvents = mutableListOf<AnalyticsListener.EventTime>()
+    verify(exactly = 2) { listener.onVideoSizeChanged(capture(sizeEvents), any()) }
+    Assert.assertEquals(false, sizeEvents[0].mediaPeriodId?.isInAdGroup())
+    Assert.assertEquals(true, sizeEvents[1].mediaPeriodId?.isInAdGroup())
+  }
+
+  @Test
+  fun testTimesCanBeMoved() {
+    val reader = SessionTraceReader(ByteArrayInputStream(recordSession()), startRealtimeMs = 100)
+    val events = reader.use { it.readAll() }
+
+    Assert.assertEquals(100L, events.first().eventTime.realtimeMs)
+    Assert.assertEquals(100L, reader.firstRealtimeMs)
+    Assert.assertEquals(SEGMENT_COUNT * SEGMENT_DURATION_MS, reader.lastRealtimeMs - 100)
+  }
+
+  @Test
+  fun testReplayIsRepeatable() {
+    val replayer = SessionTraceReplayer(recordSession())
+    val first = replayer.replay()
+    val second = replayer.replay()
+
+    Assert.assertEquals(first.beacons, second.beacons)
+    Assert.assertEquals(SEGMENT_COUNT * SEGMENT_DURATION_MS, first.sessionDurationMs)
+    val segmentBeacon = first.beacons.first {
+      it.startsWith(RequestCompleted(null).type) && "segment_0.ts" in it
+    }
+    Assert.assertTrue(segmentBeacon, "bytes=1500000 durationMs=300" in segmentBeacon)
+  }
+
+  /**
+   * Replays the trace given with `-PsessionTrace=<file>`, prints how fast the SDK handled it, and
+   * writes the beacons it made to `build/reports/session-trace`
+   */
+  @Test
+  fun replayRecordedTrace() {
+    val path = System.getProperty("sessionTrace")
+    Assume.assumeFalse(
+      "No trace to replay. Pass one with -PsessionTrace=<file>",
+      path.isNullOrEmpty()
+    )
+    val trace = File(path!!)
+    val replayer = SessionTraceReplayer(trace.readBytes())
+
+    val first = replayer.replay()
+    val reports = File(System.getProperty("sessionTraceReports") ?: "build/reports/session-trace")
+    reports.mkdirs()
+    val beaconsFile = File(reports, "${trace.nameWithoutExtension}-beacons.txt")
+    beaconsFile.writeText(first.beacons.joinToString(separator = "\n", postfix = "\n"))
+
+    repeat(WARMUP_REPLAYS) { replayer.replay(keepBeacons = false) }
+    val elapsedNs = LongArray(MEASURED_REPLAYS) { replayer.replay(keepBeacons = false).elapsedNs }
+    elapsedNs.sort()
+    val medianNs = elapsedNs[elapsedNs.size / 2]
+
+    println(
+      "Replayed ${trace.name} (media3 ${first.media3Version}): ${first.callbackCount} callbacks," +
+          " ${first.sessionDurationMs / 1_000}s of playback\n" +
+          "  median ${"%.2f".format(medianNs / 1_000_000.0)}ms per replay" +
+          " (min ${"%.2f".format(elapsedNs.first() / 1_000_000.0)}ms)," +
+          " ${"%.0f".format(first.callbackCount * 1e9 / medianNs)} callbacks/s," +
+          " ${"%.0f".format(first.sessionDurationMs * 1e6 / medianNs)}x real time\n" +
+          "  ${first.beaconCount} beacons, written to ${beaconsFile.path}"
+    )
+  }
+
+  /**
+   * Records a made-up VOD session: the timeline and tracks, then a segment load every 2 seconds
+   * moving up the ladder, with playback starting after the first, and an ad's video size at the end
+   */
+  @Suppress("DEPRECATION") // The SDK implements the versions without a retry count
+  private fun recordSession(): ByteArray {
+    val bytes = ByteArrayOutputStream()
+    SessionTraceRecorder(bytes).use { recorder ->
+      var realtimeMs = START_REALTIME_MS
+      recorder.onTimelineChanged(
+        eventTime(realtimeMs, 0),
+        Player.TIMELINE_CHANGE_REASON_PLAYLIST_CHANGED
+      )
+      recorder.onTracksChanged(eventTime(realtimeMs, 0), tracks)
+      recorder.onPlayWhenReadyChanged(
+        eventTime(realtimeMs, 0),
+        true,
+        Player.PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST
+      )
+      recorder.onPlaybackStateChanged(eventTime(realtimeMs, 0), Player.STATE_BUFFERING)
+
+      for (segment in 0 until SEGMENT_COUNT) {
+        val positionMs = segment * SEGMENT_DURATION_MS
+        val format = ladder[segment % ladder.size]
+        val uri = Uri.parse(segmentUrl(segment, format))
+        val mediaLoadData = MediaLoadData(
+          C.DATA_TYPE_MEDIA,
+          C.TRACK_TYPE_VIDEO,
+          format,
+          C.SELECTION_REASON_ADAPTIVE,
+          null,
+          positionMs,
+          positionMs + SEGMENT_DURATION_MS
+        )
+        val started = LoadEventInfo(
+          segment.toLong(), DataSpec(uri), uri, emptyMap(), realtimeMs, 0, 0
+        )
+        recorder.onLoadStarted(eventTime(realtimeMs, positionMs), started, mediaLoadData)
+        realtimeMs += 300
+        val completed = LoadEventInfo(
+          segment.toLong(), DataSpec(uri), uri, headers, realtimeMs, 300, 1_500_000
+        )
+        recorder.onLoadCompleted(eventTime(realtimeMs, positionMs), completed, mediaLoadData)
+
+        if (segment == 0) {
+          recorder.onVideoInputFormatChanged(eventTime(realtimeMs, 0), format, null)
+          recorder.onVideoSizeChanged(
+            eventTime(realtimeMs, 0, contentPeriod),
+            VideoSize(format.width, format.height)
+          )
+          recorder.onPlaybackStateChanged(eventTime(realtimeMs, 0), Player.STATE_READY)
+          recorder.onIsPlayingChanged(eventTime(realtimeMs, 0), true)
+          recorder.onRenderedFirstFrame(eventTime(realtimeMs, 0), Any(), realtimeMs)
+        }
+        realtimeMs += SEGMENT_DURATION_MS - 300
+      }
+
+      recorder.onVideoSizeChanged(
+        eventTime(realtimeMs, SEGMENT_COUNT * SEGMENT_DURATION_MS, adPeriod),
+        VideoSize(640, 360)
+      )
+      recorder.onPlaybackStateChanged(
+        eventTime(realtimeMs, SEGMENT_COUNT * SEGMENT_DURATION_MS),
+        Player.STATE_ENDED
+      )
+    }
+    return bytes.toByteArray()
+  }
+
+  private fun eventTime(
+    realtimeMs: Long,
+    positionMs: Long,
+    mediaPeriodId: MediaSource.MediaPeriodId? = null,
+  ): AnalyticsListener.EventTime {
+    return AnalyticsListener.EventTime(
+      realtimeMs,
+      timeline,
+      /* windowIndex = */ 0,
+      mediaPeriodId,
+      positionMs,
+      timeline,
+      /* currentWindowIndex = */ 0,
+      mediaPeriodId,
+      positionMs,
+      /* totalBufferedDurationMs = */ 10_000
+    )
+  }
+
+  private fun segmentUrl(segment: Int, format: Format) =
+    "https://cdn.example.com/vod/${format.height}p/segment_$segment.ts"
+
+  companion object {
+    private const val START_REALTIME_MS = 5_000_000L
+    private const val SEGMENT_COUNT = 60
+    private const val SEGMENT_DURATION_MS = 2_000L
+    private const val WARMUP_REPLAYS = 5
+    private const val MEASURED_REPLAYS = 10
+  }
+}
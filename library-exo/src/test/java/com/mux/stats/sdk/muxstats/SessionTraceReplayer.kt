@@ -0,0 +1,231 @@
+package com.mux.stats.sdk.muxstats
+
+import android.os.Looper
+import android.os.SystemClock
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import androidx.media3.common.Tracks
+import androidx.media3.common.VideoSize
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.ExoPlaybackException
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import androidx.media3.test.utils.StubExoPlayer
+import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+import com.mux.stats.sdk.muxstats.internal.SessionTraceReader
+import com.mux.stats.sdk.muxstats.internal.TraceEvent
+import io.mockk.mockk
+import java.io.ByteArrayInputStream
+
+/**
+ * Replays a session trace through a new [ExoPlayerBinding] as fast as it can, the way a player
+ * would have called it. Must be run with Robolectric, which provides the `Uri`s in the trace and
+ * a [SystemClock] that the replay can move forward.
+ *
+ * Each replay reads the trace again, before it starts timing, with its times moved to the current
+ * time. The clock follows the trace's events, so the SDK sees the same time pass between events as
+ * the recorded session did
+ *
+ * @param trace A trace written by [SessionTraceRecorder]
+ */
+@OptIn(UnstableApi::class)
+internal class SessionTraceReplayer(private val trace: ByteArray) {
+
+  /**
+   * Replays the whole trace once
+   *
+   * @param keepBeacons If true, every beacon the SDK makes is kept, in [Replay.beacons]. If false,
+   * they're only counted
+   */
+  fun replay(keepBeacons: Boolean = true): Replay {
+    val reader = SessionTraceReader(
+      ByteArrayInputStream(trace),
+      startRealtimeMs = SystemClock.elapsedRealtime() + 1
+    )
+    val events = reader.use { it.readAll() }
+
+    val player = ReplayPlayer()
+    val beacons = BeaconStream(keepBeacons)
+    val collector = MuxStateCollector(mockk<MuxStats>(relaxed = true), beacons)
+    val binding = ExoPlayerBinding(playheadTrackingMode = PlayheadTrackingMode.EVENT_DRIVEN)
+    binding.bindPlayer(player, collector)
+
+    val startNs = System.nanoTime()
+    var clockMs = SystemClock.elapsedRealtime()
+    for (event in events) {
+      val eventTime = event.eventTime
+      if (eventTime.realtimeMs > clockMs) {
+        clockMs = eventTime.realtimeMs
+        SystemClock.setCurrentTimeMillis(clockMs)
+      }
+      player.positionMs = eventTime.currentPlaybackPositionMs
+      player.timelineValue = eventTime.timeline
+      event.dispatchTo(player.stateTracker)
+      player.dispatch(event)
+    }
+    val elapsedNs = System.nanoTime() - startNs
+
+    binding.unbindPlayer(player, collector)
+    return Replay(
+      callbackCount = events.size,
+      sessionDurationMs = reader.lastRealtimeMs - reader.firstRealtimeMs,
+      media3Version = reader.media3Version,
+      elapsedNs = elapsedNs,
+      beaconCount = beacons.count,
+      beacons = beacons.lines,
+    )
+  }
+
+  /**
+   * The results of one replay
+   *
+   * @param callbackCount How many player callbacks were replayed
+   * @param sessionDurationMs How long the recorded session was, from its first event to its last
+   * @param media3Version The media3 version the trace was recorded with
+   * @param elapsedNs How long the SDK took to handle all the callbacks
+   * @param beaconCount How many beacons the SDK made
+   * @param beacons One line per beacon the SDK made, if they were kept
+   */
+  class Replay(
+    val callbackCount: Int,
+    val sessionDurationMs: Long,
+    val media3Version: String,
+    val elapsedNs: Long,
+    val beaconCount: Int,
+    val beacons: List<String>,
+  )
+
+  /**
+   * Writes each beacon as one line: its type, and for request beacons, what was requested and how
+   * it went. Wall-clock times aren't written, so replays of the same trace can be compared
+   */
+  private class BeaconStream(private val keep: Boolean) : IEventDispatcher {
+    val lines = ArrayList<String>()
+    var count = 0
+
+    override fun dispatch(e: IEvent?) {
+      e ?: return
+      count++
+      if (!keep) {
+        return
+      }
+      val data = (e as? PlaybackEvent)?.bandwidthMetricData
+      lines += if (data == null) {
+        e.type
+      } else {
+        val start: Long? = data.requestStart
+        val end: Long? = data.requestResponseEnd
+        val durationMs = if (start != null && end != null) end - start else null
+        "${e.type} type=${data.requestType} url=${data.requestUrl}" +
+            " bytes=${data.requestBytesLoaded} durationMs=$durationMs" +
+            " size=${data.requestVideoWidth}x${data.requestVideoHeight}" +
+            " error=${data.requestErrorCode} canceled=${data.requestCancel}"
+      }
+    }
+  }
+
+  /**
+   * An [androidx.media3.exoplayer.ExoPlayer] that doesn't play anything. Its state comes from the
+   * trace, through [stateTracker], and it keeps the [AnalyticsListener]s the SDK adds so the
+   * trace's callbacks can be sent to them
+   */
+  private class ReplayPlayer : StubExoPlayer() {
+
+    private val analyticsListeners = ArrayList<AnalyticsListener>()
+
+    var playWhenReadyValue: Boolean = false
+    var playbackStateValue: Int = Player.STATE_IDLE
+    var playbackParametersValue: PlaybackParameters = PlaybackParameters.DEFAULT
+    var videoSizeValue: VideoSize = VideoSize.UNKNOWN
+    var positionMs: Long = 0
+    var timelineValue: Timeline = Timeline.EMPTY
+
+    /**
+     * Updates this player's state from the trace's callbacks, before the SDK sees them
+     */
+    val stateTracker = object : AnalyticsListener {
+      override fun onPlayWhenReadyChanged(
+        eventTime: AnalyticsListener.EventTime,
+        playWhenReady: Boolean,
+        reason: Int
+      ) {
+        playWhenReadyValue = playWhenReady
+      }
+
+      override fun onPlaybackStateChanged(eventTime: AnalyticsListener.EventTime, state: Int) {
+        playbackStateValue = state
+      }
+
+      override fun onPlaybackParametersChanged(
+        eventTime: AnalyticsListener.EventTime,
+        playbackParameters: PlaybackParameters
+      ) {
+        playbackParametersValue = playbackParameters
+      }
+
+      override fun onVideoSizeChanged(
+        eventTime: AnalyticsListener.EventTime,
+        videoSize: VideoSize
+      ) {
+        videoSizeValue = videoSize
+      }
+    }
+
+    fun dispatch(event: TraceEvent) {
+      for (i in analyticsListeners.indices) {
+        event.dispatchTo(analyticsListeners[i])
+      }
+    }
+
+    override fun addAnalyticsListener(listener: AnalyticsListener) {
+      analyticsListeners += listener
+    }
+
+    override fun removeAnalyticsListener(listener: AnalyticsListener) {
+      analyticsListeners -= listener
+    }
+
+    override fun addListener(listener: Player.Listener) {}
+
+    override fun removeListener(listener: Player.Listener) {}
+
+    override fun getApplicationLooper(): Looper = Looper.getMainLooper()
+
+    override fun getPlayWhenReady(): Boolean = playWhenReadyValue
+
+    override fun getPlaybackState(): Int = playbackStateValue
+
+    override fun getPlaybackSuppressionReason(): Int = Player.PLAYBACK_SUPPRESSION_REASON_NONE
+
+    override fun getPlayerError(): ExoPlaybackException? = null
+
+    override fun getCurrentTimeline(): Timeline = timelineValue
+
+    override fun getCurrentMediaItemIndex(): Int = 0
+
+    override fun getCurrentPeriodIndex(): Int = 0
+
+    override fun getCurrentPosition(): Long = positionMs
+
+    override fun getContentPosition(): Long = positionMs
+
+    override fun getBufferedPosition(): Long = positionMs
+
+    override fun getDuration(): Long = C.TIME_UNSET
+
+    override fun isPlayingAd(): Boolean = false
+
+    override fun getVideoSize(): VideoSize = videoSizeValue
+
+    override fun getCurrentTracks(): Tracks = Tracks.EMPTY
+
+    override fun getPlaybackParameters(): PlaybackParameters = playbackParametersValue
+
+    override fun getMediaMetadata(): MediaMetadata = MediaMetadata.EMPTY
+  }
+}
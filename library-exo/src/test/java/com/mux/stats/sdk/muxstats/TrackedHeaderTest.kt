@@ -42,4 +42,22 @@ class TrackedHeaderTest {
       spec.matches(headerNameMatches)
     )
   }
-}
\ No newline at end of file
+
+  @Test
+  fun testAllowedHeaderPrefix() {
+    val spec = TrackedHeader.PrefixIgnoreCase("x-litix-")
+
+    Assert.assertTrue(
+      "headers starting with the prefix are allowed",
+      spec.matches("x-litix-session-id")
+    )
+    Assert.assertTrue(
+      "matching is case-insensitive",
+      spec.matches("X-Litix-Session-Id")
+    )
+    Assert.assertFalse(
+      "only headers starting with the prefix are allowed",
+      spec.matches("x-not-litix-session-id")
+    )
+  }
+}
@@ -0,0 +1,273 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import android.os.Looper
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import androidx.media3.common.util.UnstableApi
+import com.mux.stats.sdk.muxstats.BandwidthMetricsOptions
+import com.mux.stats.sdk.muxstats.MuxStateCollector
+import com.mux.stats.sdk.muxstats.MuxStats
+import com.mux.stats.sdk.muxstats.RequestBeaconBudget
+import com.mux.stats.sdk.muxstats.TrackAnalyzer
+import io.mockk.mockk
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
+
+@RunWith(RobolectricTestRunner::class)
+class BandwidthMetricDispatcherTest {
+
+  // Held here, since the dispatcher only keeps weak references to these
+  private val player = fakeExoPlayer()
+  private val events = RecordingEventDispatcher()
+  private val collector = MuxStateCollector(mockk<MuxStats>(relaxed = true), events)
+  private val clock = FakeRequestClock()
+
+  private val dispatcher = BandwidthMetricDispatcher(
+    player = player,
+    collector = collector,
+    clock = clock,
+  )
+  private val trackAnalyzer = TrackAnalyzer()
+  private var nextLoadTaskId = 0L
+
+  @Test
+  fun testSameLadderIsOnlySentOnce() {
+    // Players report new Tracks for the same ladder, eg when audio or subtitle tracks change
+    tracksChanged()
+    load()
+    tracksChanged()
+    load()
+
+    Assert.assertEquals(2, events.requests.size)
+    val first = events.requests[0]
+    val second = events.requests[1]
+    Assert.assertEquals(
+      "first beacon should carry the ladder",
+      3,
+      first.requestRenditionLists?.size
+    )
+    Assert.assertNull("same ladder shouldn't be sent again", second.requestRenditionLists)
+    Assert.assertEquals(
+      "both beacons should have the same ladder id",
+      first.get(RenditionLadderTracker.RENDITION_LADDER_ID_KEY),
+      second.get(RenditionLadderTracker.RENDITION_LADDER_ID_KEY)
+    )
+  }
+
+  @Test
+  fun testLadderIsSentAgainForNewView() {
+    tracksChanged()
+    load()
+    dispatcher.onViewChange()
+    tracksChanged()
+    load()
+
+    Assert.assertEquals(2, events.requests.size)
+    Assert.assertEquals(3, events.requests[0].requestRenditionLists?.size)
+    Assert.assertEquals(
+      "a new view should get the ladder again",
+      3,
+      events.requests[1].requestRenditionLists?.size
+    )
+  }
+
+  @Test
+  fun testThroughputSummaryIsViewData() {
+    load()
+    load()
+    dispatcher.onViewChange()
+    load()
+
+    val summaries = events.events.map { it.viewData?.get(ThroughputEstimator.THROUGHPUT_EWMA_KEY) }
+    Assert.assertEquals("8000000", summaries[0]) // 500 KB in 500ms
+    Assert.assertNull("summary shouldn't be sent again so soon", summaries[1])
+    Assert.assertEquals("new view should get its own summary", "8000000", summaries[2])
+    events.requests.forEach {
+      Assert.assertNull(
+        "summary shouldn't be on request data",
+        it.get(ThroughputEstimator.THROUGHPUT_EWMA_KEY)
+      )
+    }
+  }
+
+  @Test
+  fun testThroughputIsMeasuredFromFirstByte() {
+    val estimator = ThroughputEstimator()
+    val metrics = BandwidthMetricsHls(player, collector, clock, estimator)
+    val record = LoadRecord().apply {
+      requestType = "media"
+      hasNetworkTiming = true
+      openStartNs = 0
+      // A slow connection, then 1 MB in 100ms
+      responseStartNs = 400 * NANOS_PER_MS
+      transferEndNs = 500 * NANOS_PER_MS
+    }
+    metrics.sampleThroughput(record, bytesLoaded = 1_000_000, loadEndMs = 500)
+
+    Assert.assertEquals(80_000_000.0, estimator.ewmaBitsPerSecond, 1.0)
+  }
+
+  @Test
+  fun testAggregateIsSentOnTimerAndViewChange() {
+    val aggregatingDispatcher = BandwidthMetricDispatcher(
+      player = player,
+      collector = collector,
+      options = BandwidthMetricsOptions(aggregateRequests = true, aggregationIntervalMs = 60_000),
+      clock = clock,
+    )
+    repeat(3) { load(aggregatingDispatcher) }
+    Assert.assertEquals("requests should only be aggregated", 0, events.count)
+
+    // No more requests finish, but the interval ends
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(60_000))
+    Assert.assertEquals(1, events.count)
+    val timed = events.events[0]
+    Assert.assertTrue(timed is RequestSummaryEvent)
+    Assert.assertEquals("3", timed.bandwidthMetricData.get(RequestAggregator.AGGREGATE_COUNT_KEY))
+    Assert.assertNull("the summary isn't a request", timed.bandwidthMetricData.requestType)
+
+    load(aggregatingDispatcher)
+    aggregatingDispatcher.onViewChange()
+    Assert.assertEquals("view change should send the old view's requests", 2, events.count)
+    Assert.assertEquals(
+      "1",
+      events.events[1].bandwidthMetricData.get(RequestAggregator.AGGREGATE_COUNT_KEY)
+    )
+
+    aggregatingDispatcher.release()
+  }
+
+  @Test
+  fun testViewChangeResetsRateLimits() {
+    val limitedDispatcher = BandwidthMetricDispatcher(
+      player = player,
+      collector = collector,
+      options = BandwidthMetricsOptions(
+        mediaBeaconBudget = RequestBeaconBudget(burst = 1, refillPerSecond = 0.0),
+        excessBeaconSampleRate = Int.MAX_VALUE,
+      ),
+      clock = clock,
+    )
+    load(limitedDispatcher)
+    load(limitedDispatcher)
+    Assert.assertEquals("the second request should be over budget", 1, events.count)
+
+    limitedDispatcher.onViewChange()
+    load(limitedDispatcher)
+    Assert.assertEquals("the new view should have its own budget", 2, events.count)
+    Assert.assertNull(
+      "the old view's drops shouldn't be counted in the new one",
+      events.requests[1].get(BandwidthMetricDispatcher.DROPPED_BEACON_COUNT_KEY)
+    )
+  }
+
+  @Test
+  fun testBackgroundBeaconsAreRateLimitedBeforeQueueing() {
+    val backgroundDispatcher = BandwidthMetricDispatcher(
+      player = player,
+      collector = collector,
+      options = BandwidthMetricsOptions(
+        dispatchInBackground = true,
+        backgroundFlushIntervalMs = 60_000,
+        backgroundQueueSize = 1,
+        mediaBeaconBudget = RequestBeaconBudget(burst = 1, refillPerSecond = 0.0),
+        excessBeaconSampleRate = Int.MAX_VALUE,
+      ),
+      clock = clock,
+    )
+    load(backgroundDispatcher)
+    // Over budget, so this shouldn't find the queue full and get sent on the player's thread
+    load(backgroundDispatcher)
+    Assert.assertEquals("nothing should be sent before a flush", 0, events.count)
+
+    backgroundDispatcher.release()
+    awaitEvents(1)
+    Assert.assertEquals("the queued request should be sent after release", 1, events.count)
+  }
+
+  /**
+   * Runs the main looper until [count] events were dispatched, or a few seconds have passed
+   */
+  private fun awaitEvents(count: Int) {
+    val deadlineNs = System.nanoTime() + Duration.ofSeconds(5).toNanos()
+    while (events.count < count && System.nanoTime() < deadlineNs) {
+      Thread.sleep(10)
+      shadowOf(Looper.getMainLooper()).idle()
+    }
+  }
+
+  /**
+   * Reports a new [Tracks] with the same three-rendition video ladder as every other call
+   */
+  @OptIn(UnstableApi::class)
+  private fun tracksChanged() {
+    val formats = listOf(
+      videoFormat(640, 360, 800_000),
+      videoFormat(1280, 720, 2_500_000),
+      videoFormat(1920, 1080, 5_000_000),
+    )
+    val group = Tracks.Group(
+      TrackGroup(*formats.toTypedArray()),
+      /* adaptiveSupported = */ true,
+      IntArray(formats.size) { C.FORMAT_HANDLED },
+      BooleanArray(formats.size) { it == 0 },
+    )
+    trackAnalyzer.analyze(Tracks(listOf(group)))
+    dispatcher.onTracksChanged(trackAnalyzer)
+  }
+
+  private fun load(dispatcher: BandwidthMetricDispatcher = this.dispatcher) {
+    val loadTaskId = nextLoadTaskId++
+    val startMs = 10_000 + loadTaskId * 2_000
+    clock.nowMs = startMs
+    dispatcher.onLoadStarted(
+      loadTaskId = loadTaskId,
+      loadStartTimeMs = startMs,
+      mediaStartTimeMs = loadTaskId * 6_000,
+      mediaEndTimeMs = (loadTaskId + 1) * 6_000,
+      segmentUrl = "/v/abc123/720p_$loadTaskId.ts",
+      dataType = C.DATA_TYPE_MEDIA,
+      trackType = C.TRACK_TYPE_DEFAULT,
+      host = "cdn.example.com",
+      segmentMimeType = null,
+      segmentWidth = 1280,
+      segmentHeight = 720,
+      dataSpec = null,
+    )
+    clock.nowMs = startMs + 500
+    dispatcher.onLoadCompleted(
+      loadTaskId = loadTaskId,
+      segmentUrl = null,
+      bytesLoaded = 500_000,
+      trackFormat = null,
+      responseHeaders = emptyMap(),
+      loadEndMs = startMs + 500,
+      loadDurationMs = 500,
+    )
+  }
+
+  private fun videoFormat(width: Int, height: Int, bitrate: Int): Format {
+    return Format.Builder()
+      .setId("$width-$height-$bitrate")
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setCodecs("avc1.64001f")
+      .setWidth(width)
+      .setHeight(height)
+      .setAverageBitrate(bitrate)
+      .setPeakBitrate(bitrate)
+      .setFrameRate(30F)
+      .build()
+  }
+
+  companion object {
+    private const val NANOS_PER_MS = 1_000_000L
+  }
+}
@@ -0,0 +1,79 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import android.os.Looper
+import androidx.annotation.OptIn
+import androidx.media3.common.MediaItem
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.ExoPlayer
+import androidx.media3.exoplayer.source.SinglePeriodTimeline
+import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import java.lang.reflect.Proxy
+
+/*
+ * DispatcherFakes.kt: Fakes for tests that drive a real BandwidthMetricDispatcher
+ */
+
+/**
+ * A [RequestClock] that only moves when told to
+ */
+internal class FakeRequestClock : RequestClock {
+  var nowMs: Long = 0
+
+  override fun elapsedRealtimeMs(): Long = nowMs
+
+  override fun toWallClockMs(elapsedRealtimeMs: Long): Long =
+    WALL_CLOCK_OFFSET_MS + elapsedRealtimeMs
+
+  companion object {
+    const val WALL_CLOCK_OFFSET_MS = 1_700_000_000_000
+  }
+}
+
+/**
+ * Counts the events dispatched to it, and keeps them and their request data if it's told to keep
+ */
+internal class RecordingEventDispatcher(private val keep: Boolean = true) : IEventDispatcher {
+  var count = 0
+  val events = ArrayList<PlaybackEvent>()
+  val requests = ArrayList<BandwidthMetricData>()
+
+  override fun dispatch(e: IEvent?) {
+    count++
+    if (keep && e is PlaybackEvent) {
+      events += e
+      e.bandwidthMetricData?.let { requests += it }
+    }
+  }
+}
+
+/**
+ * An [ExoPlayer] with one window in its timeline, for [BandwidthMetrics] to look up, on the main
+ * looper. It's a proxy instead of a mock, since mock calls allocate. Any other call returns null
+ */
+@OptIn(UnstableApi::class)
+internal fun fakeExoPlayer(): ExoPlayer {
+  val timeline = SinglePeriodTimeline(
+    /* durationUs = */ 60_000_000,
+    /* isSeekable = */ true,
+    /* isDynamic = */ false,
+    /* useLiveConfiguration = */ false,
+    /* manifest = */ null,
+    MediaItem.EMPTY,
+  )
+  return Proxy.newProxyInstance(
+    ExoPlayer::class.java.classLoader,
+    arrayOf(ExoPlayer::class.java)
+  ) { proxy, method, args ->
+    when (method.name) {
+      "getCurrentTimeline" -> timeline
+      "getCurrentWindowIndex", "getCurrentMediaItemIndex" -> 0
+      "getApplicationLooper" -> Looper.getMainLooper()
+      "hashCode" -> System.identityHashCode(proxy)
+      "equals" -> proxy === args?.get(0)
+      else -> null
+    }
+  } as ExoPlayer
+}
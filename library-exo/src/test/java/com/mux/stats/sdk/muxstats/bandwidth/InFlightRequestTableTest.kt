@@ -0,0 +1,127 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import org.junit.Assert
+import org.junit.Test
+
+class InFlightRequestTableTest {
+
+  @Test
+  fun testStartAndRemove() {
+    val table = InFlightRequestTable(maxEntries = 8)
+    table.start(loadTaskId = 1, nowMs = 100).requestUrl = "/seg1.ts"
+    table.start(loadTaskId = 2, nowMs = 200).requestUrl = "/seg2.ts"
+
+    Assert.assertEquals("both loads should be tracked", 2, table.size)
+    Assert.assertEquals("/seg1.ts", table[1]?.requestUrl)
+
+    val removedUrl = table.remove(1) { it.requestUrl }
+    Assert.assertEquals("remove() should see the record's data", "/seg1.ts", removedUrl)
+    Assert.assertNull("removed loads are no longer tracked", table[1])
+    Assert.assertNull("removing an unknown load does nothing", table.remove(1) { it.requestUrl })
+    Assert.assertEquals("/seg2.ts", table[2]?.requestUrl)
+    Assert.assertEquals(1, table.size)
+  }
+
+  @Test
+  fun testRecordsAreRecycled() {
+    val table = InFlightRequestTable(maxEntries = 1)
+    val first = table.start(loadTaskId = 1, nowMs = 100)
+    first.requestUrl = "/seg1.ts"
+    first.hasMediaDuration = true
+    table.remove(1) { }
+
+    val second = table.start(loadTaskId = 2, nowMs = 200)
+    Assert.assertSame("records should come from the pool", first, second)
+    Assert.assertNull("recycled records should be reset", second.requestUrl)
+    Assert.assertFalse("recycled records should be reset", second.hasMediaDuration)
+    Assert.assertEquals(2, second.loadTaskId)
+    Assert.assertEquals(200, second.requestStart)
+  }
+
+  @Test
+  fun testEvictsStaleLoadsWhenFull() {
+    val table = InFlightRequestTable(maxEntries = 4, staleAfterMs = 1_000)
+    table.start(loadTaskId = 1, nowMs = 0)
+    table.start(loadTaskId = 2, nowMs = 5_000)
+    table.start(loadTaskId = 3, nowMs = 100)
+    table.start(loadTaskId = 4, nowMs = 5_100)
+
+    table.start(loadTaskId = 5, nowMs = 5_500)
+
+    Assert.assertNull("stale loads should be evicted", table[1])
+    Assert.assertNull("stale loads should be evicted", table[3])
+    Assert.assertNotNull(table[2])
+    Assert.assertNotNull(table[4])
+    Assert.assertNotNull(table[5])
+    Assert.assertEquals(3, table.size)
+    Assert.assertEquals(2, table.evictedCount)
+  }
+
+  @Test
+  fun testEvictsOldestLoadWhenNothingIsStale() {
+    val table = InFlightRequestTable(maxEntries = 3, staleAfterMs = 60_000)
+    table.start(loadTaskId = 10, nowMs = 300)
+    table.start(loadTaskId = 11, nowMs = 100)
+    table.start(loadTaskId = 12, nowMs = 200)
+
+    table.start(loadTaskId = 13, nowMs = 400)
+
+    Assert.assertNull("the oldest load should be evicted", table[11])
+    Assert.assertNotNull(table[10])
+    Assert.assertNotNull(table[12])
+    Assert.assertNotNull(table[13])
+    Assert.assertEquals(3, table.size)
+  }
+
+  @Test
+  fun testManyLoads() {
+    // Exercises probing and deletion with lots of collisions and churn
+    val table = InFlightRequestTable(maxEntries = 32)
+    val live = HashSet<Long>()
+    var nextId = 0L
+    for (round in 0 until 10_000) {
+      if (live.size < 32 && (round % 3 != 0 || live.isEmpty())) {
+        val id = nextId++
+        table.start(id, nowMs = round.toLong()).requestUrl = "/seg$id"
+        live += id
+      } else {
+        val id = live.first()
+        Assert.assertEquals("/seg$id", table.remove(id) { it.requestUrl })
+        live -= id
+      }
+      Assert.assertEquals(live.size, table.size)
+    }
+    live.forEach { Assert.assertEquals("/seg$it", table[it]?.requestUrl) }
+
+    table.clear()
+    Assert.assertEquals(0, table.size)
+    live.forEach { Assert.assertNull(table[it]) }
+  }
+
+  @Test
+  fun testLoadTimesAreConvertedToWallClockOnce() {
+    // Boot was 1,000,000 ms after the epoch, as far as this clock is concerned
+    val clock = object : RequestClock {
+      override fun elapsedRealtimeMs(): Long = 0
+      override fun toWallClockMs(elapsedRealtimeMs: Long): Long = 1_000_000 + elapsedRealtimeMs
+    }
+    val table = InFlightRequestTable(maxEntries = 4)
+    table.start(loadTaskId = 1, nowMs = 5_000)
+
+    val data = table.remove(1) {
+      // The start callback came 20ms after the load really started
+      it.applyLoadDuration(loadEndMs = 5_480, loadDurationMs = 500)
+      it.toBandwidthMetricData(clock)
+    }!!
+
+    Assert.assertEquals("start comes from the load's duration", 1_004_980L, data.requestStart)
+  }
+
+  @Test
+  fun testUnknownLoadDurationKeepsStart() {
+    val record = LoadRecord()
+    record.requestStart = 5_000
+    record.applyLoadDuration(loadEndMs = 5_480, loadDurationMs = 0)
+    Assert.assertEquals(5_000L, record.requestStart)
+  }
+}
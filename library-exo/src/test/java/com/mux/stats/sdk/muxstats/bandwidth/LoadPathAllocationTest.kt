@@ -0,0 +1,142 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import androidx.media3.common.C
+import com.mux.stats.sdk.muxstats.BandwidthMetricsOptions
+import com.mux.stats.sdk.muxstats.MuxStateCollector
+import com.mux.stats.sdk.muxstats.MuxStats
+import com.mux.stats.sdk.muxstats.RequestBeaconBudget
+import io.mockk.mockk
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.lang.management.ManagementFactory
+
+/**
+ * Checks that the work [BandwidthMetricDispatcher] does on the player's thread for each load start
+ * and load completion doesn't allocate once it's warmed up, with logging off, for loads that don't
+ * get a beacon of their own
+ */
+@RunWith(RobolectricTestRunner::class)
+class LoadPathAllocationTest {
+
+  private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+  private val segmentUrl = "/v/abc123/720p_001.ts"
+  private val host = "cdn.example.com"
+  private val noHeaders = emptyMap<String, List<String>>()
+
+  // Held here, since the dispatcher only keeps weak references to these
+  private val player = fakeExoPlayer()
+  private val events = RecordingEventDispatcher(keep = false)
+  private val collector = MuxStateCollector(mockk<MuxStats>(relaxed = true), events)
+  private val clock = FakeRequestClock()
+
+  @Test
+  fun testRateLimitedLoadsDoNotAllocate() {
+    val dispatcher = BandwidthMetricDispatcher(
+      player = player,
+      collector = collector,
+      options = BandwidthMetricsOptions(
+        mediaBeaconBudget = RequestBeaconBudget(burst = 1, refillPerSecond = 0.0),
+        excessBeaconSampleRate = Int.MAX_VALUE,
+      ),
+      clock = clock,
+    )
+
+    val allocated = measureLoads(dispatcher)
+
+    Assert.assertEquals("only the first load should get a beacon", 1, events.count)
+    Assert.assertTrue(
+      "load callbacks allocated $allocated bytes over $ITERATIONS loads",
+      allocated < ITERATIONS / 10
+    )
+  }
+
+  @Test
+  fun testAggregatedLoadsDoNotAllocate() {
+    val dispatcher = BandwidthMetricDispatcher(
+      player = player,
+      collector = collector,
+      options = BandwidthMetricsOptions(
+        aggregateRequests = true,
+        aggregationIntervalMs = 60 * 60 * 1000L,
+      ),
+      clock = clock,
+    )
+
+    val allocated = measureLoads(dispatcher)
+
+    Assert.assertEquals("loads should only be aggregated", 0, events.count)
+    Assert.assertTrue(
+      "load callbacks allocated $allocated bytes over $ITERATIONS loads",
+      allocated < ITERATIONS / 10
+    )
+  }
+
+  /**
+   * Warms up, then starts and completes [ITERATIONS] loads through [dispatcher]
+   *
+   * @return How many bytes the measured loads allocated
+   */
+  private fun measureLoads(dispatcher: BandwidthMetricDispatcher): Long {
+    Assume.assumeTrue(
+      "needs a JVM that can count allocations",
+      threadBean?.isThreadAllocatedMemorySupported == true
+    )
+    threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+    // warm up, so classes are loaded and the code is compiled
+    for (id in 0L until WARMUP_ITERATIONS) {
+      load(dispatcher, id)
+    }
+
+    // measuring has a small fixed cost of its own
+    val overheadStart = allocatedBytes()
+    val overhead = allocatedBytes() - overheadStart
+
+    val start = allocatedBytes()
+    for (id in WARMUP_ITERATIONS until WARMUP_ITERATIONS + ITERATIONS) {
+      load(dispatcher, id)
+    }
+    return allocatedBytes() - start - overhead
+  }
+
+  private fun load(dispatcher: BandwidthMetricDispatcher, loadTaskId: Long) {
+    val startMs = loadTaskId * 2_000
+    clock.nowMs = startMs
+    dispatcher.onLoadStarted(
+      loadTaskId = loadTaskId,
+      loadStartTimeMs = startMs,
+      mediaStartTimeMs = loadTaskId * 6_000,
+      mediaEndTimeMs = (loadTaskId + 1) * 6_000,
+      segmentUrl = segmentUrl,
+      dataType = C.DATA_TYPE_MEDIA,
+      trackType = C.TRACK_TYPE_DEFAULT,
+      host = host,
+      segmentMimeType = null,
+      segmentWidth = 1280,
+      segmentHeight = 720,
+      dataSpec = null,
+    )
+    clock.nowMs = startMs + 500
+    dispatcher.onLoadCompleted(
+      loadTaskId = loadTaskId,
+      segmentUrl = segmentUrl,
+      bytesLoaded = 700_000,
+      trackFormat = null,
+      responseHeaders = noHeaders,
+      loadEndMs = startMs + 500,
+      loadDurationMs = 500,
+    )
+  }
+
+  private fun allocatedBytes(): Long =
+    threadBean!!.getThreadAllocatedBytes(Thread.currentThread().id)
+
+  companion object {
+    private const val WARMUP_ITERATIONS = 20_000L
+    private const val ITERATIONS = 10_000L
+  }
+}
@@ -0,0 +1,38 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import org.junit.Assert
+import org.junit.Test
+
+class RenditionIndexTest {
+
+  @Test
+  fun testLevelOf() {
+    val index = RenditionIndex(4)
+    index.put(width = 1920, height = 1080, bitrate = 6_000_000, level = 0)
+    index.put(width = 1280, height = 720, bitrate = 3_000_000, level = 1)
+    index.put(width = 640, height = 360, bitrate = 800_000, level = 2)
+
+    Assert.assertEquals(0, index.levelOf(1920, 1080, 6_000_000))
+    Assert.assertEquals(1, index.levelOf(1280, 720, 3_000_000))
+    Assert.assertEquals(2, index.levelOf(640, 360, 800_000))
+    Assert.assertEquals(
+      "all three fields must match",
+      RenditionIndex.NOT_FOUND,
+      index.levelOf(1280, 720, 800_000)
+    )
+    Assert.assertEquals(RenditionIndex.NOT_FOUND, RenditionIndex.EMPTY.levelOf(1280, 720, 3_000_000))
+  }
+
+  @Test
+  fun testLastRenditionWins() {
+    // Same ladder in two codecs. The old linear search kept the last match, so do we
+    val index = RenditionIndex(4)
+    index.put(width = 1280, height = 720, bitrate = 3_000_000, level = 1)
+    index.put(width = -1, height = -1, bitrate = -1, level = 0)
+    index.put(width = 1280, height = 720, bitrate = 3_000_000, level = 3)
+
+    Assert.assertEquals(3, index.levelOf(1280, 720, 3_000_000))
+    Assert.assertEquals("unset values should still be found", 0, index.levelOf(-1, -1, -1))
+    Assert.assertEquals(2, index.size)
+  }
+}
@@ -0,0 +1,83 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData.Rendition
+import org.junit.Assert
+import org.junit.Test
+
+class RenditionLadderTrackerTest {
+
+  private fun rendition(width: Int, height: Int, bitrate: Long): Rendition {
+    return Rendition().apply {
+      this.width = width
+      this.height = height
+      this.bitrate = bitrate
+      this.codec = "avc1.64001f"
+      this.fps = 30F
+      this.name = "${width}_${height}_${bitrate}_avc1.64001f_30.0"
+    }
+  }
+
+  private fun ladder() = listOf(
+    rendition(640, 360, 800_000),
+    rendition(1280, 720, 2_500_000),
+    rendition(1920, 1080, 5_000_000),
+  )
+
+  @Test
+  fun testFingerprintIgnoresOrder() {
+    val ladder = ladder()
+    Assert.assertEquals(
+      "same renditions in a different order are the same ladder",
+      RenditionLadderTracker.fingerprint(ladder),
+      RenditionLadderTracker.fingerprint(ladder.reversed())
+    )
+    Assert.assertEquals(
+      "equal renditions in a new list are the same ladder",
+      RenditionLadderTracker.fingerprint(ladder),
+      RenditionLadderTracker.fingerprint(ladder())
+    )
+  }
+
+  @Test
+  fun testFingerprintChangesWithLadder() {
+    val ladder = ladder()
+    val otherBitrate = ladder.toMutableList().apply { this[1] = rendition(1280, 720, 3_000_000) }
+    val fewerRenditions = ladder.take(2)
+    val otherCodec = ladder.toMutableList().apply {
+      this[1] = rendition(1280, 720, 2_500_000).apply { codec = "hvc1.1.6.L93.B0" }
+    }
+
+    val fingerprint = RenditionLadderTracker.fingerprint(ladder)
+    Assert.assertNotEquals(fingerprint, RenditionLadderTracker.fingerprint(otherBitrate))
+    Assert.assertNotEquals(fingerprint, RenditionLadderTracker.fingerprint(fewerRenditions))
+    Assert.assertNotEquals(fingerprint, RenditionLadderTracker.fingerprint(otherCodec))
+    Assert.assertNotEquals(fingerprint, RenditionLadderTracker.fingerprint(emptyList()))
+  }
+
+  @Test
+  fun testLadderIdIsCachedByIdentity() {
+    val tracker = RenditionLadderTracker()
+    val ladder = ladder()
+    val ladderId = tracker.ladderIdOf(ladder)
+
+    Assert.assertSame("same list, same id object", ladderId, tracker.ladderIdOf(ladder))
+    Assert.assertEquals("equal list, equal id", ladderId, tracker.ladderIdOf(ladder()))
+  }
+
+  @Test
+  fun testLadderIsSentOncePerChange() {
+    val tracker = RenditionLadderTracker()
+    val firstId = tracker.ladderIdOf(ladder())
+    val secondId = tracker.ladderIdOf(ladder().take(2))
+
+    Assert.assertTrue("first beacon carries the ladder", tracker.shouldSendLadder(firstId))
+    Assert.assertFalse("later beacons don't", tracker.shouldSendLadder(firstId))
+    Assert.assertFalse("later beacons don't", tracker.shouldSendLadder(firstId))
+
+    Assert.assertTrue("new ladder is sent", tracker.shouldSendLadder(secondId))
+    Assert.assertFalse("but only once", tracker.shouldSendLadder(secondId))
+
+    tracker.reset()
+    Assert.assertTrue("sent again after reset", tracker.shouldSendLadder(secondId))
+  }
+}
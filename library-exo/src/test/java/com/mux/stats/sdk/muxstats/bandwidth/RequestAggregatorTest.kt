@@ -0,0 +1,83 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import org.junit.Assert
+import org.junit.Test
+
+class RequestAggregatorTest {
+
+  private fun request(
+    type: String,
+    host: String,
+    durationMs: Long,
+    bytes: Long = 0,
+    errorCode: Int? = null,
+  ): BandwidthMetricData {
+    return BandwidthMetricData().apply {
+      requestType = type
+      requestHostName = host
+      requestStart = 1_000
+      requestResponseEnd = 1_000 + durationMs
+      requestBytesLoaded = bytes
+      requestErrorCode = errorCode
+    }
+  }
+
+  @Test
+  fun testDurationBuckets() {
+    Assert.assertEquals(0, RequestAggregator.durationBucketOf(0))
+    Assert.assertEquals(1, RequestAggregator.durationBucketOf(1))
+    Assert.assertEquals(2, RequestAggregator.durationBucketOf(2))
+    Assert.assertEquals(2, RequestAggregator.durationBucketOf(3))
+    Assert.assertEquals(10, RequestAggregator.durationBucketOf(1_000))
+    Assert.assertEquals(
+      "very long requests share the last bucket",
+      RequestAggregator.DURATION_BUCKETS - 1,
+      RequestAggregator.durationBucketOf(Long.MAX_VALUE)
+    )
+  }
+
+  @Test
+  fun testRequestsAreGroupedByKindAndHost() {
+    val aggregator = RequestAggregator()
+    aggregator.addCompleted(request("video", "a.cdn", durationMs = 1_000, bytes = 500))
+    aggregator.addCompleted(request("audio", "a.cdn", durationMs = 1_000, bytes = 100))
+    aggregator.addCompleted(request("manifest", "a.cdn", durationMs = 3))
+    aggregator.addFailed(request("video", "b.cdn", durationMs = 3, errorCode = 404))
+    aggregator.addFailed(request("video", "b.cdn", durationMs = 3, errorCode = 404))
+    aggregator.addCanceled(request("video", "b.cdn", durationMs = 1))
+
+    Assert.assertEquals(6L, aggregator.pendingCount)
+    val groups = summarize(aggregator)
+
+    Assert.assertEquals("manifest,a.cdn,1,0,0,0,2:1,", groups[0])
+    Assert.assertEquals("media,a.cdn,2,600,0,0,10:2,", groups[1])
+    Assert.assertEquals("media,b.cdn,3,0,2,1,1:1 2:2,404:2", groups[2])
+    Assert.assertEquals(3, groups.size)
+    Assert.assertEquals("flushing starts a new interval", 0L, aggregator.pendingCount)
+  }
+
+  @Test
+  fun testMemoryIsBounded() {
+    val aggregator = RequestAggregator(maxHosts = 2, maxErrorCodes = 2)
+    for (i in 0 until 1_000) {
+      aggregator.addFailed(request("video", "host$i", durationMs = 5, errorCode = 400 + i))
+    }
+
+    val groups = summarize(aggregator)
+    Assert.assertEquals(3, groups.size)
+    Assert.assertEquals("media,host0,1,0,1,0,3:1,400:1", groups[0])
+    Assert.assertEquals("media,host1,1,0,1,0,3:1,401:1", groups[1])
+    Assert.assertEquals("media,*,998,0,998,0,3:998,402:1 403:1 *:996", groups[2])
+  }
+
+  @Test
+  fun testNothingToFlush() {
+    val aggregator = RequestAggregator()
+    Assert.assertNull(aggregator.flush())
+  }
+
+  private fun summarize(aggregator: RequestAggregator): List<String> {
+    return aggregator.flush()!!.split(';')
+  }
+}
@@ -0,0 +1,89 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.muxstats.RequestBeaconBudget
+import org.junit.Assert
+import org.junit.Test
+
+class RequestBeaconRateLimiterTest {
+
+  private fun limiter(sampleRate: Int = 10) = RequestBeaconRateLimiter(
+    manifestBudget = RequestBeaconBudget(burst = 3, refillPerSecond = 1.0),
+    mediaBudget = RequestBeaconBudget(burst = 5, refillPerSecond = 2.0),
+    initBudget = RequestBeaconBudget(burst = 2, refillPerSecond = 1.0),
+    drmBudget = RequestBeaconBudget(burst = 2, refillPerSecond = 1.0),
+    excessSampleRate = sampleRate,
+  )
+
+  @Test
+  fun testBurstThenRefill() {
+    val limiter = limiter(sampleRate = 1_000)
+    repeat(3) {
+      Assert.assertTrue("the burst should be allowed", limiter.tryAcquire("manifest", 0))
+    }
+    Assert.assertFalse("over the burst should be dropped", limiter.tryAcquire("manifest", 0))
+    Assert.assertFalse("not refilled yet", limiter.tryAcquire("manifest", 999))
+    Assert.assertTrue("one token after a second", limiter.tryAcquire("manifest", 1_000))
+    Assert.assertFalse(limiter.tryAcquire("manifest", 1_000))
+  }
+
+  @Test
+  fun testBucketsAreIndependent() {
+    val limiter = limiter(sampleRate = 1_000)
+    repeat(3) { limiter.tryAcquire("manifest", 0) }
+    Assert.assertFalse(limiter.tryAcquire("manifest", 0))
+
+    Assert.assertTrue("media has its own budget", limiter.tryAcquire("media", 0))
+    Assert.assertTrue("init has its own budget", limiter.tryAcquire("video_init", 0))
+    Assert.assertTrue("drm has its own budget", limiter.tryAcquire("encryption", 0))
+    Assert.assertTrue("unknown types use the media budget", limiter.tryAcquire(null, 0))
+  }
+
+  @Test
+  fun testSamplesExcessAndCountsDrops() {
+    val limiter = limiter(sampleRate = 4)
+    repeat(3) { limiter.tryAcquire("manifest", 0) }
+
+    // A broken live stream re-fetching its manifest every 200ms
+    val admitted = (1..12).map { limiter.tryAcquire("manifest", 0) }
+    Assert.assertEquals(
+      "one in 4 excess beacons should be sent",
+      listOf(false, false, false, true, false, false, false, true, false, false, false, true),
+      admitted
+    )
+
+    Assert.assertEquals("drops should be counted", 9, limiter.takeDroppedCount("manifest"))
+    Assert.assertEquals("the count should reset once taken", 0, limiter.takeDroppedCount("manifest"))
+    Assert.assertEquals("other kinds didn't drop anything", 0, limiter.takeDroppedCount("media"))
+  }
+
+  @Test
+  fun testResetRefillsAndForgetsDrops() {
+    val limiter = limiter(sampleRate = 1_000)
+    repeat(4) { limiter.tryAcquire("manifest", 0) }
+
+    limiter.reset()
+    Assert.assertEquals("drops shouldn't carry over", 0, limiter.takeDroppedCount("manifest"))
+    repeat(3) {
+      Assert.assertTrue("the burst should be allowed again", limiter.tryAcquire("manifest", 0))
+    }
+    Assert.assertFalse(limiter.tryAcquire("manifest", 0))
+  }
+
+  @Test
+  fun testManifestFloodIsLimitedToBudget() {
+    val limiter = limiter(sampleRate = 10)
+    var sent = 0
+    var dropped = 0L
+    // 60 seconds of a manifest reload every 200ms
+    for (nowMs in 0L until 60_000L step 200L) {
+      if (limiter.tryAcquire("manifest", nowMs)) {
+        sent++
+        dropped += limiter.takeDroppedCount("manifest")
+      }
+    }
+    // Anything dropped after the last beacon we sent would go with the next one
+    dropped += limiter.takeDroppedCount("manifest")
+    Assert.assertTrue("should send about 1 per second plus samples, sent $sent", sent in 60..90)
+    Assert.assertEquals("every beacon is either sent or counted", 300, sent + dropped)
+  }
+}
@@ -0,0 +1,78 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import org.junit.Assert
+import org.junit.Test
+
+class RequestTimingTableTest {
+
+  private val clock = object : RequestClock {
+    override fun elapsedRealtimeMs(): Long = 0
+    override fun toWallClockMs(elapsedRealtimeMs: Long): Long = 1_000_000 + elapsedRealtimeMs
+  }
+
+  @Test
+  fun testTimingIsJoinedByUriAndPosition() {
+    val table = RequestTimingTable(capacity = 8)
+    table.publish("https://cdn/seg1.ts", 0, 100_000_000, 140_000_000, 300_000_000, 1_000)
+    table.publish("https://cdn/seg1.ts", 500, 200_000_000, 260_000_000, 400_000_000, 2_000)
+
+    val record = LoadRecord()
+    Assert.assertTrue(table.takeInto("https://cdn/seg1.ts", 500, record))
+    Assert.assertEquals(260_000_000L, record.responseStartNs)
+    Assert.assertEquals(2_000L, record.bytesTransferred)
+
+    Assert.assertFalse(
+      "each timing is only used once",
+      table.takeInto("https://cdn/seg1.ts", 500, LoadRecord())
+    )
+    Assert.assertFalse(
+      "unknown loads have no timing",
+      table.takeInto("https://cdn/seg2.ts", 0, LoadRecord())
+    )
+    Assert.assertFalse(
+      "loads without a DataSpec have no timing",
+      table.takeInto(null, 0, LoadRecord())
+    )
+  }
+
+  @Test
+  fun testNewestTimingWins() {
+    val table = RequestTimingTable(capacity = 8)
+    table.publish("https://cdn/seg1.ts", 0, 100_000_000, 140_000_000, 300_000_000, 1_000)
+    table.publish("https://cdn/seg1.ts", 0, 500_000_000, 510_000_000, 600_000_000, 1_000)
+
+    val record = LoadRecord()
+    Assert.assertTrue(table.takeInto("https://cdn/seg1.ts", 0, record))
+    Assert.assertEquals("the retry is the newest", 510_000_000L, record.responseStartNs)
+  }
+
+  @Test
+  fun testOldTimingsAreOverwritten() {
+    val table = RequestTimingTable(capacity = 4)
+    for (i in 0 until 6) {
+      table.publish("https://cdn/seg$i.ts", 0, 0, 1, 2, 3)
+    }
+
+    Assert.assertFalse(table.takeInto("https://cdn/seg0.ts", 0, LoadRecord()))
+    Assert.assertFalse(table.takeInto("https://cdn/seg1.ts", 0, LoadRecord()))
+    for (i in 2 until 6) {
+      Assert.assertTrue(table.takeInto("https://cdn/seg$i.ts", 0, LoadRecord()))
+    }
+  }
+
+  @Test
+  fun testResponseStartIsReported() {
+    val record = LoadRecord()
+    record.requestStart = 100
+    Assert.assertEquals(
+      "without a timing, the response is assumed to start with the load",
+      1_000_100L,
+      record.toBandwidthMetricData(clock).requestResponseStart
+    )
+
+    val table = RequestTimingTable(capacity = 4)
+    table.publish("https://cdn/seg1.ts", 0, 100_000_000, 140_500_000, 300_000_000, 1_000)
+    table.takeInto("https://cdn/seg1.ts", 0, record)
+    Assert.assertEquals(1_000_140L, record.toBandwidthMetricData(clock).requestResponseStart)
+  }
+}
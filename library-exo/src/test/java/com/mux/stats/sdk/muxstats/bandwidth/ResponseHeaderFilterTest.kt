@@ -0,0 +1,69 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.regex.Pattern
+
+class ResponseHeaderFilterTest {
+
+  private val filter = ResponseHeaderFilter(
+    listOf(
+      TrackedHeader.ExactlyIgnoreCase("x-cdn"),
+      TrackedHeader.ExactlyIgnoreCase("Content-Type"),
+      TrackedHeader.PrefixIgnoreCase("x-litix-"),
+      TrackedHeader.Matching(Pattern.compile("^fastcdn-.*-id$")),
+    )
+  )
+
+  @Test
+  fun testIsTracked() {
+    Assert.assertTrue("exact names are tracked", filter.isTracked("x-cdn"))
+    Assert.assertTrue("exact names ignore case", filter.isTracked("content-type"))
+    Assert.assertTrue("exact names ignore case", filter.isTracked("X-CDN"))
+    Assert.assertFalse("exact names must match exactly", filter.isTracked("x-cdn-pop"))
+
+    Assert.assertTrue("prefixes are tracked", filter.isTracked("x-litix-session"))
+    Assert.assertTrue("prefixes ignore case", filter.isTracked("X-LITIX-SESSION"))
+    Assert.assertFalse("prefixes must be prefixes", filter.isTracked("x-litix"))
+
+    Assert.assertTrue("patterns are tracked", filter.isTracked("fastcdn-log-id"))
+    Assert.assertFalse("patterns must match", filter.isTracked("fastcdn-log-tag"))
+
+    Assert.assertFalse(filter.isTracked("cache-control"))
+    Assert.assertFalse("cached decisions should not change", filter.isTracked("cache-control"))
+    Assert.assertTrue("cached decisions should not change", filter.isTracked("x-cdn"))
+  }
+
+  @Test
+  fun testFilter() {
+    val headers = filter.filter(
+      mapOf(
+        "x-cdn" to listOf("fastly"),
+        "Content-Type" to listOf("video/mp2t"),
+        "x-litix-region" to listOf("us-east", "us-west", "eu-central"),
+        "x-litix-empty" to listOf(),
+        "cache-control" to listOf("max-age=1"),
+      )
+    )
+
+    Assert.assertEquals(
+      mapOf(
+        "x-cdn" to "fastly",
+        "Content-Type" to "video/mp2t",
+        "x-litix-region" to "us-east, us-west, eu-central",
+        "x-litix-empty" to "",
+      ),
+      headers
+    )
+  }
+
+  @Test
+  fun testFilterNothingTracked() {
+    Assert.assertNull("no headers at all", filter.filter(mapOf()))
+    Assert.assertEquals(
+      "headers, but none tracked",
+      mapOf<String, String>(),
+      filter.filter(mapOf("cache-control" to listOf("max-age=1")))
+    )
+  }
+}
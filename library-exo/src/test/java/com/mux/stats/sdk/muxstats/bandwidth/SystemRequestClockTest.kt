@@ -0,0 +1,62 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import org.junit.Assert
+import org.junit.Test
+
+class SystemRequestClockTest {
+
+  private var elapsedNanos = 5_000L * NANOS_PER_MS
+  private var wallClockMs = 1_700_000_000_000L
+
+  private val clock = SystemRequestClock(
+    maxDriftMs = 1_000,
+    elapsedRealtimeNanos = { elapsedNanos },
+    wallClockMs = { wallClockMs },
+  )
+
+  private fun advance(ms: Long) {
+    elapsedNanos += ms * NANOS_PER_MS
+    wallClockMs += ms
+  }
+
+  @Test
+  fun testConvertsFromAnchor() {
+    Assert.assertEquals(1_700_000_000_000L, clock.toWallClockMs(5_000))
+    Assert.assertEquals(1_700_000_001_500L, clock.toWallClockMs(6_500))
+    Assert.assertEquals(1_699_999_999_000L, clock.toWallClockMs(4_000))
+  }
+
+  @Test
+  fun testSmallDriftKeepsAnchor() {
+    advance(10_000)
+    wallClockMs += 800
+    Assert.assertFalse(clock.reanchorIfDrifted())
+    Assert.assertEquals(
+      "times should still come from the first anchor",
+      1_700_000_010_000L,
+      clock.toWallClockMs(15_000)
+    )
+  }
+
+  @Test
+  fun testLargeDriftReanchors() {
+    advance(10_000)
+    // Eg, an NTP update set the clock back
+    wallClockMs -= 5_000
+    Assert.assertTrue(clock.reanchorIfDrifted())
+    Assert.assertEquals(1_700_000_005_000L, clock.toWallClockMs(15_000))
+    Assert.assertFalse("shouldn't reanchor again without more drift", clock.reanchorIfDrifted())
+  }
+
+  @Test
+  fun testReanchorReadsWallClockAgain() {
+    advance(10_000)
+    wallClockMs += 300
+    clock.reanchor()
+    Assert.assertEquals(1_700_000_010_300L, clock.toWallClockMs(15_000))
+  }
+
+  companion object {
+    private const val NANOS_PER_MS = 1_000_000L
+  }
+}
@@ -0,0 +1,110 @@
+package com.mux.stats.sdk.muxstats.bandwidth
+
+import com.mux.stats.sdk.core.model.ViewData
+import org.junit.Assert
+import org.junit.Test
+
+class ThroughputEstimatorTest {
+
+  // 1 MB in `ms` milliseconds
+  private fun ThroughputEstimator.addMegabyteIn(ms: Long) =
+    addSample(bytes = 1_000_000, transferNs = ms * 1_000_000)
+
+  @Test
+  fun testPercentilesOfWindow() {
+    val estimator = ThroughputEstimator(windowSize = 10)
+    // 8 Mbps, 4 Mbps, ... one sample each for 1..10 seconds per MB
+    for (seconds in 1L..10L) {
+      Assert.assertTrue(estimator.addMegabyteIn(seconds * 1_000))
+    }
+    estimator.updatePercentiles()
+
+    Assert.assertEquals(10, estimator.windowCount)
+    Assert.assertEquals("p10 of 10 samples is the slowest", 800_000L, estimator.p10BitsPerSecond)
+    Assert.assertEquals("p50 is the 5th slowest", 1_333_333L, estimator.p50BitsPerSecond)
+    Assert.assertEquals(4_000_000L, estimator.p90BitsPerSecond)
+  }
+
+  @Test
+  fun testWindowSlides() {
+    val estimator = ThroughputEstimator(windowSize = 4)
+    repeat(4) { estimator.addMegabyteIn(8_000) } // 1 Mbps
+    repeat(4) { estimator.addMegabyteIn(1_000) } // 8 Mbps
+    estimator.updatePercentiles()
+
+    Assert.assertEquals(4, estimator.windowCount)
+    Assert.assertEquals("old samples left the window", 8_000_000L, estimator.p10BitsPerSecond)
+  }
+
+  @Test
+  fun testEwma() {
+    val estimator = ThroughputEstimator(ewmaWeight = 0.5)
+    estimator.addMegabyteIn(1_000) // 8 Mbps
+    Assert.assertEquals(8_000_000.0, estimator.ewmaBitsPerSecond, 1.0)
+    estimator.addMegabyteIn(2_000) // 4 Mbps
+    Assert.assertEquals(6_000_000.0, estimator.ewmaBitsPerSecond, 1.0)
+  }
+
+  @Test
+  fun testTinyLoadsAreIgnored() {
+    val estimator = ThroughputEstimator()
+    Assert.assertFalse("too small", estimator.addSample(bytes = 500, transferNs = 10_000_000))
+    Assert.assertFalse("too fast", estimator.addSample(bytes = 1_000_000, transferNs = 10))
+    Assert.assertEquals(0, estimator.windowCount)
+  }
+
+  @Test
+  fun testSummaryIsRateLimited() {
+    val estimator = ThroughputEstimator(reportIntervalMs = 10_000)
+    Assert.assertFalse(
+      "nothing to report yet",
+      estimator.maybeAttachSummary(ViewData(), nowMs = 0)
+    )
+
+    estimator.addMegabyteIn(1_000)
+    Assert.assertTrue(estimator.maybeAttachSummary(ViewData(), nowMs = 100))
+    estimator.addMegabyteIn(1_000)
+    Assert.assertFalse(
+      "too soon after the last summary",
+      estimator.maybeAttachSummary(ViewData(), nowMs = 5_000)
+    )
+    Assert.assertTrue(estimator.maybeAttachSummary(ViewData(), nowMs = 10_100))
+    Assert.assertFalse(
+      "no new samples",
+      estimator.maybeAttachSummary(ViewData(), nowMs = 30_000)
+    )
+  }
+
+  @Test
+  fun testResetStartsOver() {
+    val estimator = ThroughputEstimator(reportIntervalMs = 10_000)
+    repeat(4) { estimator.addMegabyteIn(8_000) } // 1 Mbps
+    Assert.assertTrue(estimator.maybeAttachSummary(ViewData(), nowMs = 100))
+
+    estimator.reset()
+    Assert.assertEquals(0, estimator.windowCount)
+    Assert.assertEquals(0.0, estimator.ewmaBitsPerSecond, 0.0)
+    Assert.assertFalse("nothing to report for the new view", estimator.isSummaryDue(nowMs = 200))
+
+    estimator.addMegabyteIn(1_000) // 8 Mbps
+    Assert.assertTrue("new view's first summary shouldn't wait", estimator.isSummaryDue(200))
+    estimator.updatePercentiles()
+    Assert.assertEquals("old view's samples are gone", 8_000_000L, estimator.p10BitsPerSecond)
+  }
+
+  @Test
+  fun testAddingSamplesDoesNotAllocate() {
+    val estimator = ThroughputEstimator()
+    val threadBean = java.lang.management.ManagementFactory.getThreadMXBean()
+        as? com.sun.management.ThreadMXBean
+    org.junit.Assume.assumeTrue(threadBean?.isThreadAllocatedMemorySupported == true)
+    threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+    repeat(20_000) { estimator.addMegabyteIn(1_000L + it % 100) }
+    val start = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+    repeat(10_000) { estimator.addMegabyteIn(1_000L + it % 100) }
+    val allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().id) - start
+
+    Assert.assertTrue("allocated $allocated bytes", allocated < 1_000)
+  }
+}
@@ -0,0 +1,168 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import org.junit.Assert
+import org.junit.Test
+
+class HlsUtilsTest {
+
+  private val llHlsPlaylist = listOf(
+    "#EXTM3U",
+    "#EXT-X-TARGETDURATION:4",
+    "#EXT-X-VERSION:6",
+    "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.0,CAN-SKIP-UNTIL=24.0",
+    "#EXT-X-PART-INF:PART-TARGET=0.33334",
+    "#EXT-X-MEDIA-SEQUENCE:266",
+    "#EXT-X-PROGRAM-DATE-TIME:2019-02-14T02:13:36.106Z",
+    "#EXT-X-MAP:URI=\"init.mp4\"",
+    "#EXTINF:4.00008,",
+    "#EXT-X-PROGRAM-DATE-TIME:2019-02-14T02:13:40.106Z",
+    "#EXTINF:4.00008,",
+    "#EXT-X-PART:DURATION=0.33334,URI=\"filePart273.0.mp4\"",
+    "#EXT-X-PROGRAM-DATE-TIME:2019-02-14T02:13:44.106Z",
+    "#EXT-X-PART:DURATION=0.33334,URI=\"filePart273.1.mp4\"",
+    "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"filePart273.2.mp4\"",
+  )
+
+  @Test
+  fun testFindsNewestProgramDateTime() {
+    Assert.assertEquals(
+      "#EXT-X-PROGRAM-DATE-TIME:2019-02-14T02:13:44.106Z",
+      ProgramDateTimeTracker().update(llHlsPlaylist, mediaSequence = 266, segmentCount = 2)
+    )
+    Assert.assertNull(
+      ProgramDateTimeTracker().update(listOf("#EXTM3U", "#EXTINF:4.0,"), 0, segmentCount = 1)
+    )
+  }
+
+  @Test
+  fun testOnlySearchesNewSegments() {
+    val tracker = ProgramDateTimeTracker()
+    tracker.update(livePlaylist(mediaSequence = 0, segmentCount = 1_000) { it == 500L }, 0, 1_000)
+
+    // 3 segments later, without any new tags
+    val refresh = ReadTrackingList(livePlaylist(3, 1_000) { it == 500L })
+    Assert.assertEquals(pdtTagOf(500), tracker.update(refresh, 3, 1_000))
+    Assert.assertTrue(
+      "only the 3 new segments should be searched, but read from ${refresh.lowestIndexRead}",
+      refresh.lowestIndexRead >= refresh.size - 3 * 2 - 1
+    )
+
+    // And one more, which has a tag
+    val nextRefresh = ReadTrackingList(livePlaylist(4, 1_000) { it == 500L || it == 1_003L })
+    Assert.assertEquals(pdtTagOf(1_003), tracker.update(nextRefresh, 4, 1_000))
+    Assert.assertTrue(nextRefresh.lowestIndexRead >= nextRefresh.size - 2)
+  }
+
+  @Test
+  fun testSearchesAgainWhenTagLeavesWindow() {
+    // Some servers only tag the first segment of each playlist
+    val tracker = ProgramDateTimeTracker()
+    Assert.assertEquals(pdtTagOf(0), tracker.update(livePlaylist(0, 100) { it == 0L }, 0, 100))
+    Assert.assertEquals(pdtTagOf(2), tracker.update(livePlaylist(2, 100) { it == 2L }, 2, 100))
+    Assert.assertNull(tracker.update(livePlaylist(4, 100) { false }, 4, 100))
+  }
+
+  @Test
+  fun testSearchesAgainForANewPlaylist() {
+    val tracker = ProgramDateTimeTracker()
+    tracker.update(livePlaylist(100, 10) { true }, 100, 10)
+    // Media sequence went backwards, like a new stream. Its tags shouldn't be skipped
+    Assert.assertEquals(pdtTagOf(3), tracker.update(livePlaylist(0, 10) { it == 3L }, 0, 10))
+  }
+
+  @Test
+  fun testHeaderTagsEndAtFirstSegment() {
+    val header = headerTagsOf(llHlsPlaylist)
+    Assert.assertEquals(8, header.size)
+    Assert.assertEquals("#EXT-X-MAP:URI=\"init.mp4\"", header.last())
+    Assert.assertEquals(
+      "playlists with no segments are all header",
+      2,
+      headerTagsOf(listOf("#EXTM3U", "#EXT-X-TARGETDURATION:4")).size
+    )
+  }
+
+  @Test
+  fun testParsesHeaderValues() {
+    val header = headerTagsOf(llHlsPlaylist)
+    Assert.assertEquals(4L, parseManifestTagL(header, "EXT-X-TARGETDURATION"))
+    Assert.assertEquals("0.33334", parseManifestTag(header, "PART-TARGET"))
+    Assert.assertEquals("1.0", parseManifestTag(header, "PART-HOLD-BACK"))
+    Assert.assertEquals("-1", parseManifestTag(header, "EXT-X-SKIP"))
+  }
+
+  @Test
+  fun testParsesAttributeList() {
+    val attributes = parseHlsAttributeList(
+      "#EXT-X-SESSION-DATA:DATA-ID=\"io.litix.data.title\",VALUE=\"Hello, World\",LANGUAGE=\"en\""
+    )
+    Assert.assertEquals(
+      mapOf("DATA-ID" to "io.litix.data.title", "VALUE" to "Hello, World", "LANGUAGE" to "en"),
+      attributes
+    )
+  }
+
+  @Test
+  fun testParsesUnquotedAttributes() {
+    val attributes = parseHlsAttributeList(
+      "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.0,CAN-SKIP-UNTIL=24.0"
+    )
+    Assert.assertEquals("YES", attributes["CAN-BLOCK-RELOAD"])
+    Assert.assertEquals("1.0", attributes["PART-HOLD-BACK"])
+    Assert.assertEquals("24.0", attributes["CAN-SKIP-UNTIL"])
+  }
+
+  @Test
+  fun testAttributeListEdgeCases() {
+    Assert.assertTrue("tags without attributes", parseHlsAttributeList("#EXTM3U").isEmpty())
+    Assert.assertEquals(
+      "empty quoted values",
+      mapOf("DATA-ID" to "x", "VALUE" to ""),
+      parseHlsAttributeList("#EXT-X-SESSION-DATA:DATA-ID=\"x\",VALUE=\"\"")
+    )
+    Assert.assertEquals(
+      "unterminated quotes take the rest of the tag",
+      mapOf("DATA-ID" to "x", "VALUE" to "a,b"),
+      parseHlsAttributeList("#EXT-X-SESSION-DATA:DATA-ID=\"x\",VALUE=\"a,b")
+    )
+  }
+
+  private fun pdtTagOf(sequence: Long): String {
+    return "#EXT-X-PROGRAM-DATE-TIME:2019-02-14T02:%02d:%02d.000Z"
+      .format(sequence / 60 % 60, sequence % 60)
+  }
+
+  /**
+   * The tags of a live playlist with [segmentCount] segments, where the segments for which
+   * [hasPdtTag] is true have their own `EXT-X-PROGRAM-DATE-TIME`
+   */
+  private fun livePlaylist(
+    mediaSequence: Long,
+    segmentCount: Int,
+    hasPdtTag: (Long) -> Boolean
+  ): List<String> {
+    val tags = mutableListOf(
+      "#EXTM3U",
+      "#EXT-X-TARGETDURATION:2",
+      "#EXT-X-MEDIA-SEQUENCE:$mediaSequence",
+    )
+    for (sequence in mediaSequence until mediaSequence + segmentCount) {
+      if (hasPdtTag(sequence)) {
+        tags += pdtTagOf(sequence)
+      }
+      tags += "#EXTINF:2.0,"
+    }
+    return tags
+  }
+
+  private class ReadTrackingList(private val tags: List<String>) : AbstractList<String>() {
+    var lowestIndexRead = Int.MAX_VALUE
+
+    override val size: Int get() = tags.size
+
+    override fun get(index: Int): String {
+      lowestIndexRead = minOf(lowestIndexRead, index)
+      return tags[index]
+    }
+  }
+}
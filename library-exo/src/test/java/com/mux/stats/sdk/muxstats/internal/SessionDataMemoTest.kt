@@ -0,0 +1,39 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import org.junit.Assert
+import org.junit.Test
+
+class SessionDataMemoTest {
+
+  private val tags = listOf(
+    "#EXTM3U",
+    "#EXT-X-SESSION-DATA:DATA-ID=\"io.litix.data.title\",VALUE=\"Big Buck Bunny\"",
+    "#EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360",
+  )
+
+  @Test
+  fun testRefreshesAreReportedOnce() {
+    val memo = SessionDataMemo()
+    val playlist = Any()
+    Assert.assertEquals(listOf(tags[1]), memo.tagsToReport(playlist, tags))
+    Assert.assertNull("same playlist", memo.tagsToReport(playlist, tags))
+    Assert.assertNull("same session data", memo.tagsToReport(Any(), tags.toList()))
+  }
+
+  @Test
+  fun testTwoItemsWithTheSameSessionData() {
+    val memo = SessionDataMemo()
+    // The first item plays, and its playlist is refreshed
+    val firstItemPlaylist = Any()
+    Assert.assertNotNull(memo.tagsToReport(firstItemPlaylist, tags))
+    Assert.assertNull(memo.tagsToReport(firstItemPlaylist, tags))
+
+    // The player moves to a second item with the same session data, which is a new view
+    memo.reset()
+    Assert.assertEquals(
+      "the new view should get the session data too",
+      listOf(tags[1]),
+      memo.tagsToReport(Any(), tags.toList())
+    )
+  }
+}
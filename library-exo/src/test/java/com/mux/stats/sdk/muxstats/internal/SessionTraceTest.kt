@@ -0,0 +1,146 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MimeTypes
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class SessionTraceTest {
+
+  @Test
+  fun testNumbersRoundTrip() {
+    val longs = longArrayOf(0, 1, 127, 128, 16_383, 16_384, Long.MAX_VALUE, -1, C.TIME_UNSET)
+    val ints = intArrayOf(0, 1, 300, Int.MAX_VALUE, -1, C.INDEX_UNSET, Int.MIN_VALUE)
+    val input = roundTrip {
+      longs.forEach { writeSignedVarLong(it) }
+      ints.forEach { writeSignedVarInt(it) }
+      ints.forEach { writeVarInt(it) }
+      writeVarLong(Long.MAX_VALUE)
+      writeFloat(29.97F)
+    }
+
+    longs.forEach { Assert.assertEquals(it, input.readSignedVarLong()) }
+    ints.forEach { Assert.assertEquals(it, input.readSignedVarInt()) }
+    ints.forEach { Assert.assertEquals(it, input.readVarInt()) }
+    Assert.assertEquals(Long.MAX_VALUE, input.readVarLong())
+    Assert.assertEquals(29.97F, input.readFloat())
+    Assert.assertEquals("trace should have ended", -1, input.readTag())
+  }
+
+  @Test
+  fun testSmallValuesAreSmall() {
+    val bytes = ByteArrayOutputStream()
+    TraceOutput(bytes).use {
+      it.writeVarLong(127)
+      it.writeSignedVarLong(-64)
+      it.writeSignedVarLong(63)
+    }
+    Assert.assertEquals(3, bytes.size())
+  }
+
+  @Test
+  fun testRepeatedStringsAreWrittenOnce() {
+    val url = "https://cdn.example.com/live/720p/playlist.m3u8"
+    val bytes = ByteArrayOutputStream()
+    TraceOutput(bytes).use {
+      it.writeString(url)
+      it.writeString(null)
+      it.writeString("")
+      repeat(100) { _ -> it.writeString(url) }
+    }
+    Assert.assertEquals(
+      "repeats should take one byte each",
+      (2 + url.length) + 1 + 2 + 100,
+      bytes.size()
+    )
+
+    val input = TraceInput(ByteArrayInputStream(bytes.toByteArray()))
+    Assert.assertEquals(url, input.readString())
+    Assert.assertNull(input.readString())
+    Assert.assertEquals("", input.readString())
+    repeat(100) { Assert.assertEquals(url, input.readString()) }
+  }
+
+  @Test
+  fun testStringsPastTheTableAreStillRead() {
+    // More unique values (like request IDs) than the string table keeps, then some repeats
+    val values = List(5_000) { "request-$it" }
+    val input = roundTrip {
+      values.forEach { writeString(it) }
+      values.forEach { writeString(it) }
+    }
+
+    values.forEach { Assert.assertEquals(it, input.readString()) }
+    values.forEach { Assert.assertEquals(it, input.readString()) }
+  }
+
+  @Test
+  fun testFormatsRoundTrip() {
+    val video = Format.Builder()
+      .setId("video-3")
+      .setContainerMimeType(MimeTypes.VIDEO_MP2T)
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setCodecs("avc1.64001f")
+      .setAverageBitrate(2_500_000)
+      .setPeakBitrate(3_000_000)
+      .setWidth(1280)
+      .setHeight(720)
+      .setFrameRate(30F)
+      .build()
+    val audio = Format.Builder()
+      .setSampleMimeType(MimeTypes.AUDIO_AAC)
+      .setLanguage("en")
+      .setChannelCount(2)
+      .setSampleRate(48_000)
+      .setSelectionFlags(C.SELECTION_FLAG_DEFAULT)
+      .build()
+    val input = roundTrip {
+      writeFormat(video)
+      writeFormat(null)
+      writeFormat(audio)
+      writeFormat(video)
+    }
+
+    val readVideo = input.readFormat()
+    Assert.assertEquals(video, readVideo)
+    Assert.assertNull(input.readFormat())
+    Assert.assertEquals(audio, input.readFormat())
+    Assert.assertSame("repeated formats should be the same object", readVideo, input.readFormat())
+  }
+
+  @Test
+  fun testHeadersRoundTrip() {
+    val headers = mapOf(
+      null to listOf("HTTP/1.1 200 OK"),
+      "X-CDN" to listOf("fastly"),
+      "Set-Cookie" to listOf("a=1", "b=2"),
+    )
+    val input = roundTrip {
+      writeHeaders(headers)
+      writeHeaders(emptyMap())
+    }
+
+    Assert.assertEquals(headers, input.readHeaders())
+    Assert.assertEquals(emptyMap<String, List<String>>(), input.readHeaders())
+  }
+
+  @Test
+  fun testHeader() {
+    val input = roundTrip { writeHeader("1.10.0") }
+    Assert.assertEquals("1.10.0", input.readHeader())
+
+    val notATrace = TraceInput(ByteArrayInputStream("#EXTM3U\n".toByteArray()))
+    Assert.assertThrows(UnreadableTraceException::class.java) { notATrace.readHeader() }
+    val empty = TraceInput(ByteArrayInputStream(ByteArray(0)))
+    Assert.assertThrows(UnreadableTraceException::class.java) { empty.readHeader() }
+  }
+
+  private fun roundTrip(block: TraceOutput.() -> Unit): TraceInput {
+    val bytes = ByteArrayOutputStream()
+    TraceOutput(bytes).use(block)
+    return TraceInput(ByteArrayInputStream(bytes.toByteArray()))
+  }
+}
@@ -15,10 +15,10 @@ import com.mux.stats.sdk.core.events.playback.*
 import com.mux.stats.sdk.core.model.AdData
 import com.mux.stats.sdk.core.model.AdType
 import com.mux.stats.sdk.core.model.ViewData
-import com.mux.stats.sdk.core.util.MuxLogger
 import com.mux.stats.sdk.muxstats.AdCollector
 import com.mux.stats.sdk.muxstats.MuxPlayerState
 import com.mux.stats.sdk.muxstats.MuxStatsSdkMedia3
+import com.mux.stats.sdk.muxstats.SdkLogger
 import com.mux.stats.sdk.core.events.playback.AdEvent as MuxAdEvent
 import com.mux.stats.sdk.core.events.playback.AdErrorEvent as MuxAdErrorEvent
 
@@ -125,7 +125,7 @@ class MuxImaAdsListener private constructor(
           ) {
             dispatchAdPlaybackEvent(MuxAdErrorEvent(null), adEvent.ad)
           } else {
-            MuxLogger.d(TAG, "Logged IMA event: $adEvent")
+            SdkLogger.d(TAG) { "Logged IMA event: $adEvent" }
           }
         }
 
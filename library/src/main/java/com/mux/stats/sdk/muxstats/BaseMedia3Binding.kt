@@ -2,6 +2,7 @@ package com.mux.stats.sdk.muxstats
 
 import androidx.media3.common.MediaItem
 import androidx.media3.common.MediaMetadata
+import androidx.media3.common.PlaybackParameters
 import androidx.media3.common.Player
 import androidx.media3.common.Timeline
 import androidx.media3.common.Tracks
@@ -17,31 +18,56 @@ import com.mux.android.util.weak
  *
  * If you are using ExoPlayer, you don't need to use this class. Prefer using `ExoPlayerBinding` from
  * the `data-media3` library
+ *
+ * @param playheadTrackingMode How the player's playhead position is tracked
  */
-open class BaseMedia3Binding<P: Player> : MuxPlayerAdapter.PlayerBinding<P> {
+open class BaseMedia3Binding<P: Player> @JvmOverloads constructor(
+  private val playheadTrackingMode: PlayheadTrackingMode = PlayheadTrackingMode.POLLING,
+) : MuxPlayerAdapter.PlayerBinding<P>, PlayheadTrackingBinding, LoggingBinding {
 
   private var listener: MuxPlayerListener? = null
 
+  override var logger: InstanceLogger = InstanceLogger.NONE
+
+  override val playheadTracker: PlayheadTracker? get() = listener?.playheadTracker
+
   override fun bindPlayer(player: P, collector: MuxStateCollector) {
-    listener = MuxPlayerListener(player, collector).also { player.addListener(it) }
+    listener = MuxPlayerListener(
+      player = player,
+      collector = collector,
+      playheadTracker = PlayheadTracker(player, collector, playheadTrackingMode),
+      logger = logger,
+    ).also { player.addListener(it) }
   }
 
   override fun unbindPlayer(player: P, collector: MuxStateCollector) {
     listener?.let { player.removeListener(it) }
+    listener?.playheadTracker?.stop("player unbound")
     collector.playerWatcher?.stop("player unbound")
     listener = null
   }
 }
 
-private class MuxPlayerListener(player: Player, val collector: MuxStateCollector) :
-  Player.Listener {
+private class MuxPlayerListener(
+  player: Player,
+  val collector: MuxStateCollector,
+  val playheadTracker: PlayheadTracker,
+  private val logger: InstanceLogger,
+) : Player.Listener {
 
   private val player by weak(player)
 
+  // Reused for every timeline change, which can happen every few seconds for live streams
+  private val timelineWindow = Timeline.Window()
+
+  // Works out everything we need from each new Tracks in one pass
+  private val trackAnalyzer = TrackAnalyzer()
+
   override fun onPlaybackStateChanged(playbackState: Int) {
+    playheadTracker.sample()
     // We rely on the player's playWhenReady because the order of this callback and its callback
     //  is not well-defined
-    player?.let { collector.handleExoPlaybackState(playbackState, it.playWhenReady) }
+    player?.let { collector.handleExoPlaybackState(playbackState, it.playWhenReady, logger) }
   }
 
   override fun onPositionDiscontinuity(
@@ -49,13 +75,22 @@ private class MuxPlayerListener(player: Player, val collector: MuxStateCollector
     newPosition: Player.PositionInfo,
     reason: Int
   ) {
+    playheadTracker.sample()
     collector.handlePositionDiscontinuity(reason)
   }
 
+  override fun onIsPlayingChanged(isPlaying: Boolean) {
+    playheadTracker.sample()
+  }
+
+  override fun onPlaybackParametersChanged(playbackParameters: PlaybackParameters) {
+    playheadTracker.sample()
+  }
+
   override fun onTimelineChanged(timeline: Timeline, reason: Int) {
-    timeline.takeIf { it.windowCount > 0 }?.let { tl ->
-      val window = Timeline.Window().apply { tl.getWindow(0, this) }
-      collector.sourceDurationMs = window.durationMs
+    if (timeline.windowCount > 0) {
+      timeline.getWindow(0, timelineWindow)
+      collector.sourceDurationMs = timelineWindow.durationMs
     }
   }
 
@@ -79,9 +114,10 @@ private class MuxPlayerListener(player: Player, val collector: MuxStateCollector
   }
 
   override fun onTracksChanged(tracks: Tracks) {
+    trackAnalyzer.analyze(tracks)
     player?.let {
-      collector.watchPlayerPos(it)
-      collector.mediaHasVideoTrack = tracks.hasAtLeastOneVideoTrack()
+      playheadTracker.start()
+      collector.mediaHasVideoTrack = trackAnalyzer.hasVideo
     }
   }
 }
\ No newline at end of file
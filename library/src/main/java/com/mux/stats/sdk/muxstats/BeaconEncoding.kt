@@ -0,0 +1,184 @@
+package com.mux.stats.sdk.muxstats
+
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.charset.CodingErrorAction
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+
+/**
+ * How beacon bodies are encoded before they're sent
+ */
+enum class BeaconEncoding(
+  /**
+   * The value of the `Content-Encoding` header for this encoding, or null if none is sent
+   */
+  val contentEncoding: String?
+) {
+  /**
+   * Beacons are sent as plain JSON. This is the default
+   */
+  IDENTITY(null),
+
+  /**
+   * Beacons are gzipped
+   */
+  GZIP("gzip"),
+
+  /**
+   * Beacons are compressed as a zlib stream (HTTP `deflate`)
+   */
+  DEFLATE("deflate"),
+
+  /**
+   * Beacons are compressed as a zlib stream using a preset dictionary of the JSON fragments that
+   * appear in almost every beacon. This makes small beacons much smaller than [DEFLATE] does, but
+   * the receiving server has to know the same dictionary, identified by the
+   * `X-Mux-Beacon-Dictionary` header
+   */
+  DEFLATE_WITH_DICTIONARY("deflate"),
+}
+
+/**
+ * Encodes beacon bodies according to a [BeaconEncoding]. The [Deflater] and buffers are reused for
+ * every beacon, so an encoder isn't thread-safe. After [encode], the encoded beacon is in the
+ * first [size] bytes of [bytes], until the next call to [encode].
+ *
+ * Call [release] when you're done with it, to free the Deflater's native memory
+ */
+internal class BeaconEncoder(
+  val encoding: BeaconEncoding,
+  level: Int = Deflater.DEFAULT_COMPRESSION,
+) {
+
+  // gzip writes its own header and trailer around a raw deflate stream
+  private val deflater = Deflater(level, encoding == BeaconEncoding.GZIP)
+  private val crc = CRC32()
+  private val utf8Encoder = Charsets.UTF_8.newEncoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+  private var input: ByteBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE)
+  private var output: ByteArray = ByteArray(INITIAL_BUFFER_SIZE)
+
+  /**
+   * The buffer holding the encoded beacon. It may be bigger than the beacon, see [size]
+   */
+  var bytes: ByteArray = output
+    private set
+
+  /**
+   * The size of the encoded beacon, in bytes
+   */
+  var size: Int = 0
+    private set
+
+  /**
+   * Encodes the body. Afterward, the encoded body is in [bytes]
+   */
+  fun encode(body: String) {
+    val inputSize = encodeUtf8(body)
+    when (encoding) {
+      BeaconEncoding.IDENTITY -> {
+        bytes = input.array()
+        size = inputSize
+      }
+
+      BeaconEncoding.GZIP -> {
+        size = 0
+        writeBytes(GZIP_HEADER)
+        deflate(inputSize)
+        crc.reset()
+        crc.update(input.array(), 0, inputSize)
+        writeIntLE(crc.value.toInt())
+        writeIntLE(inputSize)
+        bytes = output
+      }
+
+      BeaconEncoding.DEFLATE, BeaconEncoding.DEFLATE_WITH_DICTIONARY -> {
+        size = 0
+        deflate(inputSize)
+        bytes = output
+      }
+    }
+  }
+
+  fun release() {
+    deflater.end()
+  }
+
+  private fun encodeUtf8(body: String): Int {
+    // UTF-8 never takes more than 3 bytes per UTF-16 char, so it'll all fit in one go
+    val maxSize = body.length * 3
+    if (input.capacity() < maxSize) {
+      input = ByteBuffer.allocate(maxSize)
+    }
+    input.clear()
+    utf8Encoder.reset()
+    utf8Encoder.encode(CharBuffer.wrap(body), input, true)
+    utf8Encoder.flush(input)
+    return input.position()
+  }
+
+  private fun deflate(inputSize: Int) {
+    deflater.reset()
+    if (encoding == BeaconEncoding.DEFLATE_WITH_DICTIONARY) {
+      deflater.setDictionary(DICTIONARY)
+    }
+    deflater.setInput(input.array(), 0, inputSize)
+    deflater.finish()
+    while (!deflater.finished()) {
+      ensureOutputSpace(1)
+      size += deflater.deflate(output, size, output.size - size)
+    }
+  }
+
+  private fun writeBytes(bytes: ByteArray) {
+    ensureOutputSpace(bytes.size)
+    System.arraycopy(bytes, 0, output, size, bytes.size)
+    size += bytes.size
+  }
+
+  private fun writeIntLE(value: Int) {
+    ensureOutputSpace(4)
+    output[size++] = value.toByte()
+    output[size++] = (value ushr 8).toByte()
+    output[size++] = (value ushr 16).toByte()
+    output[size++] = (value ushr 24).toByte()
+  }
+
+  private fun ensureOutputSpace(needed: Int) {
+    if (output.size - size < needed) {
+      output = output.copyOf(maxOf(output.size * 2, size + needed))
+    }
+  }
+
+  companion object {
+    private const val INITIAL_BUFFER_SIZE = 16 * 1024
+
+    /**
+     * Identifies [DICTIONARY], so the server can tell which dictionary to inflate with. Change this
+     * if the dictionary changes
+     */
+    const val DICTIONARY_ID = "mux-beacon-v1"
+    const val DICTIONARY_HEADER = "X-Mux-Beacon-Dictionary"
+
+    // magic, CM=deflate, no flags, no mtime, no extra flags, OS=unknown
+    private val GZIP_HEADER = byteArrayOf(0x1f, 0x8b.toByte(), 8, 0, 0, 0, 0, 0, 0, 0xff.toByte())
+
+    /**
+     * Fragments that show up in almost every beacon. Deflate looks for matches in the last 32k, so
+     * the most common fragments go at the end, where they're closest to the data
+     */
+    val DICTIONARY: ByteArray = listOf(
+      "application/x-mpegURL", "application/dash+xml", "video/mp4", "audio/mp4",
+      "renditionchange", "requestcanceled", "requestfailed", "requestcompleted",
+      "rebufferstart", "rebufferend", "seeking", "seeked", "viewinit", "viewstart", "viewend",
+      "playerready", "adbreakstart", "adbreakend", "adplay", "adplaying", "adended", "error",
+      "ended", "pause", "playing", "play", "hb", "manifest", "media", "init", "video", "audio",
+      "android", "media3", "mux-media3", "exoplayer", "media3-generic", "hls", "dash",
+      "\"true\"", "\"false\"", "https://", ".m3u8", ".ts\"", ".m4s\"", ".mp4\"",
+      "{\"metadata\":{", "\"events\":[", "},{\"e\":\"", "\",\"uti\":",
+    ).joinToString(separator = "").toByteArray(Charsets.UTF_8)
+  }
+}
@@ -0,0 +1,149 @@
+package com.mux.stats.sdk.muxstats
+
+import android.net.Uri
+import com.mux.android.http.beaconAuthority
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import org.json.JSONObject
+import java.net.URL
+import java.util.Hashtable
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * POSTs a beacon body that's already been encoded. [SharedBeaconNetwork] provides one that uses the
+ * same HTTP client as [MuxNetwork], so encoded beacons get the same connection handling and retries
+ */
+internal fun interface EncodedBeaconPoster {
+  /**
+   * POSTs the first [size] bytes of [body], returning the response's status code, or a negative
+   * number if there was no response
+   */
+  suspend fun post(url: URL, headers: Map<String, List<String>>, body: ByteArray, size: Int): Int
+}
+
+/**
+ * Sends beacons encoded according to [encoding]. For [BeaconEncoding.IDENTITY], beacons are passed
+ * to [delegate] unchanged. Otherwise, they're encoded on [scope] and handed to [poster] for the
+ * same URL [delegate] would use.
+ *
+ * Encoders are pooled, so each concurrent request reuses an encoder and its buffers instead of
+ * allocating new ones for every beacon
+ */
+internal class EncodingBeaconNetwork(
+  private val delegate: INetworkRequest,
+  private val poster: EncodedBeaconPoster,
+  private val scope: CoroutineScope,
+  private val encoding: () -> BeaconEncoding,
+) : BeaconPostNetwork {
+
+  private val encoders = ConcurrentLinkedQueue<BeaconEncoder>()
+
+  override fun get(url: URL?) = delegate.get(url)
+
+  override fun post(url: URL?, json: JSONObject?, headers: Hashtable<String, String>?) =
+    delegate.post(url, json, headers)
+
+  override fun postWithCompletion(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+  ) {
+    postWithResult(domain, envKey, body, headers) { result ->
+      completion?.onComplete(result == BeaconPostResult.SENT)
+    }
+  }
+
+  override fun postWithResult(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    onResult: (BeaconPostResult) -> Unit
+  ) {
+    val encoding = encoding()
+    if (encoding == BeaconEncoding.IDENTITY || body == null) {
+      delegate.postWithCompletion(domain, envKey, body, headers) { sent ->
+        onResult(if (sent) BeaconPostResult.SENT else BeaconPostResult.FAILED)
+      }
+      return
+    }
+
+    scope.launch {
+      var result = BeaconPostResult.FAILED
+      try {
+        result = send(encoding, domain ?: "", envKey ?: "", body, headers)
+      } catch (e: CancellationException) {
+        throw e
+      } catch (e: Exception) {
+        SdkLogger.d(TAG) { "Couldn't send beacons: ${e.message}" }
+      } finally {
+        // Always answer, or the caller would wait for these beacons forever
+        onResult(result)
+      }
+    }
+  }
+
+  private suspend fun send(
+    encoding: BeaconEncoding,
+    domain: String,
+    envKey: String,
+    body: String,
+    headers: Hashtable<String, String>?,
+  ): BeaconPostResult {
+    val encoder = takeEncoder(encoding)
+    try {
+      encoder.encode(body)
+
+      val url = URL(
+        Uri.Builder()
+          .scheme("https")
+          .authority(beaconAuthority(envKey, domain))
+          .path("android")
+          .build().toString()
+      )
+      val requestHeaders = HashMap<String, List<String>>()
+      headers?.forEach { (name, value) -> requestHeaders[name] = listOf(value) }
+      requestHeaders["Content-Type"] = listOf("application/json")
+      encoding.contentEncoding?.let { requestHeaders["Content-Encoding"] = listOf(it) }
+      if (encoding == BeaconEncoding.DEFLATE_WITH_DICTIONARY) {
+        requestHeaders[BeaconEncoder.DICTIONARY_HEADER] = listOf(BeaconEncoder.DICTIONARY_ID)
+      }
+
+      val statusCode = poster.post(url, requestHeaders, encoder.bytes, encoder.size)
+      return if (statusCode < 0) {
+        BeaconPostResult.FAILED
+      } else {
+        BeaconPostResult.ofStatusCode(statusCode)
+      }
+    } finally {
+      giveBackEncoder(encoder)
+    }
+  }
+
+  private fun takeEncoder(encoding: BeaconEncoding): BeaconEncoder {
+    while (true) {
+      val encoder = encoders.poll() ?: return BeaconEncoder(encoding)
+      if (encoder.encoding == encoding) {
+        return encoder
+      }
+      // The encoding was changed since this one was used
+      encoder.release()
+    }
+  }
+
+  private fun giveBackEncoder(encoder: BeaconEncoder) {
+    if (encoders.size < MAX_POOLED_ENCODERS) {
+      encoders.offer(encoder)
+    } else {
+      encoder.release()
+    }
+  }
+
+  companion object {
+    private const val TAG = "EncodingBeaconNetwork"
+    private const val MAX_POOLED_ENCODERS = 4
+  }
+}
@@ -0,0 +1,13 @@
+package com.mux.stats.sdk.muxstats
+
+/**
+ * A player binding that logs at the `logLevel` of the [MuxStatsSdkMedia3] it's given to.
+ * [MuxStatsSdkMedia3] sets [logger] before the player is bound, so even the binding's first
+ * messages use it
+ */
+interface LoggingBinding {
+  /**
+   * The logger of the [MuxStatsSdkMedia3] this binding belongs to
+   */
+  var logger: InstanceLogger
+}
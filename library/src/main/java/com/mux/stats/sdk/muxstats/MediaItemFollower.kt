@@ -0,0 +1,65 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.media3.common.MediaItem
+import androidx.media3.common.Player
+
+/**
+ * Watches a [Player] for transitions to a different [MediaItem], so a single long-lived SDK object
+ * can start a new view for each item the player moves to.
+ *
+ * The first item seen after [start] belongs to the view that's already running. After that,
+ * [onNewItem] is called each time the player moves to an item that isn't equal to the last one.
+ * Repeats of the same item don't count as new items, and neither does the playlist being cleared.
+ *
+ * This class is not thread-safe. It's meant to be used from the player's application thread
+ */
+internal class MediaItemFollower(
+  private val player: Player,
+  private val logger: InstanceLogger = InstanceLogger.NONE,
+  private val onNewItem: (MediaItem) -> Unit,
+) : Player.Listener {
+
+  private var lastItem: MediaItem? = null
+  private var following = false
+
+  /**
+   * Starts following the player. The player's current item, if any, is treated as already seen
+   */
+  fun start() {
+    if (!following) {
+      following = true
+      lastItem = player.currentMediaItem
+      player.addListener(this)
+    }
+  }
+
+  /**
+   * Stops following the player
+   */
+  fun stop() {
+    if (following) {
+      following = false
+      lastItem = null
+      player.removeListener(this)
+    }
+  }
+
+  override fun onMediaItemTransition(mediaItem: MediaItem?, reason: Int) {
+    if (!following || mediaItem == null
+      || reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT) {
+      return
+    }
+
+    val previousItem = lastItem
+    lastItem = mediaItem
+    // Identity is the common case when the same item is set again, so check it before equals()
+    if (previousItem != null && previousItem !== mediaItem && previousItem != mediaItem) {
+      logger.d(TAG) { "onMediaItemTransition: starting a view for ${mediaItem.mediaId}" }
+      onNewItem(mediaItem)
+    }
+  }
+
+  companion object {
+    private const val TAG = "MediaItemFollower"
+  }
+}
@@ -4,7 +4,7 @@ import android.content.Context
 import android.util.Log
 import android.view.View
 import androidx.annotation.OptIn
-import androidx.media3.common.MediaLibraryInfo
+import androidx.media3.common.MediaItem
 import androidx.media3.common.Player
 import androidx.media3.common.util.UnstableApi
 import com.mux.android.util.noneOf
@@ -24,9 +24,6 @@ import com.mux.stats.sdk.core.events.playback.AdThirdQuartileEvent
 import com.mux.stats.sdk.core.model.CustomerData
 import com.mux.stats.sdk.core.model.CustomerVideoData
 import com.mux.stats.sdk.core.util.MuxLogger
-import com.mux.stats.sdk.muxstats.media3.BuildConfig
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 
 /**
  * Monitors a generic [Player] with Mux Data, reporting data about the View to the environment
@@ -41,20 +38,22 @@ import kotlinx.coroutines.Dispatchers
  * @param network Optional. A custom [INetworkRequest] to use instead of the default.
  * @param device Optional. A custom [IDevice] to use instead of the default.
  * @param playerBinding a [MuxPlayerAdapter.PlayerBinding] that can observe the state of your player
- * @param logLevel The log level to use.
+ * @param logLevel The log level to use for this instance and its player binding
  * @param P The type of player being monitored.
  */
-class MuxStatsSdkMedia3<P : Player> @OptIn(UnstableApi::class) @JvmOverloads constructor(
+class MuxStatsSdkMedia3<P : Player> @OptIn(UnstableApi::class) private constructor(
   context: Context,
   envKey: String,
   customerData: CustomerData,
   player: P,
-  playerView: View? = null,
-  customOptions: CustomOptions? = null,
-  network: INetworkRequest? = null,
-  device: IDevice? = null,
-  logLevel: LogcatLevel = LogcatLevel.NONE,
+  playerView: View?,
+  customOptions: CustomOptions?,
+  network: INetworkRequest?,
+  device: IDevice?,
+  logLevel: LogcatLevel,
   playerBinding: MuxPlayerAdapter.PlayerBinding<P>,
+  private val sharedNetwork: SharedBeaconNetwork.Handle,
+  private val instanceLogger: InstanceLogger,
 ) : MuxDataSdk<P, View>(
   context = context,
   envKey = envKey,
@@ -64,17 +63,39 @@ class MuxStatsSdkMedia3<P : Player> @OptIn(UnstableApi::class) @JvmOverloads con
   customOptions = customOptions ?: CustomOptions(),
   logLevel = logLevel,
   trackFirstFrame = true,
-  playerBinding = playerBinding,
-  device = device ?: AndroidDevice(
-    ctx = context,
-    playerVersion = MediaLibraryInfo.VERSION,
-    muxPluginName = "mux-media3",
-    muxPluginVersion = BuildConfig.LIB_VERSION,
-    playerSoftware = "media3-generic",
-  ),
-  makeNetworkRequest = { iDevice -> network ?: MuxNetwork(iDevice, CoroutineScope(Dispatchers.IO)) }
+  // The binding needs its logger before the player is bound
+  playerBinding = playerBinding.also { (it as? LoggingBinding)?.logger = instanceLogger },
+  device = device ?: SharedDevice.prewarm(context),
+  makeNetworkRequest = { iDevice -> network ?: sharedNetwork.attach(context, envKey, iDevice) }
 ) {
 
+  @JvmOverloads constructor(
+    context: Context,
+    envKey: String,
+    customerData: CustomerData,
+    player: P,
+    playerView: View? = null,
+    customOptions: CustomOptions? = null,
+    network: INetworkRequest? = null,
+    device: IDevice? = null,
+    logLevel: LogcatLevel = LogcatLevel.NONE,
+    playerBinding: MuxPlayerAdapter.PlayerBinding<P>,
+  ) : this(
+    context = context,
+    envKey = envKey,
+    customerData = customerData,
+    player = player,
+    playerView = playerView,
+    customOptions = customOptions,
+    network = network,
+    device = device,
+    logLevel = logLevel,
+    playerBinding = playerBinding,
+    // All instances share one beacon network, unless the caller provides their own
+    sharedNetwork = SharedBeaconNetwork.Handle(),
+    instanceLogger = SdkLogger.forInstance(logLevel),
+  )
+
   /**
    * Collects events related to ad playback and reports them. If you are using Google IMA, you don't
    * need to interact with this class directly. Instead, use the `media3-ima` library provided by
@@ -87,19 +108,106 @@ class MuxStatsSdkMedia3<P : Player> @OptIn(UnstableApi::class) @JvmOverloads con
    */
   val boundPlayer: P get() { return player }
 
+  private val playheadTrackingBinding = playerBinding as? PlayheadTrackingBinding
+  private val viewChangeBinding = playerBinding as? ViewChangeBinding
+
+  /**
+   * How many times per second the SDK is currently reading the player's position on a timer. This
+   * is 0 if the player binding doesn't use a [PlayheadTracker]
+   */
+  val playheadPollsPerSecond: Double
+    get() = playheadTrackingBinding?.playheadTracker?.pollsPerSecond ?: 0.0
+
+  /**
+   * How many times per second a timer is waking up to track the player's position. With
+   * [PlayheadTrackingMode.ADAPTIVE], this is shared by every player on the same thread. This is 0
+   * if the player binding doesn't use a [PlayheadTracker]
+   */
+  val playheadWakeupsPerSecond: Double
+    get() = playheadTrackingBinding?.playheadTracker?.wakeupsPerSecond ?: 0.0
+
+  private var videoDataForItem: (MediaItem) -> CustomerVideoData = { CustomerVideoData() }
+  private val mediaItemFollower = MediaItemFollower(player, instanceLogger) { mediaItem ->
+    videoChange(videoDataForItem(mediaItem))
+  }
+
   override fun enable(customerData: CustomerData) {
     // call-through to start the new view
     super.enable(customerData)
     // catch-up player state in case we missed prepare()
-    catchUpPlayState(player, collector)
+    catchUpPlayState(player, collector, instanceLogger)
     catchUpStreamData(player, collector)
   }
 
   override fun videoChange(videoData: CustomerVideoData) {
+    // Before the new view starts, so the binding can finish up the old one
+    viewChangeBinding?.onViewChange()
     super.videoChange(videoData)
-    catchUpPlayState(player, collector)
+    catchUpPlayState(player, collector, instanceLogger)
     catchUpStreamData(player, collector)
   }
+
+  /**
+   * Starts a new view automatically each time the player moves to a different [MediaItem]. Use this
+   * when one player is reused for many items, like in a feed of short videos. This object, its
+   * player listeners, and its network and device stay the same across items, so each new view is
+   * only as expensive as a call to [videoChange].
+   *
+   * Repeating the same item doesn't start a new view. Neither does the item that's playing when you
+   * call this method, since it's already part of the current view.
+   *
+   * @param videoDataForItem Provides the [CustomerVideoData] for the view of each new item. By
+   *  default, views only have the data found in the [MediaItem] itself
+   */
+  @JvmOverloads
+  fun followMediaItems(
+    videoDataForItem: (MediaItem) -> CustomerVideoData = { CustomerVideoData() }
+  ) {
+    this.videoDataForItem = videoDataForItem
+    mediaItemFollower.start()
+  }
+
+  /**
+   * Stops starting new views for each [MediaItem]. See [followMediaItems]
+   */
+  fun stopFollowingMediaItems() {
+    mediaItemFollower.stop()
+  }
+
+  override fun release() {
+    mediaItemFollower.stop()
+    super.release()
+    sharedNetwork.release()
+    SdkLogger.releaseInstance(instanceLogger)
+  }
+
+  companion object {
+    /**
+     * Does the one-time setup work of creating a [MuxStatsSdkMedia3] ahead of time, so that
+     * creating instances later costs less on the main thread. This reads information about the app
+     * and device once per process, and every instance that doesn't have its own [IDevice] reuses
+     * it.
+     *
+     * This is optional. It's safe to call from any thread, for example a background thread started
+     * in `Application.onCreate()`, and calling it more than once does nothing
+     */
+    @JvmStatic
+    fun prewarm(context: Context) {
+      SharedDevice.prewarm(context)
+    }
+
+    /**
+     * How beacons are encoded on the way to Mux Data, for all instances that don't use a custom
+     * [INetworkRequest]. The default is [BeaconEncoding.IDENTITY]. Compressed encodings send fewer
+     * bytes, which helps on metered connections
+     */
+    @JvmStatic
+    var beaconEncoding: BeaconEncoding
+      get() = SharedBeaconNetwork.encoding
+      set(value) {
+        SharedBeaconNetwork.encoding = value
+      }
+  }
 }
 
 /**
@@ -0,0 +1,605 @@
+package com.mux.stats.sdk.muxstats
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.os.Build
+import org.json.JSONObject
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.net.URL
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.Hashtable
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+
+/**
+ * How a POST of beacons went
+ */
+internal enum class BeaconPostResult {
+  /** The beacons were accepted */
+  SENT,
+
+  /** The beacons didn't get through, or the server had a problem. Sending again may work */
+  FAILED,
+
+  /** The server didn't accept the beacons (a 4xx response). Sending them again won't help */
+  REJECTED;
+
+  companion object {
+    fun ofStatusCode(code: Int): BeaconPostResult = when (code) {
+      in 200..299 -> SENT
+      in 400..499 -> REJECTED
+      else -> FAILED
+    }
+  }
+}
+
+/**
+ * An [INetworkRequest] that can say why a POST didn't work, so failed beacons are only saved if
+ * sending them again could succeed
+ */
+internal interface BeaconPostNetwork : INetworkRequest {
+  fun postWithResult(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    onResult: (BeaconPostResult) -> Unit,
+  )
+}
+
+/**
+ * Sends beacons through [delegate], saving any that fail to send on disk so they can be sent later.
+ *
+ * Beacon batches that couldn't be sent are appended to memory-mapped segment files in [dir], and the
+ * batch is reported as sent, so the core doesn't keep it in memory. Only batches that might go
+ * through later are saved: if [delegate] is a [BeaconPostNetwork], batches the server rejected are
+ * not. Saved batches are sent again, oldest first, with exponential backoff, or right away when a
+ * network becomes available or another beacon gets through. Saved batches are dropped if the server
+ * rejects them, if they've been tried [maxAttempts] times, or if they're older than [maxAgeMs].
+ * Segments are deleted once everything in them has been sent or dropped.
+ *
+ * The queue never uses more than [maxDiskBytes] of disk. If a batch doesn't fit, it's reported as
+ * not sent, and the core will try it again as it normally would.
+ *
+ * All file access happens on [executor], never on the caller's thread
+ */
+internal class OfflineBeaconQueue(
+  private val dir: File,
+  private val delegate: INetworkRequest,
+  private val maxDiskBytes: Long = DEFAULT_MAX_DISK_BYTES,
+  private val segmentBytes: Int = DEFAULT_SEGMENT_BYTES,
+  private val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+  private val maxAgeMs: Long = DEFAULT_MAX_AGE_MS,
+  private val wallClock: () -> Long = { System.currentTimeMillis() },
+  private val executor: ScheduledExecutorService = ScheduledThreadPoolExecutor(1) {
+    Thread(it, "mux-beacon-queue").apply { isDaemon = true }
+  }.apply {
+    // so a cancelled retry doesn't keep the thread around after we're closed
+    removeOnCancelPolicy = true
+  },
+) : INetworkRequest {
+
+  // Only accessed on the executor. Oldest first, new records are appended to the last one
+  private val segments = ArrayDeque<BeaconSegment>()
+  private var nextSegmentId = 0L
+  private var opened = false
+  private var closed = false
+  private var replaying = false
+  private var retryDelayMs = 0L
+  private var retryFuture: ScheduledFuture<*>? = null
+
+  private var stopWatchingConnectivity: (() -> Unit)? = null
+
+  override fun get(url: URL?) = delegate.get(url)
+
+  override fun post(url: URL?, json: JSONObject?, headers: Hashtable<String, String>?) =
+    delegate.post(url, json, headers)
+
+  override fun postWithCompletion(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+  ) {
+    post(domain, envKey, body, headers) { result ->
+      when (result) {
+        BeaconPostResult.SENT -> {
+          completion?.onComplete(true)
+          // We're online, so anything we saved before can go out now
+          runOnQueue { sendNextSaved() }
+        }
+
+        BeaconPostResult.REJECTED -> {
+          // Saving it would only get it rejected again
+          SdkLogger.d(TAG) { "Beacons were rejected, not saving them" }
+          completion?.onComplete(false)
+        }
+
+        BeaconPostResult.FAILED -> {
+          val queued = runOnQueue {
+            val saved = save(domain, envKey, body, headers)
+            completion?.onComplete(saved)
+            scheduleRetry()
+          }
+          if (!queued) {
+            completion?.onComplete(false)
+          }
+        }
+      }
+    }
+  }
+
+  private fun post(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    onResult: (BeaconPostResult) -> Unit,
+  ) {
+    if (delegate is BeaconPostNetwork) {
+      delegate.postWithResult(domain, envKey, body, headers, onResult)
+    } else {
+      // Can't tell why it failed, so assume it might work later
+      delegate.postWithCompletion(domain, envKey, body, headers) { sent ->
+        onResult(if (sent) BeaconPostResult.SENT else BeaconPostResult.FAILED)
+      }
+    }
+  }
+
+  /**
+   * Sends saved beacons whenever a network becomes available, until [close] is called
+   */
+  fun watchConnectivity(context: Context) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+      // No network callbacks. We'll still retry on a timer
+      return
+    }
+    val connectivityManager =
+      context.getSystemService(Context.CONNECTIVITY_SERVICE) as? ConnectivityManager ?: return
+    val callback = object : ConnectivityManager.NetworkCallback() {
+      override fun onAvailable(network: Network) {
+        onNetworkAvailable()
+      }
+    }
+    try {
+      val request = NetworkRequest.Builder()
+        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+        .build()
+      connectivityManager.registerNetworkCallback(request, callback)
+      stopWatchingConnectivity = { connectivityManager.unregisterNetworkCallback(callback) }
+    } catch (e: RuntimeException) {
+      // Some devices limit the number of callbacks an app can have
+      SdkLogger.exception(e, TAG) { "Couldn't watch connectivity, will retry on a timer" }
+    }
+  }
+
+  /**
+   * Sends saved beacons now, instead of waiting for the next retry
+   */
+  fun onNetworkAvailable() {
+    runOnQueue {
+      retryFuture?.cancel(false)
+      retryFuture = null
+      retryDelayMs = 0
+      sendNextSaved()
+    }
+  }
+
+  /**
+   * Stops sending saved beacons and closes the segment files. Beacons that weren't sent stay on
+   * disk for next time
+   */
+  fun close() {
+    stopWatchingConnectivity?.invoke()
+    stopWatchingConnectivity = null
+    runOnQueue {
+      closed = true
+      retryFuture?.cancel(false)
+      retryFuture = null
+      segments.forEach { it.close() }
+      segments.clear()
+    }
+    executor.shutdown()
+  }
+
+  private fun runOnQueue(task: () -> Unit): Boolean {
+    return try {
+      executor.execute(task)
+      true
+    } catch (e: RejectedExecutionException) {
+      // closed
+      false
+    }
+  }
+
+  private fun save(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?
+  ): Boolean {
+    if (closed || !openSegments()) {
+      return false
+    }
+    val record = encodeRecord(domain, envKey, body, headers, savedAtMs = wallClock())
+    if (!BeaconSegment.canHold(record, segmentBytes)) {
+      SdkLogger.d(TAG) { "Beacon batch of ${record.size} bytes is too big to save" }
+      return false
+    }
+
+    return try {
+      val lastSegment = segments.lastOrNull()
+      if (lastSegment != null && lastSegment.append(record)) {
+        return true
+      }
+      if ((segments.size + 1L) * segmentBytes > maxDiskBytes) {
+        SdkLogger.d(TAG) { "Offline beacon queue is full" }
+        return false
+      }
+      val segment = BeaconSegment.open(File(dir, "${nextSegmentId++}$SEGMENT_SUFFIX"), segmentBytes)
+      segments.addLast(segment)
+      segment.append(record)
+    } catch (e: IOException) {
+      SdkLogger.exception(e, TAG) { "Couldn't save beacons" }
+      false
+    }
+  }
+
+  private fun sendNextSaved() {
+    if (closed || replaying || !openSegments()) {
+      return
+    }
+    val segment = segments.firstOrNull() ?: return
+    val bytes = segment.peek()
+    if (bytes == null) {
+      // Everything in this segment has been sent
+      if (segments.size > 1 || segment.isFull) {
+        segments.removeFirst()
+        segment.delete()
+        sendNextSaved()
+      }
+      return
+    }
+
+    val record = try {
+      decodeRecord(bytes)
+    } catch (e: IOException) {
+      SdkLogger.exception(e, TAG) { "Dropping unreadable saved beacons" }
+      segment.ack()
+      sendNextSaved()
+      return
+    }
+
+    val ageMs = wallClock() - record.savedAtMs
+    if (record.attempts >= maxAttempts || ageMs > maxAgeMs || ageMs < -maxAgeMs) {
+      SdkLogger.d(TAG) {
+        "Dropping saved beacons after ${record.attempts} attempts, saved ${ageMs}ms ago"
+      }
+      segment.ack()
+      sendNextSaved()
+      return
+    }
+    // Count the attempt before making it, in case we're killed while it's in flight
+    segment.putIntInHead(ATTEMPTS_POS, record.attempts + 1)
+
+    replaying = true
+    post(record.domain, record.envKey, record.body, record.headers) { result ->
+      runOnQueue {
+        replaying = false
+        if (closed) {
+          // don't ack, the segment's been closed. The beacons will be sent again next time
+        } else if (result == BeaconPostResult.FAILED) {
+          scheduleRetry()
+        } else {
+          if (result == BeaconPostResult.REJECTED) {
+            SdkLogger.d(TAG) { "Saved beacons were rejected, dropping them" }
+          }
+          segment.ack()
+          retryDelayMs = 0
+          sendNextSaved()
+        }
+      }
+    }
+  }
+
+  private fun scheduleRetry() {
+    if (closed || replaying || retryFuture != null || segments.isEmpty()) {
+      return
+    }
+    retryDelayMs = if (retryDelayMs == 0L) MIN_RETRY_MS else min(retryDelayMs * 2, MAX_RETRY_MS)
+    retryFuture = executor.schedule(
+      {
+        retryFuture = null
+        sendNextSaved()
+      },
+      retryDelayMs,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  /**
+   * Opens the segments left over from last time, if we haven't already
+   */
+  private fun openSegments(): Boolean {
+    if (opened) {
+      return true
+    }
+    if (!dir.isDirectory && !dir.mkdirs()) {
+      SdkLogger.d(TAG) { "Couldn't create offline beacon dir $dir" }
+      return false
+    }
+    opened = true
+
+    val files = dir.listFiles { file -> file.name.endsWith(SEGMENT_SUFFIX) }
+      ?.mapNotNull { file -> file.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull()?.let { it to file } }
+      ?.sortedBy { it.first }
+      ?: emptyList()
+    for ((id, file) in files) {
+      nextSegmentId = maxOf(nextSegmentId, id + 1)
+      try {
+        segments.addLast(BeaconSegment.open(file, segmentBytes))
+      } catch (e: IOException) {
+        SdkLogger.exception(e, TAG) { "Discarding unreadable segment ${file.name}" }
+        file.delete()
+      }
+    }
+    return true
+  }
+
+  private class Record(
+    val attempts: Int,
+    val savedAtMs: Long,
+    val domain: String?,
+    val envKey: String?,
+    val body: String?,
+    val headers: Hashtable<String, String>?,
+  )
+
+  private fun encodeRecord(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    savedAtMs: Long,
+  ): ByteArray {
+    val bytes = ByteArrayOutputStream((body?.length ?: 0) + 128)
+    DataOutputStream(bytes).use { out ->
+      // Saved because the first attempt failed. Must be first, see ATTEMPTS_POS
+      out.writeInt(1)
+      out.writeLong(savedAtMs)
+      out.writeNullableString(domain)
+      out.writeNullableString(envKey)
+      out.writeNullableString(body)
+      out.writeInt(headers?.size ?: -1)
+      headers?.forEach { (name, value) ->
+        out.writeNullableString(name)
+        out.writeNullableString(value)
+      }
+    }
+    return bytes.toByteArray()
+  }
+
+  private fun decodeRecord(bytes: ByteArray): Record {
+    DataInputStream(ByteArrayInputStream(bytes)).use { input ->
+      val attempts = input.readInt()
+      val savedAtMs = input.readLong()
+      val domain = input.readNullableString()
+      val envKey = input.readNullableString()
+      val body = input.readNullableString()
+      val headerCount = input.readInt()
+      val headers = if (headerCount < 0) {
+        null
+      } else {
+        Hashtable<String, String>().apply {
+          repeat(headerCount) {
+            val name = input.readNullableString()
+            val value = input.readNullableString()
+            if (name != null && value != null) {
+              put(name, value)
+            }
+          }
+        }
+      }
+      return Record(attempts, savedAtMs, domain, envKey, body, headers)
+    }
+  }
+
+  private fun DataOutputStream.writeNullableString(string: String?) {
+    if (string == null) {
+      writeInt(-1)
+    } else {
+      val utf8 = string.toByteArray(Charsets.UTF_8)
+      writeInt(utf8.size)
+      write(utf8)
+    }
+  }
+
+  private fun DataInputStream.readNullableString(): String? {
+    val length = readInt()
+    if (length < 0) {
+      return null
+    }
+    val utf8 = ByteArray(length)
+    readFully(utf8)
+    return String(utf8, Charsets.UTF_8)
+  }
+
+  companion object {
+    private const val TAG = "OfflineBeaconQueue"
+    private const val SEGMENT_SUFFIX = ".seg"
+
+    const val DEFAULT_MAX_DISK_BYTES = 4L * 1024 * 1024
+    const val DEFAULT_SEGMENT_BYTES = 256 * 1024
+    const val DEFAULT_MAX_ATTEMPTS = 10
+    const val DEFAULT_MAX_AGE_MS = 3 * 24 * 60 * 60_000L
+
+    /** Where a record's attempt count is */
+    private const val ATTEMPTS_POS = 0
+
+    private const val MIN_RETRY_MS = 5_000L
+    private const val MAX_RETRY_MS = 5 * 60_000L
+  }
+}
+
+/**
+ * An append-only file of length-prefixed records, memory-mapped so appending doesn't need a write
+ * syscall. The header tracks how far the file has been written, and how far it's been sent (acked).
+ * A record only counts as written once the header says so, so a half-written record is ignored
+ */
+internal class BeaconSegment private constructor(
+  private val file: File,
+  private val channel: FileChannel,
+  private val buffer: MappedByteBuffer,
+) {
+
+  private var writeEnd: Int
+    get() = buffer.getInt(WRITE_END_POS)
+    set(value) {
+      buffer.putInt(WRITE_END_POS, value)
+    }
+
+  private var readStart: Int
+    get() = buffer.getInt(READ_START_POS)
+    set(value) {
+      buffer.putInt(READ_START_POS, value)
+    }
+
+  /**
+   * True if no more records can be appended to this segment
+   */
+  var isFull: Boolean = false
+    private set
+
+  /**
+   * Appends the record, returning false if there's no room for it
+   */
+  fun append(record: ByteArray): Boolean {
+    val start = writeEnd
+    if (isFull || start.toLong() + RECORD_HEADER_SIZE + record.size > buffer.capacity()) {
+      isFull = true
+      return false
+    }
+    buffer.putInt(start, record.size)
+    buffer.position(start + RECORD_HEADER_SIZE)
+    buffer.put(record)
+    // commit
+    writeEnd = start + RECORD_HEADER_SIZE + record.size
+    return true
+  }
+
+  /**
+   * Returns the oldest record that hasn't been [ack]ed, or null if there isn't one
+   */
+  fun peek(): ByteArray? {
+    val start = readStart
+    if (start >= writeEnd) {
+      return null
+    }
+    val length = buffer.getInt(start)
+    if (length < 0 || start.toLong() + RECORD_HEADER_SIZE + length > writeEnd) {
+      // Corrupt. Nothing after this point can be read
+      readStart = writeEnd
+      return null
+    }
+    val record = ByteArray(length)
+    buffer.position(start + RECORD_HEADER_SIZE)
+    buffer.get(record)
+    return record
+  }
+
+  /**
+   * Overwrites an int in the oldest record that hasn't been [ack]ed, at [offset] from the start of
+   * the record. Does nothing if there's no such record
+   */
+  fun putIntInHead(offset: Int, value: Int) {
+    val start = readStart
+    if (start < writeEnd && offset + 4 <= buffer.getInt(start)) {
+      buffer.putInt(start + RECORD_HEADER_SIZE + offset, value)
+    }
+  }
+
+  /**
+   * Marks the oldest record as sent
+   */
+  fun ack() {
+    val start = readStart
+    if (start < writeEnd) {
+      readStart = start + RECORD_HEADER_SIZE + buffer.getInt(start)
+    }
+  }
+
+  fun close() {
+    try {
+      buffer.force()
+      channel.close()
+    } catch (e: IOException) {
+      SdkLogger.exception(e, "BeaconSegment") { "Couldn't close ${file.name}" }
+    }
+  }
+
+  fun delete() {
+    close()
+    file.delete()
+  }
+
+  companion object {
+    private const val MAGIC = 0x4d584251 // "MXBQ"
+    private const val MAGIC_POS = 0
+    private const val WRITE_END_POS = 4
+    private const val READ_START_POS = 8
+    private const val HEADER_SIZE = 12
+    private const val RECORD_HEADER_SIZE = 4
+
+    fun canHold(record: ByteArray, segmentBytes: Int): Boolean =
+      HEADER_SIZE.toLong() + RECORD_HEADER_SIZE + record.size <= segmentBytes
+
+    /**
+     * Opens the segment in [file], creating it if it doesn't exist yet
+     */
+    @Throws(IOException::class)
+    fun open(file: File, segmentBytes: Int): BeaconSegment {
+      val isNew = !file.exists() || file.length() == 0L
+      val channel = RandomAccessFile(file, "rw").channel
+      try {
+        val size = if (isNew) segmentBytes.toLong() else file.length()
+        val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+        if (isNew) {
+          buffer.putInt(MAGIC_POS, MAGIC)
+          buffer.putInt(WRITE_END_POS, HEADER_SIZE)
+          buffer.putInt(READ_START_POS, HEADER_SIZE)
+        } else {
+          val writeEnd = buffer.getInt(WRITE_END_POS)
+          val readStart = buffer.getInt(READ_START_POS)
+          if (buffer.getInt(MAGIC_POS) != MAGIC
+            || writeEnd !in HEADER_SIZE..buffer.capacity()
+            || readStart !in HEADER_SIZE..writeEnd
+          ) {
+            throw IOException("${file.name} is not a beacon segment")
+          }
+        }
+        return BeaconSegment(file, channel, buffer).apply {
+          // Segments from last time are only for sending, so new records go in a new segment
+          isFull = !isNew
+        }
+      } catch (e: IOException) {
+        channel.close()
+        throw e
+      }
+    }
+  }
+}
@@ -11,7 +11,6 @@ import androidx.media3.common.Tracks
 import androidx.media3.common.util.UnstableApi
 import com.mux.android.util.oneOf
 import com.mux.stats.sdk.core.model.VideoData
-import com.mux.stats.sdk.core.util.MuxLogger
 
 internal const val PLAYER_STATE_POLL_MS = 150L
 private const val LOG_TAG = "PlayerUtils"
@@ -21,18 +20,22 @@ private const val LOG_TAG = "PlayerUtils"
  */
 @OptIn(UnstableApi::class)
 fun Tracks.hasAtLeastOneVideoTrack(): Boolean {
-  return groups.map { it.mediaTrackGroup }
-    .filter { trackGroup -> trackGroup.length > 0 }
-    .map { trackGroup -> trackGroup.getFormat(0) }
-    .find { format -> format.sampleMimeType?.contains("video") ?: false }
-    .let { foundVideoTrack -> foundVideoTrack != null }
+  // Called whenever the tracks change, so this doesn't create any intermediate lists
+  val groups = groups
+  for (i in groups.indices) {
+    val group = groups[i]
+    if (group.length > 0 && group.getTrackFormat(0).sampleMimeType?.contains("video") == true) {
+      return true
+    }
+  }
+  return false
 }
 
 /**
  * Maps the formats of the tracks in a [Tracks.Group] to some other type
  */
 fun <R> Tracks.Group.mapFormats(block: (Format) -> R): List<R> {
-  val retList = mutableListOf<R>()
+  val retList = ArrayList<R>(length)
   for (i in 0 until length) {
     retList.add(block(getTrackFormat(i)))
   }
@@ -41,25 +44,31 @@ fun <R> Tracks.Group.mapFormats(block: (Format) -> R): List<R> {
 
 // Catches the Collector up to the current play state if the user registers after prepare()
 @JvmSynthetic
-fun catchUpPlayState(player: Player, collector: MuxStateCollector) {
-  MuxLogger.d("PlayerUtils", "catchUpPlayState: Called. pwr is ${player.playWhenReady}")
-  MuxLogger.d("PlayerUtils", "catchUpPlayState: Called. state is ${player.playbackState}")
+fun catchUpPlayState(
+  player: Player,
+  collector: MuxStateCollector,
+  logger: InstanceLogger = InstanceLogger.NONE,
+) {
+  logger.d("PlayerUtils") { "catchUpPlayState: Called. pwr is ${player.playWhenReady}" }
+  logger.d("PlayerUtils") { "catchUpPlayState: Called. state is ${player.playbackState}" }
   if (player.playWhenReady) {
-    MuxLogger.d("PlayerUtils", "catchUpPlayState: dispatching play")
+    logger.d("PlayerUtils") { "catchUpPlayState: dispatching play" }
     // Captures auto-play & late-registration, setting state and sending 'viewstart'
     collector.play()
   }
   // The player will be idle when we are first attached, so we don't need to say we paused
   //  (which is how IDLE is handled during actual playback)
   if (player.playbackState != Player.STATE_IDLE) {
-    collector.handleExoPlaybackState(player.playbackState, player.playWhenReady)
+    collector.handleExoPlaybackState(player.playbackState, player.playWhenReady, logger)
   }
 }
 
 @JvmSynthetic
 fun catchUpStreamData(player: Player, collector: MuxStateCollector) {
-  player.currentTimeline.takeIf { it.windowCount > 0 }?.let { tl ->
-    val window = Timeline.Window().apply { tl.getWindow(0, this) }
+  // With a playlist, the current item isn't necessarily the first one
+  val windowIndex = player.currentMediaItemIndex
+  player.currentTimeline.takeIf { windowIndex >= 0 && it.windowCount > windowIndex }?.let { tl ->
+    val window = Timeline.Window().apply { tl.getWindow(windowIndex, this) }
     collector.sourceDurationMs = window.durationMs
   }
   @Suppress("UNNECESSARY_SAFE_CALL")
@@ -91,14 +100,15 @@ fun MuxStateCollector.handlePositionDiscontinuity(reason: Int) {
 @JvmSynthetic
 fun MuxStateCollector.handlePlayWhenReady(
   playWhenReady: Boolean,
-  @Player.State playbackState: Int
+  @Player.State playbackState: Int,
+  logger: InstanceLogger = InstanceLogger.NONE,
 ) {
-  MuxLogger.d("PlayerUtils", "handlePlayWhenReady: Called. pwr is $playWhenReady")
+  logger.d("PlayerUtils") { "handlePlayWhenReady: Called. pwr is $playWhenReady" }
   if (playWhenReady) {
-    MuxLogger.d("PlayerUtils", "handlePlayWhenReady: dispatching play")
+    logger.d("PlayerUtils") { "handlePlayWhenReady: dispatching play" }
     play()
     if (playbackState == Player.STATE_READY) {
-      MuxLogger.d("PlayerUtils", "handlePlayWhenReady: dispatching playing")
+      logger.d("PlayerUtils") { "handlePlayWhenReady: dispatching playing" }
       // If we were already READY when playWhenReady is set, then we are definitely also playing
       playing()
     }
@@ -109,10 +119,11 @@ fun MuxStateCollector.handlePlayWhenReady(
 
 /**
  * Asynchronously watch player playback position, collecting periodic updates out-of-band from the
- * normal callback flow.
+ * normal callback flow. Any watcher that was already running is stopped
  */
 @JvmSynthetic
 fun MuxStateCollector.watchPlayerPos(player: Player) {
+  playerWatcher?.stop("watching player again")
   playerWatcher = MuxStateCollector.PlayerWatcher(
     PLAYER_STATE_POLL_MS,
     this,
@@ -127,7 +138,8 @@ fun MuxStateCollector.watchPlayerPos(player: Player) {
 @JvmSynthetic // Hidden from Java callers, since the only ones are external
 fun MuxStateCollector.handleExoPlaybackState(
   @Player.State playbackState: Int,
-  playWhenReady: Boolean
+  playWhenReady: Boolean,
+  logger: InstanceLogger = InstanceLogger.NONE,
 ) {
   if (this.muxPlayerState == MuxPlayerState.PLAYING_ADS) {
     // Normal playback events are ignored during ad playback.
@@ -136,13 +148,13 @@ fun MuxStateCollector.handleExoPlaybackState(
 
   when (playbackState) {
     Player.STATE_BUFFERING -> {
-      MuxLogger.d(LOG_TAG, "entering BUFFERING")
-      MuxLogger.d(LOG_TAG, "muxPlayerState is $muxPlayerState")
+      logger.d(LOG_TAG) { "entering BUFFERING" }
+      logger.d(LOG_TAG) { "muxPlayerState is $muxPlayerState" }
       buffering()
     }
 
     Player.STATE_READY -> {
-      MuxLogger.d(LOG_TAG, "entering READY")
+      logger.d(LOG_TAG) { "entering READY" }
 
       // We're done seeking after we get back to STATE_READY
       if (muxPlayerState == MuxPlayerState.SEEKING) {
@@ -152,7 +164,7 @@ fun MuxStateCollector.handleExoPlaybackState(
 
       // If playWhenReady && READY, we're playing or else we're paused
       if (playWhenReady) {
-        MuxLogger.d(LOG_TAG, "entered READY && pwr is true, dispatching playing()")
+        logger.d(LOG_TAG) { "entered READY && pwr is true, dispatching playing()" }
         playing()
       } else if (muxPlayerState != MuxPlayerState.PAUSED) {
         pause()
@@ -160,12 +172,12 @@ fun MuxStateCollector.handleExoPlaybackState(
     }
 
     Player.STATE_ENDED -> {
-      MuxLogger.d(LOG_TAG, "entering ENDED")
+      logger.d(LOG_TAG) { "entering ENDED" }
       ended()
     }
 
     Player.STATE_IDLE -> {
-      MuxLogger.d(LOG_TAG, "entering IDLE")
+      logger.d(LOG_TAG) { "entering IDLE" }
       if (muxPlayerState.oneOf(MuxPlayerState.PLAY, MuxPlayerState.PLAYING)) {
         // If we are playing/preparing to play and go idle, the player was stopped
         pause()
@@ -0,0 +1,156 @@
+package com.mux.stats.sdk.muxstats
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import kotlin.math.exp
+
+/**
+ * One timer, shared by every [PlayheadTracker] on the same [Looper]. Each tracker says when it next
+ * wants to poll, and the scheduler wakes up once for all trackers that are due, instead of each
+ * tracker running a timer of its own.
+ *
+ * Must only be used from its looper's thread
+ */
+internal class PlayheadPollScheduler private constructor(private val looper: Looper) {
+
+  /**
+   * Something that polls on a schedule
+   */
+  interface Task {
+    /**
+     * Polls, and returns how long until the next poll, in ms. Return a negative number to stop
+     */
+    fun poll(): Long
+  }
+
+  private class Entry(val task: Task, var dueAtMs: Long)
+
+  private val handler = Handler(looper)
+  private val entries = ArrayList<Entry>()
+  private var scheduledAtMs = Long.MAX_VALUE
+  private val tick = Runnable { onTick() }
+
+  /** How often this scheduler is actually waking up */
+  val wakeupRate = RateMeter()
+
+  /**
+   * Schedules the given task to poll after [delayMs], adding it if it wasn't scheduled already
+   */
+  fun schedule(task: Task, delayMs: Long) {
+    val dueAtMs = SystemClock.uptimeMillis() + delayMs
+    val entry = entries.find { it.task === task }
+    if (entry == null) {
+      entries += Entry(task, dueAtMs)
+    } else {
+      entry.dueAtMs = dueAtMs
+    }
+    postNextTick()
+  }
+
+  /**
+   * Stops polling for the given task. Once no tasks are left, this scheduler is forgotten, and
+   * [forLooper] makes a new one the next time it's needed
+   */
+  fun cancel(task: Task) {
+    entries.removeAll { it.task === task }
+    postNextTick()
+    forgetIfIdle()
+  }
+
+  private fun onTick() {
+    val nowMs = SystemClock.uptimeMillis()
+    scheduledAtMs = Long.MAX_VALUE
+    wakeupRate.mark(nowMs)
+
+    // Tasks may cancel or reschedule themselves (or each other) while polling
+    for (entry in entries.toTypedArray()) {
+      if (entry.dueAtMs <= nowMs && entries.contains(entry)) {
+        val nextDelayMs = entry.task.poll()
+        if (nextDelayMs < 0) {
+          entries.remove(entry)
+        } else {
+          entry.dueAtMs = nowMs + nextDelayMs
+        }
+      }
+    }
+    postNextTick()
+    forgetIfIdle()
+  }
+
+  private fun forgetIfIdle() {
+    // Under the same lock as forLooper, so it can't hand this scheduler out while it's forgotten
+    synchronized(schedulers) {
+      if (entries.isEmpty() && schedulers[looper] === this) {
+        schedulers.remove(looper)
+      }
+    }
+  }
+
+  private fun postNextTick() {
+    var nextAtMs = Long.MAX_VALUE
+    for (entry in entries) {
+      if (entry.dueAtMs < nextAtMs) {
+        nextAtMs = entry.dueAtMs
+      }
+    }
+    if (nextAtMs != scheduledAtMs) {
+      handler.removeCallbacks(tick)
+      scheduledAtMs = nextAtMs
+      if (nextAtMs != Long.MAX_VALUE) {
+        handler.postAtTime(tick, nextAtMs)
+      }
+    }
+  }
+
+  companion object {
+    private val schedulers = HashMap<Looper, PlayheadPollScheduler>()
+
+    /**
+     * Gets the scheduler for the given looper, creating it if needed. Schedulers are kept for as
+     * long as they have tasks to poll
+     */
+    @JvmSynthetic
+    fun forLooper(looper: Looper): PlayheadPollScheduler {
+      return synchronized(schedulers) {
+        schedulers.getOrPut(looper) { PlayheadPollScheduler(looper) }
+      }
+    }
+
+    @JvmSynthetic
+    internal fun schedulerCount(): Int = synchronized(schedulers) { schedulers.size }
+  }
+}
+
+/**
+ * Measures how often something happens, as an exponentially-weighted moving average. Recent
+ * events count the most, and the rate falls off toward zero when nothing is happening.
+ *
+ * @param timeConstantMs How quickly old events stop counting
+ */
+internal class RateMeter(private val timeConstantMs: Long = 10_000) {
+
+  private var rate: Double = 0.0
+  private var lastMarkMs: Long = Long.MIN_VALUE
+
+  /**
+   * Records an event at the given time
+   */
+  fun mark(nowMs: Long) {
+    rate = decayedRate(nowMs) + 1000.0 / timeConstantMs
+    lastMarkMs = nowMs
+  }
+
+  /**
+   * Returns the rate of events per second, as of the given time
+   */
+  fun perSecond(nowMs: Long = SystemClock.uptimeMillis()): Double = decayedRate(nowMs)
+
+  private fun decayedRate(nowMs: Long): Double {
+    if (lastMarkMs == Long.MIN_VALUE) {
+      return 0.0
+    }
+    val elapsedMs = (nowMs - lastMarkMs).coerceAtLeast(0)
+    return rate * exp(-elapsedMs.toDouble() / timeConstantMs)
+  }
+}
@@ -0,0 +1,260 @@
+package com.mux.stats.sdk.muxstats
+
+import android.app.ActivityManager
+import android.os.SystemClock
+import androidx.media3.common.Player
+import com.mux.android.util.oneOf
+import com.mux.android.util.weak
+
+/**
+ * How the SDK keeps track of the player's playhead position
+ */
+enum class PlayheadTrackingMode {
+  /**
+   * Asks the player for its position every 150ms for as long as it's being monitored. This is the
+   * default
+   */
+  POLLING,
+
+  /**
+   * Asks the player for its position only when its state changes (play, pause, seek, speed change,
+   * etc). In between, the position is computed from the last position, the playback speed, and a
+   * monotonic clock, and is only worked out when a beacon is about to be sent. Nothing is scheduled
+   * at all, so there are no wakeups to track the playhead. This saves battery for background audio,
+   * and for apps with many players
+   */
+  EVENT_DRIVEN,
+
+  /**
+   * Asks the player for its position on a schedule that depends on what the player is doing: often
+   * while seeking or rebuffering, every 150ms while playing, and every few seconds while paused,
+   * stopped, or playing in the background. All players on the same thread share one timer
+   */
+  ADAPTIVE,
+}
+
+/**
+ * A player binding that tracks the player's playhead with a [PlayheadTracker]. [MuxStatsSdkMedia3]
+ * uses this to report how often the playhead is being tracked
+ */
+interface PlayheadTrackingBinding {
+  /**
+   * The tracker for the bound player, or null if no player is bound
+   */
+  val playheadTracker: PlayheadTracker?
+}
+
+/**
+ * Keeps a [MuxStateCollector]'s playback position up to date, according to a
+ * [PlayheadTrackingMode].
+ *
+ * You don't ordinarily need to use this class directly. Player bindings create one of these and
+ * call [sample] before they report any change of the player's state, so the position is exact when
+ * the state-change events are sent
+ */
+class PlayheadTracker @JvmOverloads constructor(
+  player: Player,
+  private val collector: MuxStateCollector,
+  val mode: PlayheadTrackingMode,
+  private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+) {
+
+  private val player by weak(player)
+
+  private var anchorPositionMs: Long = 0
+  private var anchorRealtimeMs: Long = 0
+  private var speed: Float = 1F
+  private var advancing: Boolean = false
+  private var started: Boolean = false
+
+  private val pollRate = RateMeter()
+  private var pollScheduler: PlayheadPollScheduler? = null
+  private val pollTask = object : PlayheadPollScheduler.Task {
+    override fun poll(): Long = pollAdaptively()
+  }
+
+  private var foregroundCheckedAtMs: Long = Long.MIN_VALUE
+  private var appInForeground: Boolean = true
+
+  /**
+   * The playhead position, computed from the last [sample]. In [PlayheadTrackingMode.POLLING] and
+   * [PlayheadTrackingMode.ADAPTIVE] modes, this is just the last polled position
+   */
+  val positionMs: Long
+    get() = when {
+      mode != PlayheadTrackingMode.EVENT_DRIVEN -> collector.playbackPositionMills
+      advancing -> anchorPositionMs + ((clock() - anchorRealtimeMs) * speed).toLong()
+      else -> anchorPositionMs
+    }
+
+  /**
+   * How many times per second the player's position is currently being read on a timer. This is an
+   * exponentially-weighted average over the last several seconds. Always 0 in
+   * [PlayheadTrackingMode.EVENT_DRIVEN] mode, which doesn't use a timer
+   */
+  val pollsPerSecond: Double
+    get() = pollRate.perSecond(SystemClock.uptimeMillis())
+
+  /**
+   * How many times per second a timer is waking up to track the position. In
+   * [PlayheadTrackingMode.ADAPTIVE] mode, this counts the shared timer's wakeups for all players on
+   * this player's thread. Otherwise it's the same as [pollsPerSecond]
+   */
+  val wakeupsPerSecond: Double
+    get() = pollScheduler?.wakeupRate?.perSecond(SystemClock.uptimeMillis()) ?: pollsPerSecond
+
+  /**
+   * Starts tracking the position. Calling this again restarts tracking
+   */
+  fun start() {
+    started = true
+    val player = player ?: return
+    when (mode) {
+      PlayheadTrackingMode.POLLING -> startWatcher(player, PLAYER_STATE_POLL_MS) {
+        it.currentPosition
+      }
+
+      PlayheadTrackingMode.EVENT_DRIVEN -> sample()
+      PlayheadTrackingMode.ADAPTIVE -> {
+        // Looked up every time. A scheduler that ran out of tasks is forgotten, and other trackers
+        //  on this looper would be using a new one
+        val scheduler = PlayheadPollScheduler.forLooper(player.applicationLooper)
+        if (scheduler !== pollScheduler) {
+          pollScheduler?.cancel(pollTask)
+          pollScheduler = scheduler
+        }
+        pollNow()
+      }
+    }
+  }
+
+  /**
+   * Samples the player's position and playback state. Call this before reporting any change to the
+   * player's state. Does nothing in [PlayheadTrackingMode.POLLING] mode
+   */
+  fun sample() {
+    if (!started) {
+      return
+    }
+    when (mode) {
+      PlayheadTrackingMode.POLLING -> {}
+      PlayheadTrackingMode.EVENT_DRIVEN -> sampleForEvents()
+      PlayheadTrackingMode.ADAPTIVE -> pollNow()
+    }
+  }
+
+  /**
+   * Brings the collector's position up to date without asking the player, just before a beacon
+   * that isn't about a change of the player's state is sent. Only does anything in
+   * [PlayheadTrackingMode.EVENT_DRIVEN] mode, where the position is otherwise only set by [sample]
+   */
+  fun onBeacon() {
+    if (started && mode == PlayheadTrackingMode.EVENT_DRIVEN) {
+      collector.playbackPositionMills = positionMs
+    }
+  }
+
+  /**
+   * Stops tracking the position
+   */
+  fun stop(message: String) {
+    started = false
+    advancing = false
+    pollScheduler?.cancel(pollTask)
+    pollScheduler = null
+    collector.playerWatcher?.stop(message)
+    collector.playerWatcher = null
+  }
+
+  private fun sampleForEvents() {
+    val player = player ?: return
+
+    anchorPositionMs = player.currentPosition
+    anchorRealtimeMs = clock()
+    speed = player.playbackParameters.speed
+    advancing = player.isPlaying
+    collector.playbackPositionMills = anchorPositionMs
+  }
+
+  /**
+   * Polls right away, so the state change being reported has an exact position, then picks a new
+   * cadence for the player's new state
+   */
+  private fun pollNow() {
+    val scheduler = pollScheduler ?: return
+    val nextDelayMs = pollAdaptively()
+    if (nextDelayMs < 0) {
+      scheduler.cancel(pollTask)
+      pollScheduler = null
+    } else {
+      scheduler.schedule(pollTask, nextDelayMs)
+    }
+  }
+
+  private fun pollAdaptively(): Long {
+    val player = player
+    if (!started || player == null) {
+      pollScheduler = null
+      return -1
+    }
+    pollRate.mark(SystemClock.uptimeMillis())
+    collector.playbackPositionMills = player.currentPosition
+    return adaptivePollPeriodMs(player)
+  }
+
+  private fun adaptivePollPeriodMs(player: Player): Long {
+    return when {
+      player.playbackState == Player.STATE_BUFFERING
+          || collector.muxPlayerState.oneOf(MuxPlayerState.SEEKING, MuxPlayerState.REBUFFERING)
+      -> ADAPTIVE_SEEKING_POLL_MS
+
+      player.isPlaying && isAppInForeground() -> PLAYER_STATE_POLL_MS
+      player.isPlaying -> ADAPTIVE_BACKGROUND_POLL_MS
+      // paused, idle, or ended. The position only changes when the state does
+      else -> ADAPTIVE_IDLE_POLL_MS
+    }
+  }
+
+  private fun isAppInForeground(): Boolean {
+    // This is an IPC, so don't ask every time we poll
+    val nowMs = SystemClock.uptimeMillis()
+    if (foregroundCheckedAtMs == Long.MIN_VALUE
+      || nowMs - foregroundCheckedAtMs > FOREGROUND_CHECK_INTERVAL_MS
+    ) {
+      val processInfo = ActivityManager.RunningAppProcessInfo()
+      ActivityManager.getMyMemoryState(processInfo)
+      appInForeground = processInfo.importance.oneOf(
+        ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND,
+        ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE,
+      )
+      foregroundCheckedAtMs = nowMs
+    }
+    return appInForeground
+  }
+
+  private fun startWatcher(player: Player, periodMs: Long, getPositionMs: (Player) -> Long) {
+    collector.playerWatcher?.stop("restarting playhead tracking")
+    collector.playerWatcher = MuxStateCollector.PlayerWatcher(
+      periodMs,
+      collector,
+      player
+    ) { it, _ ->
+      pollRate.mark(SystemClock.uptimeMillis())
+      getPositionMs(it)
+    }
+    collector.playerWatcher?.start()
+  }
+
+  companion object {
+    /** [PlayheadTrackingMode.ADAPTIVE] poll period while seeking or rebuffering */
+    const val ADAPTIVE_SEEKING_POLL_MS = 100L
+
+    /** [PlayheadTrackingMode.ADAPTIVE] poll period while playing with the app in the background */
+    const val ADAPTIVE_BACKGROUND_POLL_MS = 1000L
+
+    /** [PlayheadTrackingMode.ADAPTIVE] poll period while paused, stopped or ended */
+    const val ADAPTIVE_IDLE_POLL_MS = 3000L
+
+    private const val FOREGROUND_CHECK_INTERVAL_MS = 5000L
+  }
+}
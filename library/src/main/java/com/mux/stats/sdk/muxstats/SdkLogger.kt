@@ -0,0 +1,125 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.sdk.core.util.MuxLogger
+
+/**
+ * Logging for the parts of the SDK that every [MuxStatsSdkMedia3] shares, like the beacon network,
+ * that only builds log messages if they will be logged.
+ *
+ * Player callbacks run many times a second, so their log messages shouldn't be built (or their
+ * parameters formatted) when logging is off. Pass the message as a lambda: since these functions
+ * are inline, the lambda isn't allocated either.
+ *
+ * Debug messages are logged while any [MuxStatsSdkMedia3] was created with a `logLevel` other than
+ * NONE. Code that belongs to one instance and its player should log with that instance's
+ * [InstanceLogger] instead
+ */
+object SdkLogger {
+
+  // How many live instances have logging on
+  private var loggingInstances = 0
+
+  /**
+   * True if debug messages should be logged. Checked before building any message
+   */
+  @PublishedApi
+  @Volatile
+  internal var debugEnabled: Boolean = false
+
+  /**
+   * Logs a debug message, if debug logging is on. [message] is only called if the message will be
+   * logged
+   */
+  @JvmSynthetic
+  inline fun d(tag: String, message: () -> String) {
+    if (debugEnabled) {
+      MuxLogger.d(tag, message())
+    }
+  }
+
+  /**
+   * Logs a warning. Warnings are always passed along to [MuxLogger], whatever the log level
+   */
+  @JvmSynthetic
+  inline fun w(tag: String, message: () -> String) {
+    MuxLogger.w(tag, message())
+  }
+
+  /**
+   * Logs an exception. Exceptions are always passed along to [MuxLogger], whatever the log level
+   */
+  @JvmSynthetic
+  inline fun exception(e: Throwable, tag: String, message: () -> String) {
+    MuxLogger.exception(e, tag, message())
+  }
+
+  /**
+   * Creates the logger for a new [MuxStatsSdkMedia3]. If it logs, so does this object, until the
+   * logger is passed to [releaseInstance]
+   */
+  @JvmSynthetic
+  @Synchronized
+  internal fun forInstance(logLevel: MuxDataSdk.LogcatLevel): InstanceLogger {
+    val logger = InstanceLogger(logLevel)
+    if (logger.debugEnabled) {
+      loggingInstances++
+      debugEnabled = true
+    }
+    return logger
+  }
+
+  /**
+   * Call when the [MuxStatsSdkMedia3] that owns [logger] is released
+   */
+  @JvmSynthetic
+  @Synchronized
+  internal fun releaseInstance(logger: InstanceLogger) {
+    if (logger.debugEnabled) {
+      loggingInstances--
+      debugEnabled = loggingInstances > 0
+    }
+  }
+}
+
+/**
+ * Logging for one [MuxStatsSdkMedia3] and the player bindings observing its player, at the
+ * `logLevel` that instance was created with. Like [SdkLogger], messages are only built if they will
+ * be logged.
+ *
+ * [MuxStatsSdkMedia3] hands this to its binding if the binding is a [LoggingBinding]
+ */
+class InstanceLogger internal constructor(logLevel: MuxDataSdk.LogcatLevel) {
+
+  /**
+   * True if debug messages should be logged. Checked before building any message
+   */
+  @PublishedApi
+  internal val debugEnabled: Boolean = logLevel != MuxDataSdk.LogcatLevel.NONE
+
+  /**
+   * Logs a debug message, if this instance logs. [message] is only called if the message will be
+   * logged
+   */
+  @JvmSynthetic
+  inline fun d(tag: String, message: () -> String) {
+    if (debugEnabled) {
+      MuxLogger.d(tag, message())
+    }
+  }
+
+  /**
+   * Logs a warning. Warnings are always passed along to [MuxLogger], whatever the log level
+   */
+  @JvmSynthetic
+  inline fun w(tag: String, message: () -> String) {
+    MuxLogger.w(tag, message())
+  }
+
+  companion object {
+    /**
+     * Doesn't log debug messages. Used until a binding is given its instance's logger
+     */
+    @JvmField
+    val NONE = InstanceLogger(MuxDataSdk.LogcatLevel.NONE)
+  }
+}
@@ -0,0 +1,357 @@
+package com.mux.stats.sdk.muxstats
+
+import android.content.Context
+import android.os.SystemClock
+import com.mux.android.http.ConnectionChecker
+import com.mux.android.http.HttpClient
+import com.mux.android.http.POST
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.File
+import java.net.URL
+import java.util.Hashtable
+
+/**
+ * The beacon network shared by every [MuxStatsSdkMedia3] in the process.
+ *
+ * All instances send on one bounded dispatcher, so apps that create lots of monitored players don't
+ * also create lots of threads. Instances with the same [IDevice] and env key also share one
+ * [MuxNetwork], so connections are reused and their beacons can be sent together. Each instance
+ * gets a [Handle]. When the last handle for a network is released, that network is closed after a
+ * short grace period, so the last beacons of a view can still go out. When no networks are left,
+ * the shared coroutines are cancelled.
+ *
+ * Beacons that can't be sent (because the device is offline, for instance) are saved to disk by an
+ * [OfflineBeaconQueue] and sent later, even if that's after the app is restarted. There is one
+ * queue per env key
+ */
+internal object SharedBeaconNetwork {
+
+  /** Max concurrent requests for all SDK instances together */
+  private const val MAX_PARALLEL_REQUESTS = 2
+
+  /** How long to wait after the last instance is released before shutting down */
+  private const val SHUTDOWN_GRACE_MS = 10_000L
+
+  /** Where beacons that couldn't be sent are kept, relative to the app's files dir */
+  private const val OFFLINE_QUEUE_DIR = "mux/offline-beacons"
+
+  /**
+   * Instances share a network only if they'd send exactly the same requests. The device is
+   * compared by identity, since it provides the user agent
+   */
+  private class Key(val device: IDevice, val envKey: String?) {
+    override fun equals(other: Any?): Boolean =
+      other is Key && other.device === device && other.envKey == envKey
+
+    override fun hashCode(): Int = 31 * System.identityHashCode(device) + envKey.hashCode()
+  }
+
+  private class Stack(
+    val transport: CoalescingBeaconTransport,
+    val offlineQueue: OfflineBeaconQueue?,
+    val offlineDir: File,
+  ) {
+    var refCount = 0
+
+    /** Closes this stack once the grace period is over, if no one starts using it again */
+    var shutdownJob: Job? = null
+  }
+
+  private var scope: CoroutineScope? = null
+  private val stacks = HashMap<Key, Stack>()
+
+  /**
+   * How beacons are encoded. Takes effect for the next beacon sent
+   */
+  @Volatile
+  var encoding: BeaconEncoding = BeaconEncoding.IDENTITY
+
+  @OptIn(ExperimentalCoroutinesApi::class) // limitedParallelism
+  @Synchronized
+  private fun acquire(
+    context: Context,
+    envKey: String?,
+    device: IDevice
+  ): CoalescingBeaconTransport {
+    val sharedScope = scope ?: CoroutineScope(
+      SupervisorJob() + Dispatchers.IO.limitedParallelism(MAX_PARALLEL_REQUESTS)
+    ).also {
+      SdkLogger.d("SharedBeaconNetwork") { "Starting shared beacon network" }
+      scope = it
+    }
+
+    val stack = stacks.getOrPut(Key(device, envKey)) {
+      val network = EncodingBeaconNetwork(
+        delegate = MuxNetwork(device, sharedScope),
+        poster = httpPoster(context),
+        scope = sharedScope,
+      ) { encoding }
+      val offlineDir = File(context.filesDir, "$OFFLINE_QUEUE_DIR/${offlineDirName(envKey)}")
+      // Two queues can't share a dir. That only happens if an app uses more than one custom
+      //  device for the same env key, and then only the first one saves beacons
+      val offlineQueue = if (stacks.values.none { it.offlineDir == offlineDir }) {
+        OfflineBeaconQueue(offlineDir, network).also { it.watchConnectivity(context) }
+      } else {
+        null
+      }
+      Stack(CoalescingBeaconTransport(offlineQueue ?: network), offlineQueue, offlineDir)
+    }
+    // In use again, so it stays open
+    stack.shutdownJob?.cancel()
+    stack.shutdownJob = null
+    stack.refCount++
+    return stack.transport
+  }
+
+  @Synchronized
+  private fun release(transport: CoalescingBeaconTransport) {
+    val (key, stack) = stacks.entries.find { it.value.transport === transport } ?: return
+    stack.refCount--
+    if (stack.refCount > 0) {
+      return
+    }
+    val sharedScope = scope ?: return
+    stack.shutdownJob = sharedScope.launch {
+      delay(SHUTDOWN_GRACE_MS)
+      synchronized(SharedBeaconNetwork) {
+        // Cancelled if an instance started using the stack while we were waiting
+        if (!isActive) {
+          return@launch
+        }
+        stacks.remove(key)
+        stack.offlineQueue?.close()
+        if (stacks.isEmpty() && scope === sharedScope) {
+          SdkLogger.d("SharedBeaconNetwork") { "Shutting down shared beacon network" }
+          scope = null
+          sharedScope.cancel("No more SDK instances")
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends encoded beacons with core's HTTP client, the one [MuxNetwork] sends plain beacons with
+   */
+  private fun httpPoster(context: Context): EncodedBeaconPoster {
+    val httpClient = HttpClient(ConnectionChecker(context))
+    return EncodedBeaconPoster { url, headers, body, size ->
+      val result = httpClient.call(
+        POST(
+          url = url,
+          headers = headers,
+          contentType = "application/json",
+          body = if (size == body.size) body else body.copyOf(size),
+        )
+      )
+      result.response?.status?.code ?: -1
+    }
+  }
+
+  /**
+   * A file name for the env key's offline queue. Env keys are usually safe already
+   */
+  private fun offlineDirName(envKey: String?): String {
+    return envKey?.replace(Regex("[^A-Za-z0-9_-]"), "_")?.takeIf { it.isNotEmpty() } ?: "_"
+  }
+
+  /**
+   * One SDK instance's reference to the shared network. Call [attach] to start using it, and
+   * [release] when the SDK instance is released
+   */
+  class Handle : INetworkRequest {
+
+    @Volatile
+    private var transport: CoalescingBeaconTransport? = null
+
+    /**
+     * Starts using the shared network, returning this handle for convenience
+     */
+    fun attach(context: Context, envKey: String?, device: IDevice): INetworkRequest {
+      synchronized(this) {
+        if (transport == null) {
+          transport = acquire(context.applicationContext, envKey, device)
+        }
+      }
+      return this
+    }
+
+    /**
+     * Stops using the shared network. Does nothing if this handle was never attached, or was
+     * already released
+     */
+    fun release() {
+      val released = synchronized(this) {
+        transport.also { transport = null }
+      }
+      if (released != null) {
+        SharedBeaconNetwork.release(released)
+      }
+    }
+
+    override fun get(url: URL?) {
+      transport?.get(url)
+    }
+
+    override fun post(url: URL?, json: JSONObject?, headers: Hashtable<String, String>?) {
+      transport?.post(url, json, headers)
+    }
+
+    override fun postWithCompletion(
+      domain: String?,
+      envKey: String?,
+      body: String?,
+      headers: Hashtable<String, String>?,
+      completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+    ) {
+      val transport = transport
+      if (transport != null) {
+        transport.postWithCompletion(domain, envKey, body, headers, completion)
+      } else {
+        // Released. The core will keep the beacons and try again if it's still going
+        completion?.onComplete(false)
+      }
+    }
+  }
+}
+
+/**
+ * Sends beacons through [delegate], combining beacons bound for the same place.
+ *
+ * Only one POST is in flight per (domain, env key, headers) at a time. Batches that arrive while
+ * one is in flight wait, and when it's done they are all sent together as one POST, with their
+ * `events` lists concatenated. Batches with different headers are never combined, so each POST's
+ * headers are right for every batch in it. Each batch's completion gets the result of the POST
+ * that carried it
+ */
+internal class CoalescingBeaconTransport(
+  private val delegate: INetworkRequest,
+  private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+) : INetworkRequest {
+
+  private class Batch(
+    val body: String?,
+    val headers: Hashtable<String, String>?,
+    val completion: INetworkRequest.IMuxNetworkRequestsCompletion?,
+  )
+
+  private class Lane(val key: String) {
+    var inFlightSinceMs: Long = NOT_IN_FLIGHT
+    val waiting = ArrayList<Batch>()
+  }
+
+  private val lanes = HashMap<String, Lane>()
+
+  /**
+   * How many (domain, env key, headers) combinations have beacons in flight or waiting
+   */
+  internal val laneCount: Int get() = synchronized(lanes) { lanes.size }
+
+  override fun get(url: URL?) = delegate.get(url)
+
+  override fun post(url: URL?, json: JSONObject?, headers: Hashtable<String, String>?) =
+    delegate.post(url, json, headers)
+
+  override fun postWithCompletion(
+    domain: String?,
+    envKey: String?,
+    body: String?,
+    headers: Hashtable<String, String>?,
+    completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+  ) {
+    val batch = Batch(body, headers, completion)
+    val lane = synchronized(lanes) {
+      val key = laneKey(domain, envKey, headers)
+      val lane = lanes.getOrPut(key) { Lane(key) }
+      val nowMs = clock()
+      if (lane.inFlightSinceMs != NOT_IN_FLIGHT
+        && nowMs - lane.inFlightSinceMs < STUCK_REQUEST_MS
+      ) {
+        lane.waiting += batch
+        return
+      }
+      lane.inFlightSinceMs = nowMs
+      lane
+    }
+    send(domain, envKey, lane, listOf(batch))
+  }
+
+  private fun send(domain: String?, envKey: String?, lane: Lane, batches: List<Batch>) {
+    val merged = if (batches.size == 1) batches[0].body else mergeBeaconBodies(batches)
+    if (merged == null && batches.size > 1) {
+      // Couldn't combine them. Send the oldest by itself, and the rest after
+      synchronized(lanes) { lane.waiting.addAll(0, batches.subList(1, batches.size)) }
+      send(domain, envKey, lane, batches.subList(0, 1))
+      return
+    }
+
+    delegate.postWithCompletion(domain, envKey, merged, batches.last().headers) { result ->
+      batches.forEach { it.completion?.onComplete(result) }
+
+      val next = synchronized(lanes) {
+        if (lane.waiting.isEmpty()) {
+          lane.inFlightSinceMs = NOT_IN_FLIGHT
+          // Nothing's using it. If more beacons come, they'll get a new lane
+          if (lanes[lane.key] === lane) {
+            lanes.remove(lane.key)
+          }
+          null
+        } else {
+          lane.inFlightSinceMs = clock()
+          ArrayList(lane.waiting).also { lane.waiting.clear() }
+        }
+      }
+      next?.let { send(domain, envKey, lane, it) }
+    }
+  }
+
+  private fun laneKey(
+    domain: String?,
+    envKey: String?,
+    headers: Hashtable<String, String>?
+  ): String {
+    val key = StringBuilder().append(domain).append('|').append(envKey)
+    headers?.entries?.sortedBy { it.key }?.forEach { (name, value) ->
+      key.append('|').append(name).append('=').append(value)
+    }
+    return key.toString()
+  }
+
+  private fun mergeBeaconBodies(batches: List<Batch>): String? {
+    return try {
+      // The newest batch has the newest metadata (transmission time, etc)
+      val merged = JSONObject(batches.last().body ?: return null)
+      val events = JSONArray()
+      for (batch in batches) {
+        val batchEvents = JSONObject(batch.body ?: return null).optJSONArray("events") ?: continue
+        for (i in 0 until batchEvents.length()) {
+          events.put(batchEvents.get(i))
+        }
+      }
+      merged.put("events", events)
+      merged.toString()
+    } catch (e: JSONException) {
+      SdkLogger.exception(e, "CoalescingBeaconTransport") { "Couldn't combine beacons" }
+      null
+    }
+  }
+
+  companion object {
+    private const val NOT_IN_FLIGHT = -1L
+
+    /**
+     * If a POST hasn't completed in this long, don't wait for it before sending more beacons
+     */
+    private const val STUCK_REQUEST_MS = 30_000L
+  }
+}
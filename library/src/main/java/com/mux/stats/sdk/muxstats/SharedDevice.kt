@@ -0,0 +1,59 @@
+package com.mux.stats.sdk.muxstats
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.annotation.OptIn
+import androidx.media3.common.MediaLibraryInfo
+import androidx.media3.common.util.UnstableApi
+import com.mux.stats.sdk.muxstats.media3.BuildConfig
+
+/**
+ * An [IDevice] shared by every [MuxStatsSdkMedia3] in the process that doesn't have its own.
+ *
+ * Creating an [AndroidDevice] reads package info and queries system services. That's only done
+ * once: by [MuxStatsSdkMedia3.prewarm], on whatever thread the app likes, or else by the first SDK
+ * instance. Instances that share a device also share a [MuxNetwork], see [SharedBeaconNetwork]
+ */
+internal object SharedDevice {
+
+  @Volatile
+  private var device: IDevice? = null
+
+  /**
+   * The shared device, or null if the app never prewarmed
+   */
+  val prewarmed: IDevice? get() = device
+
+  /**
+   * Creates the shared device, if it wasn't already. Safe to call from any thread
+   */
+  fun prewarm(context: Context): IDevice {
+    device?.let { return it }
+    return synchronized(this) {
+      device ?: run {
+        val startMs = SystemClock.elapsedRealtime()
+        // The app context, since this outlives any Activity
+        create(context.applicationContext).also {
+          device = it
+          SdkLogger.d("SharedDevice") {
+            "prewarm: created device in ${SystemClock.elapsedRealtime() - startMs}ms"
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a new device for the media3 SDK
+   */
+  @OptIn(UnstableApi::class) // MediaLibraryInfo
+  fun create(context: Context): IDevice {
+    return AndroidDevice(
+      ctx = context,
+      playerVersion = MediaLibraryInfo.VERSION,
+      muxPluginName = "mux-media3",
+      muxPluginVersion = BuildConfig.LIB_VERSION,
+      playerSoftware = "media3-generic",
+    )
+  }
+}
@@ -0,0 +1,126 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.annotation.OptIn
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.Tracks
+import androidx.media3.common.util.UnstableApi
+import com.mux.stats.sdk.core.model.BandwidthMetricData.Rendition
+
+/**
+ * Works out what the SDK needs to know about a player's [Tracks] in one pass over its groups:
+ * whether there's video, which groups are video groups, and the rendition ladder.
+ *
+ * Players can report new tracks many times per view (eg, when there are lots of audio and subtitle
+ * tracks), but the video ladder rarely changes. If it hasn't changed since the last call to
+ * [analyze], the previous [renditionList] is kept, so callers can skip work by checking
+ * [renditionsChanged].
+ *
+ * You don't ordinarily need to use this class directly. This class is not thread-safe
+ */
+class TrackAnalyzer {
+
+  /**
+   * True if any track in the last [Tracks] analyzed had a video MIME type
+   */
+  var hasVideo: Boolean = false
+    private set
+
+  /**
+   * The video groups of the last [Tracks] analyzed. This list is reused by the next call to
+   * [analyze], so don't hold onto it
+   */
+  val videoGroups: List<Tracks.Group> get() = _videoGroups
+  private val _videoGroups = ArrayList<Tracks.Group>()
+
+  /**
+   * The renditions of every video group of the last [Tracks] analyzed. This is the same instance
+   * as before if the ladder hasn't changed
+   */
+  var renditionList: List<Rendition> = emptyList()
+    private set
+
+  /**
+   * True if the last call to [analyze] changed [renditionList]
+   */
+  var renditionsChanged: Boolean = false
+    private set
+
+  /**
+   * Analyzes the given tracks, updating this object's properties
+   */
+  @OptIn(UnstableApi::class)
+  fun analyze(tracks: Tracks) {
+    var foundVideo = false
+    _videoGroups.clear()
+
+    // Compare each video format to the old ladder as we go, so it's only rebuilt if it changed
+    val oldRenditions = renditionList
+    var renditionCount = 0
+    var sameLadder = true
+
+    val groups = tracks.groups
+    for (groupIndex in groups.indices) {
+      val group = groups[groupIndex]
+      if (!foundVideo && group.length > 0
+        && group.getTrackFormat(0).sampleMimeType?.contains("video") == true
+      ) {
+        foundVideo = true
+      }
+      if (group.type == C.TRACK_TYPE_VIDEO) {
+        _videoGroups += group
+        for (trackIndex in 0 until group.length) {
+          if (sameLadder) {
+            sameLadder = renditionCount < oldRenditions.size
+                && oldRenditions[renditionCount].matches(group.getTrackFormat(trackIndex))
+          }
+          renditionCount++
+        }
+      }
+    }
+
+    hasVideo = foundVideo
+    renditionsChanged = !sameLadder || renditionCount != oldRenditions.size
+    if (renditionsChanged) {
+      renditionList = buildRenditionList(renditionCount)
+    }
+  }
+
+  private fun buildRenditionList(renditionCount: Int): List<Rendition> {
+    val renditions = ArrayList<Rendition>(renditionCount)
+    for (group in _videoGroups) {
+      for (trackIndex in 0 until group.length) {
+        renditions += group.getTrackFormat(trackIndex).toRendition()
+      }
+    }
+    return renditions
+  }
+
+  @OptIn(UnstableApi::class) // bitrate
+  private fun Rendition.matches(format: Format): Boolean {
+    return bitrate == format.bitrate.toLong()
+        && width == format.width
+        && height == format.height
+        && fps == format.frameRate
+        && codec == format.codecs
+  }
+
+  @OptIn(UnstableApi::class) // bitrate
+  private fun Format.toRendition(): Rendition {
+    val format = this
+    return Rendition().apply {
+      bitrate = format.bitrate.toLong()
+      width = format.width
+      height = format.height
+      codec = format.codecs
+      fps = format.frameRate
+      name = StringBuilder(48)
+        .append(format.width).append('_')
+        .append(format.height).append('_')
+        .append(format.bitrate).append('_')
+        .append(format.codecs).append('_')
+        .append(format.frameRate)
+        .toString()
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.mux.stats.sdk.muxstats
+
+/**
+ * A player binding that keeps state that belongs to the current view, like request data that hasn't
+ * been sent yet or beacon budgets. [MuxStatsSdkMedia3] calls [onViewChange] each time a new view
+ * starts, whether from [MuxStatsSdkMedia3.videoChange] or from following the player's media items
+ */
+interface ViewChangeBinding {
+  /**
+   * Called just before a new view starts, while the old view can still take events. Send anything
+   * the old view still needs, and forget anything that shouldn't carry over into the new view
+   */
+  fun onViewChange()
+}
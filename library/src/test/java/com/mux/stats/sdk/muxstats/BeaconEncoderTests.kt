@@ -0,0 +1,146 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.Inflater
+
+class BeaconEncoderTests : AbsRobolectricTest() {
+
+  /**
+   * Batches of beacons like those sent during a few minutes of HLS playback: one with view and
+   * player metadata, then batches of segment requests, heartbeats and rendition changes
+   */
+  private val typicalHlsView: List<String> by lazy {
+    val batches = ArrayList<String>()
+    batches += batch(
+      listOf(
+        event(
+          "viewstart", 0,
+          "\"mpn\":\"mux-media3\",\"mpv\":\"1.9.0\",\"pnm\":\"media3-generic\",\"pve\":\"1.8.0\"," +
+              "\"vsour\":\"https://stream.example.com/v/abc123/main.m3u8\"," +
+              "\"vsoty\":\"application/x-mpegURL\",\"vtt\":\"Big Buck Bunny\"," +
+              "\"uosfm\":\"android\",\"uosve\":\"14\",\"dmo\":\"Pixel 8\",\"dma\":\"Google\""
+        ),
+        event("play", 12),
+        event(
+          "requestcompleted", 40,
+          "\"qty\":\"manifest\",\"qhn\":\"stream.example.com\",\"qbyld\":\"1843\""
+        ),
+        event("playing", 510),
+      )
+    )
+    var timeMs = 1_000L
+    repeat(30) { batchIndex ->
+      val events = ArrayList<String>()
+      repeat(4) { segment ->
+        timeMs += 1_500
+        val segmentUrl = "https://cdn.example.com/v/abc123/720p_${batchIndex * 4 + segment}.ts"
+        events += event(
+          "requestcompleted", timeMs,
+          "\"qty\":\"media\",\"qhn\":\"cdn.example.com\"," +
+              "\"qbyld\":\"${700_000 + segment * 997}\",\"qrpst\":\"${timeMs - 300}\"," +
+              "\"qrpen\":\"$timeMs\",\"qmedu\":\"6000\",\"qurl\":\"$segmentUrl\""
+        )
+      }
+      events += event("hb", timeMs + 100)
+      if (batchIndex % 10 == 9) {
+        events += event("renditionchange", timeMs + 200, "\"vsowd\":\"1280\",\"vsoht\":\"720\"")
+      }
+      batches += batch(events)
+    }
+    batches += batch(listOf(event("pause", timeMs + 5_000), event("viewend", timeMs + 6_000)))
+    batches
+  }
+
+  private fun event(name: String, viewerTimeMs: Long, extra: String = ""): String {
+    val base = "\"e\":\"$name\",\"uti\":${1_700_000_000_000 + viewerTimeMs}," +
+        "\"xid\":\"1f3e5a7c-9b2d-4e6f-8a1c-3b5d7f9e1a2c\",\"psqno\":$viewerTimeMs"
+    return if (extra.isEmpty()) "{$base}" else "{$base,$extra}"
+  }
+
+  private fun batch(events: List<String>): String =
+    "{\"metadata\":{\"mux_api_version\":\"2.1\",\"transmission_timestamp\":1700000000000}," +
+        "\"events\":[${events.joinToString(",")}]}"
+
+  private fun BeaconEncoder.encodedCopy(body: String): ByteArray {
+    encode(body)
+    return bytes.copyOf(size)
+  }
+
+  private fun gunzip(bytes: ByteArray): String =
+    GZIPInputStream(ByteArrayInputStream(bytes)).readBytes().toString(Charsets.UTF_8)
+
+  private fun inflate(bytes: ByteArray, dictionary: ByteArray? = null): String {
+    val inflater = Inflater()
+    inflater.setInput(bytes)
+    val out = ByteArray(256 * 1024)
+    var size = inflater.inflate(out)
+    if (inflater.needsDictionary()) {
+      inflater.setDictionary(dictionary!!)
+      size = inflater.inflate(out)
+    }
+    Assert.assertTrue("should be a complete stream", inflater.finished())
+    inflater.end()
+    return String(out, 0, size, Charsets.UTF_8)
+  }
+
+  @Test
+  fun testEncodingsRoundTrip() {
+    val body = typicalHlsView[1] + " unicode: é中😀"
+
+    val identity = BeaconEncoder(BeaconEncoding.IDENTITY)
+    Assert.assertEquals(body, String(identity.encodedCopy(body), Charsets.UTF_8))
+
+    val gzip = BeaconEncoder(BeaconEncoding.GZIP)
+    Assert.assertEquals(body, gunzip(gzip.encodedCopy(body)))
+
+    val deflate = BeaconEncoder(BeaconEncoding.DEFLATE)
+    Assert.assertEquals(body, inflate(deflate.encodedCopy(body)))
+
+    val dictionary = BeaconEncoder(BeaconEncoding.DEFLATE_WITH_DICTIONARY)
+    Assert.assertEquals(body, inflate(dictionary.encodedCopy(body), BeaconEncoder.DICTIONARY))
+
+    listOf(identity, gzip, deflate, dictionary).forEach { it.release() }
+  }
+
+  @Test
+  fun testReusesEncoderForManyBeacons() {
+    val encoder = BeaconEncoder(BeaconEncoding.DEFLATE_WITH_DICTIONARY)
+    val big = "{\"events\":[" + (0 until 5_000).joinToString(",") { "{\"e\":\"hb$it\"}" } + "]}"
+    for (body in listOf(typicalHlsView[0], big, typicalHlsView[1])) {
+      Assert.assertEquals(body, inflate(encoder.encodedCopy(body), BeaconEncoder.DICTIONARY))
+    }
+    encoder.release()
+  }
+
+  @Test
+  fun testTypicalHlsViewIsMuchSmaller() {
+    val bytesByEncoding = BeaconEncoding.values().associateWith { encoding ->
+      val encoder = BeaconEncoder(encoding)
+      var bytes = 0L
+      typicalHlsView.forEach {
+        encoder.encode(it)
+        bytes += encoder.size
+      }
+      encoder.release()
+      bytes
+    }
+
+    val plainBytes = bytesByEncoding.getValue(BeaconEncoding.IDENTITY)
+    for (encoding in listOf(BeaconEncoding.GZIP, BeaconEncoding.DEFLATE)) {
+      val bytes = bytesByEncoding.getValue(encoding)
+      Assert.assertTrue(
+        "$encoding should save at least 2/3 of the bytes, was $bytes of $plainBytes",
+        bytes < plainBytes / 3
+      )
+    }
+    Assert.assertTrue(
+      "the dictionary should help",
+      bytesByEncoding.getValue(BeaconEncoding.DEFLATE_WITH_DICTIONARY)
+          < bytesByEncoding.getValue(BeaconEncoding.DEFLATE)
+    )
+  }
+}
@@ -0,0 +1,151 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import com.mux.stats.media3.test.tools.testdoubles.FakeNetwork
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import java.util.Hashtable
+
+class CoalescingBeaconTransportTests : AbsRobolectricTest() {
+
+  /**
+   * Holds onto each POST until the test completes it
+   */
+  private class HoldingNetwork : FakeNetwork() {
+    val bodies = ArrayList<String?>()
+    val completions = ArrayList<INetworkRequest.IMuxNetworkRequestsCompletion?>()
+
+    override fun postWithCompletion(
+      domain: String?,
+      envKey: String?,
+      body: String?,
+      headers: Hashtable<String, String>?,
+      completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+    ) {
+      bodies += body
+      completions += completion
+    }
+  }
+
+  private fun beacon(vararg eventNames: String): String {
+    val events = JSONArray()
+    eventNames.forEach { events.put(JSONObject().put("e", it)) }
+    return JSONObject()
+      .put("metadata", JSONObject().put("batch", eventNames.first()))
+      .put("events", events)
+      .toString()
+  }
+
+  private fun eventNamesOf(body: String?): List<String> {
+    val events = JSONObject(body!!).getJSONArray("events")
+    return (0 until events.length()).map { events.getJSONObject(it).getString("e") }
+  }
+
+  @Test
+  fun testCoalescesBatchesWhileInFlight() {
+    val network = HoldingNetwork()
+    val transport = CoalescingBeaconTransport(network) { 0 }
+    val results = ArrayList<Pair<String, Boolean>>()
+
+    transport.postWithCompletion("litix.io", "env", beacon("viewstart"), null) {
+      results += "first" to it
+    }
+    transport.postWithCompletion("litix.io", "env", beacon("play", "playing"), null) {
+      results += "second" to it
+    }
+    transport.postWithCompletion("litix.io", "env", beacon("pause"), null) {
+      results += "third" to it
+    }
+
+    Assert.assertEquals("only one POST should be in flight", 1, network.bodies.size)
+
+    network.completions[0]!!.onComplete(true)
+    Assert.assertEquals("waiting batches should be sent together", 2, network.bodies.size)
+    Assert.assertEquals(listOf("play", "playing", "pause"), eventNamesOf(network.bodies[1]))
+    Assert.assertEquals(
+      "the newest metadata should be kept",
+      "pause",
+      JSONObject(network.bodies[1]!!).getJSONObject("metadata").getString("batch")
+    )
+
+    network.completions[1]!!.onComplete(false)
+    Assert.assertEquals(
+      listOf("first" to true, "second" to false, "third" to false),
+      results
+    )
+  }
+
+  @Test
+  fun testDifferentEnvKeysAreNotCoalesced() {
+    val network = HoldingNetwork()
+    val transport = CoalescingBeaconTransport(network) { 0 }
+
+    transport.postWithCompletion("litix.io", "env1", beacon("viewstart"), null, null)
+    transport.postWithCompletion("litix.io", "env2", beacon("viewstart"), null, null)
+
+    Assert.assertEquals(2, network.bodies.size)
+  }
+
+  @Test
+  fun testDifferentHeadersAreNotCoalesced() {
+    val network = HoldingNetwork()
+    val transport = CoalescingBeaconTransport(network) { 0 }
+    val gzip = Hashtable(mapOf("Content-Encoding" to "gzip"))
+
+    transport.postWithCompletion("litix.io", "env", beacon("viewstart"), null, null)
+    transport.postWithCompletion("litix.io", "env", beacon("play"), null, null)
+    transport.postWithCompletion("litix.io", "env", beacon("pause"), gzip, null)
+
+    Assert.assertEquals("different headers should get their own POST", 2, network.bodies.size)
+    Assert.assertEquals(listOf("pause"), eventNamesOf(network.bodies[1]))
+    network.completions[0]!!.onComplete(true)
+    Assert.assertEquals(listOf("play"), eventNamesOf(network.bodies[2]))
+  }
+
+  @Test
+  fun testLanesAreRemovedWhenIdle() {
+    val network = HoldingNetwork()
+    val transport = CoalescingBeaconTransport(network) { 0 }
+
+    transport.postWithCompletion("litix.io", "env1", beacon("viewstart"), null, null)
+    transport.postWithCompletion("litix.io", "env2", beacon("viewstart"), null, null)
+    transport.postWithCompletion("litix.io", "env2", beacon("play"), null, null)
+    Assert.assertEquals(2, transport.laneCount)
+
+    network.completions[0]!!.onComplete(true)
+    network.completions[1]!!.onComplete(true)
+    Assert.assertEquals("env2 still has a POST in flight", 1, transport.laneCount)
+    network.completions[2]!!.onComplete(false)
+    Assert.assertEquals(0, transport.laneCount)
+  }
+
+  @Test
+  fun testDoesNotWaitForStuckRequests() {
+    val network = HoldingNetwork()
+    var nowMs = 0L
+    val transport = CoalescingBeaconTransport(network) { nowMs }
+
+    transport.postWithCompletion("litix.io", "env", beacon("viewstart"), null, null)
+    nowMs += 60_000
+    transport.postWithCompletion("litix.io", "env", beacon("play"), null, null)
+
+    Assert.assertEquals("a stuck POST shouldn't hold up others", 2, network.bodies.size)
+  }
+
+  @Test
+  fun testSendsUnmergeableBatchesSeparately() {
+    val network = HoldingNetwork()
+    val transport = CoalescingBeaconTransport(network) { 0 }
+
+    transport.postWithCompletion("litix.io", "env", beacon("viewstart"), null, null)
+    transport.postWithCompletion("litix.io", "env", "not json", null, null)
+    transport.postWithCompletion("litix.io", "env", beacon("play"), null, null)
+
+    network.completions[0]!!.onComplete(true)
+    Assert.assertEquals("not json", network.bodies[1])
+    network.completions[1]!!.onComplete(true)
+    Assert.assertEquals(listOf("play"), eventNamesOf(network.bodies[2]))
+  }
+}
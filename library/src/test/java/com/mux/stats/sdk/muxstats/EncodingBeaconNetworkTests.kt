@@ -0,0 +1,85 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import com.mux.stats.media3.test.tools.testdoubles.FakeNetwork
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.util.zip.GZIPInputStream
+
+class EncodingBeaconNetworkTests : AbsRobolectricTest() {
+
+  private val scope = CoroutineScope(Dispatchers.Unconfined)
+
+  @Test
+  fun testGzippedBeaconsGoToThePoster() {
+    var posted: String? = null
+    var postedHeaders: Map<String, List<String>>? = null
+    val network = EncodingBeaconNetwork(
+      delegate = FakeNetwork(),
+      poster = { _, headers, body, size ->
+        postedHeaders = headers
+        posted = GZIPInputStream(ByteArrayInputStream(body, 0, size)).readBytes()
+          .toString(Charsets.UTF_8)
+        202
+      },
+      scope = scope,
+    ) { BeaconEncoding.GZIP }
+    val results = ArrayList<Boolean>()
+
+    network.postWithCompletion("litix.io", "env", "{\"events\":[]}", null) { results += it }
+
+    Assert.assertEquals("{\"events\":[]}", posted)
+    Assert.assertEquals(listOf("gzip"), postedHeaders?.get("Content-Encoding"))
+    Assert.assertEquals(listOf(true), results)
+  }
+
+  @Test
+  fun testDictionaryBeaconsNameTheirDictionary() {
+    var postedHeaders: Map<String, List<String>>? = null
+    val network = EncodingBeaconNetwork(
+      delegate = FakeNetwork(),
+      poster = { _, headers, _, _ ->
+        postedHeaders = headers
+        202
+      },
+      scope = scope,
+    ) { BeaconEncoding.DEFLATE_WITH_DICTIONARY }
+
+    network.postWithCompletion("litix.io", "env", "{\"events\":[]}", null) { }
+
+    Assert.assertEquals(listOf("deflate"), postedHeaders?.get("Content-Encoding"))
+    Assert.assertEquals(
+      listOf(BeaconEncoder.DICTIONARY_ID),
+      postedHeaders?.get(BeaconEncoder.DICTIONARY_HEADER)
+    )
+  }
+
+  @Test
+  fun testReportsRejectedBeacons() {
+    val network = EncodingBeaconNetwork(FakeNetwork(), { _, _, _, _ -> 400 }, scope) {
+      BeaconEncoding.GZIP
+    }
+    val results = ArrayList<BeaconPostResult>()
+
+    network.postWithResult("litix.io", "env", "{\"events\":[]}", null) { results += it }
+
+    Assert.assertEquals(listOf(BeaconPostResult.REJECTED), results)
+  }
+
+  @Test
+  fun testCompletesWhenThePosterThrows() {
+    val network = EncodingBeaconNetwork(
+      FakeNetwork(),
+      { _, _, _, _ -> throw IllegalStateException("no network stack") },
+      scope
+    ) { BeaconEncoding.GZIP }
+    val results = ArrayList<Boolean>()
+
+    network.postWithCompletion("litix.io", "env", "{\"events\":[]}", null) { results += it }
+
+    Assert.assertEquals(listOf(false), results)
+  }
+}
@@ -0,0 +1,75 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.media3.common.MediaItem
+import androidx.media3.common.Player
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Assert
+import org.junit.Test
+
+class MediaItemFollowerTests : AbsRobolectricTest() {
+
+  private val item1 = MediaItem.Builder().setMediaId("1").setUri("https://cdn/1.m3u8").build()
+  private val item2 = MediaItem.Builder().setMediaId("2").setUri("https://cdn/2.m3u8").build()
+
+  @Test
+  fun testNewViewForEachNewItem() {
+    val mockPlayer = mockk<Player>(relaxed = true) {
+      every { currentMediaItem } returns item1
+    }
+    val newItems = mutableListOf<MediaItem>()
+    val follower = MediaItemFollower(mockPlayer) { newItems += it }
+
+    follower.start()
+    verify { mockPlayer.addListener(follower) }
+
+    follower.onMediaItemTransition(item1, Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED)
+    Assert.assertEquals("the current item is part of the current view", 0, newItems.size)
+
+    follower.onMediaItemTransition(item2, Player.MEDIA_ITEM_TRANSITION_REASON_AUTO)
+    follower.onMediaItemTransition(item2, Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT)
+    follower.onMediaItemTransition(null, Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED)
+    follower.onMediaItemTransition(
+      item2.buildUpon().build(),
+      Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED
+    )
+    Assert.assertEquals("only item2 is a new item", listOf(item2), newItems)
+
+    follower.onMediaItemTransition(item1, Player.MEDIA_ITEM_TRANSITION_REASON_SEEK)
+    Assert.assertEquals(listOf(item2, item1), newItems)
+  }
+
+  @Test
+  fun testFirstItemBelongsToCurrentView() {
+    val mockPlayer = mockk<Player>(relaxed = true) {
+      every { currentMediaItem } returns null
+    }
+    val newItems = mutableListOf<MediaItem>()
+    val follower = MediaItemFollower(mockPlayer) { newItems += it }
+
+    follower.start()
+    follower.onMediaItemTransition(item1, Player.MEDIA_ITEM_TRANSITION_REASON_PLAYLIST_CHANGED)
+    Assert.assertEquals(0, newItems.size)
+
+    follower.onMediaItemTransition(item2, Player.MEDIA_ITEM_TRANSITION_REASON_AUTO)
+    Assert.assertEquals(listOf(item2), newItems)
+  }
+
+  @Test
+  fun testStopFollowing() {
+    val mockPlayer = mockk<Player>(relaxed = true) {
+      every { currentMediaItem } returns item1
+    }
+    val newItems = mutableListOf<MediaItem>()
+    val follower = MediaItemFollower(mockPlayer) { newItems += it }
+
+    follower.start()
+    follower.stop()
+    verify { mockPlayer.removeListener(follower) }
+
+    follower.onMediaItemTransition(item2, Player.MEDIA_ITEM_TRANSITION_REASON_AUTO)
+    Assert.assertEquals(0, newItems.size)
+  }
+}
@@ -0,0 +1,278 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import com.mux.stats.media3.test.tools.testdoubles.FakeNetwork
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.Hashtable
+import java.util.concurrent.Delayed
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+class OfflineBeaconQueueTests : AbsRobolectricTest() {
+
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private lateinit var executor: ScheduledThreadPoolExecutor
+
+  /**
+   * Succeeds or fails every POST right away, depending on [online]
+   */
+  private class SwitchableNetwork : FakeNetwork() {
+    @Volatile
+    var online = true
+    val sent = ArrayList<Pair<String?, String?>>()
+    val sentHeaders = ArrayList<Hashtable<String, String>?>()
+
+    override fun postWithCompletion(
+      domain: String?,
+      envKey: String?,
+      body: String?,
+      headers: Hashtable<String, String>?,
+      completion: INetworkRequest.IMuxNetworkRequestsCompletion?
+    ) {
+      if (online) {
+        synchronized(sent) {
+          sent += envKey to body
+          sentHeaders += headers
+        }
+      }
+      completion?.onComplete(online)
+    }
+  }
+
+  /**
+   * Answers every POST with the next of [results], repeating the last one
+   */
+  private class ScriptedNetwork(vararg results: BeaconPostResult) : FakeNetwork(),
+    BeaconPostNetwork {
+    private val results = ArrayDeque(results.toList())
+    val posted = ArrayList<String?>()
+
+    override fun postWithResult(
+      domain: String?,
+      envKey: String?,
+      body: String?,
+      headers: Hashtable<String, String>?,
+      onResult: (BeaconPostResult) -> Unit
+    ) {
+      val result = synchronized(posted) {
+        posted += body
+        if (results.size > 1) results.removeFirst() else results.first()
+      }
+      onResult(result)
+    }
+  }
+
+  @Before
+  fun setUpExecutor() {
+    executor = newExecutor()
+  }
+
+  @After
+  fun tearDownExecutor() {
+    executor.shutdownNow()
+  }
+
+  private fun newExecutor() = ScheduledThreadPoolExecutor(1).apply { removeOnCancelPolicy = true }
+
+  private fun awaitQueue() {
+    // the queue's tasks can queue more tasks, so wait until only delayed retries are left
+    do {
+      executor.submit { }.get()
+    } while (executor.queue.any { (it as Delayed).getDelay(TimeUnit.MILLISECONDS) <= 0 })
+  }
+
+  private fun segmentFiles() = tempFolder.root.listFiles()?.filter { it.name.endsWith(".seg") }
+    ?: emptyList()
+
+  @Test
+  fun testSavesFailedBeaconsAndSendsThemLater() {
+    val network = SwitchableNetwork().apply { online = false }
+    val queue = OfflineBeaconQueue(tempFolder.root, network, executor = executor)
+    val results = ArrayList<Boolean>()
+    val headers = Hashtable<String, String>().apply { put("Content-Type", "application/json") }
+
+    queue.postWithCompletion("litix.io", "env", "{\"events\":[1]}", headers) { results += it }
+    queue.postWithCompletion("litix.io", "env", "{\"events\":[2]}", null) { results += it }
+    awaitQueue()
+
+    Assert.assertEquals("saved beacons are reported as sent", listOf(true, true), results)
+    Assert.assertEquals(1, segmentFiles().size)
+
+    network.online = true
+    queue.onNetworkAvailable()
+    awaitQueue()
+
+    Assert.assertEquals(
+      listOf("env" to "{\"events\":[1]}", "env" to "{\"events\":[2]}"),
+      network.sent
+    )
+    Assert.assertEquals(headers, network.sentHeaders[0])
+    Assert.assertNull(network.sentHeaders[1])
+  }
+
+  @Test
+  fun testSavedBeaconsSurviveRestart() {
+    val network = SwitchableNetwork().apply { online = false }
+    val firstQueue = OfflineBeaconQueue(tempFolder.root, network, executor = executor)
+    firstQueue.postWithCompletion("litix.io", "env", "{\"events\":[1]}", null, null)
+    firstQueue.close()
+    executor.awaitTermination(5, TimeUnit.SECONDS)
+
+    executor = newExecutor()
+    network.online = true
+    val secondQueue = OfflineBeaconQueue(tempFolder.root, network, executor = executor)
+    secondQueue.onNetworkAvailable()
+    awaitQueue()
+
+    Assert.assertEquals(listOf("env" to "{\"events\":[1]}"), network.sent)
+    Assert.assertTrue("sent segments should be deleted", segmentFiles().isEmpty())
+  }
+
+  @Test
+  fun testDeletesSegmentsOnceSent() {
+    val network = SwitchableNetwork().apply { online = false }
+    val queue = OfflineBeaconQueue(
+      tempFolder.root,
+      network,
+      segmentBytes = 96,
+      executor = executor
+    )
+    repeat(4) {
+      queue.postWithCompletion("litix.io", "env", "{\"events\":[$it]}", null, null)
+    }
+    awaitQueue()
+    Assert.assertTrue("small segments should fill up", segmentFiles().size > 1)
+
+    network.online = true
+    queue.onNetworkAvailable()
+    awaitQueue()
+
+    Assert.assertEquals(4, network.sent.size)
+    Assert.assertTrue("only the segment being written should be left", segmentFiles().size <= 1)
+  }
+
+  @Test
+  fun testStaysWithinDiskBudget() {
+    val network = SwitchableNetwork().apply { online = false }
+    val queue = OfflineBeaconQueue(
+      tempFolder.root,
+      network,
+      maxDiskBytes = 192,
+      segmentBytes = 96,
+      executor = executor
+    )
+    val results = ArrayList<Boolean>()
+
+    repeat(10) {
+      queue.postWithCompletion("litix.io", "env", "{\"events\":[$it]}", null) { results += it }
+    }
+    awaitQueue()
+
+    Assert.assertTrue("some beacons should be saved", results.first())
+    Assert.assertFalse("beacons past the budget aren't saved", results.last())
+    Assert.assertTrue(segmentFiles().sumOf { it.length() } <= 192)
+  }
+
+  @Test
+  fun testDoesNotSaveRejectedBeacons() {
+    val network = ScriptedNetwork(BeaconPostResult.REJECTED)
+    val queue = OfflineBeaconQueue(tempFolder.root, network, executor = executor)
+    val results = ArrayList<Boolean>()
+
+    queue.postWithCompletion("litix.io", "env", "{\"events\":[1]}", null) { results += it }
+    awaitQueue()
+
+    Assert.assertEquals(listOf(false), results)
+    Assert.assertTrue("rejected beacons shouldn't be saved", segmentFiles().isEmpty())
+  }
+
+  @Test
+  fun testDropsSavedBeaconsThatAreAlwaysRejected() {
+    // Offline at first, then the server rejects the first batch every time
+    var online = false
+    val posted = ArrayList<String?>()
+    val network = object : FakeNetwork(), BeaconPostNetwork {
+      override fun postWithResult(
+        domain: String?,
+        envKey: String?,
+        body: String?,
+        headers: Hashtable<String, String>?,
+        onResult: (BeaconPostResult) -> Unit
+      ) {
+        posted += body
+        onResult(
+          when {
+            !online -> BeaconPostResult.FAILED
+            body == "bad" -> BeaconPostResult.REJECTED
+            else -> BeaconPostResult.SENT
+          }
+        )
+      }
+    }
+    val queue = OfflineBeaconQueue(tempFolder.root, network, executor = executor)
+    queue.postWithCompletion("litix.io", "env", "bad", null, null)
+    queue.postWithCompletion("litix.io", "env", "good", null, null)
+    awaitQueue()
+
+    online = true
+    repeat(3) {
+      queue.onNetworkAvailable()
+      awaitQueue()
+    }
+
+    Assert.assertEquals(
+      "the rejected batch should be tried once, and not hold up the next one",
+      listOf("bad", "good", "bad", "good"),
+      posted
+    )
+  }
+
+  @Test
+  fun testDropsSavedBeaconsAfterTooManyAttempts() {
+    val network = ScriptedNetwork(BeaconPostResult.FAILED)
+    val queue = OfflineBeaconQueue(
+      tempFolder.root,
+      network,
+      maxAttempts = 3,
+      executor = executor
+    )
+    queue.postWithCompletion("litix.io", "env", "{\"events\":[1]}", null, null)
+    awaitQueue()
+
+    repeat(5) {
+      queue.onNetworkAvailable()
+      awaitQueue()
+    }
+
+    // Once when it was first sent, then twice more from the queue
+    Assert.assertEquals(3, network.posted.size)
+  }
+
+  @Test
+  fun testDropsSavedBeaconsThatAreTooOld() {
+    var nowMs = 1_000_000L
+    val network = ScriptedNetwork(BeaconPostResult.FAILED, BeaconPostResult.SENT)
+    val queue = OfflineBeaconQueue(
+      tempFolder.root,
+      network,
+      maxAgeMs = 60_000,
+      wallClock = { nowMs },
+      executor = executor
+    )
+    queue.postWithCompletion("litix.io", "env", "{\"events\":[1]}", null, null)
+    awaitQueue()
+
+    nowMs += 120_000
+    queue.onNetworkAvailable()
+    awaitQueue()
+
+    Assert.assertEquals("old beacons shouldn't be sent again", 1, network.posted.size)
+  }
+}
@@ -0,0 +1,117 @@
+package com.mux.stats.sdk.muxstats
+
+import android.os.Looper
+import androidx.media3.common.Player
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Assert
+import org.junit.Test
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
+
+class PlayheadPollSchedulerTests : AbsRobolectricTest() {
+
+  @Test
+  fun testSharedSchedulerPollsEachTask() {
+    val scheduler = PlayheadPollScheduler.forLooper(Looper.getMainLooper())
+    var fastPolls = 0
+    var slowPolls = 0
+    val fastTask = object : PlayheadPollScheduler.Task {
+      override fun poll(): Long = 100L.also { fastPolls++ }
+    }
+    val slowTask = object : PlayheadPollScheduler.Task {
+      override fun poll(): Long = 1_000L.also { slowPolls++ }
+    }
+
+    scheduler.schedule(fastTask, 0)
+    scheduler.schedule(slowTask, 0)
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(2_050))
+
+    Assert.assertEquals(21, fastPolls)
+    Assert.assertEquals(3, slowPolls)
+    Assert.assertTrue(
+      "wakeups should be shared between tasks",
+      scheduler.wakeupRate.perSecond() > 0
+    )
+
+    scheduler.cancel(fastTask)
+    scheduler.cancel(slowTask)
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(5))
+    Assert.assertEquals("cancelled tasks shouldn't poll", 21, fastPolls)
+    Assert.assertEquals("cancelled tasks shouldn't poll", 3, slowPolls)
+    Assert.assertEquals(
+      "scheduler should be forgotten when its last task is cancelled",
+      0,
+      PlayheadPollScheduler.schedulerCount()
+    )
+  }
+
+  @Test
+  fun testAdaptiveSamplePollsRightAway() {
+    val mockPlayer = mockk<Player> {
+      every { applicationLooper } returns Looper.getMainLooper()
+      every { currentPosition } returns 1_000
+      every { playbackState } returns Player.STATE_READY
+      every { isPlaying } returns false
+    }
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true) {
+      every { muxPlayerState } returns MuxPlayerState.PAUSED
+    }
+    val tracker = PlayheadTracker(mockPlayer, mockCollector, PlayheadTrackingMode.ADAPTIVE)
+
+    tracker.start()
+    tracker.sample()
+
+    // Without running the looper at all
+    verify(exactly = 2) { mockPlayer.currentPosition }
+    verify(exactly = 2) { mockCollector.playbackPositionMills = 1_000 }
+
+    tracker.stop("test over")
+    Assert.assertEquals(0, PlayheadPollScheduler.schedulerCount())
+  }
+
+  @Test
+  fun testAdaptiveTrackingBacksOffWhilePaused() {
+    val mockPlayer = mockk<Player> {
+      every { applicationLooper } returns Looper.getMainLooper()
+      every { currentPosition } returns 1_000
+      every { playbackState } returns Player.STATE_READY
+      every { isPlaying } returns false
+    }
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true) {
+      every { muxPlayerState } returns MuxPlayerState.PAUSED
+    }
+    val tracker = PlayheadTracker(mockPlayer, mockCollector, PlayheadTrackingMode.ADAPTIVE)
+
+    tracker.start()
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(30_050))
+    tracker.stop("test over")
+
+    // Once at start, then every ADAPTIVE_IDLE_POLL_MS
+    val expectedPolls = 1 + 30_000 / PlayheadTracker.ADAPTIVE_IDLE_POLL_MS.toInt()
+    verify(exactly = expectedPolls) { mockPlayer.currentPosition }
+  }
+
+  @Test
+  fun testAdaptiveTrackingTightensWhileBuffering() {
+    val mockPlayer = mockk<Player> {
+      every { applicationLooper } returns Looper.getMainLooper()
+      every { currentPosition } returns 1_000
+      every { playbackState } returns Player.STATE_BUFFERING
+      every { isPlaying } returns false
+    }
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true) {
+      every { muxPlayerState } returns MuxPlayerState.REBUFFERING
+    }
+    val tracker = PlayheadTracker(mockPlayer, mockCollector, PlayheadTrackingMode.ADAPTIVE)
+
+    tracker.start()
+    shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(1_050))
+    tracker.stop("test over")
+
+    val expectedPolls = 1 + 1_000 / PlayheadTracker.ADAPTIVE_SEEKING_POLL_MS.toInt()
+    verify(exactly = expectedPolls) { mockPlayer.currentPosition }
+  }
+}
@@ -0,0 +1,100 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Assert
+import org.junit.Test
+
+class PlayheadTrackerTests : AbsRobolectricTest() {
+
+  @Test
+  fun testEventDrivenComputesPositionBetweenSamples() {
+    var nowMs = 10_000L
+    var playerPositionMs = 5_000L
+    var playing = true
+    val mockPlayer = mockk<Player> {
+      every { currentPosition } answers { playerPositionMs }
+      every { isPlaying } answers { playing }
+      every { playbackParameters } returns PlaybackParameters(2F)
+    }
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true)
+    val tracker = PlayheadTracker(
+      mockPlayer,
+      mockCollector,
+      PlayheadTrackingMode.EVENT_DRIVEN
+    ) { nowMs }
+
+    tracker.start()
+    verify { mockCollector.playbackPositionMills = 5_000 }
+
+    nowMs += 1_000
+    Assert.assertEquals("position should advance at 2x speed", 7_000, tracker.positionMs)
+
+    playerPositionMs = 7_100
+    playing = false
+    tracker.sample()
+    verify { mockCollector.playbackPositionMills = 7_100 }
+
+    nowMs += 5_000
+    Assert.assertEquals("position shouldn't move while not playing", 7_100, tracker.positionMs)
+  }
+
+  @Test
+  fun testEventDrivenOnlyComputesPositionForBeacons() {
+    var nowMs = 10_000L
+    val mockPlayer = mockk<Player> {
+      every { currentPosition } returns 5_000L
+      every { isPlaying } returns true
+      every { playbackParameters } returns PlaybackParameters.DEFAULT
+    }
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true)
+    val tracker = PlayheadTracker(
+      mockPlayer,
+      mockCollector,
+      PlayheadTrackingMode.EVENT_DRIVEN
+    ) { nowMs }
+
+    tracker.start()
+    nowMs += 3_000
+    tracker.onBeacon()
+
+    verify { mockCollector.playbackPositionMills = 8_000 }
+    verify(exactly = 1) { mockPlayer.currentPosition }
+    verify(exactly = 0) {
+      mockCollector.playerWatcher = ofType<MuxStateCollector.PlayerWatcher<*>>()
+    }
+  }
+
+  @Test
+  fun testEventDrivenDoesNotSampleBeforeStart() {
+    val mockPlayer = mockk<Player>(relaxed = true)
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true)
+    val tracker = PlayheadTracker(mockPlayer, mockCollector, PlayheadTrackingMode.EVENT_DRIVEN)
+
+    tracker.sample()
+
+    verify(exactly = 0) { mockPlayer.currentPosition }
+  }
+
+  @Test
+  fun testPollingModeDoesNotSample() {
+    val mockPlayer = mockk<Player>(relaxed = true)
+    val mockCollector = mockk<MuxStateCollector>(relaxed = true) {
+      every { playbackPositionMills } returns 1_234
+    }
+    val tracker = PlayheadTracker(mockPlayer, mockCollector, PlayheadTrackingMode.POLLING)
+
+    tracker.sample()
+
+    verify(exactly = 0) { mockPlayer.currentPosition }
+    Assert.assertEquals(
+      "polling mode reports the polled position",
+      1_234,
+      tracker.positionMs
+    )
+  }
+}
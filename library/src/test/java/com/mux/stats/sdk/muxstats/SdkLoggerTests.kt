@@ -0,0 +1,95 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.media3.common.Player
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import com.mux.stats.sdk.core.util.MuxLogger
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+
+class SdkLoggerTests : AbsRobolectricTest() {
+
+  private val instanceLoggers = ArrayList<InstanceLogger>()
+
+  @After
+  fun releaseInstances() {
+    instanceLoggers.forEach { SdkLogger.releaseInstance(it) }
+  }
+
+  @Test
+  fun testMessagesNotBuiltWhenLoggingIsOff() {
+    var built = 0
+    val quiet = forInstance(MuxDataSdk.LogcatLevel.NONE)
+    quiet.d("SdkLoggerTests") { built++; "message" }
+    Assert.assertEquals("messages shouldn't be built at NONE", 0, built)
+
+    val debug = forInstance(MuxDataSdk.LogcatLevel.DEBUG)
+    debug.d("SdkLoggerTests") { built++; "message" }
+    Assert.assertEquals("messages should be built at DEBUG", 1, built)
+  }
+
+  @Test
+  fun testWarningsAreLoggedAtAnyLevel() {
+    var built = 0
+    forInstance(MuxDataSdk.LogcatLevel.NONE).w("SdkLoggerTests") { built++; "message" }
+    SdkLogger.w("SdkLoggerTests") { built++; "message" }
+    Assert.assertEquals("warnings should be logged at NONE", 2, built)
+  }
+
+  @Test
+  fun testEachInstanceKeepsItsOwnLevel() {
+    val debug = forInstance(MuxDataSdk.LogcatLevel.DEBUG)
+    // Created last, but it shouldn't change the level of the first instance
+    val quiet = forInstance(MuxDataSdk.LogcatLevel.NONE)
+
+    Assert.assertTrue("the first instance should still log", debug.debugEnabled)
+    Assert.assertFalse("the second instance shouldn't log", quiet.debugEnabled)
+    Assert.assertTrue("shared code should log while any instance does", SdkLogger.debugEnabled)
+
+    SdkLogger.releaseInstance(debug)
+    instanceLoggers -= debug
+    Assert.assertFalse(
+      "shared code should stop logging with the last instance that logs",
+      SdkLogger.debugEnabled
+    )
+  }
+
+  @Test
+  fun testStateHandlersDoNotBuildMessagesWhenLoggingIsOff() {
+    val collector = mockk<MuxStateCollector>(relaxed = true) {
+      every { muxPlayerState } returns MuxPlayerState.PLAYING
+    }
+    val player = mockk<Player>(relaxed = true) {
+      every { playWhenReady } returns true
+      every { playbackState } returns Player.STATE_READY
+    }
+    fun runHandlers(logger: InstanceLogger) {
+      catchUpPlayState(player, collector, logger)
+      collector.handlePlayWhenReady(true, Player.STATE_READY, logger)
+      collector.handleExoPlaybackState(Player.STATE_BUFFERING, true, logger)
+      collector.handleExoPlaybackState(Player.STATE_READY, true, logger)
+    }
+
+    mockkStatic(MuxLogger::class)
+    try {
+      runHandlers(forInstance(MuxDataSdk.LogcatLevel.NONE))
+      verify(exactly = 0) { MuxLogger.d(any(), any()) }
+      verify(exactly = 0) { MuxLogger.w(any(), any()) }
+
+      // Make sure the handlers do have messages to skip
+      runHandlers(forInstance(MuxDataSdk.LogcatLevel.DEBUG))
+      verify(atLeast = 1) { MuxLogger.d(any(), any()) }
+    } finally {
+      unmockkStatic(MuxLogger::class)
+    }
+  }
+
+  private fun forInstance(logLevel: MuxDataSdk.LogcatLevel): InstanceLogger {
+    return SdkLogger.forInstance(logLevel).also { instanceLoggers += it }
+  }
+}
@@ -0,0 +1,32 @@
+package com.mux.stats.sdk.muxstats
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class SharedDeviceTests : AbsRobolectricTest() {
+
+  @Test
+  fun testPrewarmCreatesOneDevice() {
+    val context = ApplicationProvider.getApplicationContext<Context>()
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val devices = executor.invokeAll(List(8) { Callable { SharedDevice.prewarm(context) } })
+        .map { it.get(5, TimeUnit.SECONDS) }
+
+      Assert.assertTrue(
+        "every caller should get the same device",
+        devices.all { it === devices[0] }
+      )
+      Assert.assertSame(devices[0], SharedDevice.prewarmed)
+      Assert.assertSame("prewarming again does nothing", devices[0], SharedDevice.prewarm(context))
+    } finally {
+      executor.shutdown()
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.mux.stats.sdk.muxstats
+
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.TrackGroup
+import androidx.media3.common.Tracks
+import com.mux.stats.media3.test.tools.AbsRobolectricTest
+import org.junit.Assert
+import org.junit.Test
+
+class TrackAnalyzerTests : AbsRobolectricTest() {
+
+  private fun videoFormat(width: Int, height: Int, bitrate: Int): Format {
+    return Format.Builder()
+      .setSampleMimeType(MimeTypes.VIDEO_H264)
+      .setCodecs("avc1.64001f")
+      .setWidth(width)
+      .setHeight(height)
+      .setAverageBitrate(bitrate)
+      .setPeakBitrate(bitrate)
+      .setFrameRate(30F)
+      .build()
+  }
+
+  private fun audioFormat(language: String): Format {
+    return Format.Builder()
+      .setSampleMimeType(MimeTypes.AUDIO_AAC)
+      .setLanguage(language)
+      .build()
+  }
+
+  private fun group(vararg formats: Format): Tracks.Group {
+    val trackGroup = TrackGroup(*formats)
+    return Tracks.Group(
+      trackGroup,
+      false,
+      IntArray(formats.size) { C.FORMAT_HANDLED },
+      BooleanArray(formats.size)
+    )
+  }
+
+  private fun ladder() = group(
+    videoFormat(640, 360, 800_000),
+    videoFormat(1280, 720, 2_500_000),
+  )
+
+  @Test
+  fun testFindsVideoAndRenditions() {
+    val analyzer = TrackAnalyzer()
+    val tracks = Tracks(listOf(group(audioFormat("en")), ladder()))
+
+    analyzer.analyze(tracks)
+
+    Assert.assertTrue("should find video", analyzer.hasVideo)
+    Assert.assertTrue("agrees with hasAtLeastOneVideoTrack", tracks.hasAtLeastOneVideoTrack())
+    Assert.assertEquals("one video group", 1, analyzer.videoGroups.size)
+    Assert.assertTrue("renditions are new", analyzer.renditionsChanged)
+    Assert.assertEquals(2, analyzer.renditionList.size)
+    val rendition = analyzer.renditionList[1]
+    Assert.assertEquals(1280, rendition.width)
+    Assert.assertEquals(720, rendition.height)
+    Assert.assertEquals(2_500_000L, rendition.bitrate)
+    Assert.assertEquals("avc1.64001f", rendition.codec)
+    Assert.assertEquals("1280_720_2500000_avc1.64001f_30.0", rendition.name)
+  }
+
+  @Test
+  fun testAudioOnly() {
+    val analyzer = TrackAnalyzer()
+    val tracks = Tracks(listOf(group(audioFormat("en")), group(audioFormat("fr"))))
+
+    analyzer.analyze(tracks)
+
+    Assert.assertFalse("no video", analyzer.hasVideo)
+    Assert.assertFalse("agrees with hasAtLeastOneVideoTrack", tracks.hasAtLeastOneVideoTrack())
+    Assert.assertTrue("no video groups", analyzer.videoGroups.isEmpty())
+    Assert.assertTrue("no renditions", analyzer.renditionList.isEmpty())
+    Assert.assertFalse("empty ladder didn't change", analyzer.renditionsChanged)
+  }
+
+  @Test
+  fun testReusesRenditionsWhenLadderIsUnchanged() {
+    val analyzer = TrackAnalyzer()
+    analyzer.analyze(Tracks(listOf(ladder(), group(audioFormat("en")))))
+    val firstList = analyzer.renditionList
+
+    // eg, the user picked a different audio track
+    analyzer.analyze(Tracks(listOf(ladder(), group(audioFormat("fr")))))
+
+    Assert.assertFalse("ladder didn't change", analyzer.renditionsChanged)
+    Assert.assertSame("rendition list should be reused", firstList, analyzer.renditionList)
+  }
+
+  @Test
+  fun testRebuildsRenditionsWhenLadderChanges() {
+    val analyzer = TrackAnalyzer()
+    analyzer.analyze(Tracks(listOf(ladder())))
+    val firstList = analyzer.renditionList
+
+    val biggerLadder = group(
+      videoFormat(640, 360, 800_000),
+      videoFormat(1280, 720, 2_500_000),
+      videoFormat(1920, 1080, 5_000_000),
+    )
+    analyzer.analyze(Tracks(listOf(biggerLadder)))
+    Assert.assertTrue("added a rendition", analyzer.renditionsChanged)
+    Assert.assertNotSame(firstList, analyzer.renditionList)
+    Assert.assertEquals(3, analyzer.renditionList.size)
+
+    val otherBitrate = group(
+      videoFormat(640, 360, 800_000),
+      videoFormat(1280, 720, 3_000_000),
+      videoFormat(1920, 1080, 5_000_000),
+    )
+    analyzer.analyze(Tracks(listOf(otherBitrate)))
+    Assert.assertTrue("changed a bitrate", analyzer.renditionsChanged)
+    Assert.assertEquals(3_000_000L, analyzer.renditionList[1].bitrate)
+  }
+}
@@ -0,0 +1,32 @@
+package com.mux.stats.sdk.muxstats;
+
+import java.util.zip.Deflater;
+
+/**
+ * Runs the SDK's internal beacon encoder, for benchmarks in other modules. This is Java because
+ * Kotlin only lets this module's own sources use internal classes.
+ *
+ * Like the encoder, this isn't thread-safe. Call {@link #release()} when you're done with it
+ */
+public final class BeaconEncoderRunner {
+
+  private final BeaconEncoder encoder;
+
+  public BeaconEncoderRunner(BeaconEncoding encoding) {
+    encoder = new BeaconEncoder(encoding, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Encodes a beacon body, the same way the SDK does before sending it
+   *
+   * @return The size of the encoded body, in bytes
+   */
+  public int encode(String body) {
+    encoder.encode(body);
+    return encoder.getSize();
+  }
+
+  public void release() {
+    encoder.release();
+  }
+}